@@ -0,0 +1,19 @@
+@echo off
+REM Builds an AppCDS archive for the JavaTest jar, see appcds.sh.
+REM   appcds.bat [jar] [archive]
+REM   java -XX:SharedArchiveFile=javatest.jsa -jar build\libs\JavaTest.jar
+setlocal
+
+set JAR=%~1
+if "%JAR%"=="" set JAR=build\libs\JavaTest.jar
+set JSA=%~2
+if "%JSA%"=="" set JSA=javatest.jsa
+
+if not exist "%JAR%" (
+    echo %JAR% not found: run compile.bat first
+    exit /b 1
+)
+
+java -XX:ArchiveClassesAtExit=%JSA% -Dlua.startup.cache=false -jar "%JAR%" --cds-train
+echo AppCDS archive written to %JSA%
+echo start with: java -XX:SharedArchiveFile=%JSA% -jar %JAR%
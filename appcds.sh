@@ -0,0 +1,22 @@
+#!/bin/sh
+# Builds an AppCDS archive for the JavaTest jar: one training run records the classes a boot
+# (and a first script) loads, later boots map them from the archive instead of parsing and
+# verifying them again. Rebuild the archive whenever the jar or the JDK changes; a stale archive
+# is rejected by the JVM with a warning and the app starts normally without it.
+#
+#   ./appcds.sh [jar] [archive]
+#   java -XX:SharedArchiveFile=javatest.jsa -jar core/target/javatest-1.0-SNAPSHOT.jar
+set -e
+JAR=${1:-core/target/javatest-1.0-SNAPSHOT.jar}
+JSA=${2:-javatest.jsa}
+
+if [ ! -f "$JAR" ]; then
+    echo "$JAR not found: run mvn -B package first" >&2
+    exit 1
+fi
+
+# a dynamic archive on top of the JDK's default one; lua.startup.cache=false so the training run
+# probes the Minecraft bindings and archives the classes behind them
+java -XX:ArchiveClassesAtExit="$JSA" -Dlua.startup.cache=false -jar "$JAR" --cds-train
+echo "AppCDS archive written to $JSA"
+echo "start with: java -XX:SharedArchiveFile=$JSA -jar $JAR"
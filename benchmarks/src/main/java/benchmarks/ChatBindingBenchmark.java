@@ -0,0 +1,134 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.Bindings;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One client chat send (getInstance, player, Component.literal, displayClientMessage) through
+ * reflection, MethodHandles and Bindings-generated lambdas, against stand-ins with the
+ * Minecraft signatures.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChatBindingBenchmark {
+
+    /* ---------------- Stand-ins ---------------- */
+
+    public static final class Component {
+        private final String text;
+        private Component(String text) { this.text = text; }
+        public static Component literal(String text) { return new Component(text); }
+        public String getString() { return text; }
+    }
+
+    public static final class LocalPlayer {
+        public long received;
+        public void displayClientMessage(Component message, boolean overlay) {
+            if (!overlay) received += message.getString().length();
+        }
+    }
+
+    public static final class Minecraft {
+        private static final Minecraft INSTANCE = new Minecraft();
+        public LocalPlayer player = new LocalPlayer();
+        public static Minecraft getInstance() { return INSTANCE; }
+    }
+
+    /* ---------------- Call sites ---------------- */
+
+    private static final String MESSAGE = "hello from lua";
+
+    private Method rGetInstance, rLiteral, rDisplay;
+    private Field rPlayer;
+
+    private MethodHandle hGetInstance, hPlayer, hLiteral, hDisplay;
+
+    private static final MethodHandle C_GET_INSTANCE, C_PLAYER, C_LITERAL, C_DISPLAY;
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.publicLookup();
+            C_GET_INSTANCE = erase(l.findStatic(Minecraft.class, "getInstance", MethodType.methodType(Minecraft.class)));
+            C_PLAYER = erase(l.findGetter(Minecraft.class, "player", LocalPlayer.class));
+            C_LITERAL = erase(l.findStatic(Component.class, "literal", MethodType.methodType(Component.class, String.class)));
+            C_DISPLAY = erase(l.findVirtual(LocalPlayer.class, "displayClientMessage",
+                    MethodType.methodType(void.class, Component.class, boolean.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Bindings.Call0 bGetInstance;
+    private Bindings.Call1 bPlayer, bLiteral;
+    private Bindings.Run3 bDisplay;
+
+    private static MethodHandle erase(MethodHandle h) {
+        return h.asType(h.type().generic().changeReturnType(h.type().returnType() == void.class ? void.class : Object.class));
+    }
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        rGetInstance = Minecraft.class.getMethod("getInstance");
+        rPlayer = Minecraft.class.getField("player");
+        rLiteral = Component.class.getMethod("literal", String.class);
+        rDisplay = LocalPlayer.class.getMethod("displayClientMessage", Component.class, boolean.class);
+
+        hGetInstance = C_GET_INSTANCE;
+        hPlayer = C_PLAYER;
+        hLiteral = C_LITERAL;
+        hDisplay = C_DISPLAY;
+
+        bGetInstance = Bindings.bind(Bindings.Call0.class, Bindings.method(Minecraft.class, "getInstance"));
+        bPlayer = Bindings.bind(Bindings.Call1.class, Bindings.accessor(Minecraft.class, "player"));
+        bLiteral = Bindings.bind(Bindings.Call1.class, Bindings.method(Component.class, "literal", String.class));
+        bDisplay = Bindings.bind(Bindings.Run3.class,
+                Bindings.method(LocalPlayer.class, "displayClientMessage", Component.class, boolean.class));
+    }
+
+    @Benchmark
+    public long direct() {
+        LocalPlayer p = Minecraft.getInstance().player;
+        p.displayClientMessage(Component.literal(MESSAGE), false);
+        return p.received;
+    }
+
+    @Benchmark
+    public long reflection() throws Exception {
+        Object mc = rGetInstance.invoke(null);
+        LocalPlayer p = (LocalPlayer) rPlayer.get(mc);
+        rDisplay.invoke(p, rLiteral.invoke(null, MESSAGE), false);
+        return p.received;
+    }
+
+    @Benchmark
+    public long methodHandleField() throws Throwable {
+        Object mc = (Object) hGetInstance.invokeExact();
+        Object p = (Object) hPlayer.invokeExact(mc);
+        hDisplay.invokeExact(p, (Object) hLiteral.invokeExact((Object) MESSAGE), (Object) Boolean.FALSE);
+        return ((LocalPlayer) p).received;
+    }
+
+    @Benchmark
+    public long methodHandleConstant() throws Throwable {
+        Object mc = (Object) C_GET_INSTANCE.invokeExact();
+        Object p = (Object) C_PLAYER.invokeExact(mc);
+        C_DISPLAY.invokeExact(p, (Object) C_LITERAL.invokeExact((Object) MESSAGE), (Object) Boolean.FALSE);
+        return ((LocalPlayer) p).received;
+    }
+
+    @Benchmark
+    public long generatedLambda() {
+        Object p = bPlayer.call(bGetInstance.call());
+        bDisplay.call(p, bLiteral.call(MESSAGE), Boolean.FALSE);
+        return ((LocalPlayer) p).received;
+    }
+}
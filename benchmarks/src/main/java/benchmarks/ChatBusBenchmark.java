@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import libraries.lua.com.lua.ChatBus;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * ChatBus across four local processes: this one and three peer JVMs (main() below), the first
+ * of which is the hub, so every frame crosses two connections like it does between two servers.
+ * roundTrip is one event out to the three peers and their three replies back (SampleTime: see
+ * the p0.99 line); burst publishes 1000 events and waits until all three peers have received the
+ * last one, so its score is messages per second fanned out to three processes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChatBusBenchmark {
+
+    private static final int PEERS = 3;
+    private static final int BURST = 1000;
+
+    @Param({"tcp", "unix"})
+    public String transport;
+
+    private final List<Process> peers = new ArrayList<>();
+    private Path dir;
+    private ChatBus bus;
+    private final AtomicInteger replies = new AtomicInteger();
+    private volatile String waitingFor;
+    private volatile Thread waiter;
+    private int round;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("chatbus");
+        String address = transport.equals("unix") ? "unix:" + dir.resolve("bus.sock") : "127.0.0.1:" + freePort();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < PEERS; i++) {
+            peers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ChatBusBenchmark.class.getName(), address)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+            if (i == 0) Thread.sleep(500); // let the first peer become the hub
+        }
+        bus = ChatBus.open(address);
+        bus.subscribe("bench.reply", id -> {
+            if (id.equals(waitingFor) && replies.incrementAndGet() == PEERS) LockSupport.unpark(waiter);
+        });
+        // peers answer a ping once connected; keep pinging until all three do
+        Set<String> ready = ConcurrentHashMap.newKeySet();
+        bus.subscribe("bench.ready", ready::add);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (ready.size() < PEERS) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("peers did not join the bus: " + ready);
+            bus.publish("bench.hello", "");
+            Thread.sleep(50);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        bus.close();
+        for (Process p : peers) p.destroy();
+        for (Process p : peers) p.waitFor(5, TimeUnit.SECONDS);
+        peers.clear();
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private static int freePort() throws IOException {
+        try (var s = new java.net.ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    /** Publish on topic and wait until every peer has replied to the last frame. */
+    private void exchange(String topic, int frames) {
+        String id = Integer.toString(++round);
+        replies.set(0);
+        waiter = Thread.currentThread();
+        waitingFor = id;
+        for (int i = 1; i < frames; i++) bus.publish(topic, "");
+        bus.publish(topic, id);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (replies.get() < PEERS) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("peers stopped replying: " + bus.stats());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void roundTrip() {
+        exchange("bench.ping", 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BURST)
+    public void burst() {
+        exchange("bench.ping", BURST);
+    }
+
+    /** A peer process: answers bench.hello and every non-empty bench.ping; exits with its parent. */
+    public static void main(String[] args) throws Exception {
+        ChatBus bus = ChatBus.open(args[0]);
+        String self = Long.toString(ProcessHandle.current().pid());
+        bus.subscribe("bench.hello", x -> bus.publish("bench.ready", self));
+        bus.subscribe("bench.ping", id -> {
+            if (!id.isEmpty()) bus.publish("bench.reply", id);
+        });
+        while (System.in.read() >= 0) { } // stdin closes when the benchmark JVM goes away
+        bus.close();
+    }
+}
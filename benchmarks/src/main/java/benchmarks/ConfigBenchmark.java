@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import modules.ConfigStore;
+import modules.mainmodule;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * mainmodule.getInt by name against a compiled ConfigStore key, on the bundled config.properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConfigBenchmark {
+
+    private mainmodule module;
+    private ConfigStore.IntKey key;
+    private String name;
+
+    @Setup
+    public void setup() {
+        module = new mainmodule();
+        module.configLoad();
+        name = "testnumber";
+        key = module.config().intKey(name, 0);
+    }
+
+    @Benchmark
+    public int getInt() {
+        return module.getInt(name, 0);
+    }
+
+    @Benchmark
+    public int compiledKey() {
+        return key.get();
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import libraries.lua.com.lua.LuaFunctions;
+import libraries.lua.com.lua.vm.LuaClosure;
+import libraries.lua.com.lua.vm.LuaVM;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A registered function called 10k times from a script, registered as the varargs LuaFunction
+ * (an Object[] and boxed numbers per call) against the fixed-arity Object and double shapes;
+ * javaBound* call the same functions from Java after LuaFunctions.as(). Run with -prof gc to see
+ * the allocation per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FunctionShapeBenchmark {
+
+    private static final String LOOP = "local s = 0 for i = 1, 10000 do s = s + f(i, 0.5) end return s";
+    /** The varargs shape has no result: same calls, the sum is kept on the Java side. */
+    private static final String VOID_LOOP = "for i = 1, 10000 do f(i, 0.5) end";
+
+    private double sink;
+
+    private LuaVM varargs;
+    private LuaClosure varargsChunk;
+    private LuaVM object2;
+    private LuaClosure object2Chunk;
+    private LuaVM double2;
+    private LuaClosure double2Chunk;
+    private LuaAPIRegistry.DoubleFunction2 boundDouble;
+    private LuaAPIRegistry.DoubleFunction2 boundAdapted;
+
+    @Setup
+    public void setup() {
+        LuaAPIRegistry.register("bench_varargs", (LuaAPIRegistry.LuaFunction) args ->
+                sink = ((Number) args[0]).doubleValue() * ((Number) args[1]).doubleValue());
+        LuaAPIRegistry.register("bench_object2", (LuaAPIRegistry.LuaBiFunction) (a, b) ->
+                ((Number) a).doubleValue() * ((Number) b).doubleValue());
+        LuaAPIRegistry.register("bench_double2", (LuaAPIRegistry.DoubleFunction2) (a, b) -> a * b);
+        varargs = new LuaVM();
+        varargsChunk = varargs.load("local f = bench_varargs " + VOID_LOOP, "varargs");
+        object2 = new LuaVM();
+        object2Chunk = object2.load("local f = bench_object2 " + LOOP, "object2");
+        double2 = new LuaVM();
+        double2Chunk = double2.load("local f = bench_double2 " + LOOP, "double2");
+        boundDouble = LuaFunctions.as(LuaAPIRegistry.DoubleFunction2.class, LuaAPIRegistry.get("bench_double2"));
+        boundAdapted = LuaFunctions.as(LuaAPIRegistry.DoubleFunction2.class, LuaAPIRegistry.get("bench_object2"));
+    }
+
+    @Benchmark
+    public double scriptVarargs() {
+        varargs.call(varargsChunk);
+        return sink;
+    }
+
+    @Benchmark
+    public Object scriptObject2() {
+        return object2.call(object2Chunk)[0];
+    }
+
+    @Benchmark
+    public Object scriptDouble2() {
+        return double2.call(double2Chunk)[0];
+    }
+
+    @Benchmark
+    public double javaBoundDouble2() {
+        double s = 0;
+        for (int i = 1; i <= 10_000; i++) s += boundDouble.call(i, 0.5);
+        return s;
+    }
+
+    @Benchmark
+    public double javaBoundAdaptedObject2() {
+        double s = 0;
+        for (int i = 1; i <= 10_000; i++) s += boundAdapted.call(i, 0.5);
+        return s;
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.lua;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * lua.io_eval (cached compiled scripts) and lua.io_run (process spawn + output capture).
+ * Without a script engine on the JDK, eval measures the "no engine" path only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IoBenchmark {
+
+    private static final String SCRIPT = "var s = 0; for (var i = 0; i < 100; i++) s += i; s";
+
+    private String command;
+
+    @Setup
+    public void setup() {
+        boolean windows = System.getProperty("os.name", "").toLowerCase().contains("win");
+        command = windows ? "cmd /c echo hello" : "echo hello";
+    }
+
+    @Benchmark
+    public String eval() {
+        return lua.io_eval(SCRIPT);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public lua.ProcessResult run() {
+        return lua.io_run(command);
+    }
+}
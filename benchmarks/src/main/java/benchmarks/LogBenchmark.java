@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.Log;
+import libraries.lua.com.lua.lua;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost to the calling thread of a log line on 4 threads: print through the async Log against a
+ * synchronous println on the shared stdout lock, and a filtered DEBUG line (nothing formatted).
+ * stdout goes to a sink that discards bytes but costs about as much per write call as a terminal,
+ * which the synchronous path pays per line and the writer thread pays per batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LogBenchmark {
+
+    private static final Log.Logger LOG = Log.logger("bench");
+
+    private PrintStream stdout;
+    private PrintStream sink;
+    private final Object value = new Object() {
+        @Override public String toString() { return "entity@" + Integer.toHexString(hashCode()); }
+    };
+
+    @Setup
+    public void setup() {
+        stdout = System.out;
+        sink = new PrintStream(new OutputStream() {
+            @Override public void write(int b) { Blackhole.consumeCPU(1); }
+            @Override public void write(byte[] b, int off, int len) { Blackhole.consumeCPU(500 + len / 8); }
+        });
+        System.setOut(sink);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Log.flush();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void printSync() {
+        sink.println("tick " + 42 + " " + value);
+    }
+
+    @Benchmark
+    public void printAsync() {
+        lua.print("tick 42", value);
+    }
+
+    @Benchmark
+    public void formatAsync() {
+        LOG.info("tick %d %s", 42, value);
+    }
+
+    @Benchmark
+    public void debugFiltered() {
+        LOG.debug("tick %d %s", 42, value);
+    }
+}
@@ -0,0 +1,129 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.BatchMath;
+import libraries.lua.com.lua.lua;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * BatchMath against the scalar lua.math path it batches (one call per element), over arrays and a
+ * direct buffer (per-element get/put vs chunked bulk copies); and lua.math.random's per-thread
+ * generator against the shared Math.random() on 4 threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MathBenchmark {
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private double[] in;
+    private double[] out;
+    private DoubleBuffer direct;
+    private DoubleBuffer directOut;
+
+    @Setup
+    public void setup() {
+        in = new double[size];
+        out = new double[size];
+        java.util.SplittableRandom r = new java.util.SplittableRandom(42);
+        for (int i = 0; i < size; i++) in[i] = r.nextDouble(-1000, 1000);
+        direct = ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        direct.put(in).flip();
+        directOut = ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    @Benchmark
+    public double[] absScalar() {
+        for (int i = 0; i < in.length; i++) out[i] = lua.math.abs(in[i]);
+        return out;
+    }
+
+    @Benchmark
+    public double[] absBatch() {
+        BatchMath.abs(in, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] sqrtScalar() {
+        for (int i = 0; i < in.length; i++) out[i] = lua.math.sqrt(lua.math.abs(in[i]));
+        return out;
+    }
+
+    @Benchmark
+    public double[] sqrtBatch() {
+        BatchMath.abs(in, out);
+        BatchMath.sqrt(out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] floorScalar() {
+        for (int i = 0; i < in.length; i++) out[i] = lua.math.floor(in[i]);
+        return out;
+    }
+
+    @Benchmark
+    public double[] floorBatch() {
+        BatchMath.floor(in, out);
+        return out;
+    }
+
+    @Benchmark
+    public DoubleBuffer floorDirectScalar() {
+        for (int i = 0; i < size; i++) directOut.put(i, lua.math.floor(direct.get(i)));
+        return directOut;
+    }
+
+    @Benchmark
+    public DoubleBuffer floorDirect() {
+        BatchMath.floor(direct, directOut);
+        return directOut;
+    }
+
+    @Benchmark
+    public double sumScalar() {
+        double s = 0;
+        for (double v : in) s += v;
+        return s;
+    }
+
+    @Benchmark
+    public double sumBatch() {
+        return BatchMath.sum(in);
+    }
+
+    @Benchmark
+    public double maxScalar() {
+        double m = Double.NEGATIVE_INFINITY;
+        for (double v : in) m = Math.max(m, v);
+        return m;
+    }
+
+    @Benchmark
+    public double maxBatch() {
+        return BatchMath.max(in);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int randomShared() {
+        return (int) (Math.random() * 100) + 1;
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int randomPerThread() {
+        return lua.math.random(1, 100);
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import libraries.lua.com.lua.Metrics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Overhead of Metrics on a registered LuaFunction and on a span, with metrics off (the registry
+ * hands out the function itself; a span is one volatile read) and on (timed, histogram recorded).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+    private static final Metrics.Timer SPAN = Metrics.timer("bench.span");
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    private LuaAPIRegistry.LuaFunction direct;
+    private LuaAPIRegistry.LuaFunction registered;
+    private long sink;
+
+    @Setup
+    public void setup() {
+        direct = args -> sink += args.length;
+        LuaAPIRegistry.register("bench", direct);
+        Metrics.setEnabled(enabled);
+        registered = (LuaAPIRegistry.LuaFunction) LuaAPIRegistry.get("bench");
+    }
+
+    @TearDown
+    public void tearDown() {
+        Metrics.setEnabled(false);
+    }
+
+    @Benchmark
+    public long callDirect() {
+        direct.call(1, 2);
+        return sink;
+    }
+
+    @Benchmark
+    public long callRegistered() {
+        registered.call(1, 2);
+        return sink;
+    }
+
+    @Benchmark
+    public void span() {
+        long t0 = SPAN.start();
+        Blackhole.consumeCPU(10);
+        SPAN.stop(t0);
+    }
+
+    @Benchmark
+    public void noSpan() {
+        Blackhole.consumeCPU(10);
+    }
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.PersistentTable;
+import libraries.lua.com.lua.lua;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Reopening a compacted PersistentTable and reading a few keys, against reopening and loading all
+ * of it (what a serialize-the-whole-table store does on startup); plus the cost of one set.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistentTableBenchmark {
+
+    @Param({"1000", "100000"})
+    public int entries;
+
+    private Path dir;
+    private Path file;
+    private PersistentTable open;
+    private long n;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("ptable");
+        file = dir.resolve("bench.tbl");
+        try (PersistentTable t = PersistentTable.open(file)) {
+            for (int i = 0; i < entries; i++) t.set("player" + i, "name-" + i + "-" + (i * 31));
+            t.compact();
+        }
+        open = PersistentTable.open(dir.resolve("writes.tbl"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        open.close();
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public Object reopenAndRead() throws IOException {
+        try (PersistentTable t = PersistentTable.open(file)) {
+            Object v = null;
+            for (int i = 0; i < 10; i++) v = t.get("player" + (i * 97 % entries));
+            return v;
+        }
+    }
+
+    @Benchmark
+    public lua.table reopenAndLoadAll() throws IOException {
+        try (PersistentTable t = PersistentTable.open(file)) {
+            return t.toTable();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void set() {
+        open.set("k" + (n++ & 1023), n);
+    }
+}
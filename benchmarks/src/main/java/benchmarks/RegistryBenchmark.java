@@ -0,0 +1,43 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * LuaAPIRegistry lookups: by name (already lower-case, and mixed case) and through a slot handle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegistryBenchmark {
+
+    private String lower, mixed;
+    private LuaAPIRegistry.Slot slot;
+
+    @Setup
+    public void setup() {
+        LuaAPIRegistry.registerBuiltin();
+        lower = "string";
+        mixed = "String";
+        slot = LuaAPIRegistry.slot(lower);
+    }
+
+    @Benchmark
+    public Object getLowerCase() {
+        return LuaAPIRegistry.get(lower);
+    }
+
+    @Benchmark
+    public Object getMixedCase() {
+        return LuaAPIRegistry.get(mixed);
+    }
+
+    @Benchmark
+    public Object slot() {
+        return slot.get();
+    }
+}
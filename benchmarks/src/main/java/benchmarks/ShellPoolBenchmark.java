@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.ShellPool;
+import libraries.lua.com.lua.lua;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * 10k short io.run commands: a new "sh -c" each (cold), on pooled shell workers, and through the
+ * result cache. Unix only; on Windows the pooled case falls back to cold.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, batchSize = 1000)
+@Measurement(iterations = 3, batchSize = 10_000)
+@Fork(1)
+@State(Scope.Thread)
+public class ShellPoolBenchmark {
+
+    @Param({"cold", "pooled", "cached"})
+    public String mode;
+
+    @Setup
+    public void setup() {
+        ShellPool.setEnabled(!mode.equals("cold"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ShellPool.setEnabled(false);
+        ShellPool.clearCache();
+    }
+
+    @Benchmark
+    public lua.ProcessResult run() {
+        return mode.equals("cached") ? lua.io_runCached("echo hello", 60_000) : lua.io_run("echo hello");
+    }
+}
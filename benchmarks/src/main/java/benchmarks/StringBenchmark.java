@@ -0,0 +1,92 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import libraries.lua.com.lua.LuaPattern;
+import libraries.lua.com.lua.lua;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * lua.string.sub / rep, and Lua-pattern matching over a log line of the given length against
+ * java.util.regex: one find with captures, and a gmatch over every key=value pair by offsets
+ * (no substrings) and by substrings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringBenchmark {
+
+    @Param({"16", "4096"})
+    public int length;
+
+    private String text;
+    private int from, to;
+    private String log;
+
+    private static final String FIND = "user=(%w+) status=(%d+)";
+    private static final Pattern FIND_REGEX = Pattern.compile("user=(\\w+) status=(\\d+)");
+    private static final String PAIRS = "(%w+)=(%w+)";
+    private static final Pattern PAIRS_REGEX = Pattern.compile("(\\w+)=(\\w+)");
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append((char) ('a' + i % 26));
+        text = sb.toString();
+        from = length / 4 + 1;
+        to = length - length / 4;
+
+        StringBuilder line = new StringBuilder(length + 64);
+        for (int i = 0; line.length() < length; i++) line.append("[INFO] k").append(i).append("=v").append(i).append(' ');
+        log = line.append("user=steve status=200").toString();
+    }
+
+    @Benchmark
+    public String sub() {
+        return lua.string.sub(text, from, to);
+    }
+
+    @Benchmark
+    public String rep() {
+        return lua.string.rep(text, 8);
+    }
+
+    @Benchmark
+    public int findLuaPattern() {
+        LuaPattern.Matcher m = LuaPattern.compile(FIND).matcher(log);
+        return m.find(0) ? m.end(2) : -1;
+    }
+
+    @Benchmark
+    public int findRegex() {
+        Matcher m = FIND_REGEX.matcher(log);
+        return m.find() ? m.end(2) : -1;
+    }
+
+    @Benchmark
+    public int gmatchOffsets() {
+        LuaPattern.Matcher m = LuaPattern.compile(PAIRS).matcher(log);
+        int sum = 0;
+        for (int at = 0; m.find(at); at = m.nextFrom()) sum += m.end(2) - m.start(1);
+        return sum;
+    }
+
+    @Benchmark
+    public int gmatchSubstrings() {
+        int sum = 0;
+        for (String key : lua.string.gmatch(log, PAIRS)) sum += key.length();
+        return sum;
+    }
+
+    @Benchmark
+    public int gmatchRegex() {
+        Matcher m = PAIRS_REGEX.matcher(log);
+        int sum = 0;
+        while (m.find()) sum += m.end(2) - m.start(1);
+        return sum;
+    }
+}
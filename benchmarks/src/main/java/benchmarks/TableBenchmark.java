@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.lua;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * lua.table (array part + unboxed hash part) against the HashMap it replaced, at 100k+ entries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TableBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private lua.table table;
+    private HashMap<Object, Object> map;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        table = new lua.table();
+        map = new HashMap<>();
+        names = new String[size];
+        for (int i = 0; i < size; i++) {
+            table.seti(i + 1, (double) i);
+            map.put((double) (i + 1), (double) i);
+            names[i] = "k" + i;
+        }
+    }
+
+    @Benchmark
+    public lua.table fillArray() {
+        lua.table t = new lua.table();
+        for (int i = 1; i <= size; i++) t.seti(i, (double) i);
+        return t;
+    }
+
+    @Benchmark
+    public Map<Object, Object> fillArrayHashMap() {
+        HashMap<Object, Object> m = new HashMap<>();
+        for (int i = 1; i <= size; i++) m.put((double) i, (double) i);
+        return m;
+    }
+
+    @Benchmark
+    public lua.table fillStringKeys() {
+        lua.table t = new lua.table();
+        for (int i = 0; i < size; i++) t.setNumber(names[i], i);
+        return t;
+    }
+
+    @Benchmark
+    public Map<Object, Object> fillStringKeysHashMap() {
+        HashMap<Object, Object> m = new HashMap<>();
+        for (int i = 0; i < size; i++) m.put(names[i], (double) i);
+        return m;
+    }
+
+    @Benchmark
+    public double readArray() {
+        double s = 0;
+        for (int i = 1; i <= size; i++) s += table.getNumber(i, 0);
+        return s;
+    }
+
+    @Benchmark
+    public double readArrayHashMap() {
+        double s = 0;
+        for (int i = 1; i <= size; i++) s += (Double) map.get((double) i);
+        return s;
+    }
+
+    @Benchmark
+    public void pairs(Blackhole bh) {
+        for (int p = table.next(-1); p >= 0; p = table.next(p)) {
+            bh.consume(table.keyDoubleAt(p));
+            bh.consume(table.doubleAt(p));
+        }
+    }
+
+    @Benchmark
+    public void pairsHashMap(Blackhole bh) {
+        for (Map.Entry<Object, Object> e : map.entrySet()) {
+            bh.consume(e.getKey());
+            bh.consume(e.getValue());
+        }
+    }
+
+    @Benchmark
+    public int length() {
+        return table.length();
+    }
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import libraries.lua.com.lua.vm.Budget;
+import libraries.lua.com.lua.vm.LuaClosure;
+import libraries.lua.com.lua.vm.LuaVM;
+import libraries.lua.com.lua.vm.TreeInterpreter;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Register VM against the tree-walking baseline on the same scripts; registerVmBudgeted runs the
+ * register VM under a (never reached) instruction, time and memory budget.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VmBenchmark {
+
+    @Param({"fib", "loop", "table", "closure"})
+    public String script;
+
+    private static final String FIB =
+            "local function fib(n) if n < 2 then return n end return fib(n - 1) + fib(n - 2) end return fib(20)";
+    private static final String LOOP =
+            "local s = 0 for i = 1, 100000 do s = s + i * 2 % 7 end return s";
+    private static final String TABLE =
+            "local t = {} for i = 1, 10000 do t[i] = i end local s = 0 for i = 1, #t do s = s + t[i] end return s";
+    private static final String CLOSURE =
+            "local function counter() local c = 0 return function() c = c + 1 return c end end "
+                    + "local f = counter() for i = 1, 10000 do f() end return f()";
+
+    private LuaVM vm;
+    private LuaClosure vmChunk;
+    private LuaVM budgeted;
+    private LuaClosure budgetedChunk;
+    private TreeInterpreter tree;
+    private Object treeChunk;
+
+    @Setup
+    public void setup() {
+        LuaAPIRegistry.registerBuiltin();
+        String src;
+        switch (script) {
+            case "fib": src = FIB; break;
+            case "loop": src = LOOP; break;
+            case "table": src = TABLE; break;
+            default: src = CLOSURE;
+        }
+        vm = new LuaVM();
+        vmChunk = vm.load(src, script);
+        budgeted = new LuaVM();
+        budgeted.setBudget(new Budget(Long.MAX_VALUE, 60_000, 1L << 40));
+        budgetedChunk = budgeted.load(src, script);
+        tree = new TreeInterpreter();
+        treeChunk = tree.load(src);
+    }
+
+    @Benchmark
+    public Object registerVm() {
+        return vm.call(vmChunk)[0];
+    }
+
+    @Benchmark
+    public Object registerVmBudgeted() {
+        return budgeted.call(budgetedChunk)[0];
+    }
+
+    @Benchmark
+    public Object treeWalker() {
+        return tree.call(treeChunk)[0];
+    }
+}
@@ -0,0 +1,111 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.WorldAdapter;
+import libraries.lua.com.lua.WorldSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Queries against a synthetic world of 100k entities (1% players) spread over 4000 x 4000 blocks:
+ * the indexed WorldSnapshot against a linear scan of the same entities, the way a query read the
+ * world before it had an index. build is the once-per-tick cost of indexing the world.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorldQueryBenchmark {
+
+    private static final int ENTITIES = 100_000;
+    private static final double SPREAD = 2000;
+
+    private double[] xs, ys, zs;
+    private boolean[] players;
+    private WorldAdapter world;
+    private WorldSnapshot snapshot;
+    private final Random random = new Random(7);
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        xs = new double[ENTITIES];
+        ys = new double[ENTITIES];
+        zs = new double[ENTITIES];
+        players = new boolean[ENTITIES];
+        for (int i = 0; i < ENTITIES; i++) {
+            xs[i] = (r.nextDouble() * 2 - 1) * SPREAD;
+            ys[i] = r.nextDouble() * 320 - 64;
+            zs[i] = (r.nextDouble() * 2 - 1) * SPREAD;
+            players[i] = i % 100 == 0;
+        }
+        world = sink -> {
+            for (int i = 0; i < ENTITIES; i++) sink.entity(i, "mob", players[i], xs[i], ys[i], zs[i], 20);
+        };
+        snapshot = WorldSnapshot.of(world);
+    }
+
+    private double coord() {
+        return (random.nextDouble() * 2 - 1) * SPREAD;
+    }
+
+    @Benchmark
+    public WorldSnapshot build() {
+        return WorldSnapshot.of(world);
+    }
+
+    @Benchmark
+    public int withinIndexed() {
+        return snapshot.within(coord(), 64, coord(), 32, false).length;
+    }
+
+    @Benchmark
+    public int withinLinear() {
+        double x = coord(), y = 64, z = coord(), r2 = 32 * 32;
+        int n = 0;
+        for (int i = 0; i < ENTITIES; i++) {
+            double dx = xs[i] - x, dy = ys[i] - y, dz = zs[i] - z;
+            if (dx * dx + dy * dy + dz * dz <= r2) n++;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int nearestIndexed() {
+        return snapshot.nearest(coord(), 64, coord(), -1, false);
+    }
+
+    @Benchmark
+    public int nearestPlayerIndexed() {
+        return snapshot.nearest(coord(), 64, coord(), -1, true);
+    }
+
+    @Benchmark
+    public int nearestLinear() {
+        double x = coord(), y = 64, z = coord(), best = Double.POSITIVE_INFINITY;
+        int found = -1;
+        for (int i = 0; i < ENTITIES; i++) {
+            double dx = xs[i] - x, dy = ys[i] - y, dz = zs[i] - z, d = dx * dx + dy * dy + dz * dz;
+            if (d < best) { best = d; found = i; }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int boxIndexed() {
+        double x = coord(), z = coord();
+        return snapshot.inBox(x, 0, z, x + 48, 128, z + 48, false).length;
+    }
+
+    @Benchmark
+    public int boxLinear() {
+        double x = coord(), z = coord();
+        int n = 0;
+        for (int i = 0; i < ENTITIES; i++) {
+            if (xs[i] >= x && xs[i] <= x + 48 && ys[i] >= 0 && ys[i] <= 128 && zs[i] >= z && zs[i] <= z + 48) n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs every benchmark method once, outside JMH, with the first value of each @Param (sizes capped
+ * at SIZE, so the test heap is enough): a broken setup or a benchmark that throws shows up in
+ * mvn test instead of halfway through a JMH run.
+ */
+class BenchmarkSmokeTest {
+
+    private static final int SIZE = 1000;
+
+    @ParameterizedTest
+    @ValueSource(classes = {
+            ChatBindingBenchmark.class, ChatBusBenchmark.class, ConfigBenchmark.class, FunctionShapeBenchmark.class,
+            IoBenchmark.class, LogBenchmark.class, MathBenchmark.class, MetricsBenchmark.class,
+            PersistentTableBenchmark.class, RegistryBenchmark.class, ShellPoolBenchmark.class, StringBenchmark.class,
+            TableBenchmark.class, TableCodecBenchmark.class, VmBenchmark.class, WorldQueryBenchmark.class})
+    void everyBenchmarkRunsOnce(Class<?> type) throws Exception {
+        Object state = type.getDeclaredConstructor().newInstance();
+        for (Field f : type.getDeclaredFields()) {
+            Param p = f.getAnnotation(Param.class);
+            if (p != null) set(state, f, p.value()[0]);
+        }
+        Blackhole bh = new Blackhole("Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+        List<String> ran = new ArrayList<>();
+        call(state, Setup.class);
+        try {
+            for (Method m : type.getMethods()) {
+                if (!m.isAnnotationPresent(Benchmark.class)) continue;
+                Object result = m.getParameterCount() == 0 ? m.invoke(state) : m.invoke(state, bh);
+                bh.consume(result);
+                ran.add(m.getName());
+            }
+        } catch (InvocationTargetException e) {
+            throw new AssertionError(type.getSimpleName() + ": " + e.getCause(), e.getCause());
+        } finally {
+            call(state, TearDown.class);
+            bh.evaporate("Yes, I am Stephen Hawking, and know a thing or two about black holes.");
+        }
+        assertTrue(!ran.isEmpty(), type + " has no @Benchmark methods");
+    }
+
+    private static void call(Object state, Class<? extends java.lang.annotation.Annotation> phase) throws Exception {
+        for (Method m : state.getClass().getMethods()) {
+            if (m.isAnnotationPresent(phase)) m.invoke(state);
+        }
+    }
+
+    private static void set(Object state, Field f, String value) throws IllegalAccessException {
+        f.setAccessible(true);
+        Class<?> t = f.getType();
+        if (t == int.class) f.setInt(state, Math.min(SIZE, Integer.parseInt(value)));
+        else if (t == long.class) f.setLong(state, Math.min(SIZE, Long.parseLong(value)));
+        else if (t == boolean.class) f.setBoolean(state, Boolean.parseBoolean(value));
+        else if (t == String.class) f.set(state, value);
+        else throw new IllegalArgumentException("@Param of type " + t);
+    }
+}
@@ -12,23 +12,31 @@ REM Make sure output folders exist
 if not exist %LIBS_DIR% mkdir %LIBS_DIR%
 
 REM Compile all Java files recursively, including any jars in libs for compilation
+REM benchmarks\ holds JMH sources and core\src\test\ JUnit tests; they need jmh-core / JUnit
+REM on the classpath and are skipped here (mvn test runs the tests)
 set CP=
 for %%J in (libraries\*\*\*\*\*\*.java) do (
     set CP=!CP!;%%J
 )
 
 for /R %%f in (*.java) do (
-    if defined CP (
-        javac -d %BUILD_DIR% -cp ".!CP!" %%f
-    ) else (
-        javac -d %BUILD_DIR% %%f
+    echo %%f | findstr /I /C:"\benchmarks\" /C:"\src\test\" >nul
+    if errorlevel 1 (
+        if defined CP (
+            javac -d %BUILD_DIR% -cp ".!CP!" %%f
+        ) else (
+            javac -d %BUILD_DIR% %%f
+        )
     )
 )
 for /R %%f in (*\*\*\*\*\*\*.java) do (
-    if defined CP (
-        javac -d %BUILD_DIR% -cp ".!CP!" %%f
-    ) else (
-        javac -d %BUILD_DIR% %%f
+    echo %%f | findstr /I /C:"\benchmarks\" /C:"\src\test\" >nul
+    if errorlevel 1 (
+        if defined CP (
+            javac -d %BUILD_DIR% -cp ".!CP!" %%f
+        ) else (
+            javac -d %BUILD_DIR% %%f
+        )
     )
 )
 
@@ -0,0 +1,186 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleUnaryOperator;
+import org.junit.jupiter.api.Test;
+
+/** Every batch op against the scalar Math call it replaces. */
+class BatchMathTest {
+
+    /** Longer than two scratch chunks, with the values scalar code gets wrong most easily. */
+    private static final double[] INPUT = input(2500);
+
+    /* ---------------- Unary ops ---------------- */
+
+    @Test
+    void arraysMatchTheScalarPath() {
+        check(BatchMath::abs, Math::abs);
+        check(BatchMath::sqrt, Math::sqrt);
+        check(BatchMath::sin, Math::sin);
+        check(BatchMath::cos, Math::cos);
+        check(BatchMath::floor, Math::floor);
+        check(BatchMath::ceil, Math::ceil);
+        check(BatchMath::neg, x -> -x);
+
+        double[] a = INPUT.clone();
+        BatchMath.sqrt(a);
+        assertArrayEquals(scalar(Math::sqrt), a);
+        double[] out = new double[INPUT.length];
+        BatchMath.scale(INPUT, 2, 1, out);
+        assertArrayEquals(scalar(x -> x * 2 + 1), out);
+    }
+
+    @Test
+    void buffersMatchTheScalarPathAndKeepTheirPositions() {
+        for (boolean direct : new boolean[] {false, true}) {
+            DoubleBuffer src = buffer(INPUT.length + 3, direct);
+            src.position(3);
+            src.put(INPUT);
+            src.position(3);
+            DoubleBuffer dst = buffer(INPUT.length + 5, direct);
+            dst.position(5);
+            BatchMath.floor(src, dst);
+            assertEquals(3, src.position());
+            assertEquals(5, dst.position());
+            double[] got = new double[INPUT.length];
+            dst.get(got);
+            assertArrayEquals(scalar(Math::floor), got, direct ? "direct" : "heap");
+
+            DoubleBuffer slice = DoubleBuffer.wrap(INPUT.clone(), 10, 100).slice(); // non-zero array offset
+            BatchMath.abs(slice, slice);
+            for (int i = 0; i < 100; i++) assertEquals(Math.abs(INPUT[10 + i]), slice.get(i));
+        }
+    }
+
+    @Test
+    void mismatchedArgumentsAreRefused() {
+        assertThrows(IllegalArgumentException.class, () -> BatchMath.abs(new double[3], new double[4]));
+        assertThrows(IllegalArgumentException.class, () -> BatchMath.dot(new double[3], new double[2]));
+        assertThrows(IllegalArgumentException.class, () -> BatchMath.sin(DoubleBuffer.allocate(3), DoubleBuffer.allocate(2)));
+        DoubleBuffer ro = DoubleBuffer.allocate(3).asReadOnlyBuffer();
+        assertThrows(ReadOnlyBufferException.class, () -> BatchMath.sin(DoubleBuffer.allocate(3), ro));
+        assertThrows(IndexOutOfBoundsException.class, () -> BatchMath.sum(new double[3], 2, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> BatchMath.min(new double[3], 2, 1));
+    }
+
+    /* ---------------- Reductions ---------------- */
+
+    @Test
+    void reductionsMatchTheScalarPath() {
+        double[] finite = Arrays.stream(INPUT).filter(x -> Math.abs(x) < 1e6).toArray(); // no NaN, infinities or 1e300
+        double sum = 0, dot = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (double x : finite) {
+            sum += x;
+            dot += x * x;
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        assertEquals(sum, BatchMath.sum(finite), Math.abs(sum) * 1e-12); // four accumulators round differently
+        assertEquals(dot, BatchMath.dot(finite, finite), dot * 1e-12);
+        assertEquals(min, BatchMath.min(finite));
+        assertEquals(max, BatchMath.max(finite));
+        assertEquals(finite[5] + finite[6] + finite[7], BatchMath.sum(finite, 5, 8), 1e-9);
+
+        for (boolean direct : new boolean[] {false, true}) {
+            DoubleBuffer b = buffer(finite.length, direct).put(finite).flip();
+            assertEquals(sum, BatchMath.sum(b), Math.abs(sum) * 1e-12);
+            assertEquals(min, BatchMath.min(b));
+            assertEquals(max, BatchMath.max(b));
+            b.position(finite.length - 1);
+            assertEquals(finite[finite.length - 1], BatchMath.sum(b));
+        }
+    }
+
+    @Test
+    void emptyRangesAndNaN() {
+        assertEquals(0.0, BatchMath.sum(new double[0]));
+        assertEquals(Double.POSITIVE_INFINITY, BatchMath.min(new double[0]));
+        assertEquals(Double.NEGATIVE_INFINITY, BatchMath.max(new double[0]));
+        assertEquals(Double.NEGATIVE_INFINITY, BatchMath.max(DoubleBuffer.allocate(0)));
+        double[] withNaN = {1, Double.NaN, 3};
+        assertTrue(Double.isNaN(BatchMath.min(withNaN)));
+        assertTrue(Double.isNaN(BatchMath.max(withNaN)));
+        assertTrue(Double.isNaN(BatchMath.sum(withNaN)));
+    }
+
+    /* ---------------- Random ---------------- */
+
+    @Test
+    void seededSequencesRepeat() {
+        lua.math.randomseed(1234);
+        double[] first = new double[100];
+        BatchMath.random(first);
+        int[] ints = new int[1000];
+        BatchMath.random(ints, -3, 3);
+        double scalar = lua.math.random();
+
+        lua.math.randomseed(1234);
+        double[] again = new double[100];
+        BatchMath.random(again);
+        assertArrayEquals(first, again);
+        int[] intsAgain = new int[1000];
+        BatchMath.random(intsAgain, -3, 3);
+        assertArrayEquals(ints, intsAgain);
+        assertEquals(scalar, lua.math.random());
+
+        for (double d : first) assertTrue(d >= 0 && d < 1);
+        assertEquals(-3, Arrays.stream(ints).min().getAsInt());
+        assertEquals(3, Arrays.stream(ints).max().getAsInt());
+        assertThrows(IllegalArgumentException.class, () -> BatchMath.random(new int[1], 2, 1));
+        assertThrows(IllegalArgumentException.class, () -> lua.math.random(2, 1));
+    }
+
+    @Test
+    void seedsArePerThread() throws Exception {
+        lua.math.randomseed(99);
+        double mine = lua.math.random();
+        double other = CompletableFuture.supplyAsync(() -> {
+            lua.math.randomseed(99);
+            return lua.math.random();
+        }).get();
+        assertEquals(mine, other); // same seed, same sequence, on any thread
+        lua.math.randomseed(99);
+        CompletableFuture.runAsync(() -> lua.math.randomseed(7)).get();
+        assertEquals(mine, lua.math.random()); // another thread's seed leaves ours alone
+        assertNotEquals(mine, lua.math.random());
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private static void check(BiConsumer<double[], double[]> batch, DoubleUnaryOperator op) {
+        double[] out = new double[INPUT.length];
+        batch.accept(INPUT, out);
+        assertArrayEquals(scalar(op), out);
+    }
+
+    private static double[] scalar(DoubleUnaryOperator op) {
+        double[] out = new double[INPUT.length];
+        for (int i = 0; i < out.length; i++) out[i] = op.applyAsDouble(INPUT[i]);
+        return out;
+    }
+
+    private static DoubleBuffer buffer(int n, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(n * Double.BYTES).asDoubleBuffer() : DoubleBuffer.allocate(n);
+    }
+
+    private static double[] input(int n) {
+        Random r = new Random(7);
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++) a[i] = (r.nextDouble() - 0.5) * 1e4;
+        double[] special = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -2.5, 2.5, 1e300};
+        for (int i = 0; i < special.length; i++) a[i * 97] = special[i];
+        return a;
+    }
+}
@@ -0,0 +1,116 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+/** JDK classes stand in for the Minecraft ones: the same shapes, found the same way. */
+class BindingsTest {
+
+    /* ---------------- Lookup ---------------- */
+
+    @Test
+    void absentMembersAreNull() {
+        assertNull(Bindings.type("no.such.Type"));
+        assertSame(String.class, Bindings.type("java.lang.String"));
+        assertNull(Bindings.method(null, "length"));
+        assertNull(Bindings.method(String.class, "noSuchMethod"));
+        assertNull(Bindings.method(String.class, "indexOf", (Class<?>) null)); // a parameter type that was not found
+        assertNull(Bindings.getter(Point.class, "z"));
+        assertNull(Bindings.accessor(String.class, "nothing"));
+        assertNull(Bindings.bind(Bindings.Call1.class, null));
+    }
+
+    @Test
+    void firstMatchingNameWins() {
+        Bindings.Call1 trim = Bindings.bind(Bindings.Call1.class,
+                Bindings.method(String.class, new String[] {"strip_", "trim", "strip"}));
+        assertEquals("x", trim.call("  x "));
+        assertNull(Bindings.method(String.class, new String[] {"a", "b"}));
+    }
+
+    /* ---------------- Methods ---------------- */
+
+    @Test
+    void everyShapeCallsThrough() {
+        Bindings.Call0 now = Bindings.bind(Bindings.Call0.class, Bindings.method(System.class, "lineSeparator"));
+        assertEquals(System.lineSeparator(), now.call());
+        Bindings.Call1 length = Bindings.bind(Bindings.Call1.class, Bindings.method(String.class, "length"));
+        assertEquals(3, length.call("abc"));
+        Bindings.Call2 concat = Bindings.bind(Bindings.Call2.class, Bindings.method(String.class, "concat", String.class));
+        assertEquals("ab", concat.call("a", "b"));
+
+        List<Object> list = new ArrayList<>();
+        Bindings.Run2 add = Bindings.bind(Bindings.Run2.class, Bindings.method(List.class, "add", Object.class));
+        add.call(list, "b"); // the boolean result is dropped
+        Bindings.Run3 insert = Bindings.bind(Bindings.Run3.class, Bindings.method(List.class, "add", int.class, Object.class));
+        insert.call(list, 0, "a");
+        assertEquals(List.of("a", "b"), list);
+
+        assertEquals(2.5, Bindings.bind(Bindings.ToDouble1.class, Bindings.method(Number.class, "doubleValue")).call(2.5f));
+        assertEquals(3L, Bindings.bind(Bindings.ToLong1.class, Bindings.method(String.class, "length")).call("abc"));
+        assertTrue(Bindings.bind(Bindings.ToBoolean1.class, Bindings.method(String.class, "isEmpty")).call(""));
+    }
+
+    @Test
+    void primitiveParametersTakeBoxes() {
+        Bindings.Call1 show = Bindings.bind(Bindings.Call1.class, Bindings.method(String.class, "valueOf", boolean.class));
+        assertEquals("false", show.call(Boolean.FALSE));
+        Bindings.Call2 charAt = Bindings.bind(Bindings.Call2.class, Bindings.method(String.class, "charAt", int.class));
+        assertEquals('b', charAt.call("abc", 1));
+    }
+
+    @Test
+    void exceptionsPassThroughUnchanged() {
+        Bindings.Call1 parse = Bindings.bind(Bindings.Call1.class, Bindings.method(Integer.class, "parseInt", String.class));
+        assertThrows(NumberFormatException.class, () -> parse.call("x"));
+        Bindings.Call1 size = Bindings.bind(Bindings.Call1.class, Bindings.method(Files.class, "size", Path.class));
+        assertThrows(NoSuchFileException.class, () -> size.call(Path.of("no", "such", "file"))); // checked, not wrapped
+    }
+
+    /* ---------------- Fields ---------------- */
+
+    @Test
+    void fieldsAreReadThroughAdapters() {
+        Point p = new Point(3, 4);
+        assertEquals(3, Bindings.bind(Bindings.Call1.class, Bindings.getter(Point.class, "x")).call(p));
+        assertEquals(4L, Bindings.bind(Bindings.ToLong1.class, Bindings.getter(Point.class, "y")).call(p));
+        assertEquals(4.0, Bindings.bind(Bindings.ToDouble1.class, Bindings.accessor(Point.class, "y")).call(p));
+        assertEquals(Integer.MAX_VALUE, Bindings.bind(Bindings.Call0.class, Bindings.getter(Integer.class, "MAX_VALUE")).call());
+        assertEquals(3L, Bindings.bind(Bindings.ToLong1.class, Bindings.accessor(String.class, "length")).call("abc")); // a method when there is one
+    }
+
+    @Test
+    void otherInterfacesAreProxied() {
+        @SuppressWarnings("unchecked")
+        Function<Object, Object> x = Bindings.bind(Function.class, Bindings.getter(Point.class, "x"));
+        assertNotNull(x);
+        assertEquals(7, x.apply(new Point(7, 0)));
+        @SuppressWarnings("unchecked")
+        Function<Object, Object> upper = Bindings.bind(Function.class, Bindings.method(String.class, "toUpperCase"));
+        assertEquals("ABC", upper.apply("abc"));
+    }
+
+    @Test
+    void shapesThatDoNotFitAreRefused() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Bindings.bind(Bindings.Call0.class, Bindings.method(String.class, "length")));
+        assertThrows(IllegalArgumentException.class,
+                () -> Bindings.bind(String.class, Bindings.method(String.class, "length")));
+        assertThrows(IllegalArgumentException.class,
+                () -> Bindings.bind(Iterator.class, Bindings.method(String.class, "length")));
+    }
+}
@@ -0,0 +1,241 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The bus wire format, seen from a raw socket talking to a hub:
+ * [int length][byte type][long origin][long seq][payload], length excluding itself.
+ */
+class ChatBusFramingTest {
+
+    private static final byte HELLO = 1, CHAT = 2, SYSTEM = 3, EVENT = 4;
+    private static final int HEADER = 4 + 1 + 8 + 8;
+    private static final long ORIGIN = 0x1234_5678_9ABCL;
+
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private InetSocketAddress address;
+    private ChatBus hub;
+
+    @BeforeEach
+    void startHub() throws Exception {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            address = new InetSocketAddress("127.0.0.1", probe.getLocalPort());
+        }
+        hub = new ChatBus(address, null, (message, system) -> lines.add((system ? "system: " : "chat: ") + message));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!hub.isHub()) {
+            assertTrue(System.nanoTime() < deadline, "bus did not bind " + address);
+            Thread.sleep(5);
+        }
+    }
+
+    @AfterEach
+    void closeHub() {
+        hub.close();
+    }
+
+    @Test
+    void framesSplitOrBatchedAreDeliveredInOrder() throws Exception {
+        try (Socket s = client()) {
+            OutputStream out = s.getOutputStream();
+            for (byte b : frame(CHAT, ORIGIN, 1, "one")) {
+                out.write(b);
+                out.flush();
+                Thread.sleep(1);
+            }
+            ByteBuffer both = ByteBuffer.allocate(64);
+            both.put(frame(SYSTEM, ORIGIN, 2, "two")).put(frame(CHAT, ORIGIN, 3, "three"));
+            out.write(both.array(), 0, both.position());
+            out.flush();
+
+            assertEquals("chat: one", next());
+            assertEquals("system: two", next());
+            assertEquals("chat: three", next());
+        }
+    }
+
+    @Test
+    void duplicateSequencesAreDropped() throws Exception {
+        try (Socket s = client()) {
+            write(s, frame(CHAT, ORIGIN, 1, "first"));
+            write(s, frame(CHAT, ORIGIN, 1, "first again"));
+            write(s, frame(CHAT, ORIGIN, 2, "second"));
+            write(s, frame(CHAT, ORIGIN + 1, 1, "other origin"));
+            assertEquals("chat: first", next());
+            assertEquals("chat: second", next());
+            assertEquals("chat: other origin", next());
+            assertNull(lines.poll(100, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    void eventsReachSubscribers() throws Exception {
+        BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        hub.subscribe("restart", events::add);
+        try (Socket s = client()) {
+            write(s, event(ORIGIN, 1, "restart", "12:00"));
+            write(s, event(ORIGIN, 2, "other", "ignored"));
+            write(s, event(ORIGIN, 3, "restart", ""));
+            assertEquals("12:00", events.poll(5, TimeUnit.SECONDS));
+            assertEquals("", events.poll(5, TimeUnit.SECONDS));
+            assertTrue(lines.isEmpty());
+        }
+    }
+
+    @Test
+    void publishedFramesCarryTheirLayoutAndSequence() throws Exception {
+        try (Socket s = client()) {
+            connected(s);
+            hub.publish("topic", "data é");
+            hub.send("hello", true);
+
+            ByteBuffer e = ByteBuffer.wrap(read(s));
+            assertEquals(e.capacity() - 4, e.getInt());
+            assertEquals(EVENT, e.get());
+            long origin = e.getLong();
+            assertNotEquals(0, origin);
+            long seq = e.getLong();
+            assertEquals(5, e.getShort());
+            assertEquals("topic", string(e, 5));
+            assertEquals("data é", string(e, e.remaining()));
+
+            ByteBuffer c = ByteBuffer.wrap(read(s));
+            c.position(4);
+            assertEquals(SYSTEM, c.get());
+            assertEquals(origin, c.getLong());
+            assertEquals(seq + 1, c.getLong());
+            assertEquals("hello", string(c, c.remaining()));
+        }
+    }
+
+    @Test
+    void hubRelaysToOtherConnectionsOnly() throws Exception {
+        try (Socket a = client(); Socket b = client()) {
+            connected(a);
+            connected(b);
+            assertEquals(EVENT, read(a)[4]); // each got the other's ping, relayed
+            assertEquals(EVENT, read(b)[4]);
+            byte[] f = frame(CHAT, ORIGIN, 1, "relayed");
+            write(a, f);
+            assertArrayEquals(f, read(b));
+            assertEquals("chat: relayed", next());
+            a.setSoTimeout(100);
+            assertThrows(SocketTimeoutException.class, () -> a.getInputStream().read());
+        }
+    }
+
+    @Test
+    void badLengthDropsTheConnection() throws Exception {
+        try (Socket s = client()) {
+            ByteBuffer b = ByteBuffer.allocate(8).putInt(3).putInt(0);
+            write(s, b.array());
+            assertEquals(-1, s.getInputStream().read());
+        }
+        try (Socket s = client()) {
+            write(s, ByteBuffer.allocate(4).putInt(ChatBus.MAX_FRAME + 1).array());
+            assertEquals(-1, s.getInputStream().read());
+        }
+        try (Socket s = client()) {
+            write(s, frame(CHAT, ORIGIN, 1, "still serving"));
+            assertEquals("chat: still serving", next());
+        }
+    }
+
+    @Test
+    void framesLargerThanTheReadBufferArriveWhole() throws Exception {
+        String big = "x".repeat(200 * 1024) + "end";
+        try (Socket s = client()) {
+            write(s, frame(CHAT, ORIGIN, 1, big));
+            write(s, frame(CHAT, ORIGIN, 2, "after"));
+            assertEquals("chat: " + big, next());
+            assertEquals("chat: after", next());
+        }
+        assertThrows(IllegalArgumentException.class, () -> hub.publish("t", "y".repeat(ChatBus.MAX_FRAME)));
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private Socket client() throws IOException {
+        Socket s = new Socket(address.getAddress(), address.getPort());
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(5000);
+        return s;
+    }
+
+    /** Announce s and wait until the hub has taken a frame from it, so it is in the relay set. */
+    private void connected(Socket s) throws Exception {
+        long origin = ORIGIN + s.getLocalPort();
+        BlockingQueue<String> seen = new LinkedBlockingQueue<>();
+        Consumer<String> listener = seen::add;
+        hub.subscribe("ping", listener);
+        try {
+            write(s, ByteBuffer.allocate(HEADER + 1).putInt(HEADER - 4 + 1).put(HELLO).putLong(origin).putLong(0).put((byte) 1).array());
+            write(s, event(origin, 1, "ping", ""));
+            assertEquals("", seen.poll(5, TimeUnit.SECONDS));
+        } finally {
+            hub.unsubscribe("ping", listener);
+        }
+    }
+
+    private String next() throws InterruptedException {
+        String line = lines.poll(5, TimeUnit.SECONDS);
+        assertTrue(line != null, "no line delivered");
+        return line;
+    }
+
+    private static byte[] frame(byte type, long origin, long seq, String text) {
+        byte[] p = text.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER + p.length)
+                .putInt(HEADER - 4 + p.length).put(type).putLong(origin).putLong(seq).put(p).array();
+    }
+
+    private static byte[] event(long origin, long seq, String topic, String data) {
+        byte[] t = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] d = data.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER - 4 + 2 + t.length + d.length;
+        return ByteBuffer.allocate(4 + length)
+                .putInt(length).put(EVENT).putLong(origin).putLong(seq).putShort((short) t.length).put(t).put(d).array();
+    }
+
+    private static void write(Socket s, byte[] bytes) throws IOException {
+        s.getOutputStream().write(bytes);
+        s.getOutputStream().flush();
+    }
+
+    private static byte[] read(Socket s) throws IOException {
+        DataInputStream in = new DataInputStream(s.getInputStream());
+        int length = in.readInt();
+        byte[] bytes = new byte[4 + length];
+        ByteBuffer.wrap(bytes).putInt(length);
+        in.readFully(bytes, 4, length);
+        return bytes;
+    }
+
+    private static String string(ByteBuffer b, int n) {
+        String s = new String(b.array(), b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+}
@@ -0,0 +1,179 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class ChatPipelineTest {
+
+    private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+    private final lua.ChatSender sender = (message, system) -> lines.add((system ? "system " : "") + message);
+
+    /* ---------------- Backpressure ---------------- */
+
+    @Test
+    void dropOldestMakesRoom() {
+        ChatPipeline chat = pipeline(4, ChatPipeline.Backpressure.DROP_OLDEST);
+        for (int i = 1; i <= 6; i++) assertTrue(chat.submit("m" + i, false));
+        assertEquals(2, chat.dropped());
+        assertEquals(4, chat.drain());
+        assertEquals(List.of("m3", "m4", "m5", "m6"), lines);
+        assertEquals(6, chat.queued());
+        assertEquals(4, chat.sent());
+    }
+
+    @Test
+    void blockGivesUpAfterTheWait() {
+        ChatPipeline chat = pipeline(2, ChatPipeline.Backpressure.BLOCK);
+        chat.setBlockMillis(10);
+        assertTrue(chat.submit("a", false));
+        assertTrue(chat.submit("b", false));
+        long t0 = System.nanoTime();
+        assertFalse(chat.submit("c", false));
+        assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(10));
+        chat.setBlockMillis(10_000);
+        assertFalse(chat.submitTo("d", false, sender)); // never waits
+        assertEquals(2, chat.dropped());
+        chat.flush();
+        assertEquals(List.of("a", "b"), lines);
+    }
+
+    @Test
+    void coalesceDropsNewMessagesWhenFull() {
+        ChatPipeline chat = pipeline(2, ChatPipeline.Backpressure.COALESCE_DUPLICATES);
+        assertTrue(chat.submit("a", false));
+        assertTrue(chat.submit("b", false));
+        assertFalse(chat.submit("c", false));
+        assertTrue(chat.submit("a", false)); // still folds into the queued copy
+        assertEquals(2, chat.coalescing());
+        chat.flush();
+        assertEquals(List.of("a (x2)", "b"), lines);
+        assertEquals(0, chat.coalescing());
+    }
+
+    /* ---------------- Coalescing ---------------- */
+
+    @Test
+    void repeatsFoldOnlyUnderCoalesce() {
+        ChatPipeline chat = pipeline(16, ChatPipeline.Backpressure.COALESCE_DUPLICATES);
+        chat.submit("a", false);
+        chat.submit("a", false);
+        chat.submit("b", false);
+        chat.submit("a", false);
+        chat.submit("a", true);
+        chat.flush();
+        assertEquals(List.of("a (x3)", "b", "system a"), lines);
+        assertEquals(2, chat.coalesced());
+        assertEquals(3, chat.sent());
+
+        lines.clear();
+        chat.submit("a", false); // the sent copy is closed: this is a new line
+        chat.flush();
+        assertEquals(List.of("a"), lines);
+
+        lines.clear();
+        chat.setPolicy(ChatPipeline.Backpressure.DROP_OLDEST);
+        chat.submit("a", false);
+        chat.submit("a", false);
+        chat.flush();
+        assertEquals(List.of("a", "a"), lines);
+    }
+
+    @Test
+    void concurrentDuplicatesKeepEveryCopy() throws InterruptedException {
+        ChatPipeline chat = pipeline(8, ChatPipeline.Backpressure.COALESCE_DUPLICATES);
+        AtomicLong accepted = new AtomicLong();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread drainer = new Thread(() -> {
+            while (!done.get()) chat.drain();
+        });
+        drainer.start();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread p = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    if (chat.submit("line " + (i & 255), (i & 256) != 0)) accepted.incrementAndGet();
+                }
+            });
+            producers.add(p);
+            p.start();
+        }
+        for (Thread p : producers) p.join();
+        done.set(true);
+        drainer.join();
+        chat.flush();
+
+        long copies = 0;
+        synchronized (lines) {
+            for (String line : lines) {
+                int x = line.lastIndexOf(" (x");
+                copies += x < 0 ? 1 : Long.parseLong(line.substring(x + 3, line.length() - 1));
+            }
+        }
+        assertEquals(accepted.get(), copies);
+        assertEquals(8 * 20_000, accepted.get() + chat.dropped());
+        assertEquals(0, chat.coalescing()); // no sent message left behind to fold into
+    }
+
+    /* ---------------- Draining ---------------- */
+
+    @Test
+    void drainTakesOneBatch() {
+        ChatPipeline chat = pipeline(16, ChatPipeline.Backpressure.DROP_OLDEST);
+        chat.setBatchSize(2);
+        for (int i = 0; i < 5; i++) chat.submit("m" + i, false);
+        assertEquals(2, chat.drain());
+        assertEquals(3, chat.pending());
+        chat.flush();
+        assertEquals(0, chat.pending());
+        assertEquals(5, lines.size());
+    }
+
+    @Test
+    void submitToUsesItsOwnSender() {
+        ChatPipeline chat = pipeline(16, ChatPipeline.Backpressure.COALESCE_DUPLICATES);
+        List<String> other = new ArrayList<>();
+        chat.submitTo("x", true, (message, system) -> other.add(message));
+        chat.submit("x", true); // same text, different destination: not folded into the other
+        chat.submitTo("y", false, (message, system) -> { throw new IllegalStateException("gone"); });
+        chat.flush();
+        assertEquals(List.of("x"), other);
+        assertEquals(List.of("system x"), lines);
+        assertEquals(3, chat.sent()); // a failing sender falls back to the log
+    }
+
+    @Test
+    void backgroundDrainerDeliversUntilTickDriven() throws InterruptedException {
+        ChatPipeline chat = new ChatPipeline(sender, 16, ChatPipeline.Backpressure.DROP_OLDEST);
+        chat.setTickMillis(1);
+        try {
+            chat.submit("async", false);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (lines.isEmpty()) {
+                assertTrue(System.nanoTime() < deadline, "not drained");
+                Thread.sleep(1);
+            }
+            assertEquals(List.of("async"), lines);
+        } finally {
+            chat.setTickDriven(true);
+        }
+        Thread.sleep(20); // the stopped drainer may finish one last round
+        chat.submit("held", false);
+        Thread.sleep(20);
+        assertEquals(1, chat.pending());
+    }
+
+    private ChatPipeline pipeline(int capacity, ChatPipeline.Backpressure policy) {
+        ChatPipeline chat = new ChatPipeline(sender, capacity, policy);
+        chat.setTickDriven(true);
+        return chat;
+    }
+}
@@ -0,0 +1,127 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+class IoRunTest {
+
+    /* ---------------- Output limits ---------------- */
+
+    @Test
+    void cutLinesKeepWhatFits() throws IOException {
+        assertEquals("hello worl", collect("hello world!!\nsecond\n", 10));
+        assertEquals("abc\nhello ", collect("abc\nhello world!!\n", 10));
+        assertEquals("abc\nde\n", collect("abc\nde\n", 10));
+        assertEquals("", collect("anything\n", 0));
+    }
+
+    @Test
+    void truncatedOnlyWhenSomethingWasDropped() throws IOException {
+        lua.OutputReader exact = reader("0123456\n", 8);
+        assertEquals("0123456\n", exact.text());
+        assertFalse(exact.truncated);
+        lua.OutputReader over = reader("0123456\nx\n", 8);
+        assertEquals("0123456\n", over.text());
+        assertTrue(over.truncated);
+    }
+
+    @Test
+    void lineEndingsAreNormalized() throws IOException {
+        assertEquals("a\nb\n\nc\nd\n", collect("a\r\nb\n\nc\rd", 100));
+    }
+
+    @Test
+    void framedLinesAreCutTheSameWay() {
+        lua.OutputReader r = new lua.OutputReader(false, 10, null);
+        r.add("abc");
+        r.add("hello world!!");
+        r.add("never");
+        assertEquals("abc\nhello ", r.text());
+        assertTrue(r.truncated);
+    }
+
+    @Test
+    void listenersGetEveryLineCutToTheLimit() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lua.OutputReader r = new lua.OutputReader(true, 5, (err, line) -> lines.add(err + ":" + line));
+        r.drain(stream("long line\nok\n"));
+        assertEquals(List.of("true:long ", "true:ok"), lines);
+        assertTrue(r.truncated);
+        assertEquals("", r.text());
+    }
+
+    /* ---------------- Processes ---------------- */
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void runCollectsBothStreamsAndTheExitCode() {
+        lua.ProcessResult r = lua.io_run("printf 'out\\n'; printf 'err\\n' >&2; exit 3");
+        assertEquals(3, r.exitCode);
+        assertEquals("out\n", r.stdout);
+        assertEquals("err\n", r.stderr);
+        assertFalse(r.truncated);
+        assertFalse(r.timedOut);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void runAppliesTheOutputLimit() {
+        lua.ProcessResult r = lua.io_run("printf 'hello world!!\\nsecond\\n'", 10);
+        assertEquals("hello worl", r.stdout);
+        assertTrue(r.truncated);
+        r = lua.io_run("printf 'abc\\nhello world!!\\n'", 10);
+        assertEquals("abc\nhello ", r.stdout);
+        r = lua.io_run("yes | head -c 5000000", 1000); // the rest is read and dropped, not left to block the process
+        assertEquals(1000, r.stdout.length());
+        assertEquals(0, r.exitCode);
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void runStreamsLinesInOrder() {
+        List<String> lines = new ArrayList<>();
+        lua.ProcessResult r = lua.io_run("for i in 1 2 3; do echo line$i; done; echo oops >&2",
+                (err, line) -> lines.add((err ? "err " : "") + line));
+        assertEquals(0, r.exitCode);
+        assertEquals("", r.stdout);
+        assertEquals(List.of("line1", "line2", "line3"), lines.stream().filter(l -> !l.startsWith("err")).toList());
+        assertTrue(lines.contains("err oops"));
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void concurrentRunsShareThePool() {
+        List<CompletableFuture<lua.ProcessResult>> runs = IntStream.range(0, 64)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> lua.io_run("echo " + i)))
+                .toList();
+        for (int i = 0; i < runs.size(); i++) assertEquals(i + "\n", runs.get(i).join().stdout);
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private static String collect(String output, int limit) throws IOException {
+        return reader(output, limit).text();
+    }
+
+    private static lua.OutputReader reader(String output, int limit) throws IOException {
+        lua.OutputReader r = new lua.OutputReader(false, limit, null);
+        r.drain(stream(output));
+        return r;
+    }
+
+    private static ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,161 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Log is process-wide: each test configures it for itself and afterEach puts the defaults back. */
+class LogTest {
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void restoreDefaults() {
+        Log.flush();
+        Log.configure(Map.of());
+    }
+
+    /* ---------------- Levels ---------------- */
+
+    @Test
+    void categoriesInheritTheirParentsLevel() {
+        Log.Logger quiet = Log.logger("logtest.quiet");
+        Log.Logger loud = Log.logger("logtest.loud.sub");
+        configure("lua.log.level", "WARN", "lua.log.level.logtest.loud", "debug");
+        assertFalse(quiet.isEnabled(Log.Level.INFO));
+        assertTrue(quiet.isEnabled(Log.Level.WARN));
+        assertTrue(loud.isEnabled(Log.Level.DEBUG));
+        assertFalse(loud.isEnabled(Log.Level.TRACE));
+        assertTrue(Log.logger("logtest.loud.later").isEnabled(Log.Level.DEBUG)); // created after configure
+
+        configure("lua.log.level", "OFF");
+        assertFalse(quiet.isEnabled(Log.Level.ERROR));
+        configure("lua.log.level", "nonsense");
+        assertTrue(quiet.isEnabled(Log.Level.INFO));
+        assertFalse(quiet.isEnabled(Log.Level.DEBUG));
+    }
+
+    @Test
+    void disabledLevelsCostNothing() {
+        configure("lua.log.level", "INFO");
+        Log.Logger log = Log.logger("logtest.lazy");
+        AtomicInteger calls = new AtomicInteger();
+        Object expensive = new Object() {
+            @Override public String toString() {
+                calls.incrementAndGet();
+                return "expensive";
+            }
+        };
+        long written = Log.written();
+        log.debug("%s", expensive);
+        log.log(Log.Level.DEBUG, () -> calls.incrementAndGet());
+        log.debug(expensive);
+        Log.flush();
+        assertEquals(0, calls.get());
+        assertEquals(written, Log.written());
+    }
+
+    /* ---------------- Sinks ---------------- */
+
+    @Test
+    void fileLinesCarryTimeLevelCategoryAndThread() throws IOException {
+        configure("lua.log.console", "false", "lua.log.file", dir.toString(), "lua.log.file.prefix", "t");
+        Log.Logger log = Log.logger("logtest.file");
+        StringBuilder mutable = new StringBuilder("before");
+        log.info("%s has %d items", mutable, 3);
+        mutable.setLength(0); // arguments were rendered when logged
+        log.warn("plain");
+        log.error("%d", "not a number"); // a bad format still logs its parts
+        Log.flush();
+
+        List<String> lines = lines(Log.currentFile());
+        assertEquals(3, lines.size(), lines.toString());
+        String thread = Thread.currentThread().getName();
+        assertTrue(lines.get(0).matches("\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} INFO logtest\\.file \\["
+                + java.util.regex.Pattern.quote(thread) + "\\] before has 3 items"), lines.get(0));
+        assertTrue(lines.get(1).endsWith(" WARN logtest.file [" + thread + "] plain"), lines.get(1));
+        assertTrue(lines.get(2).endsWith("] %d not a number"), lines.get(2));
+    }
+
+    @Test
+    void consoleShowsScriptOutputBare() {
+        configure("lua.log.async", "false");
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            Log.logger("lua").info("hello");
+            Log.logger("lua").warn("careful");
+            Log.logger("logtest.console").info("other");
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals("hello\n[WARN] careful\n[logtest.console] other\n", captured.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void aFullQueueLosesNothing() throws IOException {
+        configure("lua.log.console", "false", "lua.log.file", dir.toString(), "lua.log.batch", "64");
+        Log.Logger log = Log.logger("logtest.flood");
+        long written = Log.written(), dropped = Log.dropped();
+        int n = 30_000; // several times the queue
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int id = t;
+            Thread th = new Thread(() -> {
+                for (int i = 0; i < n / 3; i++) log.info("%d:%d", id, i);
+            });
+            threads.add(th);
+            th.start();
+        }
+        for (Thread th : threads) joinQuietly(th);
+        Log.flush();
+        assertEquals(n, Log.written() - written);
+        assertEquals(dropped, Log.dropped());
+        assertEquals(n, lines(Log.currentFile()).size());
+        assertEquals(0, Log.pending());
+        assertNotNull(Log.stats());
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private static void configure(String... kv) {
+        Map<String, String> m = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2) m.put(kv[i], kv[i + 1]);
+        Log.configure(m);
+    }
+
+    /** The lines of a segment that may still be mapped: its zero-filled tail is not text yet. */
+    private static List<String> lines(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int end = 0;
+        while (end < bytes.length && bytes[end] != 0) end++;
+        String text = new String(bytes, 0, end, StandardCharsets.UTF_8);
+        return text.isEmpty() ? List.of() : List.of(text.split("\n"));
+    }
+
+    private static void joinQuietly(Thread t) {
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
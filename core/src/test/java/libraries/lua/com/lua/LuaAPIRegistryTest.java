@@ -0,0 +1,161 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import libraries.lua.com.lua.vm.LuaVM;
+import org.junit.jupiter.api.Test;
+
+/** Every name here starts with "regtest" and is unregistered again, so other tests see the usual set. */
+class LuaAPIRegistryTest {
+
+    @Test
+    void namesAreNormalizedOnce() {
+        String lower = "regtest.lower";
+        assertSame(lower, LuaAPIRegistry.normalize(lower));
+        assertEquals("regtest.mixed", LuaAPIRegistry.normalize("RegTest.Mixed"));
+        assertEquals("regtest.é", LuaAPIRegistry.normalize("RegTest.É"));
+
+        Object api = new Object();
+        LuaAPIRegistry.register("RegTestName", api);
+        try {
+            assertSame(api, LuaAPIRegistry.get("regtestname"));
+            assertSame(api, LuaAPIRegistry.get("REGTESTNAME"));
+            assertTrue(LuaAPIRegistry.snapshot().names().contains("regtestname"));
+        } finally {
+            LuaAPIRegistry.unregister("REGTESTNAME");
+        }
+        assertNull(LuaAPIRegistry.get("regtestname"));
+    }
+
+    @Test
+    void snapshotsNeverChange() {
+        LuaAPIRegistry.Snapshot before = LuaAPIRegistry.snapshot();
+        LuaAPIRegistry.register("regtestsnap", "v1");
+        try {
+            LuaAPIRegistry.Snapshot after = LuaAPIRegistry.snapshot();
+            assertEquals(before.version() + 1, after.version());
+            assertNull(before.get("regtestsnap"));
+            assertEquals("v1", after.get("regtestsnap"));
+            LuaAPIRegistry.register("regtestsnap", "v2");
+            assertEquals("v1", after.get("regtestsnap"));
+            assertEquals(after.version() + 1, LuaAPIRegistry.snapshot().version());
+        } finally {
+            LuaAPIRegistry.unregister("regtestsnap");
+        }
+        assertFalse(LuaAPIRegistry.snapshot().names().contains("regtestsnap"));
+    }
+
+    @Test
+    void slotsFollowEveryVersion() {
+        LuaAPIRegistry.Slot slot = LuaAPIRegistry.slot("RegTestSlot");
+        assertSame(slot, LuaAPIRegistry.slot("regtestslot"));
+        assertEquals("regtestslot", slot.name());
+        assertNull(slot.get());
+        LuaAPIRegistry.register("regtestslot", "a");
+        try {
+            assertEquals("a", slot.get());
+            LuaAPIRegistry.reload(apis -> apis.put("RegTestSlot", "b"));
+            assertEquals("b", slot.get());
+        } finally {
+            LuaAPIRegistry.unregister("regtestslot");
+        }
+        assertNull(slot.get());
+    }
+
+    @Test
+    void reloadPublishesOneVersion() {
+        LuaAPIRegistry.register("regtestold", "old");
+        long version = LuaAPIRegistry.snapshot().version();
+        try {
+            LuaAPIRegistry.reload(apis -> {
+                assertTrue(apis.containsKey("RegTestOld"));
+                assertEquals("old", apis.remove("REGTESTOLD"));
+                apis.put("RegTestNew1", "one");
+                apis.put("regtestnew2", "two");
+                apis.put("regtestnull", null); // a null value is no entry
+            });
+            LuaAPIRegistry.Snapshot s = LuaAPIRegistry.snapshot();
+            assertEquals(version + 1, s.version());
+            assertNull(s.get("regtestold"));
+            assertEquals("one", s.get("regtestnew1"));
+            assertEquals("two", s.get("regtestnew2"));
+            assertFalse(s.names().contains("regtestnull"));
+        } finally {
+            LuaAPIRegistry.reload(apis -> {
+                apis.remove("regtestnew1");
+                apis.remove("regtestnew2");
+            });
+        }
+    }
+
+    @Test
+    void readersSeeWholeVersions() throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            Thread t = new Thread(() -> {
+                long last = -1;
+                while (!done.get()) {
+                    LuaAPIRegistry.Snapshot s = LuaAPIRegistry.snapshot();
+                    Object a = s.get("regtestpairA"), b = s.get("regtestpairB");
+                    if (a != b) failure.set("torn snapshot " + a + "/" + b);
+                    if (s.version() < last) failure.set("version went back " + s.version() + " < " + last);
+                    last = s.version();
+                }
+            });
+            readers.add(t);
+            t.start();
+        }
+        try {
+            for (int i = 0; i < 5_000; i++) {
+                Long v = (long) i;
+                LuaAPIRegistry.reload(apis -> {
+                    apis.put("regtestpairA", v);
+                    apis.put("regtestpairB", v);
+                });
+            }
+        } finally {
+            done.set(true);
+            for (Thread t : readers) t.join();
+            LuaAPIRegistry.reload(apis -> {
+                apis.remove("regtestpairA");
+                apis.remove("regtestpairB");
+            });
+        }
+        assertNull(failure.get(), failure.get());
+    }
+
+    @Test
+    void vmsKeepTheirSnapshotUntilRefreshed() {
+        LuaAPIRegistry.register("regtestversion", (LuaAPIRegistry.LuaFunction0) () -> 1L);
+        try {
+            LuaVM vm = new LuaVM();
+            long version = vm.globals().apiVersion();
+            assertArrayEquals(new Object[] {1L}, vm.exec("return regtestversion()"));
+            LuaAPIRegistry.register("regtestversion", (LuaAPIRegistry.LuaFunction0) () -> 2L);
+            LuaAPIRegistry.register("regtestadded", "here");
+            assertArrayEquals(new Object[] {1L, null}, vm.exec("return regtestversion(), regtestadded"));
+
+            LuaVM other = new LuaVM();
+            other.exec("regtestversion = function() return 'mine' end");
+            vm.globals().refreshApis();
+            other.globals().refreshApis();
+            assertTrue(vm.globals().apiVersion() > version);
+            assertArrayEquals(new Object[] {2L, "here"}, vm.exec("return regtestversion(), regtestadded"));
+            assertArrayEquals(new Object[] {"mine"}, other.exec("return regtestversion()")); // its own assignment stays
+        } finally {
+            LuaAPIRegistry.unregister("regtestversion");
+            LuaAPIRegistry.unregister("regtestadded");
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import libraries.lua.com.lua.LuaAPIRegistry.DoubleFunction1;
+import libraries.lua.com.lua.LuaAPIRegistry.DoubleFunction2;
+import libraries.lua.com.lua.LuaAPIRegistry.LongConsumer1;
+import libraries.lua.com.lua.LuaAPIRegistry.LongFunction1;
+import libraries.lua.com.lua.LuaAPIRegistry.LongFunction2;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaBiFunction;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction0;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction1;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction2;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction3;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunctionN;
+import org.junit.jupiter.api.Test;
+
+class LuaFunctionsTest {
+
+    private static final List<Object> SHAPES = List.of(
+            (LuaFunction0) () -> 1L,
+            (LuaFunction1) a -> a,
+            (LuaFunction2) a -> a,
+            (LuaBiFunction) (a, b) -> a,
+            (LuaFunction3) (a, b, c) -> a,
+            (LuaFunctionN) args -> args.length,
+            (LuaFunction) args -> {},
+            (DoubleFunction1) a -> a,
+            (DoubleFunction2) (a, b) -> a + b,
+            (LongFunction1) a -> a,
+            (LongFunction2) (a, b) -> a + b,
+            (LongConsumer1) a -> {});
+
+    private static final List<Class<?>> SHAPE_TYPES = List.of(
+            LuaFunction0.class, LuaFunction1.class, LuaFunction2.class, LuaBiFunction.class, LuaFunction3.class,
+            LuaFunctionN.class, LuaFunction.class, DoubleFunction1.class, DoubleFunction2.class,
+            LongFunction1.class, LongFunction2.class, LongConsumer1.class);
+
+    /* ---------------- Calling any shape ---------------- */
+
+    @Test
+    void arityOfEveryShape() {
+        int[] arity = {0, 1, 1, 2, 3, -1, -1, 1, 2, 1, 2, 1};
+        for (int i = 0; i < SHAPES.size(); i++) {
+            assertTrue(LuaFunctions.isFunction(SHAPES.get(i)));
+            assertEquals(arity[i], LuaFunctions.arity(SHAPES.get(i)), SHAPE_TYPES.get(i).getSimpleName());
+        }
+        assertTrue(!LuaFunctions.isFunction("print"));
+    }
+
+    @Test
+    void invokePadsAndDropsArguments() {
+        LuaFunction3 all = (a, b, c) -> a + "," + b + "," + c;
+        assertEquals("1,null,null", LuaFunctions.invoke(all, 1L));
+        assertEquals("1,2,3", LuaFunctions.invoke(all, 1L, 2L, 3L, 4L));
+        assertEquals("null,null,null", LuaFunctions.invoke(all, (Object[]) null));
+        assertEquals(7L, LuaFunctions.invoke((LongFunction2) (a, b) -> a + b, 3L, "4"));
+        assertEquals(2.5, LuaFunctions.invoke((DoubleFunction1) a -> a / 2, 5L));
+        assertEquals(3L, LuaFunctions.invoke((LuaFunctionN) args -> (long) args.length, 1, 2, 3));
+
+        List<Object> seen = new ArrayList<>();
+        assertNull(LuaFunctions.invoke((LuaFunction) args -> seen.addAll(Arrays.asList(args)), "a", "b"));
+        assertNull(LuaFunctions.invoke((LongConsumer1) seen::add, 9L));
+        assertEquals(List.of("a", "b", 9L), seen);
+        assertThrows(IllegalArgumentException.class, () -> LuaFunctions.invoke("not a function"));
+    }
+
+    @Test
+    void primitiveShapesConvertTheirArguments() {
+        LongFunction1 inc = a -> a + 1;
+        assertEquals(5L, LuaFunctions.invoke(inc, 4.9)); // truncated like a Java cast
+        assertEquals(5L, LuaFunctions.invoke(inc, " 4 "));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> LuaFunctions.invoke(inc, "four"));
+        assertEquals("bad argument #1 (number expected, got String)", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> LuaFunctions.invoke((DoubleFunction2) (a, b) -> a, 1L, null));
+        assertEquals("bad argument #2 (number expected, got nil)", e.getMessage());
+    }
+
+    /* ---------------- Binding to a shape ---------------- */
+
+    @Test
+    void everyShapeAdaptsToEveryOther() {
+        for (Object fn : SHAPES) {
+            for (Class<?> shape : SHAPE_TYPES) {
+                Object adapted = LuaFunctions.as(shape, fn);
+                assertTrue(shape.isInstance(adapted), fn + " as " + shape.getSimpleName());
+                if (shape.isInstance(fn)) assertSame(fn, adapted);
+            }
+        }
+        assertNull(LuaFunctions.as(LuaFunction1.class, null));
+        assertThrows(IllegalArgumentException.class, () -> LuaFunctions.as(LuaFunction1.class, "print"));
+        assertThrows(IllegalArgumentException.class, () -> LuaFunctions.as(Runnable.class, SHAPES.get(0)));
+    }
+
+    @Test
+    void adaptersKeepValuesAndBoxLikeTheInterpreter() {
+        DoubleFunction1 sqrt = Math::sqrt;
+        LuaFunction1 boxed = LuaFunctions.as(LuaFunction1.class, sqrt);
+        assertEquals(3L, boxed.call(9L)); // integral results come back as Long
+        assertEquals(Math.sqrt(2), boxed.call(2L));
+
+        LongFunction2 add = Math::addExact;
+        DoubleFunction2 asDouble = LuaFunctions.as(DoubleFunction2.class, add);
+        assertEquals(5.0, asDouble.call(2, 3));
+        LongFunction2 back = LuaFunctions.as(LongFunction2.class, (DoubleFunction2) (a, b) -> a / b);
+        assertEquals(3L, back.call(7, 2));
+
+        LuaBiFunction concat = (a, b) -> String.valueOf(a) + b;
+        LongFunction2 parsed = LuaFunctions.as(LongFunction2.class, concat);
+        assertEquals(12L, parsed.call(1, 2)); // a numeric string result is parsed
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> LuaFunctions.as(LongFunction1.class, (LuaFunction1) a -> "x" + a).call(1));
+        assertEquals("bad result (number expected, got String)", e.getMessage());
+
+        LuaFunction2 twice = a -> a * 2;
+        assertEquals(8L, LuaFunctions.as(LuaFunction1.class, twice).call(4.0));
+        assertEquals(8L, LuaFunctions.as(LuaFunctionN.class, twice).call(4L, "dropped"));
+        assertEquals(1L, LuaFunctions.as(LuaFunction0.class, (LuaFunctionN) args -> (long) args.length + 1).call());
+    }
+
+    /* ---------------- Numbers ---------------- */
+
+    @Test
+    void boxKeepsOnlyExactLongs() {
+        assertEquals(3L, LuaFunctions.box(3.0));
+        assertEquals(Long.MIN_VALUE, LuaFunctions.box(-0x1p63)); // exactly representable
+        assertEquals(0x1p63, LuaFunctions.box(0x1p63)); // (long) 2^63 saturates to MAX_VALUE; it is not that value
+        assertEquals(1e300, LuaFunctions.box(1e300));
+        assertEquals(-0.0, LuaFunctions.box(-0.0));
+        assertEquals(0.5, LuaFunctions.box(0.5));
+        assertTrue(Double.isNaN((Double) LuaFunctions.box(Double.NaN)));
+        assertEquals(Double.POSITIVE_INFINITY, LuaFunctions.box(Double.POSITIVE_INFINITY));
+    }
+}
@@ -0,0 +1,133 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class LuaPatternTest {
+
+    @Test
+    void findReportsOffsetsAndCaptures() {
+        LuaPattern.Matcher m = LuaPattern.compile("(%w+)=(%d+)").matcher("x a=1, bb=22");
+        List<String> found = new ArrayList<>();
+        for (int at = 0; m.find(at); at = m.nextFrom()) {
+            assertEquals(2, m.groupCount());
+            found.add(m.start() + ":" + m.end() + " " + m.group(1) + "=" + m.group(2));
+        }
+        assertEquals(List.of("2:5 a=1", "7:12 bb=22"), found);
+    }
+
+    @Test
+    void positionCapturesAreLuaPositions() {
+        LuaPattern.Matcher m = LuaPattern.compile("()ll()").matcher("hello");
+        assertTrue(m.find(0));
+        assertTrue(m.isPosition(1));
+        assertEquals(3L, m.capture(1));
+        assertEquals(5L, m.capture(2));
+        assertEquals("3", m.group(1));
+        assertEquals(m.start(1), m.end(1));
+    }
+
+    @Test
+    void wholeMatchIsCaptureOneWithoutCaptures() {
+        LuaPattern.Matcher m = LuaPattern.compile("%d+").matcher("ab123c");
+        assertTrue(m.find(0));
+        assertEquals(0, m.groupCount());
+        assertEquals("123", m.capture(1));
+    }
+
+    @Test
+    void anchoredPatternsOnlyMatchAtTheStart() {
+        LuaPattern p = LuaPattern.compile("^ab");
+        assertTrue(p.isAnchored());
+        assertTrue(p.matcher("abab").find(0));
+        assertFalse(p.matcher("xab").find(0));
+        assertEquals(4, LuaPattern.compile("ab").matcher("xxab").matchAt(2));
+        assertEquals(-1, LuaPattern.compile("ab").matcher("xxab").matchAt(1));
+    }
+
+    @Test
+    void emptyMatchesAdvance() {
+        LuaPattern.Matcher m = LuaPattern.compile("x*").matcher("axb");
+        int n = 0;
+        for (int at = 0; m.find(at); at = m.nextFrom()) n++;
+        assertEquals(4, n); // "", "x", "", "" as in gmatch
+    }
+
+    @Test
+    void literalsAndSpecials() {
+        assertTrue(LuaPattern.isLiteral("hello world"));
+        assertFalse(LuaPattern.isLiteral("a.b"));
+        assertFalse(LuaPattern.isLiteral("100%"));
+        LuaPattern.Matcher m = LuaPattern.compile("world").matcher("hello world");
+        assertTrue(m.find(0));
+        assertEquals(6, m.start());
+    }
+
+    @Test
+    void balanceFrontierAndBackreference() {
+        LuaPattern.Matcher m = LuaPattern.compile("%b{}").matcher("x{a{b}c}y");
+        assertTrue(m.find(0));
+        assertEquals("{a{b}c}", m.group(0));
+
+        m = LuaPattern.compile("%f[%w]%w+").matcher("THE (quick) fox");
+        assertTrue(m.find(4));
+        assertEquals("quick", m.group(0));
+
+        m = LuaPattern.compile("([\"'])(.-)%1").matcher("say 'it' now");
+        assertTrue(m.find(0));
+        assertEquals("it", m.group(2));
+    }
+
+    @Test
+    void classesFollowTheCLocale() {
+        assertFalse(LuaPattern.compile("%a").matcher("é").find(0));
+        assertTrue(LuaPattern.compile("[^%a]").matcher("é").find(0));
+        assertTrue(LuaPattern.compile("^%x+$").matcher("DeadBeef").find(0));
+        assertFalse(LuaPattern.compile("^%x+$").matcher("xyz").find(0));
+    }
+
+    @Test
+    void matchesAnyCharSequenceAndResets() {
+        StringBuilder sb = new StringBuilder("k=v");
+        LuaPattern.Matcher m = LuaPattern.compile("(%a)=(%a)").matcher(sb);
+        assertTrue(m.find(0));
+        assertEquals("v", m.group(2));
+        m.reset(CharBuffer.wrap("no match here"));
+        assertFalse(m.find(0));
+        m.reset("z=w");
+        assertTrue(m.find(0));
+        assertEquals("z", m.group(1));
+    }
+
+    @Test
+    void appendReplacementExpandsCaptures() {
+        LuaPattern.Matcher m = LuaPattern.compile("(%w+) (%w+)").matcher("hello world");
+        assertTrue(m.find(0));
+        StringBuilder out = new StringBuilder();
+        m.appendReplacement(out, "%2 %1 (%0) 100%%");
+        assertEquals("world hello (hello world) 100%", out.toString());
+        assertThrows(IllegalArgumentException.class, () -> m.appendReplacement(new StringBuilder(), "%"));
+        assertThrows(IllegalArgumentException.class, () -> m.appendReplacement(new StringBuilder(), "%x"));
+    }
+
+    @Test
+    void compiledPatternsAreCached() {
+        assertSame(LuaPattern.compile("(%d+)%s"), LuaPattern.compile("(%d+)%s"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"[a", "(()", "(", "%", "a)", "%b", "%f", "%1"})
+    void malformedPatternsAreRejected(String pattern) {
+        assertThrows(IllegalArgumentException.class, () -> LuaPattern.compile(pattern).matcher("a(b)").find(0));
+    }
+}
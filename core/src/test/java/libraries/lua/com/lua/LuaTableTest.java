@@ -0,0 +1,165 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class LuaTableTest {
+
+    @Test
+    void numericKeysAreNormalized() {
+        lua.table t = new lua.table();
+        t.set(1, "int");
+        assertEquals("int", t.get(1L));
+        assertEquals("int", t.get(1.0));
+        assertEquals("int", t.geti(1));
+        t.set(2.0f, "float");
+        assertEquals("float", t.geti(2));
+        t.set(2.5, "half");
+        assertEquals("half", t.get(2.5));
+        assertEquals(lua.table.DOUBLE, t.keyTagAt(t.find(2.5)));
+        t.set(-0.0, "zero");
+        assertEquals("zero", t.get(0L));
+        t.set(0x1p63, "big"); // past the long range: a double key, not Long.MAX_VALUE
+        assertNull(t.get(Long.MAX_VALUE));
+        assertEquals("big", t.get(0x1p63));
+        assertEquals(5, t.size());
+    }
+
+    @Test
+    void numbersAreStoredUnboxedWithTheirType() {
+        lua.table t = new lua.table();
+        t.seti(1, 7L);
+        t.seti(2, 2.5);
+        t.set("n", 3);
+        t.setNumber("d", 4.0);
+        assertEquals(lua.table.LONG, t.tagOf(1));
+        assertEquals(lua.table.DOUBLE, t.tagOf(2));
+        assertEquals(lua.table.LONG, t.tagOf("n"));
+        assertEquals(lua.table.DOUBLE, t.tagOf("d"));
+        assertEquals(7L, t.get(1L));
+        assertEquals(2.5, t.get(2L));
+        assertEquals(3L, t.get("n"));
+        assertEquals(4.0, t.get("d"));
+        assertEquals(2, t.getLong(2, -1));
+        assertEquals(-1, t.getLong("missing", -1));
+        t.set("s", "text");
+        assertEquals(9.5, t.getNumber("s", 9.5));
+    }
+
+    @Test
+    void nilRemovesAndBadKeysAreRefused() {
+        lua.table t = new lua.table();
+        t.set("a", 1L);
+        t.set("b", 2L);
+        t.set("a", null);
+        t.remove("b");
+        t.remove(null);
+        assertEquals(0, t.size());
+        assertFalse(t.contains("a"));
+        assertThrows(IllegalArgumentException.class, () -> t.set(null, 1L));
+        assertThrows(IllegalArgumentException.class, () -> t.set(Double.NaN, 1L));
+        assertNull(t.get(Double.NaN));
+    }
+
+    @Test
+    void lengthIsABorder() {
+        lua.table t = new lua.table();
+        assertEquals(0, t.length());
+        for (int i = 1; i <= 100; i++) t.seti(i, (long) i);
+        assertEquals(100, t.length());
+        t.seti(100, (Object) null);
+        assertEquals(99, t.length());
+        t.seti(1, (Object) null);
+        int n = t.length();
+        assertTrue(n == 0 || (t.geti(n) != null && t.geti(n + 1) == null), "border " + n);
+
+        // keys added out of order, then moved into the array part as the run closes
+        lua.table u = new lua.table();
+        u.seti(3, "c");
+        u.seti(2, "b");
+        assertEquals(0, u.length());
+        u.seti(1, "a");
+        assertEquals(3, u.length());
+        u.seti(4, "d");
+        assertEquals(4, u.length());
+        assertEquals(List.of(1L, 2L, 3L, 4L), new ArrayList<>(u.keys()));
+    }
+
+    @Test
+    void positionsVisitEveryEntryOnce() {
+        lua.table t = new lua.table();
+        for (int i = 1; i <= 10; i++) t.seti(i, (long) i);
+        t.set("x", "y");
+        t.set(1.5, true);
+        t.set(-3L, 3L);
+        Set<Object> seen = new HashSet<>();
+        int arrayPart = 0;
+        for (int p = t.next(-1); p >= 0; p = t.next(p)) {
+            assertTrue(seen.add(t.keyAt(p)));
+            if (seen.size() <= 10) assertEquals(++arrayPart, t.keyLongAt(p)); // 1..n come first, in order
+        }
+        assertEquals(13, seen.size());
+
+        // clearing fields while iterating is allowed, as in Lua
+        for (int p = t.next(-1); p >= 0; p = t.next(p)) t.set(t.keyAt(p), null);
+        assertEquals(0, t.size());
+        assertEquals(-1, t.next(-1));
+    }
+
+    @Test
+    void behavesLikeAMapUnderRandomOperations() {
+        Random r = new Random(42);
+        lua.table t = new lua.table();
+        Map<Object, Object> model = new HashMap<>();
+        for (int op = 0; op < 200_000; op++) {
+            Object key;
+            switch (r.nextInt(4)) {
+                case 0: key = (long) r.nextInt(2000) - 100; break;     // array part, hash part, negatives
+                case 1: key = r.nextInt(500) + 0.5; break;              // double keys
+                case 2: key = "k" + r.nextInt(3000); break;
+                default: key = (long) r.nextInt(64); break;             // dense keys
+            }
+            if (r.nextInt(4) == 0) {
+                t.set(key, null);
+                model.remove(key);
+            } else {
+                Object v = r.nextBoolean() ? (Object) (long) op : "v" + op;
+                t.set(key, v);
+                model.put(key, v);
+            }
+        }
+        assertEquals(model.size(), t.size());
+        for (Map.Entry<Object, Object> e : model.entrySet()) assertEquals(e.getValue(), t.get(e.getKey()), "key " + e.getKey());
+        assertEquals(model.keySet(), t.keys());
+        int n = t.length();
+        assertTrue(n == 0 || (t.geti(n) != null && t.geti(n + 1) == null), "border " + n);
+    }
+
+    @Test
+    void largeTablesGrow() {
+        lua.table t = new lua.table();
+        for (int i = 1; i <= 100_000; i++) {
+            t.seti(i, (double) i);
+            t.set("k" + i, (long) i);
+        }
+        assertEquals(200_000, t.size());
+        assertEquals(100_000, t.length());
+        assertEquals(50_000.0, t.getNumber(50_000, 0));
+        assertEquals(77_777L, t.get("k77777"));
+        lua.table sized = new lua.table(1000, 1000);
+        assertEquals(0, sized.size());
+        assertEquals(0, sized.length());
+    }
+}
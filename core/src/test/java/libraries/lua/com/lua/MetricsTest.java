@@ -0,0 +1,151 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** Metrics is process-wide: every test leaves it off and zeroed. */
+class MetricsTest {
+
+    @AfterEach
+    void off() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    /* ---------------- Histogram ---------------- */
+
+    @Test
+    void bucketsAreOrderedAndWithinSixPercent() {
+        int last = -1;
+        for (long v = 0; v < 1L << 40; v = v < 4096 ? v + 1 : v + (v >>> 7) + 1) {
+            int b = Metrics.bucket(v);
+            assertTrue(b >= last, "bucket went down at " + v);
+            last = b;
+            double mid = Metrics.bucketValue(b);
+            if (v < 8) assertEquals(v, mid);
+            else assertEquals(v, mid, v * 0.0625, "bucket " + b);
+        }
+        assertEquals(0, Metrics.bucket(-5));
+        assertEquals(Metrics.bucket(Long.MAX_VALUE), Metrics.bucket(Long.MAX_VALUE / 2)); // the last bucket takes the rest
+    }
+
+    @Test
+    void percentilesOfAKnownDistribution() {
+        Metrics.Timer t = Metrics.timer("metricstest.uniform");
+        for (long us = 1; us <= 10_000; us++) t.record(us * 1000);
+        assertEquals(10_000, t.count());
+        assertEquals(10_000_000, t.maxNanos());
+        assertEquals(5_000_500.0, t.meanNanos(), 1e-6);
+        assertEquals(5_000_000, t.percentileNanos(0.50), 5_000_000 * 0.0625);
+        assertEquals(9_000_000, t.percentileNanos(0.90), 9_000_000 * 0.0625);
+        assertEquals(9_900_000, t.percentileNanos(0.99), 9_900_000 * 0.0625);
+        assertTrue(t.percentileNanos(1.0) <= t.maxNanos()); // never above what was seen
+        assertEquals(0, Metrics.percentile(new long[8], 0.5));
+    }
+
+    /* ---------------- Timers ---------------- */
+
+    @Test
+    void spansCostNothingWhileOff() {
+        Metrics.Timer t = Metrics.timer("metricstest.off");
+        long t0 = t.start();
+        assertEquals(Metrics.OFF, t0);
+        t.error(t0);
+        t.stop(t0);
+        assertEquals(0, t.count());
+        assertEquals(0, t.errors());
+
+        Metrics.setEnabled(true);
+        t0 = t.start();
+        assertTrue(t0 != Metrics.OFF);
+        t.error(t0);
+        t.stop(t0);
+        assertEquals(1, t.count());
+        assertEquals(1, t.errors());
+        assertSame(t, Metrics.timer("metricstest.off"));
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() throws InterruptedException {
+        Metrics.Timer t = Metrics.timer("metricstest.threads");
+        int threads = 4, n = 50_000;
+        List<Thread> list = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread th = new Thread(() -> {
+                for (int j = 1; j <= n; j++) t.record(j);
+            });
+            list.add(th);
+            th.start();
+        }
+        for (Thread th : list) th.join();
+        assertEquals((long) threads * n, t.count());
+        assertEquals((long) threads * n * (n + 1) / 2, t.totalNanos());
+        assertEquals(n, t.maxNanos());
+
+        Metrics.reset();
+        assertEquals(0, t.count());
+        assertEquals(0, t.totalNanos());
+        assertEquals(0, t.maxNanos());
+    }
+
+    @Test
+    void dumpListsTimersWithCallsSlowestFirst() {
+        assertTrue(Metrics.dump().endsWith("(metrics are off)\n"), Metrics.dump());
+        Metrics.setEnabled(true);
+        assertTrue(Metrics.dump().endsWith("(no calls recorded)\n"), Metrics.dump());
+
+        Metrics.timer("metricstest.fast").record(2_000);
+        Metrics.Timer slow = Metrics.timer("metricstest.slow");
+        slow.record(3_000_000);
+        slow.recordError();
+        Metrics.timer("metricstest.idle");
+        String[] lines = Metrics.dump().split("\n");
+        assertEquals(3, lines.length, String.join("\n", lines));
+        assertTrue(lines[0].matches("name\\s+calls\\s+errors\\s+mean\\s+p50\\s+p90\\s+p99\\s+max"), lines[0]);
+        assertTrue(lines[1].matches("metricstest\\.slow\\s+1\\s+1\\s+3\\.0ms\\s+.*3\\.0ms"), lines[1]);
+        assertTrue(lines[2].matches("metricstest\\.fast\\s+1\\s+0\\s+2\\.0us\\s+.*2\\.0us"), lines[2]);
+    }
+
+    /* ---------------- Registry and JMX ---------------- */
+
+    @Test
+    void enablingWrapsRegisteredFunctions() throws Exception {
+        LuaAPIRegistry.LuaFunction1 twice = a -> (Long) a * 2;
+        LuaAPIRegistry.LuaFunction1 fails = a -> {
+            throw new IllegalStateException("no");
+        };
+        LuaAPIRegistry.register("metricstesttwice", twice);
+        LuaAPIRegistry.register("metricstestfails", fails);
+        try {
+            assertSame(twice, LuaAPIRegistry.get("metricstesttwice"));
+            Metrics.setEnabled(true);
+            Object wrapped = LuaAPIRegistry.get("metricstesttwice");
+            assertFalse(wrapped == twice);
+            assertTrue(wrapped instanceof LuaAPIRegistry.LuaFunction1); // callers keep the shape
+            for (long i = 0; i < 5; i++) assertEquals(i * 2, ((LuaAPIRegistry.LuaFunction1) wrapped).call(i));
+            LuaAPIRegistry.LuaFunction1 failing = (LuaAPIRegistry.LuaFunction1) LuaAPIRegistry.get("metricstestfails");
+            assertThrows(IllegalStateException.class, () -> failing.call(1L));
+
+            assertEquals(5, Metrics.timer("api.metricstesttwice").count());
+            assertEquals(1, Metrics.timer("api.metricstestfails").errors());
+            ObjectName bean = new ObjectName("libraries.lua:type=Metrics,name=" + ObjectName.quote("api.metricstesttwice"));
+            assertEquals(5L, ManagementFactory.getPlatformMBeanServer().getAttribute(bean, "Count"));
+
+            Metrics.setEnabled(false);
+            assertSame(twice, LuaAPIRegistry.get("metricstesttwice"));
+        } finally {
+            LuaAPIRegistry.unregister("metricstesttwice");
+            LuaAPIRegistry.unregister("metricstestfails");
+        }
+    }
+}
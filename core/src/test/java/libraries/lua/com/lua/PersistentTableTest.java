@@ -0,0 +1,158 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PersistentTableTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void valuesSurviveReopen() throws IOException {
+        Path file = dir.resolve("t.tbl");
+        lua.table pos = new lua.table();
+        pos.set("x", 1.5);
+        pos.seti(1, "first");
+        try (PersistentTable t = PersistentTable.open(file)) {
+            t.set("coins", 10L);
+            t.set("ratio", 0.25);
+            t.set("name", "steve");
+            t.set("alive", true);
+            t.set(7L, "seven");
+            t.set("pos", pos);
+        }
+        try (PersistentTable t = PersistentTable.open(file)) {
+            assertEquals(6, t.size());
+            assertEquals(10L, t.get("coins"));
+            assertEquals(10L, t.getLong("coins", 0));
+            assertEquals(0.25, t.getNumber("ratio", 0));
+            assertEquals("steve", t.getString("name"));
+            assertEquals(true, t.get("alive"));
+            assertEquals("seven", t.get(7L));
+            assertEquals("seven", t.get(7.0)); // number keys are normalized, as in lua.table
+            lua.table back = (lua.table) t.get("pos");
+            assertEquals(1.5, back.get("x"));
+            assertEquals("first", back.geti(1));
+            assertNull(t.get("missing"));
+            assertEquals(-1, t.getLong("missing", -1));
+        }
+    }
+
+    @Test
+    void overwriteAndRemove() throws IOException {
+        Path file = dir.resolve("t.tbl");
+        try (PersistentTable t = PersistentTable.open(file)) {
+            t.set("a", 1L);
+            t.set("b", 2L);
+            t.set("a", 3L);
+            t.remove("b");
+            t.set("never", null);
+            assertEquals(1, t.size());
+            assertFalse(t.contains("b"));
+            assertTrue(t.garbageBytes() > 0);
+        }
+        try (PersistentTable t = PersistentTable.open(file)) {
+            assertEquals(3L, t.get("a"));
+            assertNull(t.get("b"));
+            assertEquals(List.of("a"), t.keys());
+        }
+    }
+
+    @Test
+    void nestedTablesAreStoredByValue() throws IOException {
+        try (PersistentTable t = PersistentTable.open(dir.resolve("t.tbl"))) {
+            lua.table inv = new lua.table();
+            inv.set("apples", 1L);
+            t.set("inv", inv);
+            inv.set("apples", 99L); // not persisted until set again
+            assertEquals(1L, ((lua.table) t.get("inv")).get("apples"));
+            t.set("inv", inv);
+            assertEquals(99L, ((lua.table) t.get("inv")).get("apples"));
+        }
+    }
+
+    @Test
+    void compactKeepsLiveRecordsOnly() throws IOException {
+        Path file = dir.resolve("t.tbl");
+        try (PersistentTable t = PersistentTable.open(file)) {
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 200; i++) t.set("k" + i, (long) (round * 1000 + i));
+            }
+            for (int i = 0; i < 200; i += 2) t.remove("k" + i);
+            long before = t.fileBytes();
+            t.compact();
+            assertEquals(0, t.garbageBytes());
+            assertTrue(t.fileBytes() < before);
+            t.set("after", "compaction");
+        }
+        try (PersistentTable t = PersistentTable.open(file)) {
+            assertEquals(101, t.size());
+            Set<Object> keys = new HashSet<>(t.keys());
+            assertEquals(101, keys.size());
+            for (int i = 1; i < 200; i += 2) assertEquals(4000L + i, t.get("k" + i));
+            assertNull(t.get("k0"));
+            assertEquals("compaction", t.get("after"));
+            assertEquals(101, t.toTable().size());
+        }
+    }
+
+    @Test
+    void tornLastRecordIsIgnored() throws IOException {
+        Path file = dir.resolve("t.tbl");
+        try (PersistentTable t = PersistentTable.open(file)) {
+            t.set("kept", "yes");
+            t.set("torn", "this record loses its last bytes");
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);
+        }
+        try (PersistentTable t = PersistentTable.open(file)) {
+            assertEquals("yes", t.get("kept"));
+            assertNull(t.get("torn"));
+            assertEquals(1, t.size());
+            t.set("next", 1L); // appends over the torn tail
+        }
+        try (PersistentTable t = PersistentTable.open(file)) {
+            assertEquals(2, t.size());
+            assertEquals(1L, t.get("next"));
+        }
+    }
+
+    @Test
+    void corruptRecordStopsReplay() throws IOException {
+        Path file = dir.resolve("t.tbl");
+        try (PersistentTable t = PersistentTable.open(file)) {
+            t.set("a", "first");
+            t.set("b", "second");
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x55; // inside the last record's value: its CRC no longer matches
+        Files.write(file, bytes);
+        try (PersistentTable t = PersistentTable.open(file)) {
+            assertEquals("first", t.get("a"));
+            assertNull(t.get("b"));
+        }
+    }
+
+    @Test
+    void otherFilesAreRefused() throws IOException {
+        Path file = dir.resolve("not-a-table");
+        Files.writeString(file, "this is not a table file at all");
+        assertThrows(IOException.class, () -> PersistentTable.open(file));
+    }
+}
@@ -0,0 +1,80 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RingBufferTest {
+
+    @Test
+    void capacityRoundsUpToAPowerOfTwo() {
+        assertEquals(2, new RingBuffer<>(0).capacity());
+        assertEquals(2, new RingBuffer<>(2).capacity());
+        assertEquals(8, new RingBuffer<>(5).capacity());
+        assertEquals(1024, new RingBuffer<>(1024).capacity());
+    }
+
+    @Test
+    void firstInFirstOutAcrossWraps() {
+        RingBuffer<Integer> q = new RingBuffer<>(4);
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        int next = 0, expected = 0;
+        for (int round = 0; round < 10; round++) {
+            while (q.offer(next)) next++;
+            assertEquals(4, q.size());
+            assertEquals(expected++, q.poll());
+            assertEquals(expected++, q.poll());
+        }
+        while (!q.isEmpty()) assertEquals(expected++, q.poll());
+        assertEquals(next, expected);
+    }
+
+    @Test
+    void fullQueueRefusesUntilPolled() {
+        RingBuffer<String> q = new RingBuffer<>(2);
+        assertTrue(q.offer("a"));
+        assertTrue(q.offer("b"));
+        assertFalse(q.offer("c"));
+        assertEquals("a", q.poll());
+        assertTrue(q.offer("c"));
+        assertEquals("b", q.poll());
+        assertEquals("c", q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    void manyProducersOneConsumer() throws InterruptedException {
+        int producers = 4, each = 100_000;
+        RingBuffer<Long> q = new RingBuffer<>(256);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long id = p;
+            Thread t = new Thread(() -> {
+                for (long i = 0; i < each; i++) {
+                    while (!q.offer(id << 32 | i)) Thread.onSpinWait();
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        long[] nextOf = new long[producers];
+        for (int received = 0; received < producers * each; ) {
+            Long v = q.poll();
+            if (v == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int id = (int) (v >>> 32);
+            assertEquals(nextOf[id]++, v & 0xFFFF_FFFFL); // each producer's values arrive in order, once
+            received++;
+        }
+        for (Thread t : threads) t.join();
+        assertTrue(q.isEmpty());
+    }
+}
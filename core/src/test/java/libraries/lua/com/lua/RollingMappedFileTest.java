@@ -0,0 +1,87 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RollingMappedFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void segmentsHoldWholeLines() throws IOException {
+        RollingMappedFile f = new RollingMappedFile(dir, "log", 4096, 100);
+        StringBuilder all = new StringBuilder();
+        for (int batch = 0; batch < 50; batch++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 7; i++) sb.append("batch ").append(batch).append(" line ").append(i).append(" é ").append("x".repeat(40)).append('\n');
+            f.write(sb);
+            all.append(sb);
+        }
+        f.close();
+        List<Path> segments = segments();
+        assertTrue(segments.size() > 3, segments.toString());
+        StringBuilder joined = new StringBuilder();
+        for (Path p : segments) {
+            byte[] bytes = Files.readAllBytes(p);
+            assertTrue(bytes.length <= 4096);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            assertTrue(text.endsWith("\n"), p + " ends mid-line");
+            joined.append(text);
+        }
+        assertEquals(all.toString(), joined.toString());
+    }
+
+    @Test
+    void linesLongerThanASegmentContinueInTheNext() throws IOException {
+        RollingMappedFile f = new RollingMappedFile(dir, "log", 4096, 100);
+        String longLine = "y".repeat(10_000) + "\n";
+        f.write("short\n");
+        f.write(longLine);
+        f.write("after\n");
+        f.close();
+        String joined = segments().stream().map(RollingMappedFileTest::read).collect(Collectors.joining());
+        assertEquals("short\n" + longLine + "after\n", joined);
+    }
+
+    @Test
+    void onlyTheNewestSegmentsAreKept() throws IOException {
+        RollingMappedFile f = new RollingMappedFile(dir, "log", 4096, 2);
+        String line = "z".repeat(1000) + "\n";
+        for (int i = 0; i < 40; i++) f.write(line);
+        Path last = f.current();
+        f.close();
+        List<Path> segments = segments();
+        assertEquals(2, segments.size());
+        assertEquals(last, segments.get(1));
+
+        // a restart carries on after the newest segment instead of overwriting it
+        RollingMappedFile again = new RollingMappedFile(dir, "log", 4096, 2);
+        assertTrue(again.current().getFileName().toString().compareTo(last.getFileName().toString()) > 0);
+        again.close();
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static String read(Path p) {
+        try {
+            return Files.readString(p, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.script.ScriptException;
+import org.junit.jupiter.api.Test;
+
+/** Runs against TestScriptEngine, the "js" engine registered for the tests. */
+class ScriptEnginesTest {
+
+    private static final AtomicInteger NONCE = new AtomicInteger();
+
+    @Test
+    void repeatedEvalsCompileOnce() throws ScriptException {
+        String src = unique("a = 1; a + 2");
+        int compiles = TestScriptEngine.COMPILES.get();
+        long hits = ScriptEngines.hits(), misses = ScriptEngines.misses();
+        for (int i = 0; i < 3; i++) assertEquals(3L, ScriptEngines.eval(src));
+        assertEquals(1, TestScriptEngine.COMPILES.get() - compiles);
+        assertEquals(1, ScriptEngines.misses() - misses);
+        assertEquals(2, ScriptEngines.hits() - hits);
+    }
+
+    @Test
+    void everyEvalGetsAFreshScope() throws ScriptException {
+        assertEquals(5L, ScriptEngines.eval("leak = 5; leak"));
+        assertThrows(ScriptException.class, () -> ScriptEngines.eval("leak"));
+        assertEquals(5L, ScriptEngines.eval("a + b", Map.of("a", 2L, "b", 3L)));
+    }
+
+    @Test
+    void leastRecentlyUsedScriptsAreEvicted() throws ScriptException {
+        String one = unique("1"), two = unique("2"), three = unique("3");
+        int size = ScriptEngines.cacheSize();
+        ScriptEngines.setCacheSize(2);
+        try {
+            ScriptEngines.eval(one);
+            ScriptEngines.eval(two); // the cache now holds just these two
+            int compiles = TestScriptEngine.COMPILES.get();
+            long evictions = ScriptEngines.evictions();
+            ScriptEngines.eval(one);   // one is now the most recent
+            ScriptEngines.eval(three); // evicts two
+            ScriptEngines.eval(one);
+            assertEquals(1, TestScriptEngine.COMPILES.get() - compiles);
+            ScriptEngines.eval(two);
+            assertEquals(2, TestScriptEngine.COMPILES.get() - compiles);
+            assertEquals(2, ScriptEngines.evictions() - evictions);
+        } finally {
+            ScriptEngines.setCacheSize(size);
+        }
+    }
+
+    @Test
+    void compiledChunksRunWithNewBindings() throws Exception {
+        ScriptEngines.CompiledChunk chunk = ScriptEngines.compile(unique("x + 1"));
+        int compiles = TestScriptEngine.COMPILES.get();
+        assertEquals(2L, chunk.call(Map.of("x", 1L)));
+        assertEquals(42L, chunk.call(Map.of("x", 41L)));
+        Map<String, Object> mine = new HashMap<>(Map.of("x", 1L));
+        chunk.call(mine);
+        assertEquals(Map.of("x", 1L), mine); // the script's assignments stay in its own scope
+        assertEquals(compiles, TestScriptEngine.COMPILES.get());
+        // another thread goes through its own engine
+        assertEquals(11L, CompletableFuture.supplyAsync(() -> {
+            try {
+                return chunk.call(Map.of("x", 10L));
+            } catch (ScriptException e) {
+                throw new IllegalStateException(e);
+            }
+        }).get());
+    }
+
+    @Test
+    void errorsSurface() {
+        assertThrows(ScriptException.class, () -> ScriptEngines.compile("= 1"));
+        assertNull(lua.io_compile("= 1"));
+        assertTrue(lua.io_eval("fail").startsWith("Script error: failed on purpose"));
+        assertEquals("3", lua.io_eval("1 + 2"));
+    }
+
+    /* ---------------- Deadlines ---------------- */
+
+    @Test
+    void timedEvalsCompileOncePerEvalThread() throws Exception {
+        String src = unique("6 + 1");
+        ScriptEngines.setTimeoutMillis(10_000);
+        try {
+            int compiles = TestScriptEngine.COMPILES.get();
+            for (int i = 0; i < ScriptEngines.EVAL_THREADS * 3; i++) assertEquals(7L, ScriptEngines.evalWithDeadline(src));
+            int warm = TestScriptEngine.COMPILES.get() - compiles;
+            assertTrue(warm >= 1 && warm <= ScriptEngines.EVAL_THREADS, warm + " compiles");
+            for (int i = 0; i < ScriptEngines.EVAL_THREADS * 3; i++) ScriptEngines.evalWithDeadline(src);
+            assertEquals(compiles + warm, TestScriptEngine.COMPILES.get()); // the threads and their caches stay
+            assertThrows(ScriptException.class, () -> ScriptEngines.evalWithDeadline("fail"));
+        } finally {
+            ScriptEngines.setTimeoutMillis(0);
+        }
+    }
+
+    @Test
+    void runawayEvalsAreCountedAndRefuseMore() throws Exception {
+        ScriptEngines.setTimeoutMillis(100);
+        try {
+            long timeouts = ScriptEngines.timeouts();
+            assertThrows(TimeoutException.class, () -> ScriptEngines.evalWithDeadline("sleep 10000"));
+            awaitNoRunaways(); // the interrupt ended it
+            int n = 0;
+            boolean refused = false;
+            while (!refused && n < 10) {
+                try {
+                    ScriptEngines.evalWithDeadline("spin 2000; " + n++);
+                } catch (TimeoutException e) {
+                    continue;
+                } catch (IllegalStateException e) {
+                    refused = true;
+                }
+            }
+            assertTrue(refused, ScriptEngines.stats());
+            assertTrue(ScriptEngines.runaway() > 0);
+            awaitNoRunaways();
+            assertTrue(ScriptEngines.timeouts() - timeouts >= 2);
+            assertEquals(3L, ScriptEngines.evalWithDeadline("1 + 2"));
+        } finally {
+            ScriptEngines.setTimeoutMillis(0);
+        }
+    }
+
+    private static void awaitNoRunaways() throws InterruptedException {
+        long end = System.nanoTime() + 10_000_000_000L;
+        while (ScriptEngines.runaway() > 0 && System.nanoTime() < end) Thread.sleep(10);
+        assertEquals(0, ScriptEngines.runaway());
+    }
+
+    /** A source no other test has compiled, so cache counters start from a miss. */
+    private static String unique(String src) {
+        return "nonce = " + NONCE.incrementAndGet() + "; " + src;
+    }
+}
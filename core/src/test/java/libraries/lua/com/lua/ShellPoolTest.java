@@ -0,0 +1,179 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/** The pool, timeout and cache are process-wide: afterEach turns them back off. */
+class ShellPoolTest {
+
+    @AfterEach
+    void restoreDefaults() {
+        ShellPool.setEnabled(false);
+        ShellPool.setTimeoutMillis(0);
+        ShellPool.clearCache();
+    }
+
+    /* ---------------- Pooled runs ---------------- */
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void pooledRunsBehaveLikeColdOnes() {
+        String[] commands = {
+                "printf 'out\\n'; printf 'err\\n' >&2; exit 3",
+                "printf 'no newline'",
+                "echo 'it'\"'\"'s quoted'",
+                "cd /; x=1; echo $x",
+                "echo ${x:-unset}; pwd | grep -c '^/$' || true", // nothing carries over from the last command
+                "if then fi", // a syntax error ends only this command
+        };
+        List<lua.ProcessResult> cold = new ArrayList<>();
+        for (String c : commands) cold.add(lua.io_run(c));
+        ShellPool.setEnabled(true);
+        long pooled = ShellPool.pooledRuns();
+        for (int i = 0; i < commands.length; i++) {
+            lua.ProcessResult p = lua.io_run(commands[i]);
+            assertEquals(cold.get(i).exitCode, p.exitCode, commands[i]);
+            assertEquals(cold.get(i).stdout, p.stdout, commands[i]);
+            if (cold.get(i).exitCode == 0) assertEquals(cold.get(i).stderr, p.stderr, commands[i]);
+        }
+        assertEquals(commands.length, ShellPool.pooledRuns() - pooled);
+        assertEquals("out\n", lua.io_run(commands[0]).stdout);
+        assertTrue(lua.io_run(commands[5]).exitCode != 0);
+        assertEquals("read-eof\n", lua.io_run("cat; echo read-eof").stdout); // stdin is empty, not the worker's command stream
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void workersAreReusedAndReplacedWhenTheyDie() {
+        ShellPool.setEnabled(true);
+        lua.ProcessResult first = lua.io_run("echo $$");
+        for (int i = 0; i < 5; i++) assertEquals(first.stdout, lua.io_run("echo $$").stdout); // the same sh each time
+
+        long recycled = ShellPool.recycled();
+        lua.ProcessResult killed = lua.io_run("kill -9 $$");
+        assertEquals(-1, killed.exitCode);
+        assertEquals(recycled + 1, ShellPool.recycled());
+        lua.ProcessResult next = lua.io_run("echo $$");
+        assertEquals(0, next.exitCode);
+        assertFalse(first.stdout.equals(next.stdout));
+        assertTrue(ShellPool.stats().contains("recycled="), ShellPool.stats());
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void concurrentPooledRunsKeepTheirOwnOutput() {
+        ShellPool.setEnabled(true);
+        List<CompletableFuture<lua.ProcessResult>> runs = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            int n = i;
+            runs.add(CompletableFuture.supplyAsync(() -> lua.io_run("echo " + n + "; echo e" + n + " >&2")));
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            lua.ProcessResult r = runs.get(i).join();
+            assertEquals(i + "\n", r.stdout);
+            assertEquals("e" + i + "\n", r.stderr);
+        }
+    }
+
+    /* ---------------- Timeouts ---------------- */
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    void timeoutsKillTheWholeTree() {
+        ShellPool.setTimeoutMillis(300);
+        for (boolean pooled : new boolean[] {false, true}) {
+            ShellPool.setEnabled(pooled);
+            long timeouts = ShellPool.timeouts();
+            long t0 = System.nanoTime();
+            lua.ProcessResult r = lua.io_run("sleep 30 | cat");
+            assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(10), pooled ? "pooled" : "cold");
+            assertEquals(-1, r.exitCode);
+            assertTrue(r.timedOut, pooled ? "pooled" : "cold");
+            assertEquals(timeouts + 1, ShellPool.timeouts());
+            assertEquals("ok\n", lua.io_run("echo ok").stdout); // a fresh worker takes over
+        }
+    }
+
+    /* ---------------- Result cache ---------------- */
+
+    @Test
+    void cachedResultsLiveForTheirTtl() {
+        AtomicInteger runs = new AtomicInteger();
+        long hits = ShellPool.hits(), misses = ShellPool.misses();
+        lua.ProcessResult a = ShellPool.cached("shellpooltest.ttl", 60_000, () -> result(runs.incrementAndGet()));
+        assertSame(a, ShellPool.cached("shellpooltest.ttl", 60_000, () -> result(runs.incrementAndGet())));
+        assertEquals(1, runs.get());
+        assertEquals(hits + 1, ShellPool.hits());
+        assertEquals(misses + 1, ShellPool.misses());
+
+        ShellPool.cached("shellpooltest.none", 0, () -> result(runs.incrementAndGet()));
+        ShellPool.cached("shellpooltest.none", 0, () -> result(runs.incrementAndGet()));
+        assertEquals(3, runs.get());
+
+        ShellPool.clearCache();
+        ShellPool.cached("shellpooltest.ttl", 60_000, () -> result(runs.incrementAndGet()));
+        assertEquals(4, runs.get());
+    }
+
+    @Test
+    void failuresAreNotKept() {
+        AtomicInteger runs = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(-1, ShellPool.cached("shellpooltest.failed", 60_000, () -> {
+                runs.incrementAndGet();
+                return new lua.ProcessResult(-1, "", "boom");
+            }).exitCode);
+        }
+        assertEquals(3, runs.get());
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalStateException.class, () -> ShellPool.cached("shellpooltest.thrown", 60_000, () -> {
+                runs.incrementAndGet();
+                throw new IllegalStateException("no");
+            }));
+        }
+        assertEquals(5, runs.get());
+        assertEquals(1, ShellPool.cached("shellpooltest.failed", 60_000, () -> result(1)).exitCode); // a nonzero exit is a result
+    }
+
+    @Test
+    void concurrentMissesShareOneRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<lua.ProcessResult>> callers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            callers.add(CompletableFuture.supplyAsync(() -> ShellPool.cached("shellpooltest.shared", 60_000, () -> {
+                runs.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return result(0);
+            })));
+        }
+        while (runs.get() == 0) Thread.sleep(1);
+        Thread.sleep(50); // let the other callers find the pending run
+        release.countDown();
+        lua.ProcessResult first = callers.get(0).get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<lua.ProcessResult> c : callers) assertSame(first, c.get(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    private static lua.ProcessResult result(int exit) {
+        return new lua.ProcessResult(exit, "run " + exit + "\n", "");
+    }
+}
@@ -0,0 +1,126 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The cache file and mods directory come from surefire (under target/). A boot is simulated by
+ * loading StartupCache again in a fresh class loader, which reads the file in its static init.
+ */
+class StartupCacheTest {
+
+    private static final Path FILE = Path.of(System.getProperty("lua.startup.cacheFile"));
+    private static final Path MODS = Path.of(System.getProperty("lua.startup.modsDir"));
+
+    @AfterEach
+    void forget() {
+        StartupCache.clear();
+    }
+
+    /* ---------------- Probes ---------------- */
+
+    @Test
+    void onlyAbsencesOfFixedProbesAreRemembered() {
+        StartupCache.clear();
+        assertNull(Bindings.probe("startupcachetest.Absent"));
+        assertTrue(StartupCache.isMissing("startupcachetest.Absent"));
+        assertSame(String.class, Bindings.probe("java.lang.String"));
+        assertNull(StartupCache.get("class.java.lang.String"));
+
+        assertNull(Bindings.type("startupcachetest.FromAScript")); // names from scripts are never cached
+        assertFalse(StartupCache.isMissing("startupcachetest.FromAScript"));
+
+        StartupCache.recordMissing("java.util.ArrayList");
+        assertNull(Bindings.probe("java.util.ArrayList")); // a remembered absence is not probed again
+        assertSame(java.util.ArrayList.class, Bindings.type("java.util.ArrayList"));
+    }
+
+    @Test
+    void flushWritesTheEntriesUnderTheFingerprint() throws IOException {
+        StartupCache.clear();
+        StartupCache.flush();
+        assertFalse(Files.exists(FILE)); // nothing to write
+        StartupCache.recordMissing("startupcachetest.Gone");
+        StartupCache.flush();
+        Properties p = read();
+        assertEquals(StartupCache.fingerprint(), p.getProperty("fingerprint"));
+        assertEquals("missing", p.getProperty("class.startupcachetest.Gone"));
+        assertFalse(Files.exists(FILE.resolveSibling(FILE.getFileName() + ".tmp")));
+
+        StartupCache.clear();
+        assertFalse(Files.exists(FILE));
+        assertFalse(StartupCache.isMissing("startupcachetest.Gone"));
+    }
+
+    /* ---------------- Fingerprint ---------------- */
+
+    @Test
+    void fingerprintFollowsTheModsDirectory() throws IOException {
+        String before = StartupCache.fingerprint();
+        assertEquals(before, StartupCache.fingerprint());
+        Path jar = MODS.resolve("startupcachetest-mod.jar");
+        Files.createDirectories(MODS);
+        try {
+            Files.writeString(jar, "not really a jar");
+            String with = StartupCache.fingerprint();
+            assertNotEquals(before, with);
+            assertEquals(with, StartupCache.fingerprint());
+        } finally {
+            Files.deleteIfExists(jar);
+        }
+    }
+
+    @Test
+    void theNextBootKeepsEntriesOnlyUnderTheSameFingerprint() throws Exception {
+        StartupCache.clear();
+        Class<?> first = boot();
+        call(first, "recordMissing", "startupcachetest.Gone");
+        call(first, "flush");
+        assertEquals(Boolean.TRUE, call(boot(), "isMissing", "startupcachetest.Gone"));
+
+        Properties p = read();
+        p.setProperty("fingerprint", "stale");
+        try (OutputStream out = Files.newOutputStream(FILE)) {
+            p.store(out, null);
+        }
+        assertEquals(Boolean.FALSE, call(boot(), "isMissing", "startupcachetest.Gone"));
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private static Properties read() throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(FILE)) {
+            p.load(in);
+        }
+        return p;
+    }
+
+    /** StartupCache in a class loader of its own, as after a restart; all such loaders share a fingerprint. */
+    private static Class<?> boot() throws Exception {
+        URL classes = StartupCache.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] {classes}, ClassLoader.getPlatformClassLoader());
+        return Class.forName(StartupCache.class.getName(), true, loader);
+    }
+
+    private static Object call(Class<?> cache, String method, String... args) throws Exception {
+        Method m = args.length == 0 ? cache.getMethod(method) : cache.getMethod(method, String.class);
+        return m.invoke(null, (Object[]) args);
+    }
+}
@@ -0,0 +1,247 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TableCodecTest {
+
+    /** Values that cover every tag, varint widths at their edges and non-ASCII text. */
+    static Stream<Object> values() {
+        lua.table one = new lua.table();
+        one.seti(1, 5L);
+        lua.table mixed = new lua.table();
+        mixed.seti(1, -1L);
+        mixed.seti(2, 1L << 40);
+        mixed.seti(3, 2.5);
+        mixed.set("min", Long.MIN_VALUE);
+        mixed.set("max", Long.MAX_VALUE);
+        mixed.set("text", "hé€😀");
+        mixed.set("yes", true);
+        mixed.set("no", false);
+        mixed.set(7L, "sparse");
+        lua.table nested = new lua.table();
+        nested.set("inner", mixed);
+        nested.set("list", one);
+        nested.set("empty", new lua.table());
+        return Stream.of(one, mixed, nested, "hi", "", 5L, -300L, 127L, 128L, Long.MAX_VALUE, 1.5, true, false);
+    }
+
+    @ParameterizedTest
+    @MethodSource("values")
+    void binaryRoundTripThroughStream(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TableCodec.writeBinary(value, out);
+        assertEquals(TableCodec.binarySize(value), out.size());
+        assertSame(value, TableCodec.readBinary(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @ParameterizedTest
+    @MethodSource("values")
+    void binaryFitsBufferSizedByBinarySize(Object value) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate((int) TableCodec.binarySize(value));
+        TableCodec.writeBinary(value, b);
+        assertFalse(b.hasRemaining());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TableCodec.writeBinary(value, out);
+        assertArrayEquals(out.toByteArray(), b.array(), "buffer and stream encodings differ");
+
+        b.flip();
+        Object back = TableCodec.readBinary(b);
+        assertSame(value, back instanceof LazyTable ? ((LazyTable) back).toTable() : back);
+    }
+
+    @Test
+    void bufferOneByteShortOverflows() {
+        lua.table t = new lua.table();
+        t.seti(1, 5L);
+        ByteBuffer b = ByteBuffer.allocate((int) TableCodec.binarySize(t) - 1);
+        assertThrows(BufferOverflowException.class, () -> TableCodec.writeBinary(t, b));
+    }
+
+    @ParameterizedTest
+    @MethodSource("values")
+    void jsonRoundTrip(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TableCodec.writeJson(value, out);
+        Object back = TableCodec.readJson(new ByteArrayInputStream(out.toByteArray()));
+        assertSameJson(value, back);
+    }
+
+    @Test
+    void lazyTableDecodesOnReadAndCopiesOnWrite() {
+        lua.table rows = new lua.table();
+        for (int i = 1; i <= 100; i++) {
+            lua.table row = new lua.table();
+            row.set("id", (long) i);
+            row.set("name", "player-" + i);
+            rows.seti(i, row);
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) TableCodec.binarySize(rows));
+        TableCodec.writeBinary(rows, b);
+        b.flip();
+
+        LazyTable lazy = (LazyTable) TableCodec.readBinary(b);
+        assertEquals(100, lazy.length());
+        LazyTable row = (LazyTable) lazy.geti(42);
+        assertEquals("player-42", row.get("name"));
+        assertEquals(42L, row.get("id"));
+        assertNull(row.get("missing"));
+
+        row.set("name", "renamed");
+        assertEquals("renamed", row.get("name"));
+        assertEquals("renamed", ((lua.table) lazy.toTable().geti(42)).get("name"));
+
+        // the parent has no writes of its own, but it must not be copied as its old bytes
+        ByteBuffer again = ByteBuffer.allocate((int) TableCodec.binarySize(lazy));
+        TableCodec.writeBinary(lazy, again);
+        again.flip();
+        LazyTable reread = (LazyTable) TableCodec.readBinary(again);
+        assertEquals("renamed", ((LazyTable) reread.geti(42)).get("name"));
+        assertEquals("player-41", ((LazyTable) reread.geti(41)).get("name"));
+    }
+
+    @Test
+    void unwrittenLazyTableIsCopiedAsItIs() {
+        lua.table t = new lua.table();
+        t.set("a", 1L);
+        t.set("b", "two");
+        ByteBuffer b = ByteBuffer.allocate((int) TableCodec.binarySize(t));
+        TableCodec.writeBinary(t, b);
+        byte[] original = b.array().clone();
+        b.flip();
+
+        Object lazy = TableCodec.readBinary(b);
+        ByteBuffer again = ByteBuffer.allocate((int) TableCodec.binarySize(lazy));
+        TableCodec.writeBinary(lazy, again);
+        assertArrayEquals(original, again.array());
+    }
+
+    @Test
+    void processResultIsATable() {
+        lua.ProcessResult r = new lua.ProcessResult(-1, "out", "err", false, true);
+        lua.table t = (lua.table) TableCodec.readJson(utf8(json(r)));
+        assertEquals(-1L, t.get("exitCode"));
+        assertEquals("out", t.get("stdout"));
+        assertEquals("err", t.get("stderr"));
+        assertEquals(false, t.get("truncated"));
+        assertEquals(true, t.get("timedOut"));
+    }
+
+    @Test
+    void jsonArraysAndObjects() {
+        lua.table list = new lua.table();
+        list.seti(1, "a");
+        list.seti(2, "b");
+        assertEquals("[\"a\",\"b\"]", json(list));
+        assertEquals("{}", json(new lua.table()));
+        lua.table t = (lua.table) TableCodec.readJson(utf8("{\"k\": [1, 2.5, null, true], \"s\": \"\\u00e9\\n\"}"));
+        lua.table k = (lua.table) t.get("k");
+        assertEquals(1L, k.geti(1));
+        assertEquals(2.5, k.geti(2));
+        assertNull(k.geti(3));
+        assertEquals(true, k.geti(4));
+        assertEquals("é\n", t.get("s"));
+    }
+
+    @Test
+    void jsonNumbersKeepIntegersExact() {
+        assertEquals(Long.MIN_VALUE, TableCodec.readJson(utf8("-9223372036854775808")));
+        assertEquals(Long.MAX_VALUE, TableCodec.readJson(utf8("9223372036854775807")));
+        assertInstanceOf(Double.class, TableCodec.readJson(utf8("9223372036854775808")));
+        assertEquals(0L, TableCodec.readJson(utf8("0")));
+        assertEquals(-5.0E-4, TableCodec.readJson(utf8("-0.5e-3")));
+        assertEquals(100.0, TableCodec.readJson(utf8("1E+2")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"01", "-01", "00", "[01]", "1.", ".5", "1e", "1e+", "1.e5", "-", "1.2.3", "0x1",
+            "{\"a\" 1}", "[1,]", "\"open", "tru", "{} {}"})
+    void malformedJsonIsRejected(String text) {
+        assertThrows(IllegalArgumentException.class, () -> TableCodec.readJson(utf8(text)));
+    }
+
+    @Test
+    void unsupportedValuesAreRejected() {
+        lua.table cyclic = new lua.table();
+        cyclic.set("self", cyclic);
+        assertThrows(IllegalArgumentException.class, () -> json(cyclic));
+        assertThrows(IllegalArgumentException.class, () -> json(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> json(new Object()));
+    }
+
+    @Test
+    void corruptBinaryIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TableCodec.readBinary(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5})));
+        lua.table t = new lua.table();
+        t.set("k", "value");
+        ByteBuffer b = ByteBuffer.allocate((int) TableCodec.binarySize(t));
+        TableCodec.writeBinary(t, b);
+        ByteBuffer cut = ByteBuffer.wrap(b.array(), 0, b.capacity() - 3).slice();
+        assertThrows(IllegalArgumentException.class, () -> TableCodec.readBinary(cut));
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private static String json(Object value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            TableCodec.writeJson(value, out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer utf8(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Same contents; the binary format keeps integers and floats apart. */
+    private static void assertSame(Object expected, Object actual) {
+        if (expected instanceof lua.table) {
+            lua.table e = (lua.table) expected;
+            lua.table a = assertInstanceOf(lua.table.class, actual);
+            assertEquals(e.size(), a.size(), "entries");
+            for (Object k : e.keys()) assertSame(e.get(k), a.get(k));
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+
+    /** Same contents as JSON sees them: number keys become strings, integral floats integers. */
+    private static void assertSameJson(Object expected, Object actual) {
+        if (expected instanceof lua.table) {
+            lua.table e = (lua.table) expected;
+            lua.table a = assertInstanceOf(lua.table.class, actual);
+            assertEquals(e.size(), a.size(), "entries");
+            boolean array = e.length() == e.size();
+            for (Object k : e.keys()) {
+                Object key = array || !(k instanceof Number) ? k : String.valueOf(k);
+                assertTrue(a.contains(key), "missing key " + key);
+                assertSameJson(e.get(k), a.get(key));
+            }
+        } else if (expected instanceof Number) {
+            assertEquals(((Number) expected).doubleValue(), ((Number) actual).doubleValue());
+        } else {
+            assertEquals(expected, actual);
+        }
+    }
+}
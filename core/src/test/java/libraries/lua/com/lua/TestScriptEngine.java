@@ -0,0 +1,157 @@
+package libraries.lua.com.lua;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * A tiny "js" engine for the tests (the JDK has none since 15), registered through
+ * META-INF/services. Statements are separated by ';':
+ *
+ *   name = expr    set a variable in the engine scope
+ *   sleep N        sleep N ms (interruptible)
+ *   spin N         busy-wait N ms, ignoring interrupts
+ *   fail           throw a ScriptException
+ *   expr           a sum of integer literals and variables: a + 2
+ *
+ * The value of the last statement is the result. Every compile() is counted.
+ */
+public final class TestScriptEngine extends AbstractScriptEngine implements Compilable {
+
+    public static final AtomicInteger COMPILES = new AtomicInteger();
+
+    private final ScriptEngineFactory factory;
+
+    TestScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return run(parse(script), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        COMPILES.incrementAndGet();
+        List<String> statements = parse(script);
+        return new CompiledScript() {
+            @Override
+            public Object eval(ScriptContext context) throws ScriptException {
+                return run(statements, context);
+            }
+
+            @Override
+            public ScriptEngine getEngine() {
+                return TestScriptEngine.this;
+            }
+        };
+    }
+
+    @Override
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(read(reader));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private static List<String> parse(String script) throws ScriptException {
+        List<String> out = new ArrayList<>();
+        for (String s : script.split(";")) {
+            s = s.trim();
+            if (s.isEmpty()) continue;
+            if (s.startsWith("=") || s.endsWith("=")) throw new ScriptException("syntax error: " + s);
+            out.add(s);
+        }
+        return out;
+    }
+
+    private static Object run(List<String> statements, ScriptContext context) throws ScriptException {
+        Object last = null;
+        for (String s : statements) {
+            int eq = s.indexOf('=');
+            if (eq > 0) {
+                last = value(s.substring(eq + 1).trim(), context);
+                context.setAttribute(s.substring(0, eq).trim(), last, ScriptContext.ENGINE_SCOPE);
+            } else if (s.startsWith("sleep ")) {
+                try {
+                    Thread.sleep(Long.parseLong(s.substring(6).trim()));
+                } catch (InterruptedException e) {
+                    throw new ScriptException("interrupted");
+                }
+            } else if (s.startsWith("spin ")) {
+                long end = System.nanoTime() + Long.parseLong(s.substring(5).trim()) * 1_000_000;
+                while (System.nanoTime() < end) Thread.onSpinWait();
+            } else if (s.equals("fail")) {
+                throw new ScriptException("failed on purpose");
+            } else {
+                last = value(s, context);
+            }
+        }
+        return last;
+    }
+
+    private static Object value(String expr, ScriptContext context) throws ScriptException {
+        String[] terms = expr.split("\\+");
+        if (terms.length == 1) return term(terms[0].trim(), context);
+        long sum = 0;
+        for (String t : terms) sum += ((Number) term(t.trim(), context)).longValue();
+        return sum;
+    }
+
+    private static Object term(String t, ScriptContext context) throws ScriptException {
+        if (!t.isEmpty() && (Character.isDigit(t.charAt(0)) || t.charAt(0) == '-')) return Long.parseLong(t);
+        if (context.getAttributesScope(t) < 0) throw new ScriptException(t + " is not defined");
+        return context.getAttribute(t);
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[1024];
+        try {
+            for (int n; (n = reader.read(buf)) > 0; ) sb.append(buf, 0, n);
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+        return sb.toString();
+    }
+
+    public static final class Factory implements ScriptEngineFactory {
+        @Override public String getEngineName() { return "test"; }
+        @Override public String getEngineVersion() { return "1"; }
+        @Override public List<String> getExtensions() { return List.of("test"); }
+        @Override public List<String> getMimeTypes() { return List.of(); }
+        @Override public List<String> getNames() { return List.of("js", "test"); }
+        @Override public String getLanguageName() { return "test"; }
+        @Override public String getLanguageVersion() { return "1"; }
+        @Override public Object getParameter(String key) { return ScriptEngine.NAME.equals(key) ? "test" : null; }
+        @Override public String getMethodCallSyntax(String obj, String m, String... args) { return obj + "." + m; }
+        @Override public String getOutputStatement(String toDisplay) { return toDisplay; }
+        @Override public String getProgram(String... statements) { return String.join(";", statements); }
+        @Override public ScriptEngine getScriptEngine() { return new TestScriptEngine(this); }
+    }
+}
@@ -0,0 +1,82 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** WorldCache is process-wide: afterEach puts an empty world and the default tick back. */
+class WorldCacheTest {
+
+    private final AtomicInteger reads = new AtomicInteger();
+    private volatile int mobs = 1;
+    private volatile boolean broken;
+
+    /** A world of mobs entities that counts how often it is read. */
+    private final WorldAdapter counting = sink -> {
+        reads.incrementAndGet();
+        if (broken) throw new IllegalStateException("world unloaded");
+        for (int i = 0; i < mobs; i++) sink.entity(i, "mob", false, i, 64, i, 20);
+    };
+
+    @AfterEach
+    void restoreDefaults() {
+        WorldCache.setTickDriven(false);
+        WorldCache.setTickMillis(50);
+        WorldCache.setAdapter(WorldAdapter.NONE);
+    }
+
+    @Test
+    void oneReadPerTick() throws InterruptedException {
+        WorldCache.setTickMillis(60_000);
+        WorldCache.setAdapter(counting);
+        WorldSnapshot s = WorldCache.snapshot();
+        assertEquals(1, s.size());
+        for (int i = 0; i < 10; i++) assertSame(s, WorldCache.snapshot());
+        assertEquals(1, reads.get());
+
+        mobs = 3;
+        WorldCache.setAdapter(counting); // a new adapter is read on the next call
+        assertEquals(3, WorldCache.snapshot().size());
+        assertEquals(2, reads.get());
+
+        WorldCache.setTickMillis(1);
+        Thread.sleep(5);
+        assertNotSame(s, WorldCache.snapshot());
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    void aFailedReadKeepsTheLastSnapshot() {
+        WorldCache.setTickMillis(60_000);
+        WorldCache.setAdapter(counting);
+        WorldSnapshot s = WorldCache.snapshot();
+        broken = true;
+        assertSame(s, WorldCache.tick());
+        assertSame(s, WorldCache.snapshot()); // not retried until the next tick
+        assertEquals(2, reads.get());
+        broken = false;
+        assertNotSame(s, WorldCache.tick());
+    }
+
+    @Test
+    void tickDrivenCachesOnlyRebuildOnTick() throws InterruptedException {
+        WorldCache.setAdapter(counting);
+        WorldCache.setTickMillis(1);
+        WorldCache.setTickDriven(true);
+        WorldSnapshot before = WorldCache.snapshot();
+        Thread.sleep(5);
+        assertSame(before, WorldCache.snapshot());
+        assertEquals(0, reads.get()); // the adapter is only read from the host's tick
+
+        WorldSnapshot ticked = WorldCache.tick();
+        assertEquals(1, reads.get());
+        Thread.sleep(5);
+        assertSame(ticked, WorldCache.snapshot());
+        assertEquals(1, ticked.size());
+        assertEquals(1, reads.get());
+    }
+}
@@ -0,0 +1,183 @@
+package libraries.lua.com.lua;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Every query against a linear scan of the same snapshot, on a seeded synthetic world: towns of
+ * dense columns, a sparse spread around them, players among both, and entities on column edges.
+ */
+class WorldSnapshotTest {
+
+    private static final int ENTITIES = 100_000;
+    /** The world spans about +-SPREAD blocks; queries go well past it. */
+    private static final double SPREAD = 3000;
+
+    private static final WorldSnapshot WORLD = world(new Random(42));
+
+    /* ---------------- Queries against a scan ---------------- */
+
+    @Test
+    void withinMatchesAScan() {
+        Random r = new Random(1);
+        double[] radii = {0, 1, 7.5, 16, 40, 100, 500, 2 * SPREAD, 10 * SPREAD, 1e7};
+        for (int q = 0; q < 300; q++) {
+            double x = point(r), y = r.nextDouble() * 384 - 64, z = point(r);
+            double radius = radii[q % radii.length];
+            boolean playersOnly = q % 7 == 0;
+            assertArrayEquals(scanWithin(x, y, z, radius, playersOnly), sorted(WORLD.within(x, y, z, radius, playersOnly)),
+                    "within(" + x + ", " + y + ", " + z + ", " + radius + ", " + playersOnly + ")");
+        }
+        assertEquals(ENTITIES, WORLD.within(0, 0, 0, 1e7, false).length); // radius past the whole world
+        assertEquals(0, WORLD.within(0, 0, 0, -1, false).length);
+        assertEquals(0, WORLD.within(0, 0, 0, Double.NaN, false).length);
+    }
+
+    @Test
+    void inBoxMatchesAScan() {
+        Random r = new Random(2);
+        double[] sizes = {0, 1, 16, 33, 200, 1000, 3 * SPREAD, 1e7};
+        for (int q = 0; q < 300; q++) {
+            double size = sizes[q % sizes.length];
+            double x1 = point(r), y1 = r.nextDouble() * 384 - 64, z1 = point(r);
+            // corners in either order
+            double x2 = x1 + (r.nextBoolean() ? size : -size), y2 = y1 + (r.nextBoolean() ? 64 : -64), z2 = z1 + (r.nextBoolean() ? size : -size);
+            boolean playersOnly = q % 5 == 0;
+            assertArrayEquals(scanBox(x1, y1, z1, x2, y2, z2, playersOnly), sorted(WORLD.inBox(x1, y1, z1, x2, y2, z2, playersOnly)),
+                    "inBox(" + x1 + ", " + y1 + ", " + z1 + ", " + x2 + ", " + y2 + ", " + z2 + ", " + playersOnly + ")");
+        }
+        assertEquals(ENTITIES, WORLD.inBox(-1e7, -1e7, -1e7, 1e7, 1e7, 1e7, false).length);
+    }
+
+    @Test
+    void nearestMatchesAScan() {
+        Random r = new Random(3);
+        double[] limits = {-1, 0, 5, 16, 50, 300, 2 * SPREAD, 1e7};
+        for (int q = 0; q < 300; q++) {
+            // some queries start far outside the world, where only the fallback over columns finds anything
+            double reach = q % 10 == 0 ? 20 * SPREAD : 1.2 * SPREAD;
+            double x = (r.nextDouble() * 2 - 1) * reach, y = r.nextDouble() * 384 - 64, z = (r.nextDouble() * 2 - 1) * reach;
+            double limit = limits[q % limits.length];
+            boolean playersOnly = q % 9 == 0;
+            int want = scanNearest(x, y, z, limit, playersOnly);
+            int got = WORLD.nearest(x, y, z, limit, playersOnly);
+            String call = "nearest(" + x + ", " + y + ", " + z + ", " + limit + ", " + playersOnly + ")";
+            if (want < 0) {
+                assertEquals(-1, got, call);
+                continue;
+            }
+            assertTrue(got >= 0, call);
+            assertEquals(dist2(want, x, y, z), dist2(got, x, y, z), call); // ties may pick either
+            if (playersOnly) assertTrue(WORLD.isPlayer(got), call);
+        }
+    }
+
+    /* ---------------- Building ---------------- */
+
+    @Test
+    void entitiesKeepTheirFieldsAndPlayersAreListed() {
+        WorldSnapshot.Builder b = new WorldSnapshot.Builder(0);
+        b.entity(1, "zombie", false, -0.5, 64, 15.999, 20);
+        b.entity(2, "alex", true, 16, 70, -16, 18.5);
+        b.entity(3, "lost", false, Double.NaN, 0, 0, 1); // dropped: not anywhere
+        b.entity(4, "far", false, 0, 0, 5e7, 1);         // dropped: outside any world
+        b.entity(5, "cow", false, -0.25, 63, 0, 10);
+        WorldSnapshot s = b.build();
+        assertEquals(3, s.size());
+        assertEquals(2, s.cellCount());
+        assertEquals(1, s.playerCount());
+        int alex = s.players()[0];
+        assertEquals(2, s.id(alex));
+        assertEquals("alex", s.name(alex));
+        assertEquals(70, s.y(alex));
+        assertEquals(18.5, s.health(alex));
+        assertEquals(alex, s.nearest(0, 0, 0, -1, true));
+        assertEquals(0, WorldSnapshot.EMPTY.size());
+        assertEquals(-1, WorldSnapshot.EMPTY.nearest(0, 0, 0, -1, false));
+        assertEquals(0, WorldSnapshot.EMPTY.within(0, 0, 0, 1e9, false).length);
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private static WorldSnapshot world(Random r) {
+        WorldSnapshot.Builder b = new WorldSnapshot.Builder(16);
+        double[][] towns = new double[40][];
+        for (int t = 0; t < towns.length; t++) towns[t] = new double[] {point(r), point(r)};
+        for (int i = 0; i < ENTITIES; i++) {
+            double x, z;
+            if (i % 3 == 0) { // sparse
+                x = point(r);
+                z = point(r);
+            } else if (i % 97 == 0) { // on a column edge
+                x = Math.round(point(r) / WorldSnapshot.CELL) * (double) WorldSnapshot.CELL;
+                z = Math.round(point(r) / WorldSnapshot.CELL) * (double) WorldSnapshot.CELL;
+            } else {
+                double[] t = towns[r.nextInt(towns.length)];
+                x = t[0] + r.nextGaussian() * 24;
+                z = t[1] + r.nextGaussian() * 24;
+            }
+            b.entity(i, "e" + i, i % 50 == 0, x, r.nextDouble() * 384 - 64, z, r.nextDouble() * 20);
+        }
+        WorldSnapshot s = b.build();
+        assertEquals(ENTITIES, s.size());
+        return s;
+    }
+
+    private static double point(Random r) {
+        return (r.nextDouble() * 2 - 1) * SPREAD;
+    }
+
+    private static int[] scanWithin(double x, double y, double z, double radius, boolean playersOnly) {
+        int[] out = new int[WORLD.size()];
+        int n = 0;
+        for (int e = 0; e < WORLD.size(); e++) {
+            if (playersOnly && !WORLD.isPlayer(e)) continue;
+            if (dist2(e, x, y, z) <= radius * radius) out[n++] = e;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] scanBox(double x1, double y1, double z1, double x2, double y2, double z2, boolean playersOnly) {
+        int[] out = new int[WORLD.size()];
+        int n = 0;
+        for (int e = 0; e < WORLD.size(); e++) {
+            if (playersOnly && !WORLD.isPlayer(e)) continue;
+            if (between(WORLD.x(e), x1, x2) && between(WORLD.y(e), y1, y2) && between(WORLD.z(e), z1, z2)) out[n++] = e;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int scanNearest(double x, double y, double z, double limit, boolean playersOnly) {
+        int found = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int e = 0; e < WORLD.size(); e++) {
+            if (playersOnly && !WORLD.isPlayer(e)) continue;
+            double d = dist2(e, x, y, z);
+            if (d < best) {
+                best = d;
+                found = e;
+            }
+        }
+        return limit >= 0 && best > limit * limit ? -1 : found;
+    }
+
+    private static boolean between(double v, double a, double b) {
+        return v >= Math.min(a, b) && v <= Math.max(a, b);
+    }
+
+    private static double dist2(int e, double x, double y, double z) {
+        double dx = WORLD.x(e) - x, dy = WORLD.y(e) - y, dz = WORLD.z(e) - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static int[] sorted(int[] a) {
+        int[] s = a.clone();
+        Arrays.sort(s);
+        return s;
+    }
+}
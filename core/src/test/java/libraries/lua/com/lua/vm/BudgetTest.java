@@ -0,0 +1,97 @@
+package libraries.lua.com.lua.vm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class BudgetTest {
+
+    private final LuaVM vm = new LuaVM();
+
+    /* ---------------- Limits ---------------- */
+
+    @Test
+    void instructionLimitStopsARunawayLoop() {
+        Budget b = new Budget(100_000, 0, 0);
+        vm.setBudget(b);
+        Budget.Exceeded e = assertThrows(Budget.Exceeded.class, () -> vm.exec("while true do end"));
+        assertTrue(e.getMessage().contains("instruction budget exceeded (100000)"), e.getMessage());
+        assertEquals(1, b.overruns());
+        // each run starts from zero
+        assertEquals(1000L, vm.exec("local n = 0 for i = 1, 1000 do n = n + 1 end return n")[0]);
+        assertEquals(2, b.runs());
+        assertEquals(1, b.overruns());
+        assertTrue(b.totalInstructions() > 100_000, b.toString());
+
+        vm.setBudget(null);
+        assertEquals(1_000_000L, vm.exec("local n = 0 for i = 1, 1000000 do n = n + 1 end return n")[0]);
+    }
+
+    @Test
+    void pcallAndResumeDoNotCatchAnOverrun() {
+        vm.setBudget(new Budget(100_000, 0, 0));
+        assertThrows(Budget.Exceeded.class, () -> vm.exec("caught = pcall(function() while true do end end)"));
+        assertNull(vm.globals().get("caught"));
+        assertThrows(Budget.Exceeded.class,
+                () -> vm.exec("co = coroutine.create(function() while true do end end) resumed = coroutine.resume(co)"));
+        assertNull(vm.globals().get("resumed"));
+        assertEquals(Boolean.FALSE, vm.exec("return pcall(error, 'ordinary errors still are')")[0]);
+    }
+
+    @Test
+    void timeLimitStopsALoop() {
+        vm.setBudget(new Budget(0, 50, 0));
+        long t0 = System.nanoTime();
+        Budget.Exceeded e = assertThrows(Budget.Exceeded.class, () -> vm.exec("while true do end"));
+        long took = System.nanoTime() - t0;
+        assertTrue(e.getMessage().contains("time budget exceeded (50 ms)"), e.getMessage());
+        assertTrue(took >= TimeUnit.MILLISECONDS.toNanos(50) && took < TimeUnit.SECONDS.toNanos(5), took + " ns");
+    }
+
+    @Test
+    void memoryLimitStopsAnAllocatingLoop() {
+        Budget b = new Budget(0, 0, 8 << 20);
+        assumeTrue(b.maxBytes() > 0, "no per-thread allocation counter on this JVM");
+        vm.setBudget(b);
+        Budget.Exceeded e = assertThrows(Budget.Exceeded.class, () -> vm.exec("local t = {} for i = 1, 1e8 do t[i] = {i} end"));
+        assertTrue(e.getMessage().contains("memory budget exceeded"), e.getMessage());
+        assertTrue(b.totalBytes() > 8 << 20, b.toString());
+    }
+
+    /* ---------------- Scheduler ---------------- */
+
+    @Test
+    void anOverrunEndsOnlyItsCoroutine() {
+        Scheduler s = new Scheduler(vm, 10, 64);
+        s.setTickBudgetMillis(0);
+        s.spawn(new Budget(50_000, 0, 0), vm.load("while true do end", "spinner"));
+        s.spawn(vm.load("coroutine.yield() ok = true", "fine"));
+        s.tick();
+        s.tick();
+        assertEquals(Boolean.TRUE, vm.globals().get("ok"));
+        assertEquals(0, s.live());
+        assertTrue(s.stats().contains("overBudget=1"), s.stats());
+    }
+
+    @Test
+    void aLongScriptIsPreemptedAtTheEndOfItsSlice() {
+        Scheduler s = new Scheduler(vm, 10, 64);
+        s.setTickBudgetMillis(5);
+        long preempted = Budget.preemptions();
+        s.spawn(vm.load("for i = 1, 5e6 do x = i end done = true", "long"));
+        s.spawn(vm.load("for i = 1, 3 do beats = i coroutine.yield() end", "heartbeat"));
+        s.tick();
+        assertNull(vm.globals().get("done"));
+        assertTrue(Budget.preemptions() > preempted);
+        assertEquals(1L, vm.globals().get("beats")); // the heartbeat got its turn in the same tick
+        for (int t = 0; t < 100_000 && vm.globals().get("done") == null; t++) s.tick();
+        assertEquals(Boolean.TRUE, vm.globals().get("done"));
+        assertEquals(5_000_000L, vm.globals().get("x"));
+        assertEquals(3L, vm.globals().get("beats"));
+    }
+}
@@ -0,0 +1,20 @@
+package libraries.lua.com.lua.vm;
+
+/** Runs Lua chunks for the tests; a chunk does its own checking with assert(). */
+final class Chunks {
+
+    private Chunks() {}
+
+    static Object[] run(String src) {
+        return new LuaVM().exec(src);
+    }
+
+    /** Runs a chunk whose asserts do the checking; a failure reports the Lua line and the chunk. */
+    static void check(String src) {
+        try {
+            run(src);
+        } catch (RuntimeException e) {
+            throw new AssertionError(e.getMessage() + "\n" + src, e);
+        }
+    }
+}
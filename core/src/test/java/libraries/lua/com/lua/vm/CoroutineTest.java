@@ -0,0 +1,69 @@
+package libraries.lua.com.lua.vm;
+
+import static libraries.lua.com.lua.vm.Chunks.check;
+
+import org.junit.jupiter.api.Test;
+
+class CoroutineTest {
+
+    @Test
+    void resumeAndYieldPassValuesBothWays() {
+        check("local co = coroutine.create(function(a, b)\n"
+                + "  local c = coroutine.yield(a + b)\n"
+                + "  local d, e = coroutine.yield(c * 2)\n"
+                + "  return d + e\n"
+                + "end)\n"
+                + "assert(coroutine.status(co) == 'suspended')\n"
+                + "local ok, v = coroutine.resume(co, 1, 2) assert(ok and v == 3)\n"
+                + "ok, v = coroutine.resume(co, 10) assert(ok and v == 20)\n"
+                + "ok, v = coroutine.resume(co, 3, 4) assert(ok and v == 7)\n"
+                + "assert(coroutine.status(co) == 'dead')\n"
+                + "ok, v = coroutine.resume(co) assert(not ok and v == 'cannot resume dead coroutine')");
+    }
+
+    @Test
+    void statusRunningAndYieldable() {
+        check("assert(not coroutine.isyieldable())\n"
+                + "local co co = coroutine.create(function()\n"
+                + "  assert(coroutine.status(co) == 'running' and coroutine.running() == co)\n"
+                + "  assert(coroutine.isyieldable())\n"
+                + "  local inner = coroutine.create(function() assert(coroutine.status(co) == 'normal') end)\n"
+                + "  assert(coroutine.resume(inner))\n"
+                + "end)\n"
+                + "assert(coroutine.resume(co))");
+    }
+
+    @Test
+    void wrapMakesGenerators() {
+        check("local gen = coroutine.wrap(function() for i = 1, 3 do coroutine.yield(i) end end)\n"
+                + "assert(gen() == 1 and gen() == 2 and gen() == 3)\n"
+                + "local w = coroutine.wrap(function() error('x') end)\n"
+                + "local ok, e = pcall(w) assert(not ok and e == 'chunk:3: x')");
+    }
+
+    @Test
+    void errorsInsideCoroutinesAreReturnedByResume() {
+        check("local co = coroutine.create(function() coroutine.yield(1) error('inside') end)\n"
+                + "assert(coroutine.resume(co))\n"
+                + "local ok, e = coroutine.resume(co) assert(not ok and e == 'chunk:1: inside')\n"
+                + "assert(coroutine.status(co) == 'dead')");
+    }
+
+    @Test
+    void yieldAcrossPcallIsRefused() {
+        // pcall is a Java function; a coroutine cannot be suspended with it on the stack
+        check("local co = coroutine.create(function()\n"
+                + "  return pcall(function() return coroutine.yield(1) end)\n"
+                + "end)\n"
+                + "local ok, inner, e = coroutine.resume(co)\n"
+                + "assert(ok and not inner and e:find('attempt to yield across a Java call boundary', 1, true))");
+    }
+
+    @Test
+    void manyCoroutinesInterleave() {
+        check("local cos, sum = {}, 0\n"
+                + "for i = 1, 200 do cos[i] = coroutine.wrap(function() for k = 1, 5 do coroutine.yield(i * k) end end) end\n"
+                + "for round = 1, 5 do for i = 1, 200 do sum = sum + cos[i]() end end\n"
+                + "assert(sum == 15 * 200 * 201 / 2)");
+    }
+}
@@ -0,0 +1,116 @@
+package libraries.lua.com.lua.vm;
+
+import static libraries.lua.com.lua.vm.Chunks.check;
+import static libraries.lua.com.lua.vm.Chunks.run;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import libraries.lua.com.lua.LuaAPIRegistry;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lua behaviour the VM must keep: each case is a chunk that asserts on its own results, so a
+ * failure reports the Lua line that broke.
+ */
+class LuaConformanceTest {
+
+    @Test
+    void arithmeticAndConversions() {
+        check("assert(7 % 3 == 1) assert(-7 % 3 == 2) assert(7 / 2 == 3.5)\n"
+                + "assert(2 ^ 10 == 1024) assert(-2 ^ 2 == -4) assert(10 - 2 * 3 == 4)\n"
+                + "assert('10' + 1 == 11) assert(1 .. 2 == '12') assert(3 == 3.0)\n"
+                + "assert(1 / 0 > 0 and (0 / 0) ~= (0 / 0))\n"
+                + "assert(tostring(nil) == 'nil' and tostring(1.5) == '1.5' and tostring(10) == '10')\n"
+                + "assert(tonumber('0x10') == 16 and tonumber('z', 36) == 35 and tonumber('abc') == nil)\n"
+                + "assert('a' < 'b' and 1 < 2.5 and not ({} == {}))\n"
+                + "assert(type(print) == 'function' and type(nil) == 'nil' and type('') == 'string')");
+        assertArrayEquals(new Object[] {3.5, 11L}, run("return 7 / 2, '10' + 1"));
+        // 2^63 does not fit a long (the cast saturates); -2^63 does
+        assertArrayEquals(new Object[] {0x1p63, Long.MIN_VALUE, 1e300, -0.0}, run("return 2 ^ 63, -2 ^ 63, 1e300, -0"));
+    }
+
+    @Test
+    void controlFlow() {
+        check("local s = 0 for i = 10, 1, -2 do s = s + i end assert(s == 30)\n"
+                + "local w = 0 while w < 5 do w = w + 1 end assert(w == 5)\n"
+                + "local r = 0 repeat r = r + 1 until r >= 3 assert(r == 3)\n"
+                + "local n = 0 for _, v in pairs({a = 1, b = 2, 10, 20}) do n = n + v end assert(n == 33)\n"
+                + "local m = 0 for _, v in ipairs({5, 6, nil, 8}) do m = m + v end assert(m == 11)\n"
+                + "local b = 0 for i = 1, 100 do if i > 4 then break end b = i end assert(b == 4)");
+    }
+
+    @Test
+    void tables() {
+        check("local t = {} t[1.0] = 'a' t[2] = 'b'\n"
+                + "assert(t[1] == 'a' and #t == 2 and rawget(t, 2) == 'b' and rawequal(t, t))\n"
+                + "t[2] = nil assert(#t == 1)\n"
+                + "local o = {n = 0} function o.inc(self, k) self.n = self.n + k return self end\n"
+                + "o:inc(2):inc(3) assert(o.n == 5)\n"
+                + "local nested = {a = {b = {c = 'deep'}}} assert(nested.a.b.c == 'deep')");
+    }
+
+    @Test
+    void closuresCaptureUpvalues() {
+        check("local fs = {} for i = 1, 3 do fs[i] = function() return i end end\n"
+                + "assert(fs[1]() == 1 and fs[2]() == 2 and fs[3]() == 3)\n"
+                + "local function counter() local n = 0 return function() n = n + 1 return n end end\n"
+                + "local a, b = counter(), counter() a() a() assert(a() == 3 and b() == 1)\n"
+                + "local x = 1 local function get() return x end local function set(v) x = v end\n"
+                + "set(42) assert(get() == 42 and x == 42)");
+    }
+
+    @Test
+    void varargsAndMultipleResults() {
+        check("local function f(...) return select('#', ...), ... end\n"
+                + "local n, a, b, c = f(1, nil, 3) assert(n == 3 and a == 1 and b == nil and c == 3)\n"
+                + "local function g(...) local t = {...} return #t, select(2, ...) end\n"
+                + "local k, x, y = g('a', 'b', 'c') assert(k == 3 and x == 'b' and y == 'c')\n"
+                + "local function three() return 1, 2, 3 end\n"
+                + "local t = {three(), 10} assert(#t == 2)\n"
+                + "local u = {10, three()} assert(#u == 4)\n"
+                + "assert(select('#', (three())) == 1)");
+    }
+
+    @Test
+    void tailCallsDoNotGrowTheStack() {
+        assertArrayEquals(new Object[] {1000000L},
+                run("local function loop(n, acc) if n == 0 then return acc end return loop(n - 1, acc + 1) end\n"
+                        + "return loop(1000000, 0)"));
+    }
+
+    @Test
+    void errorsAndPcall() {
+        check("local ok, e = pcall(error, {code = 7}) assert(not ok and type(e) == 'table' and e.code == 7)\n"
+                + "ok, e = pcall(error, 'msg', 0) assert(not ok and e == 'msg')\n"
+                + "ok, e = pcall(error, 'lvl') assert(e == 'chunk:3: lvl')\n"
+                + "ok, e = pcall(function() return 1 + {} end)\n"
+                + "assert(not ok and e:find('attempt to perform arithmetic on a table value', 1, true))\n"
+                + "ok, e = pcall(function() local x = nil return x.y end) assert(e:find('attempt to index a nil value', 1, true))\n"
+                + "ok, e = pcall(function() undefinedfn() end) assert(e:find('attempt to call a nil value', 1, true))\n"
+                + "assert(select('#', pcall(function() return 1, 2 end)) == 3)\n"
+                + "ok, e = pcall(assert, false, 'custom') assert(not ok and e == 'custom')");
+    }
+
+    @Test
+    void uncaughtErrorsCarryTheirLocation() {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> run("local a = 1\nerror('boom')"));
+        assertEquals("chunk:2: boom", e.getMessage());
+        assertThrows(LuaError.class, () -> run("return 1 +"));
+    }
+
+    @Test
+    void registryApisAreGlobals() {
+        LuaAPIRegistry.register("confTwice", (LuaAPIRegistry.LuaFunction1) a -> ((Number) a).longValue() * 2);
+        try {
+            assertArrayEquals(new Object[] {42L, "function"}, run("return conftwice(21), type(conftwice)"));
+            // a global a script assigns shadows the API for that VM only
+            LuaVM vm = new LuaVM();
+            vm.exec("conftwice = function(x) return -x end");
+            assertArrayEquals(new Object[] {-21L}, vm.exec("return conftwice(21)"));
+            assertArrayEquals(new Object[] {42L}, run("return conftwice(21)"));
+        } finally {
+            LuaAPIRegistry.unregister("confTwice");
+        }
+    }
+}
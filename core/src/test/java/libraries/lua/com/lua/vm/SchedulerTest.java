@@ -0,0 +1,134 @@
+package libraries.lua.com.lua.vm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import org.junit.jupiter.api.Test;
+
+/** Ticks are driven by hand with a 10 ms tick, so sleep(ms) wakes after ceil(ms / 10) ticks. */
+class SchedulerTest {
+
+    private final LuaVM vm = new LuaVM();
+
+    @Test
+    void spawnedScriptsStartOnTheNextTick() {
+        Scheduler s = scheduler(512);
+        s.spawn(vm.load("started = ...", "start"), "yes");
+        assertEquals(1, s.live());
+        assertNull(global("started"));
+        assertEquals(1, s.tick());
+        assertEquals("yes", global("started"));
+        assertEquals(0, s.live());
+        assertEquals(0, s.tick());
+    }
+
+    @Test
+    void yieldContinuesNextTick() {
+        Scheduler s = scheduler(512);
+        s.spawn(vm.load("for i = 1, 3 do step = i coroutine.yield() end", "steps"));
+        for (long i = 1; i <= 3; i++) {
+            s.tick();
+            assertEquals(i, global("step"));
+        }
+        assertEquals(1, s.live());
+        s.tick();
+        assertEquals(0, s.live());
+    }
+
+    @Test
+    void sleepRoundsUpToWholeTicks() {
+        Scheduler s = scheduler(512);
+        s.spawn(vm.load("stage = 1 sleep(25) stage = 2 sleep(0) stage = 3", "sleeper"));
+        s.tick(); // tick 1: sleeps until tick 1 + 3
+        assertEquals(1L, global("stage"));
+        assertEquals(1, s.sleeping());
+        s.tick();
+        s.tick();
+        assertEquals(1L, global("stage"));
+        s.tick();
+        assertEquals(2L, global("stage"));
+        s.tick(); // sleep(0) is the next tick
+        assertEquals(3L, global("stage"));
+        assertEquals(0, s.sleeping());
+        assertEquals(0, s.live());
+    }
+
+    @Test
+    void sleepsLongerThanTheWheelGoAroundIt() {
+        Scheduler s = scheduler(16);
+        s.spawn(vm.load("sleep(400) woke = true", "long")); // 40 ticks on a 16-slot wheel
+        s.tick();
+        for (int t = 2; t < 41; t++) {
+            s.tick();
+            assertNull(global("woke"), "woke at tick " + t);
+        }
+        s.tick();
+        assertEquals(Boolean.TRUE, global("woke"));
+        assertEquals(41, s.currentTick());
+    }
+
+    @Test
+    void manySleepersWakeOnTheirTick() {
+        Scheduler s = scheduler(64);
+        vm.exec("done = 0");
+        LuaClosure fn = vm.load("local i = ... sleep((i % 100) * 10) done = done + 1", "many");
+        int n = 10_000;
+        for (int i = 0; i < n; i++) s.spawn(fn, (long) i);
+        s.tick();
+        assertEquals(n, s.sleeping());
+        for (int t = 2; t <= 101; t++) {
+            s.tick();
+            long due = 0;
+            for (int i = 0; i < n; i++) if (1 + Math.max(1, i % 100) <= t) due++;
+            assertEquals(due, global("done"), "tick " + t);
+        }
+        assertEquals(0, s.sleeping());
+        assertEquals(0, s.live());
+    }
+
+    @Test
+    void failuresEndOnlyTheirScript() {
+        Scheduler s = scheduler(512);
+        s.spawn(vm.load("error('boom')", "bad"));
+        s.spawn(vm.load("coroutine.yield() ok = true", "good"));
+        s.tick();
+        s.tick();
+        assertEquals(Boolean.TRUE, global("ok"));
+        assertEquals(0, s.live());
+        assertTrue(s.stats().contains("failed=1"), s.stats());
+    }
+
+    @Test
+    void driverThreadTicksOnItsOwn() throws InterruptedException {
+        CountDownLatch pings = new CountDownLatch(3);
+        LuaAPIRegistry.register("schedtestping", (LuaAPIRegistry.LuaFunction0) () -> {
+            pings.countDown();
+            return null;
+        });
+        Scheduler s;
+        try {
+            LuaVM own = new LuaVM(); // sees the API in its snapshot
+            s = new Scheduler(own, 5, 512);
+            s.spawn(own.load("for i = 1, 3 do schedtestping() coroutine.yield() end", "pinger"));
+            s.start();
+            assertTrue(pings.await(5, TimeUnit.SECONDS));
+        } finally {
+            LuaAPIRegistry.unregister("schedtestping");
+        }
+        s.stop();
+    }
+
+    private Scheduler scheduler(int slots) {
+        Scheduler s = new Scheduler(vm, 10, slots);
+        s.setTickBudgetMillis(0);
+        return s;
+    }
+
+    private Object global(String name) {
+        return vm.globals().get(name);
+    }
+}
@@ -0,0 +1,72 @@
+package libraries.lua.com.lua.vm;
+
+import static libraries.lua.com.lua.vm.Chunks.check;
+
+import org.junit.jupiter.api.Test;
+
+/** The string table as scripts see it; LuaPatternTest covers the matcher directly. */
+class StringLibTest {
+
+    @Test
+    void findAndMatch() {
+        check("local s, e = string.find('hello world', 'o w') assert(s == 5 and e == 7)\n"
+                + "s, e = string.find('hello', 'l+') assert(s == 3 and e == 4)\n"
+                + "assert(string.find('a.b', '.', 1, true) == 2 and string.find('a+b', '+', 1, true) == 2)\n"
+                + "assert(string.find('abc', 'b', -1) == nil)\n"
+                + "local k, v = string.match('key=val', '(%w+)=(%w+)') assert(k == 'key' and v == 'val')\n"
+                + "assert(string.match('  trim  ', '^%s*(.-)%s*$') == 'trim')\n"
+                + "assert(string.match('x', '()') == 1 and string.match('abc', 'x') == nil)\n"
+                + "local y, m, d = string.match('2024-10-18', '(%d+)-(%d+)-(%d+)') assert(y == '2024' and m == '10' and d == '18')\n"
+                + "assert(string.match('hello', '^h') == 'h' and string.match('hello', '^e') == nil)\n"
+                + "assert(string.match('hello', 'o$') == 'o' and string.match('ab$', 'b%$') == 'b$')");
+    }
+
+    @Test
+    void classesSetsAndSpecialItems() {
+        check("assert(string.match('f(a(b)c)d', '%b()') == '(a(b)c)')\n"
+                + "assert(string.find('THE (quick) fox', '%f[%a]%a+', 5) == 6)\n"
+                + "assert(string.match('abc123', '[%a]+') == 'abc' and string.match('abc123', '[^%a]+') == '123')\n"
+                + "assert(string.match('x-y', '[a-z]%-[a-z]') == 'x-y')\n"
+                + "assert(string.match('  \\t42', '%s*(%d+)') == '42' and string.match('A_b', '[%u_]+') == 'A_')\n"
+                + "assert(string.match('aaa', 'a-') == '' and string.match('aaa', 'a-$') == 'aaa' and string.match('ab', 'a?b') == 'ab')\n"
+                + "assert(string.match('hello hello', '(h%a+) %1') == 'hello')\n"
+                + "assert(string.match('[x]', '%[(.)%]') == 'x')");
+    }
+
+    @Test
+    void gmatchIteratesCaptures() {
+        check("local t = {} for k, v in string.gmatch('a=1, b=2', '(%w+)=(%w+)') do t[#t + 1] = k .. v end\n"
+                + "assert(#t == 2 and t[1] == 'a1' and t[2] == 'b2')\n"
+                + "local words = 0 for w in ('one two  three'):gmatch('%a+') do words = words + 1 end assert(words == 3)");
+    }
+
+    @Test
+    void gsubReplacements() {
+        check("local s, n = string.gsub('hello world', 'o', '0') assert(s == 'hell0 w0rld' and n == 2)\n"
+                + "assert(string.gsub('abc', '%w', '%0%0') == 'aabbcc')\n"
+                + "assert(string.gsub('hello', '', '-') == '-h-e-l-l-o-')\n"
+                + "assert(string.gsub('$name is $age', '%$(%w+)', {name = 'bob', age = 5}) == 'bob is 5')\n"
+                + "assert(string.gsub('a b', '%w', {a = 'x'}) == 'x b')\n"
+                + "assert(string.gsub('abc', '%w', function(c) return c:upper() .. '.' end) == 'A.B.C.')\n"
+                + "assert(string.gsub('abc', '%w', function() return nil end) == 'abc')\n"
+                + "s, n = string.gsub('aaaa', 'a', 'b', 2) assert(s == 'bbaa' and n == 2)\n"
+                + "assert(string.gsub('hello world', '(%w+) (%w+)', '%2 %1') == 'world hello')");
+    }
+
+    @Test
+    void malformedPatternsRaiseErrors() {
+        check("local ok, e = pcall(string.find, 'a', '[a') assert(not ok and e:find('missing', 1, true))\n"
+                + "ok, e = pcall(string.match, 'a', '(()') assert(not ok and e:find('unfinished capture', 1, true))\n"
+                + "ok, e = pcall(string.gsub, 'a', '(', '') assert(not ok)\n"
+                + "ok, e = pcall(string.gsub, 'a', 'a', '%2') assert(not ok)");
+    }
+
+    @Test
+    void stringLibrary() {
+        check("assert(string.rep('ab', 3) == 'ababab' and ('x'):rep(3, ',') == 'x,x,x')\n"
+                + "assert(('abc'):sub(2) == 'bc' and ('abc'):sub(-2, -1) == 'bc')\n"
+                + "assert(('Hi'):upper() == 'HI' and ('Hi'):lower() == 'hi' and ('abc'):reverse() == 'cba')\n"
+                + "assert(('x'):byte() == 120 and string.char(72, 105) == 'Hi' and #'abc' == 3)\n"
+                + "assert(string.format('%d %5.2f %s %q %x', 42, 3.14159, 'hi', 'a\"b', 255) == '42  3.14 hi \"a\\\\\"b\" ff')");
+    }
+}
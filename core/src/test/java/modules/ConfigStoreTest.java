@@ -0,0 +1,131 @@
+package modules;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigStoreTest {
+
+    @TempDir
+    Path dir;
+
+    /* ---------------- Typed keys ---------------- */
+
+    @Test
+    void keysReadTheirTypeOrTheDefault() throws IOException {
+        ConfigStore store = new ConfigStore();
+        ConfigStore.IntKey port = store.intKey("port", 1);
+        ConfigStore.IntKey big = store.intKey("big", -1);
+        ConfigStore.LongKey bigLong = store.longKey("big", -1);
+        ConfigStore.DoubleKey ratio = store.doubleKey("ratio", 0.5);
+        ConfigStore.BoolKey debug = store.boolKey("debug", true);
+        ConfigStore.StringKey name = store.stringKey("name", "none");
+        ConfigStore.IntKey bad = store.intKey("bad", 9);
+        assertEquals(1, port.get());
+        assertTrue(debug.get());
+        assertFalse(port.isSet());
+
+        store.loadFile(write("port = 25565\nbig=3000000000\nratio=0.25\ndebug=no\nname= x y \nbad=12abc\n"));
+        assertEquals(25565, port.get());
+        assertEquals(-1, big.get()); // out of int range
+        assertEquals(3_000_000_000L, bigLong.get());
+        assertEquals(0.25, ratio.get());
+        assertFalse(debug.get()); // like Boolean.parseBoolean
+        assertEquals("x y ", name.get());
+        assertEquals(9, bad.get());
+        assertTrue(port.isSet());
+
+        // a key compiled after the load reads the current snapshot too
+        assertEquals(0.25, store.doubleKey("ratio", 0).get());
+        assertEquals(25565.0, store.doubleKey("port", 0).get());
+    }
+
+    @Test
+    void lookupsByNameGuessLikeMainmodule() throws IOException {
+        ConfigStore store = new ConfigStore();
+        store.loadFile(write("i=7\nd=1.5\nb=TRUE\ns=abc\nl=3000000000\nf=2.9\n"));
+        ConfigStore.Snapshot s = store.snapshot();
+        assertEquals(7, s.get("i"));
+        assertEquals(1.5, s.get("d"));
+        assertEquals(Boolean.TRUE, s.get("b"));
+        assertEquals("abc", s.get("s"));
+        assertEquals("3000000000", s.get("l"));
+        assertNull(s.get("missing"));
+        assertEquals(2, s.getInt("f", 0));
+        assertEquals(-1, s.getInt("l", -1));
+        assertEquals(3_000_000_000L, s.getLong("l", 0));
+        assertEquals(4.0, s.getDouble("s", 4.0));
+        assertTrue(s.getBoolean("b", false));
+        assertFalse(s.getBoolean("s", true));
+        assertTrue(s.getBoolean("missing", true));
+        assertEquals(Map.of("i", 7, "d", 1.5, "b", true, "s", "abc", "l", "3000000000", "f", 2.9), s.asMap());
+    }
+
+    /* ---------------- Reloading ---------------- */
+
+    @Test
+    void reloadsPublishNewSnapshotsAndNotify() throws IOException {
+        ConfigStore store = new ConfigStore();
+        ConfigStore.IntKey a = store.intKey("a", 0);
+        List<Set<String>> changes = new ArrayList<>();
+        store.addListener((keys, snapshot) -> {
+            assertSame(store.snapshot(), snapshot);
+            changes.add(keys);
+        });
+        Path file = write("a=1\nb=2\nc=3\n");
+        store.loadFile(file);
+        ConfigStore.Snapshot first = store.snapshot();
+
+        Files.writeString(file, "a=10\nb=2\nd=4\n");
+        store.loadFile(file);
+        assertEquals(10, a.get());
+        assertEquals(1, a.get(first)); // an old snapshot never changes
+        assertEquals(Set.of("a", "b", "c"), changes.get(0));
+        assertEquals(Set.of("a", "c", "d"), changes.get(1));
+
+        store.loadFile(file); // same contents: no new snapshot, no event
+        assertEquals(2, changes.size());
+    }
+
+    @Test
+    void watchedFilesReloadOnChange() throws Exception {
+        ConfigStore store = new ConfigStore();
+        ConfigStore.IntKey level = store.intKey("level", 0);
+        BlockingQueue<Set<String>> changes = new LinkedBlockingQueue<>();
+        Path file = write("level=1\n");
+        store.watch(file);
+        try {
+            assertEquals(1, level.get());
+            store.addListener((keys, snapshot) -> changes.add(keys));
+            Files.writeString(file, "level=2\n");
+            assertEquals(Set.of("level"), changes.poll(10, TimeUnit.SECONDS));
+            assertEquals(2, level.get());
+            Files.writeString(dir.resolve("other.properties"), "level=3\n"); // not the watched file
+        } finally {
+            store.close();
+        }
+        Files.writeString(file, "level=4\n");
+        assertNull(changes.poll(300, TimeUnit.MILLISECONDS));
+        assertEquals(2, level.get());
+    }
+
+    private Path write(String text) throws IOException {
+        return Files.writeString(dir.resolve("config.properties"), text, StandardCharsets.UTF_8);
+    }
+}
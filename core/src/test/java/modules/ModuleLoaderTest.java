@@ -0,0 +1,160 @@
+package modules;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/** Every graph runs serially (1 thread) and on a pool (4), set through lua.modules.threads. */
+class ModuleLoaderTest {
+
+    /* ---------------- Order ---------------- */
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void dependenciesStartFirst(int threads) {
+        List<String> started = Collections.synchronizedList(new ArrayList<>());
+        ModuleLoader loader = new ModuleLoader()
+                .add(Module.of("apis", () -> started.add("apis"), "config", "log")) // added before what it needs
+                .add(Module.of("config", () -> started.add("config"), "log"))
+                .add(Module.of("log", () -> started.add("log")))
+                .add(Module.of("chat", () -> started.add("chat"), "log"))
+                .add(Module.of("scripts", () -> started.add("scripts"), "apis", "chat"));
+        ModuleLoader.Timeline t = start(loader, threads);
+        assertEquals(5, started.size());
+        assertEquals("log", started.get(0));
+        assertTrue(started.indexOf("config") < started.indexOf("apis"), started.toString());
+        assertEquals("scripts", started.get(4));
+        assertTrue(t.failed().isEmpty());
+        for (ModuleLoader.Entry e : t.entries()) {
+            assertEquals(ModuleLoader.Status.STARTED, e.status());
+            if (threads == 1) assertEquals(Thread.currentThread().getName(), e.thread());
+            else assertTrue(e.thread().startsWith("module-loader-"), e.thread());
+        }
+    }
+
+    @Test
+    void independentModulesRunTogether() {
+        CountDownLatch both = new CountDownLatch(2);
+        Module.Action meet = () -> {
+            both.countDown();
+            if (!both.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("ran alone");
+        };
+        AtomicInteger after = new AtomicInteger();
+        ModuleLoader loader = new ModuleLoader()
+                .add(Module.of("left", meet))
+                .add(Module.of("right", meet))
+                .add(Module.of("joined", after::incrementAndGet, "left", "right"));
+        ModuleLoader.Timeline t = start(loader, 4);
+        assertTrue(t.failed().isEmpty(), t.format());
+        assertEquals(1, after.get());
+    }
+
+    /* ---------------- Errors ---------------- */
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void failuresSkipOnlyTheirDependents(int threads) {
+        AtomicBoolean other = new AtomicBoolean();
+        ModuleLoader loader = new ModuleLoader()
+                .add(Module.of("broken", () -> {
+                    throw new java.io.IOException("no config file");
+                }))
+                .add(Module.of("missing", () -> {
+                    throw new NoClassDefFoundError("some/Optional");
+                }))
+                .add(Module.of("needsBroken", () -> {}, "broken"))
+                .add(Module.of("needsThat", () -> {}, "needsBroken"))
+                .add(Module.of("other", () -> other.set(true)));
+        ModuleLoader.Timeline t = start(loader, threads);
+        assertTrue(other.get());
+        assertEquals(4, t.failed().size(), t.format());
+        assertEquals(ModuleLoader.Status.FAILED, entry(t, "broken").status());
+        assertEquals("java.io.IOException: no config file", entry(t, "broken").error());
+        assertEquals(ModuleLoader.Status.FAILED, entry(t, "missing").status());
+        assertEquals(ModuleLoader.Status.SKIPPED, entry(t, "needsBroken").status());
+        assertEquals("needs broken", entry(t, "needsBroken").error());
+        assertEquals("needs needsBroken", entry(t, "needsThat").error());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void otherErrorsAreRethrownAfterTheRest(int threads) {
+        AtomicBoolean other = new AtomicBoolean();
+        ModuleLoader loader = new ModuleLoader()
+                .add(Module.of("fatal", () -> {
+                    throw new InternalError("fatal");
+                }))
+                .add(Module.of("other", () -> other.set(true)));
+        InternalError e = assertThrows(InternalError.class, () -> start(loader, threads));
+        assertEquals("fatal", e.getMessage());
+        assertTrue(other.get());
+    }
+
+    @Test
+    void badGraphsFailBeforeAnythingRuns() {
+        AtomicBoolean ran = new AtomicBoolean();
+        ModuleLoader unknown = new ModuleLoader()
+                .add(Module.of("a", () -> ran.set(true)))
+                .add(Module.of("b", () -> ran.set(true), "nowhere"));
+        assertTrue(assertThrows(IllegalStateException.class, unknown::start).getMessage().contains("nowhere"));
+        ModuleLoader cycle = new ModuleLoader()
+                .add(Module.of("a", () -> ran.set(true)))
+                .add(Module.of("b", () -> ran.set(true), "c"))
+                .add(Module.of("c", () -> ran.set(true), "b"));
+        assertTrue(assertThrows(IllegalStateException.class, cycle::start).getMessage().contains("cycle"));
+        assertFalse(ran.get());
+        assertThrows(IllegalArgumentException.class, () -> new ModuleLoader().add(Module.of("a", () -> {})).add(Module.of("a", () -> {})));
+    }
+
+    /* ---------------- Timeline ---------------- */
+
+    @Test
+    void timelineShowsEachModuleInStartOrder() {
+        ModuleLoader loader = new ModuleLoader()
+                .add(Module.of("slow", () -> Thread.sleep(30), "first"))
+                .add(Module.of("first", () -> {}))
+                .add(Module.of("broken", () -> {
+                    throw new IllegalStateException("bad");
+                }, "first"));
+        ModuleLoader.Timeline t = start(loader, 1);
+        ModuleLoader.Entry slow = entry(t, "slow");
+        assertTrue(slow.nanos() >= TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(slow.beginNanos() >= entry(t, "first").beginNanos() + entry(t, "first").nanos());
+        assertTrue(t.totalNanos() >= slow.beginNanos() + slow.nanos());
+
+        String[] lines = t.format().split("\n");
+        assertEquals(4, lines.length, t.format());
+        assertTrue(lines[0].startsWith("startup: modules "), lines[0]);
+        assertTrue(lines[1].trim().startsWith("first "), lines[1]);
+        assertTrue(lines[2].trim().startsWith("slow "), lines[2]);
+        assertTrue(lines[2].contains("|") && lines[2].contains("#"), lines[2]);
+        assertTrue(lines[3].endsWith("FAILED (java.lang.IllegalStateException: bad)"), lines[3]);
+    }
+
+    private static ModuleLoader.Timeline start(ModuleLoader loader, int threads) {
+        String before = System.getProperty("lua.modules.threads");
+        System.setProperty("lua.modules.threads", String.valueOf(threads));
+        try {
+            return loader.start();
+        } finally {
+            if (before == null) System.clearProperty("lua.modules.threads");
+            else System.setProperty("lua.modules.threads", before);
+        }
+    }
+
+    private static ModuleLoader.Entry entry(ModuleLoader.Timeline t, String name) {
+        return t.entries().stream().filter(e -> e.name().equals(name)).findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,208 @@
+package libraries.lua.com.lua;
+
+import java.nio.DoubleBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * Batch versions of {@link lua.math} over double[] and DoubleBuffer (heap or direct), for code that
+ * runs the same function over entity positions or terrain samples.
+ *
+ * - Each op is one plain counted loop over arrays, the shape HotSpot's C2 auto-vectorizes:
+ *   abs, sqrt, floor, neg/scale and min/max run as SIMD on x86/AArch64, sin/cos stay scalar
+ *   intrinsics but skip the per-call overhead. (The Vector API is still an incubator module on
+ *   our JDK and would need --add-modules on every launcher, so it is not used.)
+ * - sum uses four accumulators so the adds pipeline; its rounding can differ from a left-to-right
+ *   loop in the last bits.
+ * - Unary ops take (src, dst) of the same length, or one array to update in place.
+ * - Buffer ops work on the remaining() elements from position() and do not move either position.
+ *   Direct buffers are processed in chunks through a per-thread scratch array.
+ */
+public final class BatchMath {
+
+    private BatchMath() {}
+
+    private static final int CHUNK = 1024;
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[][] { new double[CHUNK], new double[CHUNK] });
+
+    /* ---------------- Unary ops ---------------- */
+
+    public static void abs(double[] src, double[] dst) { abs(src, 0, dst, 0, length(src, dst)); }
+    public static void sqrt(double[] src, double[] dst) { sqrt(src, 0, dst, 0, length(src, dst)); }
+    public static void sin(double[] src, double[] dst) { sin(src, 0, dst, 0, length(src, dst)); }
+    public static void cos(double[] src, double[] dst) { cos(src, 0, dst, 0, length(src, dst)); }
+    public static void floor(double[] src, double[] dst) { floor(src, 0, dst, 0, length(src, dst)); }
+    public static void ceil(double[] src, double[] dst) { ceil(src, 0, dst, 0, length(src, dst)); }
+    public static void neg(double[] src, double[] dst) { neg(src, 0, dst, 0, length(src, dst)); }
+
+    public static void abs(double[] a) { abs(a, a); }
+    public static void sqrt(double[] a) { sqrt(a, a); }
+    public static void sin(double[] a) { sin(a, a); }
+    public static void cos(double[] a) { cos(a, a); }
+    public static void floor(double[] a) { floor(a, a); }
+    public static void ceil(double[] a) { ceil(a, a); }
+    public static void neg(double[] a) { neg(a, a); }
+
+    public static void abs(DoubleBuffer src, DoubleBuffer dst) { apply(BatchMath::abs, src, dst); }
+    public static void sqrt(DoubleBuffer src, DoubleBuffer dst) { apply(BatchMath::sqrt, src, dst); }
+    public static void sin(DoubleBuffer src, DoubleBuffer dst) { apply(BatchMath::sin, src, dst); }
+    public static void cos(DoubleBuffer src, DoubleBuffer dst) { apply(BatchMath::cos, src, dst); }
+    public static void floor(DoubleBuffer src, DoubleBuffer dst) { apply(BatchMath::floor, src, dst); }
+    public static void ceil(DoubleBuffer src, DoubleBuffer dst) { apply(BatchMath::ceil, src, dst); }
+    public static void neg(DoubleBuffer src, DoubleBuffer dst) { apply(BatchMath::neg, src, dst); }
+
+    /** dst[i] = src[i] * k + c. */
+    public static void scale(double[] src, double k, double c, double[] dst) {
+        int n = length(src, dst);
+        for (int i = 0; i < n; i++) dst[i] = src[i] * k + c;
+    }
+
+    private static int length(double[] src, double[] dst) {
+        if (src.length != dst.length) throw new IllegalArgumentException("length mismatch: " + src.length + " vs " + dst.length);
+        return src.length;
+    }
+
+    /** b[bi + i] = f(a[ai + i]) for i < n. */
+    private interface Kernel {
+        void run(double[] a, int ai, double[] b, int bi, int n);
+    }
+
+    // one small method per op, so each compiles to its own tight loop
+
+    private static void abs(double[] a, int ai, double[] b, int bi, int n) {
+        for (int i = 0; i < n; i++) b[bi + i] = Math.abs(a[ai + i]);
+    }
+
+    private static void sqrt(double[] a, int ai, double[] b, int bi, int n) {
+        for (int i = 0; i < n; i++) b[bi + i] = Math.sqrt(a[ai + i]);
+    }
+
+    private static void sin(double[] a, int ai, double[] b, int bi, int n) {
+        for (int i = 0; i < n; i++) b[bi + i] = Math.sin(a[ai + i]);
+    }
+
+    private static void cos(double[] a, int ai, double[] b, int bi, int n) {
+        for (int i = 0; i < n; i++) b[bi + i] = Math.cos(a[ai + i]);
+    }
+
+    private static void floor(double[] a, int ai, double[] b, int bi, int n) {
+        for (int i = 0; i < n; i++) b[bi + i] = Math.floor(a[ai + i]);
+    }
+
+    private static void ceil(double[] a, int ai, double[] b, int bi, int n) {
+        for (int i = 0; i < n; i++) b[bi + i] = Math.ceil(a[ai + i]);
+    }
+
+    private static void neg(double[] a, int ai, double[] b, int bi, int n) {
+        for (int i = 0; i < n; i++) b[bi + i] = -a[ai + i];
+    }
+
+    private static void apply(Kernel k, DoubleBuffer src, DoubleBuffer dst) {
+        int n = src.remaining();
+        if (dst.remaining() != n) throw new IllegalArgumentException("length mismatch: " + n + " vs " + dst.remaining());
+        if (dst.isReadOnly()) throw new java.nio.ReadOnlyBufferException();
+        int sp = src.position(), dp = dst.position();
+        if (src.hasArray() && dst.hasArray()) {
+            k.run(src.array(), src.arrayOffset() + sp, dst.array(), dst.arrayOffset() + dp, n);
+            return;
+        }
+        double[] tmp = SCRATCH.get()[0];
+        for (int off = 0; off < n; off += CHUNK) {
+            int len = Math.min(CHUNK, n - off);
+            src.get(sp + off, tmp, 0, len);
+            k.run(tmp, 0, tmp, 0, len);
+            dst.put(dp + off, tmp, 0, len);
+        }
+    }
+
+    /* ---------------- Reductions ---------------- */
+
+    public static double sum(double[] a) { return sum(a, 0, a.length); }
+    public static double min(double[] a) { return min(a, 0, a.length); }
+    public static double max(double[] a) { return max(a, 0, a.length); }
+
+    public static double sum(DoubleBuffer b) { return reduce(BatchMath::sum, b, 0, Double::sum); }
+    public static double min(DoubleBuffer b) { return reduce(BatchMath::min, b, Double.POSITIVE_INFINITY, Math::min); }
+    public static double max(DoubleBuffer b) { return reduce(BatchMath::max, b, Double.NEGATIVE_INFINITY, Math::max); }
+
+    /** Sum of a[i] * b[i]; the squared length of a vector is dot(v, v). */
+    public static double dot(double[] a, double[] b) {
+        int n = length(a, b);
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < n; i++) s0 += a[i] * b[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /** sum(a[from .. to)), 0-based with an exclusive end; 0 for an empty range. */
+    public static double sum(double[] a, int from, int to) {
+        checkRange(a, from, to);
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < to; i++) s0 += a[i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /** min(a[from .. to)); +inf for an empty range. NaN propagates like Math.min. */
+    public static double min(double[] a, int from, int to) {
+        checkRange(a, from, to);
+        double m = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) m = Math.min(m, a[i]);
+        return m;
+    }
+
+    /** max(a[from .. to)); -inf for an empty range. NaN propagates like Math.max. */
+    public static double max(double[] a, int from, int to) {
+        checkRange(a, from, to);
+        double m = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) m = Math.max(m, a[i]);
+        return m;
+    }
+
+    private static void checkRange(double[] a, int from, int to) {
+        if (from < 0 || to > a.length || from > to) throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") of " + a.length);
+    }
+
+    private interface Reduction {
+        double run(double[] a, int from, int to);
+    }
+
+    private static double reduce(Reduction f, DoubleBuffer b, double identity, java.util.function.DoubleBinaryOperator combine) {
+        int n = b.remaining(), p = b.position();
+        if (b.hasArray()) return f.run(b.array(), b.arrayOffset() + p, b.arrayOffset() + p + n);
+        double[] tmp = SCRATCH.get()[1];
+        double r = identity;
+        for (int off = 0; off < n; off += CHUNK) {
+            int len = Math.min(CHUNK, n - off);
+            b.get(p + off, tmp, 0, len);
+            r = combine.applyAsDouble(r, f.run(tmp, 0, len));
+        }
+        return r;
+    }
+
+    /* ---------------- Random ---------------- */
+
+    /** Fill out with uniform doubles in [0, 1) from the calling thread's generator (see lua.math.randomseed). */
+    public static void random(double[] out) {
+        SplittableRandom r = lua.math.generator();
+        for (int i = 0; i < out.length; i++) out[i] = r.nextDouble();
+    }
+
+    /** Fill out with uniform ints in [min, max]. */
+    public static void random(int[] out, int min, int max) {
+        if (min > max) throw new IllegalArgumentException("interval is empty");
+        SplittableRandom r = lua.math.generator();
+        for (int i = 0; i < out.length; i++) out[i] = (int) r.nextLong(min, (long) max + 1);
+    }
+}
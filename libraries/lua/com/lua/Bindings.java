@@ -0,0 +1,207 @@
+package libraries.lua.com.lua;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Turns methods and fields found at runtime (Minecraft/Forge classes we cannot compile against)
+ * into call sites the JIT can inline.
+ *
+ * - method(...) / getter(...) look members up once and return a MethodHandle, or null if absent.
+ * - bind(iface, handle) implements a functional interface on top of the handle. Direct method
+ *   handles go through LambdaMetafactory, so each call is a plain interface call into generated
+ *   code; anything else (field getters, classes our loader cannot see) gets a small adapter that
+ *   calls the handle with invokeExact.
+ * - Arguments and results are erased to Object; primitives are boxed/unboxed at the edge, so
+ *   callers can pass Boolean.FALSE for a boolean parameter.
+ * - The call-site interfaces below cover the shapes the chat and Minecraft APIs need. Their
+ *   methods do not declare exceptions, but whatever the target throws is passed through.
+ */
+public final class Bindings {
+
+    private Bindings() {}
+
+    public interface Call0 { Object call(); }
+    public interface Call1 { Object call(Object a); }
+    public interface Call2 { Object call(Object a, Object b); }
+    public interface Run2 { void call(Object a, Object b); }
+    public interface Run3 { void call(Object a, Object b, Object c); }
+    public interface ToDouble1 { double call(Object a); }
+    public interface ToLong1 { long call(Object a); }
+    public interface ToBoolean1 { boolean call(Object a); }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /* ---------------- Lookup ---------------- */
+
+    /** The class with this name, or null if it is not on the classpath. */
+    public static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * type() for the fixed startup probes (the Minecraft and Forge classes): a class that was not
+     * found is remembered by {@link StartupCache}, so the next boot on the same class path and mods
+     * skips it. Not for names that come from scripts or config.
+     */
+    static Class<?> probe(String name) {
+        if (StartupCache.isMissing(name)) return null;
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            StartupCache.recordMissing(name);
+            return null;
+        } catch (LinkageError e) {
+            return null; // present but broken; not an absence worth remembering
+        }
+    }
+
+    /** Handle for the public method owner.name(params), static or instance; null if absent. */
+    public static MethodHandle method(Class<?> owner, String name, Class<?>... params) {
+        if (owner == null) return null;
+        for (Class<?> p : params) if (p == null) return null;
+        try {
+            return MethodHandles.publicLookup().unreflect(owner.getMethod(name, params));
+        } catch (NoSuchMethodException | IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /** The first of several candidate names (mappings differ between versions). */
+    public static MethodHandle method(Class<?> owner, String[] names, Class<?>... params) {
+        for (String name : names) {
+            MethodHandle h = method(owner, name, params);
+            if (h != null) return h;
+        }
+        return null;
+    }
+
+    /** Getter for a public field, static or instance; null if absent. */
+    public static MethodHandle getter(Class<?> owner, String name) {
+        if (owner == null) return null;
+        try {
+            Field f = owner.getField(name);
+            return MethodHandles.publicLookup().unreflectGetter(f);
+        } catch (NoSuchFieldException | IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /** A no-argument accessor: method name(), else a public field called name. */
+    public static MethodHandle accessor(Class<?> owner, String name) {
+        MethodHandle h = method(owner, name);
+        return h != null ? h : getter(owner, name);
+    }
+
+    /* ---------------- Binding ---------------- */
+
+    /** Implement iface (a single-method interface) by calling target; null if target is null. */
+    public static <T> T bind(Class<T> iface, MethodHandle target) {
+        if (target == null) return null;
+        Method sam = singleAbstractMethod(iface);
+        MethodType samType = MethodType.methodType(sam.getReturnType(), sam.getParameterTypes());
+        if (target.type().parameterCount() != samType.parameterCount()) {
+            throw new IllegalArgumentException(target + " does not fit " + iface.getSimpleName());
+        }
+        T generated = metafactory(iface, sam.getName(), samType, target);
+        return generated != null ? generated : adapter(iface, target.asType(samType));
+    }
+
+    private static <T> T metafactory(Class<T> iface, String name, MethodType samType, MethodHandle target) {
+        try {
+            Class<?> owner = LOOKUP.revealDirect(target).getDeclaringClass();
+            MethodType instantiated = instantiatedType(target.type(), samType);
+            if (!visible(owner) || !visible(instantiated)) return null;
+            CallSite site = LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(iface),
+                    samType, target, instantiated);
+            return iface.cast(site.getTarget().invoke());
+        } catch (Throwable notDirect) {
+            return null;
+        }
+    }
+
+    /** The target's own types, boxed wherever the interface method has a reference type. */
+    private static MethodType instantiatedType(MethodType impl, MethodType sam) {
+        Class<?>[] params = new Class<?>[sam.parameterCount()];
+        for (int i = 0; i < params.length; i++) {
+            Class<?> p = impl.parameterType(i);
+            params[i] = p.isPrimitive() && !sam.parameterType(i).isPrimitive() ? MethodType.methodType(p).wrap().returnType() : p;
+        }
+        Class<?> r = impl.returnType();
+        if (sam.returnType() == void.class) r = void.class;
+        else if (r.isPrimitive() && !sam.returnType().isPrimitive()) r = MethodType.methodType(r).wrap().returnType();
+        return MethodType.methodType(r, params);
+    }
+
+    /** Generated classes are defined in our loader, so every type they name must resolve there. */
+    private static boolean visible(Class<?> c) {
+        while (c.isArray()) c = c.getComponentType();
+        if (c.isPrimitive()) return true;
+        if (!Modifier.isPublic(c.getModifiers())) return false;
+        try {
+            return Class.forName(c.getName(), false, Bindings.class.getClassLoader()) == c;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static boolean visible(MethodType t) {
+        if (!visible(t.returnType())) return false;
+        for (Class<?> p : t.parameterArray()) if (!visible(p)) return false;
+        return true;
+    }
+
+    /** invokeExact adapters for the interfaces above; MethodHandleProxies for anything else. */
+    private static <T> T adapter(Class<T> iface, MethodHandle h) {
+        Object a;
+        if (iface == Call0.class) {
+            a = (Call0) () -> { try { return (Object) h.invokeExact(); } catch (Throwable t) { throw sneaky(t); } };
+        } else if (iface == Call1.class) {
+            a = (Call1) x -> { try { return (Object) h.invokeExact(x); } catch (Throwable t) { throw sneaky(t); } };
+        } else if (iface == Call2.class) {
+            a = (Call2) (x, y) -> { try { return (Object) h.invokeExact(x, y); } catch (Throwable t) { throw sneaky(t); } };
+        } else if (iface == Run2.class) {
+            a = (Run2) (x, y) -> { try { h.invokeExact(x, y); } catch (Throwable t) { throw sneaky(t); } };
+        } else if (iface == Run3.class) {
+            a = (Run3) (x, y, z) -> { try { h.invokeExact(x, y, z); } catch (Throwable t) { throw sneaky(t); } };
+        } else if (iface == ToDouble1.class) {
+            a = (ToDouble1) x -> { try { return (double) h.invokeExact(x); } catch (Throwable t) { throw sneaky(t); } };
+        } else if (iface == ToLong1.class) {
+            a = (ToLong1) x -> { try { return (long) h.invokeExact(x); } catch (Throwable t) { throw sneaky(t); } };
+        } else if (iface == ToBoolean1.class) {
+            a = (ToBoolean1) x -> { try { return (boolean) h.invokeExact(x); } catch (Throwable t) { throw sneaky(t); } };
+        } else {
+            return MethodHandleProxies.asInterfaceInstance(iface, h);
+        }
+        return iface.cast(a);
+    }
+
+    /** Rethrow t unchanged, checked or not, like the generated classes do. */
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> RuntimeException sneaky(Throwable t) throws E {
+        throw (E) t;
+    }
+
+    private static Method singleAbstractMethod(Class<?> iface) {
+        if (!iface.isInterface()) throw new IllegalArgumentException(iface + " is not an interface");
+        Method found = null;
+        for (Method m : iface.getMethods()) {
+            if (!Modifier.isAbstract(m.getModifiers())) continue;
+            if (found != null) throw new IllegalArgumentException(iface + " has more than one abstract method");
+            found = m;
+        }
+        if (found == null) throw new IllegalArgumentException(iface + " has no abstract method");
+        return found;
+    }
+}
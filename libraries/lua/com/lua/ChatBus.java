@@ -0,0 +1,628 @@
+package libraries.lua.com.lua;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Chat and script events shared by the server processes on one host, over non-blocking NIO.
+ *
+ * - A ChatBus is a chat sender: each line goes to this process's own chat sender and to every
+ *   other process on the bus, which shows it through its own. With -Dlua.bus=true,
+ *   lua.chat / lua.systemChat fan out with no other change (see lua.chatBus()).
+ * - publish(topic, data) / subscribe(topic, listener) carry script events the same way; a
+ *   process's own events reach its own subscribers too.
+ * - The first process to bind lua.bus.address is the hub and relays every frame to the others,
+ *   which connect to it. When the hub goes away the others reconnect and one of them binds in its
+ *   place. A Unix-domain address is owned through a lock file next to the socket, so a crashed
+ *   hub's socket file is replaced by exactly one process.
+ * - Frames are length-prefixed binary: [int length][byte type][long origin][long seq][payload].
+ *   One IO thread per process; frames queued between two wakeups leave in one write.
+ * - Each process keeps its last lua.bus.replay frames and resends them after a reconnect, and
+ *   the hub resends its own to a process that reconnects. Receivers drop frames whose per-origin
+ *   sequence they have already seen, so a reconnect loses no recent frame and shows none twice.
+ *   Older frames are gone: delivery is best effort.
+ * - A connection with more than lua.bus.maxBacklog unsent bytes is dropped; it reconnects and
+ *   catches up from the replay buffers. When lua.bus.capacity frames are waiting to be sent, the
+ *   oldest is dropped.
+ * - Chat lines from other processes go to a sink given to start(), which lua points at its
+ *   ChatPipeline, so they reach the game from the pipeline's drain (the game tick when the host
+ *   drives it) like local chat. Event listeners run on the bus thread.
+ * - Settings: -Dlua.bus (false), -Dlua.bus.address (127.0.0.1:25590, or unix:/path/bus.sock),
+ *   -Dlua.bus.replay (1024 frames), -Dlua.bus.capacity (8192 frames),
+ *   -Dlua.bus.maxBacklog (8 MiB), -Dlua.bus.reconnectMillis (250, doubling up to 5000).
+ *
+ * Example:
+ *   ChatBus bus = lua.chatBus();
+ *   bus.subscribe("restart", when -> lua.systemChat("Restarting at " + when));
+ *   bus.publish("restart", "12:00");
+ */
+public final class ChatBus implements lua.ChatSender, AutoCloseable {
+
+    private static final Log.Logger LOG = Log.logger("lua.bus");
+
+    private static final String DEFAULT_ADDRESS = "127.0.0.1:25590";
+    private static final int REPLAY = Math.max(0, Integer.getInteger("lua.bus.replay", 1024));
+    private static final int CAPACITY = Integer.getInteger("lua.bus.capacity", 8192);
+    private static final long MAX_BACKLOG = Long.getLong("lua.bus.maxBacklog", 8L << 20);
+    private static final long RECONNECT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("lua.bus.reconnectMillis", 250));
+    private static final long MAX_RECONNECT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long CLOSE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /* ---------------- Frames ---------------- */
+
+    private static final byte HELLO = 1;
+    private static final byte CHAT = 2;
+    private static final byte SYSTEM = 3;
+    private static final byte EVENT = 4;
+
+    /** Bytes before the payload: length, type, origin, seq. */
+    private static final int HEADER = 4 + 1 + 8 + 8;
+    private static final int SEQ_AT = 4 + 1 + 8;
+    /** Largest frame, length prefix excluded. */
+    static final int MAX_FRAME = 1 << 20;
+
+    private static final class Frame {
+        final byte type;
+        final long origin;
+        /** The whole frame as sent, length prefix included. */
+        final byte[] bytes;
+        long seq;
+
+        Frame(byte type, long origin, long seq, byte[] bytes) {
+            this.type = type;
+            this.origin = origin;
+            this.seq = seq;
+            this.bytes = bytes;
+        }
+    }
+
+    /* ---------------- State ---------------- */
+
+    private final SocketAddress address;
+    private final lua.ChatSender local;
+    private final lua.ChatSender remote;
+    private final long nodeId;
+    private final RingBuffer<Frame> outbound = new RingBuffer<>(CAPACITY);
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Consumer<String>>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final Selector selector;
+    private final Thread io;
+    private volatile boolean running = true;
+
+    // owned by the IO thread
+    private final Frame[] recent = new Frame[REPLAY];
+    private int recentNext;
+    private int recentCount;
+    private final Map<Long, Long> lastSeen = new HashMap<>();
+    private final List<Connection> connections = new ArrayList<>();
+    private long sequence;
+    private ServerSocketChannel server;
+    private FileChannel lockFile;
+    private FileLock hubLock;
+    private Connection upstream;
+    private boolean joinedBefore;
+    private volatile boolean hub;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder relayed = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    ChatBus(SocketAddress address, lua.ChatSender local, lua.ChatSender remote) throws IOException {
+        this.address = address;
+        this.local = local;
+        this.remote = remote;
+        long id;
+        do id = ThreadLocalRandom.current().nextLong(); while (id == 0);
+        this.nodeId = id;
+        this.selector = Selector.open();
+        this.io = new Thread(this::run, "lua-bus");
+        io.setDaemon(true);
+        io.start();
+    }
+
+    /**
+     * The bus lua.chat fans out through, on lua.bus.address: send() shows a line through local and
+     * publishes it; lines from other processes are handed to remote, on the bus thread, so remote
+     * must only queue them.
+     */
+    static ChatBus start(lua.ChatSender local, lua.ChatSender remote) {
+        String spec = System.getProperty("lua.bus.address", DEFAULT_ADDRESS);
+        try {
+            ChatBus bus = new ChatBus(parseAddress(spec), local, remote);
+            Runtime.getRuntime().addShutdownHook(new Thread(bus::close, "lua-bus-close"));
+            return bus;
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("chat bus on %s unavailable, chat stays local: %s", spec, e);
+            return null;
+        }
+    }
+
+    /** A bus node on address ("host:port" or "unix:/path") for events only; remote chat lines are not shown. */
+    public static ChatBus open(String address) throws IOException {
+        return new ChatBus(parseAddress(address), null, null);
+    }
+
+    static SocketAddress parseAddress(String spec) {
+        if (spec.startsWith("unix:")) return UnixDomainSocketAddress.of(spec.substring(5));
+        int colon = spec.lastIndexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("bus address needs host:port or unix:path: " + spec);
+        String host = colon > 0 ? spec.substring(0, colon) : "127.0.0.1";
+        return new InetSocketAddress(host, Integer.parseInt(spec.substring(colon + 1).trim()));
+    }
+
+    /* ---------------- Publishing ---------------- */
+
+    /** Show message here and on every other process on the bus. */
+    @Override
+    public void send(String message, boolean system) {
+        if (local != null) local.send(message, system);
+        enqueue(encode(system ? SYSTEM : CHAT, null, message));
+    }
+
+    /** Send data to the subscribers of topic in every process on the bus, this one included. */
+    public void publish(String topic, String data) {
+        if (topic == null) throw new IllegalArgumentException("bus topic is nil");
+        enqueue(encode(EVENT, topic, data != null ? data : ""));
+    }
+
+    public void subscribe(String topic, Consumer<String> listener) {
+        subscribers.computeIfAbsent(topic, t -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void unsubscribe(String topic, Consumer<String> listener) {
+        CopyOnWriteArrayList<Consumer<String>> list = subscribers.get(topic);
+        if (list != null) list.remove(listener);
+    }
+
+    private Frame encode(byte type, String topic, String text) {
+        byte[] t = topic != null ? topic.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] p = text.getBytes(StandardCharsets.UTF_8);
+        if (t != null && t.length > 0xFFFF) throw new IllegalArgumentException("bus topic too long");
+        int length = HEADER - 4 + (t != null ? 2 + t.length : 0) + p.length;
+        if (length > MAX_FRAME) throw new IllegalArgumentException("bus frame too large: " + length + " bytes");
+        // the sequence is stamped by the IO thread, so it follows the order frames are sent in
+        ByteBuffer b = ByteBuffer.allocate(4 + length);
+        b.putInt(length).put(type).putLong(nodeId).putLong(0);
+        if (t != null) b.putShort((short) t.length).put(t);
+        b.put(p);
+        return new Frame(type, nodeId, 0, b.array());
+    }
+
+    private void enqueue(Frame f) {
+        while (!outbound.offer(f)) {
+            if (outbound.poll() != null) dropped.increment();
+        }
+        published.increment();
+        if (!wakeupPending.getAndSet(true)) selector.wakeup();
+    }
+
+    /* ---------------- IO thread ---------------- */
+
+    private void run() {
+        long retryAt = System.nanoTime();
+        long backoff = RECONNECT_NANOS;
+        while (running) {
+            try {
+                long now = System.nanoTime();
+                if (!hub && upstream == null && now - retryAt >= 0) {
+                    if (join()) {
+                        backoff = RECONNECT_NANOS;
+                    } else {
+                        retryAt = now + backoff;
+                        backoff = Math.min(backoff * 2, MAX_RECONNECT_NANOS);
+                    }
+                }
+                long waitMillis = hub || upstream != null ? 1000
+                        : Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryAt - System.nanoTime()));
+                selector.select(waitMillis);
+                wakeupPending.set(false); // before draining: a publish from here on wakes the next select
+                drainOutbound();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else handle((Connection) key.attachment(), key);
+                }
+                for (int i = connections.size() - 1; i >= 0; i--) {
+                    Connection c = connections.get(i);
+                    if (c.backlog > MAX_BACKLOG) drop(c, "more than " + MAX_BACKLOG + " bytes unsent");
+                    else if (c.dirty) flush(c);
+                }
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("bus loop: %s", e);
+            }
+        }
+        finish();
+        shutdown();
+    }
+
+    /** Closing: send what was queued before close() and what the others still wait for, for up to CLOSE_NANOS. */
+    private void finish() {
+        long deadline = System.nanoTime() + CLOSE_NANOS;
+        drainOutbound();
+        try {
+            for (;;) {
+                boolean more = false;
+                for (int i = connections.size() - 1; i >= 0; i--) {
+                    Connection c = connections.get(i);
+                    flush(c);
+                    more |= c.backlog > 0;
+                }
+                if (!more || System.nanoTime() - deadline >= 0) return;
+                selector.select(10);
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("bus close: %s", e);
+        }
+    }
+
+    private void handle(Connection c, SelectionKey key) {
+        try {
+            if (key.isReadable()) c.read();
+            if (key.isValid() && key.isWritable()) c.dirty = true;
+        } catch (IOException e) {
+            drop(c, e instanceof EOFException ? "closed" : e.toString());
+        }
+    }
+
+    /** Become the hub, else connect to it; false if neither worked. */
+    private boolean join() {
+        try {
+            bind();
+            hub = true;
+            if (joinedBefore) reconnects.increment();
+            joinedBefore = true;
+            LOG.info("bus hub on %s", address);
+            return true;
+        } catch (IOException notHub) {
+            LOG.debug("bus bind %s: %s", address, notHub);
+        }
+        try {
+            connect();
+            LOG.info("bus connected to %s", address);
+            return true;
+        } catch (IOException e) {
+            LOG.debug("bus connect %s: %s", address, e);
+            return false;
+        }
+    }
+
+    private void bind() throws IOException {
+        boolean unix = address instanceof UnixDomainSocketAddress;
+        if (unix && !lockHub()) throw new IOException("another process holds the bus lock");
+        ServerSocketChannel s = unix ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
+        try {
+            if (unix) {
+                // we hold the lock, so a socket file left here belongs to a hub that is gone
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            } else if (!System.getProperty("os.name", "").startsWith("Windows")) {
+                s.setOption(StandardSocketOptions.SO_REUSEADDR, true); // rebind over the old hub's TIME_WAITs
+            }
+            s.bind(address);
+            s.configureBlocking(false);
+            s.register(selector, SelectionKey.OP_ACCEPT);
+            server = s;
+        } catch (IOException e) {
+            s.close();
+            releaseHub();
+            throw e;
+        }
+    }
+
+    private boolean lockHub() throws IOException {
+        Path socket = ((UnixDomainSocketAddress) address).getPath();
+        Path lock = socket.resolveSibling(socket.getFileName() + ".lock");
+        FileChannel ch = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock l = ch.tryLock();
+            if (l != null) {
+                lockFile = ch;
+                hubLock = l;
+                return true;
+            }
+        } catch (OverlappingFileLockException heldHere) {
+            // another bus in this JVM is the hub
+        }
+        ch.close();
+        return false;
+    }
+
+    private void releaseHub() {
+        try {
+            if (hubLock != null) hubLock.release();
+            if (lockFile != null) lockFile.close();
+        } catch (IOException ignored) {
+        }
+        hubLock = null;
+        lockFile = null;
+    }
+
+    private void connect() throws IOException {
+        SocketChannel ch = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        try {
+            ch.connect(address); // local: completes (or is refused) right away
+            Connection c = register(ch);
+            upstream = c;
+            if (joinedBefore) reconnects.increment();
+            c.queue(hello(!joinedBefore));
+            joinedBefore = true;
+            replayTo(c);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) register(ch);
+    }
+
+    private Connection register(SocketChannel ch) throws IOException {
+        ch.configureBlocking(false);
+        if (!(address instanceof UnixDomainSocketAddress)) ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection c = new Connection(ch);
+        c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        connections.add(c);
+        return c;
+    }
+
+    private void drop(Connection c, String why) {
+        LOG.debug("bus connection dropped: %s", why);
+        connections.remove(c);
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+        }
+        if (c == upstream) {
+            upstream = null;
+            if (running) LOG.info("bus hub lost (%s), reconnecting", why);
+        }
+    }
+
+    private Frame hello(boolean fresh) {
+        ByteBuffer b = ByteBuffer.allocate(HEADER + 1);
+        b.putInt(HEADER - 4 + 1).put(HELLO).putLong(nodeId).putLong(0).put((byte) (fresh ? 1 : 0));
+        return new Frame(HELLO, nodeId, 0, b.array());
+    }
+
+    /** Stamp and send what this process published. */
+    private void drainOutbound() {
+        for (Frame f; (f = outbound.poll()) != null; ) {
+            f.seq = ++sequence;
+            ByteBuffer.wrap(f.bytes).putLong(SEQ_AT, f.seq);
+            remember(f);
+            if (hub) {
+                for (int i = 0; i < connections.size(); i++) connections.get(i).queue(f);
+            } else if (upstream != null) {
+                upstream.queue(f);
+            }
+            if (f.type == EVENT) deliver(f);
+        }
+    }
+
+    private void received(Connection from, byte[] bytes) {
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        byte type = b.get(4);
+        long origin = b.getLong(5);
+        long seq = b.getLong(SEQ_AT);
+        if (type == HELLO) {
+            from.peer = origin;
+            if (hub && bytes.length > HEADER && bytes[HEADER] == 0) replayTo(from); // it missed frames while away
+            return;
+        }
+        if (type != CHAT && type != SYSTEM && type != EVENT) return; // newer frame types are ignored
+        if (origin == nodeId) return; // ours, replayed back to us
+        Long last = lastSeen.get(origin);
+        if (last != null && seq <= last) {
+            duplicates.increment();
+            return;
+        }
+        lastSeen.put(origin, seq);
+        Frame f = new Frame(type, origin, seq, bytes);
+        remember(f);
+        if (hub) {
+            for (int i = 0; i < connections.size(); i++) {
+                Connection c = connections.get(i);
+                if (c != from && c.peer != origin) {
+                    c.queue(f);
+                    relayed.increment();
+                }
+            }
+        }
+        deliver(f);
+    }
+
+    private void remember(Frame f) {
+        if (REPLAY == 0) return;
+        recent[recentNext] = f;
+        recentNext = (recentNext + 1) % REPLAY;
+        if (recentCount < REPLAY) recentCount++;
+    }
+
+    private void replayTo(Connection c) {
+        int first = (recentNext - recentCount + REPLAY) % Math.max(1, REPLAY);
+        for (int i = 0; i < recentCount; i++) c.queue(recent[(first + i) % REPLAY]);
+    }
+
+    private void deliver(Frame f) {
+        try {
+            if (f.type == EVENT) {
+                int topicLength = ((f.bytes[HEADER] & 0xFF) << 8) | (f.bytes[HEADER + 1] & 0xFF);
+                int dataAt = HEADER + 2 + topicLength;
+                List<Consumer<String>> list = subscribers.get(new String(f.bytes, HEADER + 2, topicLength, StandardCharsets.UTF_8));
+                if (list == null || list.isEmpty()) return;
+                String data = new String(f.bytes, dataAt, f.bytes.length - dataAt, StandardCharsets.UTF_8);
+                for (Consumer<String> l : list) l.accept(data);
+            } else if (remote != null) {
+                remote.send(new String(f.bytes, HEADER, f.bytes.length - HEADER, StandardCharsets.UTF_8), f.type == SYSTEM);
+            }
+            delivered.increment();
+        } catch (RuntimeException e) {
+            LOG.warn("bus listener failed: %s", e);
+        }
+    }
+
+    private void flush(Connection c) {
+        try {
+            c.flush();
+        } catch (IOException e) {
+            drop(c, e.toString());
+        }
+    }
+
+    /* ---------------- Connections ---------------- */
+
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        /** Node id from the peer's HELLO; 0 until it arrives. */
+        long peer;
+        private ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+        private final ArrayDeque<Frame> pending = new ArrayDeque<>();
+        /** Bytes of pending.peek() already copied into out. */
+        private int pendingOffset;
+        long backlog;
+        boolean dirty;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void queue(Frame f) {
+            pending.add(f);
+            backlog += f.bytes.length;
+            dirty = true;
+        }
+
+        /** Write as much as the socket takes; many frames go out per write. */
+        void flush() throws IOException {
+            dirty = false;
+            for (;;) {
+                while (out.hasRemaining() && !pending.isEmpty()) {
+                    Frame f = pending.peek();
+                    int n = Math.min(out.remaining(), f.bytes.length - pendingOffset);
+                    out.put(f.bytes, pendingOffset, n);
+                    pendingOffset += n;
+                    if (pendingOffset == f.bytes.length) {
+                        pending.poll();
+                        pendingOffset = 0;
+                    }
+                }
+                if (out.position() == 0) break;
+                out.flip();
+                int written = channel.write(out);
+                out.compact();
+                backlog -= written;
+                if (written == 0) break; // socket full: wait for OP_WRITE
+            }
+            boolean more = out.position() > 0 || !pending.isEmpty();
+            key.interestOps(more ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) throw new EOFException();
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < HEADER - 4 || length > MAX_FRAME) throw new IOException("bad bus frame length " + length);
+                if (in.remaining() < 4 + length) break;
+                byte[] bytes = new byte[4 + length];
+                in.get(bytes);
+                received(this, bytes);
+            }
+            in.compact();
+            if (!in.hasRemaining()) { // a frame larger than the buffer
+                ByteBuffer bigger = ByteBuffer.allocateDirect(Math.min(in.capacity() * 2, MAX_FRAME + 4));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+        }
+    }
+
+    /* ---------------- Lifecycle and counters ---------------- */
+
+    /** Send what is queued (best effort), then leave the bus. */
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        selector.wakeup();
+        if (Thread.currentThread() != io) {
+            try {
+                io.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void shutdown() {
+        for (Connection c : new ArrayList<>(connections)) drop(c, "bus closed");
+        try {
+            if (server != null) {
+                server.close();
+                if (address instanceof UnixDomainSocketAddress) Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+            selector.close();
+        } catch (IOException e) {
+            LOG.debug("bus close: %s", e);
+        }
+        releaseHub();
+        hub = false;
+    }
+
+    /** True while this process is the hub the others connect to. */
+    public boolean isHub() { return hub; }
+
+    /** Frames this process published. */
+    public long published() { return published.sum(); }
+    /** Frames from this and other processes handed to chat or to subscribers. */
+    public long delivered() { return delivered.sum(); }
+
+    public String stats() {
+        return (hub ? "hub" : upstream != null ? "connected" : "reconnecting") + " address=" + address
+                + " published=" + published() + " delivered=" + delivered() + " relayed=" + relayed.sum()
+                + " duplicates=" + duplicates.sum() + " dropped=" + dropped.sum() + " reconnects=" + reconnects.sum();
+    }
+}
@@ -0,0 +1,292 @@
+package libraries.lua.com.lua;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Non-blocking chat dispatch behind lua.chat / lua.systemChat.
+ *
+ * - Callers enqueue into a bounded {@link RingBuffer} and return immediately.
+ * - Once per tick a drainer takes up to one batch of messages and hands them to the chat sender;
+ *   under COALESCE_DUPLICATES it also merges consecutive repeats into a single "text (xN)" line,
+ *   other policies send every line as it was written. The drainer is a daemon
+ *   thread by default; setTickDriven(true) stops it so the host can call drain() from its own
+ *   game tick instead.
+ * - When the queue is full the backpressure policy decides what happens (see {@link Backpressure}).
+ * - Settings: -Dlua.chat.capacity (1024), -Dlua.chat.batch (64 per tick), -Dlua.chat.tickMillis (50),
+ *   -Dlua.chat.policy (DROP_OLDEST), -Dlua.chat.blockMillis (1000).
+ */
+public final class ChatPipeline {
+
+    public enum Backpressure {
+        /** Evict the oldest queued message to make room. */
+        DROP_OLDEST,
+        /** Wait for room, up to lua.chat.blockMillis; then the new message is dropped. */
+        BLOCK,
+        /** A message already waiting in the queue absorbs its duplicates; when full, the new message is dropped. */
+        COALESCE_DUPLICATES
+    }
+
+    private static final Log.Logger LOG = Log.logger("lua.chat");
+    /** Time in the chat sender per delivered line (the game call, after queueing). */
+    private static final Metrics.Timer SEND_SPAN = Metrics.timer("chat.send");
+
+    private final lua.ChatSender sender;
+    private final RingBuffer<Message> queue;
+    private final ConcurrentHashMap<String, Message> pendingChat = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Message> pendingSystem = new ConcurrentHashMap<>();
+    private final Object drainLock = new Object();
+
+    private volatile Backpressure policy;
+    private volatile int batchSize = Integer.getInteger("lua.chat.batch", 64);
+    private volatile long tickNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("lua.chat.tickMillis", 50));
+    private volatile long blockNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("lua.chat.blockMillis", 1000));
+    private volatile boolean tickDriven;
+    private volatile Thread drainer;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    ChatPipeline(lua.ChatSender sender) {
+        this(sender, Integer.getInteger("lua.chat.capacity", 1024), policyFromProperty());
+    }
+
+    ChatPipeline(lua.ChatSender sender, int capacity, Backpressure policy) {
+        this.sender = sender;
+        this.queue = new RingBuffer<>(capacity);
+        this.policy = policy;
+    }
+
+    private static Backpressure policyFromProperty() {
+        try {
+            return Backpressure.valueOf(System.getProperty("lua.chat.policy", "DROP_OLDEST").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.warn("unknown lua.chat.policy, using DROP_OLDEST");
+            return Backpressure.DROP_OLDEST;
+        }
+    }
+
+    /* ---------------- Producers ---------------- */
+
+    /** Queue a message; returns false if it was dropped. Never blocks unless the policy is BLOCK. */
+    public boolean submit(String text, boolean system) {
+        return submit(text, system, null);
+    }
+
+    /**
+     * Queue a message that the drain hands to to instead of this pipeline's sender (the chat bus
+     * shows other processes' lines this way). Never blocks: under BLOCK a full queue drops it.
+     */
+    boolean submitTo(String text, boolean system, lua.ChatSender to) {
+        return submit(text, system, to);
+    }
+
+    private boolean submit(String text, boolean system, lua.ChatSender to) {
+        if (text == null) text = "null";
+        Backpressure p = policy;
+        if (p == Backpressure.COALESCE_DUPLICATES) {
+            ConcurrentHashMap<String, Message> pending = system ? pendingSystem : pendingChat;
+            Message waiting = pending.get(text);
+            if (waiting != null && waiting.to == to && waiting.addRepeat()) {
+                coalesced.increment();
+                return true;
+            }
+            Message m = new Message(text, system, to);
+            if (!enqueue(m, p)) return false;
+            pending.put(text, m);
+            // the drainer may have taken m before the put; its remove found nothing, so undo ours
+            if (m.isClosed()) pending.remove(text, m);
+            return true;
+        }
+        return enqueue(new Message(text, system, to), p);
+    }
+
+    private boolean enqueue(Message m, Backpressure p) {
+        startDrainer();
+        if (queue.offer(m)) {
+            queued.increment();
+            return true;
+        }
+        switch (p) {
+            case DROP_OLDEST:
+                while (!queue.offer(m)) {
+                    Message old = queue.poll();
+                    if (old != null) {
+                        old.close();
+                        (old.system ? pendingSystem : pendingChat).remove(old.text, old);
+                        dropped.increment();
+                    }
+                }
+                queued.increment();
+                return true;
+            case BLOCK:
+                if (m.to == null && Thread.currentThread() != drainer) {
+                    long deadline = System.nanoTime() + blockNanos;
+                    while (System.nanoTime() < deadline) {
+                        LockSupport.parkNanos(100_000);
+                        if (queue.offer(m)) {
+                            queued.increment();
+                            return true;
+                        }
+                    }
+                }
+                dropped.increment();
+                return false;
+            default:
+                dropped.increment();
+                return false;
+        }
+    }
+
+    /* ---------------- Drainer ---------------- */
+
+    /**
+     * Send up to one batch of queued messages; returns how many were taken from the queue.
+     * Call once per game tick when tick-driven.
+     */
+    public int drain() {
+        synchronized (drainLock) {
+            int taken = 0;
+            Message run = null;
+            int runCount = 0;
+            int limit = batchSize;
+            boolean fold = policy == Backpressure.COALESCE_DUPLICATES;
+            while (taken < limit) {
+                Message m = queue.poll();
+                if (m == null) break;
+                taken++;
+                int count = m.close();
+                (m.system ? pendingSystem : pendingChat).remove(m.text, m);
+                if (fold && run != null && run.system == m.system && run.to == m.to && run.text.equals(m.text)) {
+                    runCount += count;
+                    coalesced.increment();
+                    continue;
+                }
+                if (run != null) deliver(run, runCount);
+                run = m;
+                runCount = count;
+            }
+            if (run != null) deliver(run, runCount);
+            return taken;
+        }
+    }
+
+    /** Drain until the queue is empty. */
+    public void flush() {
+        while (drain() > 0) { }
+    }
+
+    private void deliver(Message m, int count) {
+        String text = count > 1 ? m.text + " (x" + count + ")" : m.text;
+        long t0 = SEND_SPAN.start();
+        try {
+            (m.to != null ? m.to : sender).send(text, m.system);
+        } catch (Throwable t) {
+            SEND_SPAN.error(t0);
+            LOG.info("fallback log: %s", text);
+        } finally {
+            SEND_SPAN.stop(t0);
+        }
+        sent.increment();
+    }
+
+    private void startDrainer() {
+        if (drainer != null || tickDriven) return;
+        synchronized (this) {
+            if (drainer != null || tickDriven) return;
+            Thread t = new Thread(this::runDrainer, "lua-chat");
+            t.setDaemon(true);
+            drainer = t;
+            t.start();
+        }
+    }
+
+    private void runDrainer() {
+        Thread self = Thread.currentThread();
+        while (drainer == self) {
+            LockSupport.parkNanos(tickNanos);
+            drain();
+        }
+    }
+
+    /* ---------------- Configuration ---------------- */
+
+    /** True: stop the background drainer; the host calls drain() every tick. False: drain on a daemon thread. */
+    public synchronized void setTickDriven(boolean hostDrains) {
+        tickDriven = hostDrains;
+        if (hostDrains && drainer != null) {
+            Thread t = drainer;
+            drainer = null;
+            LockSupport.unpark(t);
+        }
+    }
+
+    public boolean isTickDriven() { return tickDriven; }
+
+    public void setPolicy(Backpressure p) { policy = p; }
+    public Backpressure policy() { return policy; }
+
+    public void setBatchSize(int n) { batchSize = Math.max(1, n); }
+    public void setTickMillis(long ms) { tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, ms)); }
+    public void setBlockMillis(long ms) { blockNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ms)); }
+
+    /* ---------------- Counters ---------------- */
+
+    /** Messages accepted into the queue. */
+    public long queued() { return queued.sum(); }
+    /** Chat lines handed to the sender (a coalesced run counts once). */
+    public long sent() { return sent.sum(); }
+    /** Messages dropped by backpressure. */
+    public long dropped() { return dropped.sum(); }
+    /** Messages merged into another one instead of being sent on their own. */
+    public long coalesced() { return coalesced.sum(); }
+    /** Messages waiting right now. */
+    public int pending() { return queue.size(); }
+    /** Queued messages that duplicates can still fold into (COALESCE_DUPLICATES only). */
+    int coalescing() { return pendingChat.size() + pendingSystem.size(); }
+
+    public String stats() {
+        return "policy=" + policy + " queued=" + queued() + " sent=" + sent() + " dropped=" + dropped()
+                + " coalesced=" + coalesced() + " pending=" + pending() + "/" + queue.capacity();
+    }
+
+    /* ---------------- Messages ---------------- */
+
+    private static final class Message {
+        private static final AtomicIntegerFieldUpdater<Message> REPEATS =
+                AtomicIntegerFieldUpdater.newUpdater(Message.class, "repeats");
+
+        final String text;
+        final boolean system;
+        /** Where the drain sends it; null for the pipeline's sender. */
+        final lua.ChatSender to;
+        /** Extra copies folded into this message; -1 once the drainer has taken it. */
+        private volatile int repeats;
+
+        Message(String text, boolean system, lua.ChatSender to) {
+            this.text = text;
+            this.system = system;
+            this.to = to;
+        }
+
+        boolean addRepeat() {
+            for (;;) {
+                int r = repeats;
+                if (r < 0) return false;
+                if (REPEATS.compareAndSet(this, r, r + 1)) return true;
+            }
+        }
+
+        boolean isClosed() { return repeats < 0; }
+
+        /** Seal the message and return how many copies it stands for. */
+        int close() {
+            return 1 + Math.max(0, REPEATS.getAndSet(this, -1));
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package libraries.lua.com.lua;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A table in TableCodec's binary format, read where it lies (see {@link TableCodec#readBinary(ByteBuffer)}).
+ *
+ * - Nothing is decoded up front. The first read indexes this table's own entries (a nested table
+ *   is stepped over by its length) and a value is decoded when it is read: a nested table comes
+ *   back as another LazyTable, and strings and tables are kept once decoded.
+ * - The first write copies this level into a lua.table (nested tables stay lazy); reads and writes
+ *   then go to the copy. TableCodec.writeBinary copies a LazyTable's bytes as they are while
+ *   nothing was written to it or to a table read from it.
+ * - Scripts index it like a table (t.name, t[1]); toTable() decodes all of it.
+ * - Not thread-safe (nested LazyTables share one cursor), like lua.table.
+ *
+ * Example:
+ *   LazyTable rows = (LazyTable) TableCodec.readBinary(mapped);
+ *   Object name = ((LazyTable) rows.geti(500_000)).get("name");   // decodes one row, one field
+ */
+public final class LazyTable implements lua.Indexable {
+
+    private final ByteBuffer data;
+    private final int start, end;          // the table's tag, the first byte after it
+    private final int arrayCount, otherCount;
+    private final int entries;             // first value of the array section
+
+    private int[] arrayAt;                 // value offsets of t[1]..t[#t]; built on first read
+    private Map<Object, Integer> otherAt;  // other keys -> value offset
+    private int live;
+    private Map<Integer, Object> decoded;  // strings and tables by offset
+    private lua.table copy;                // after the first write
+
+    private LazyTable(ByteBuffer data, int start) {
+        if (data.get(start) != TableCodec.T_TABLE) throw new IllegalArgumentException("not a table at byte " + start);
+        long end = start + 5L + data.getInt(start + 1);
+        if (end > data.limit() || end < start + 7) throw new IllegalArgumentException("truncated table at byte " + start);
+        this.data = data;
+        this.start = start;
+        this.end = (int) end;
+        data.position(start + 5);
+        this.arrayCount = varint(data);
+        this.otherCount = varint(data);
+        this.entries = data.position();
+    }
+
+    /** The value at b's position, moving past it; a table is returned lazily over b. */
+    static Object read(ByteBuffer b) {
+        int at = b.position();
+        byte tag = b.get();
+        switch (tag) {
+            case TableCodec.T_NIL: return null;
+            case TableCodec.T_FALSE: return Boolean.FALSE;
+            case TableCodec.T_TRUE: return Boolean.TRUE;
+            case TableCodec.T_LONG: return zigzag(b);
+            case TableCodec.T_DOUBLE: return b.getDouble();
+            case TableCodec.T_STRING: {
+                int n = varint(b);
+                String s;
+                if (b.hasArray()) {
+                    s = new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8);
+                    b.position(b.position() + n);
+                } else {
+                    byte[] bytes = new byte[n];
+                    b.get(bytes);
+                    s = new String(bytes, StandardCharsets.UTF_8);
+                }
+                return s;
+            }
+            case TableCodec.T_TABLE: {
+                LazyTable t = new LazyTable(b, at);
+                b.position(t.end);
+                return t;
+            }
+            default: throw new IllegalArgumentException("corrupt data (tag " + tag + ") at byte " + at);
+        }
+    }
+
+    /* ---------------- Reads ---------------- */
+
+    public Object get(Object key) {
+        if (copy != null) return copy.get(key);
+        Object k = normalize(key);
+        if (k instanceof Long) {
+            long i = (Long) k;
+            if (i >= 1 && i <= arrayCount) return geti(i);
+        }
+        if (k == null || otherCount == 0) return null;
+        index();
+        Integer at = otherAt.get(k);
+        return at != null ? value(at) : null;
+    }
+
+    /** t[i], without boxing i. */
+    public Object geti(long i) {
+        if (copy != null) return copy.geti(i);
+        if (i >= 1 && i <= arrayCount) {
+            index();
+            return value(arrayAt[(int) i - 1]);
+        }
+        return otherCount == 0 ? null : get((Object) i);
+    }
+
+    /** The border #t. */
+    public int length() {
+        return copy != null ? copy.length() : arrayCount;
+    }
+
+    /** Number of non-nil entries. */
+    public int size() {
+        if (copy != null) return copy.size();
+        index();
+        return live;
+    }
+
+    public Set<Object> keys() {
+        if (copy != null) return copy.keys();
+        index();
+        Set<Object> out = new LinkedHashSet<>();
+        for (int i = 0; i < arrayCount; i++) {
+            if (data.get(arrayAt[i]) != TableCodec.T_NIL) out.add((long) i + 1);
+        }
+        out.addAll(otherAt.keySet());
+        return out;
+    }
+
+    /** All of it as lua.tables. */
+    public lua.table toTable() {
+        ByteBuffer raw = encoded();
+        if (raw != null) {
+            try {
+                return (lua.table) TableCodec.readValue(new TableCodec.Source(raw), 0);
+            } catch (java.io.IOException e) {
+                throw new IllegalArgumentException("truncated table at byte " + start, e);
+            }
+        }
+        lua.table level = table();
+        lua.table out = new lua.table(level.length(), 0);
+        for (int p = level.next(-1); p >= 0; p = level.next(p)) {
+            Object v = level.valueAt(p);
+            out.set(level.keyAt(p), v instanceof LazyTable ? ((LazyTable) v).toTable() : v);
+        }
+        return out;
+    }
+
+    /* ---------------- Writes ---------------- */
+
+    public void set(Object key, Object value) {
+        written().set(key, value);
+    }
+
+    @Override
+    public Object index(Object key) {
+        return get(key);
+    }
+
+    @Override
+    public void newindex(Object key, Object value) {
+        set(key, value);
+    }
+
+    /** The encoded bytes while they are still current (see changed()), else null. */
+    ByteBuffer encoded() {
+        if (changed()) return null;
+        ByteBuffer b = data.duplicate();
+        b.limit(end).position(start);
+        return b;
+    }
+
+    /** Whether this table, or a nested table read from it, has been written to. */
+    private boolean changed() {
+        if (copy != null) return true;
+        if (decoded != null) {
+            for (Object v : decoded.values()) if (v instanceof LazyTable && ((LazyTable) v).changed()) return true;
+        }
+        return false;
+    }
+
+    /** This level as a lua.table: the copy if written, else a fresh one that is not kept. */
+    lua.table table() {
+        return copy != null ? copy : shallowCopy();
+    }
+
+    private lua.table written() {
+        if (copy == null) {
+            copy = shallowCopy();
+            arrayAt = null;
+            otherAt = null;
+            decoded = null;
+        }
+        return copy;
+    }
+
+    private lua.table shallowCopy() {
+        index();
+        lua.table t = new lua.table(arrayCount, otherCount);
+        for (int i = 0; i < arrayCount; i++) t.seti(i + 1, value(arrayAt[i]));
+        for (Map.Entry<Object, Integer> e : otherAt.entrySet()) t.set(e.getKey(), value(e.getValue()));
+        return t;
+    }
+
+    @Override
+    public String toString() {
+        return copy != null ? copy.toString() : "table (" + (end - start) + " encoded bytes)";
+    }
+
+    /* ---------------- Internals ---------------- */
+
+    private void index() {
+        if (arrayAt != null) return;
+        int[] at = new int[arrayCount];
+        Map<Object, Integer> others = new HashMap<>(otherCount * 4 / 3 + 1);
+        int n = 0;
+        data.position(entries);
+        for (int i = 0; i < arrayCount; i++) {
+            at[i] = data.position();
+            if (data.get(at[i]) != TableCodec.T_NIL) n++;
+            skip(data);
+        }
+        for (int i = 0; i < otherCount; i++) {
+            Object k = read(data);
+            others.put(k, data.position());
+            skip(data);
+        }
+        if (data.position() != end) throw new IllegalArgumentException("corrupt table at byte " + start);
+        arrayAt = at;
+        otherAt = others;
+        live = n + otherCount;
+        decoded = new HashMap<>();
+    }
+
+    private Object value(int at) {
+        byte tag = data.get(at);
+        if (tag != TableCodec.T_STRING && tag != TableCodec.T_TABLE) {
+            data.position(at);
+            return read(data);
+        }
+        Object v = decoded.get(at);
+        if (v == null) {
+            data.position(at);
+            v = read(data);
+            decoded.put(at, v);
+        }
+        return v;
+    }
+
+    /** Keys as TableCodec decodes them: integers as Long (integral floats too), strings as String. */
+    private static Object normalize(Object key) {
+        if (key instanceof Long || key instanceof String || key == null) return key;
+        if (key instanceof Integer || key instanceof Short || key instanceof Byte) return ((Number) key).longValue();
+        if (key instanceof Double || key instanceof Float) {
+            double d = ((Number) key).doubleValue();
+            long l = (long) d;
+            return l == d && l != Long.MAX_VALUE ? (Object) l : (Object) d;
+        }
+        if (key instanceof CharSequence) return key.toString();
+        return key;
+    }
+
+    private static void skip(ByteBuffer b) {
+        int at = b.position();
+        byte tag = b.get();
+        switch (tag) {
+            case TableCodec.T_NIL: case TableCodec.T_FALSE: case TableCodec.T_TRUE: return;
+            case TableCodec.T_LONG: zigzag(b); return;
+            case TableCodec.T_DOUBLE: b.position(b.position() + 8); return;
+            case TableCodec.T_STRING: { int n = varint(b); b.position(b.position() + n); return; }
+            case TableCodec.T_TABLE: { int n = b.getInt(); b.position(b.position() + n); return; }
+            default: throw new IllegalArgumentException("corrupt data (tag " + tag + ") at byte " + at);
+        }
+    }
+
+    private static int varint(ByteBuffer b) {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte x = b.get();
+            v |= (x & 0x7F) << shift;
+            if (x >= 0) return v;
+        }
+        throw new IllegalArgumentException("corrupt varint at byte " + b.position());
+    }
+
+    private static long zigzag(ByteBuffer b) {
+        long z = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte x = b.get();
+            z |= (long) (x & 0x7F) << shift;
+            if (x >= 0) return (z >>> 1) ^ -(z & 1);
+        }
+        throw new IllegalArgumentException("corrupt varint at byte " + b.position());
+    }
+}
@@ -0,0 +1,400 @@
+package libraries.lua.com.lua;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous logging behind lua.print / warn / error, the chat fallbacks and the runtime's own
+ * diagnostics.
+ *
+ * - Callers get a {@link Logger} per category ("lua" for script output, "lua.chat", ...). A disabled
+ *   level costs one volatile read; nothing is formatted and tostring never runs.
+ * - Enabled events go into a bounded {@link RingBuffer}; a daemon writer formats them and writes
+ *   each batch with one call per sink. When the queue is full the caller drains a batch itself, so
+ *   nothing is lost; with lua.log.dropWhenFull, events below WARN are dropped and counted instead.
+ * - log(level, fmt, args...) formats with lua.string.format on the writer thread. Strings, numbers
+ *   and booleans are passed through as-is; any other argument is turned into a string on the
+ *   calling thread, since it may change before the writer gets to it.
+ * - Sinks: the console (System.out; INFO from "lua" is printed bare, as print always did) and an
+ *   optional rolling file of memory-mapped segments with one timestamped line per event.
+ * - Settings, from config.properties on the classpath, overridden by -D (and re-applied by
+ *   configure(), e.g. on a config reload):
+ *     lua.log.level (INFO), lua.log.level.CATEGORY (unset: the parent's, "lua.chat" from "lua"),
+ *     lua.log.async (true), lua.log.capacity (8192), lua.log.batch (256), lua.log.flushMillis (20),
+ *     lua.log.dropWhenFull (false),
+ *     lua.log.console (true), lua.log.file (a directory; off when empty), lua.log.file.prefix (lua),
+ *     lua.log.file.segmentBytes (16 MiB), lua.log.file.keep (8).
+ */
+public final class Log {
+
+    private Log() {}
+
+    public enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final ConcurrentHashMap<String, Logger> LOGGERS = new ConcurrentHashMap<>();
+    private static final Object DRAIN_LOCK = new Object();
+    private static final LongAdder WRITTEN = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+
+    private static volatile Map<String, String> settings = new HashMap<>();
+    private static volatile boolean async;
+    private static volatile boolean console;
+    private static volatile boolean dropWhenFull;
+    private static volatile int batchSize;
+    private static volatile long flushNanos;
+    private static volatile Thread writer;
+
+    private static final RingBuffer<Event> QUEUE;
+    private static RollingMappedFile file;
+    private static String fileDir = "";
+
+    static {
+        Map<String, String> s = new HashMap<>();
+        try (InputStream in = Log.class.getResourceAsStream("/config.properties")) {
+            if (in != null) {
+                Properties p = new Properties();
+                p.load(in);
+                for (String k : p.stringPropertyNames()) s.put(k, p.getProperty(k));
+            }
+        } catch (IOException ignored) {
+            // no config: defaults
+        }
+        QUEUE = new RingBuffer<>((int) number(withSystemProperties(s), "lua.log.capacity", 8192));
+        apply(s);
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "lua-log-flush"));
+    }
+
+    /** The logger for category, created on first use. */
+    public static Logger logger(String category) {
+        Logger l = LOGGERS.get(category);
+        if (l != null) return l;
+        synchronized (Log.class) { // not while apply() is updating thresholds
+            return LOGGERS.computeIfAbsent(category, c -> {
+                Logger n = new Logger(c);
+                n.threshold = threshold(settings, c);
+                return n;
+            });
+        }
+    }
+
+    /* ---------------- Configuration ---------------- */
+
+    /** Apply the lua.log.* entries of settings (other keys are ignored); -D properties still win. */
+    public static void configure(Map<String, ?> config) {
+        Map<String, String> s = new HashMap<>();
+        for (Map.Entry<String, ?> e : config.entrySet()) {
+            if (e.getKey().startsWith("lua.log") && e.getValue() != null) s.put(e.getKey(), String.valueOf(e.getValue()));
+        }
+        apply(s);
+    }
+
+    private static synchronized void apply(Map<String, String> config) {
+        Map<String, String> s = withSystemProperties(config);
+        settings = s;
+        async = bool(s, "lua.log.async", true);
+        console = bool(s, "lua.log.console", true);
+        dropWhenFull = bool(s, "lua.log.dropWhenFull", false);
+        batchSize = (int) Math.max(1, number(s, "lua.log.batch", 256));
+        flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, number(s, "lua.log.flushMillis", 20)));
+        for (Logger l : LOGGERS.values()) l.threshold = threshold(s, l.category);
+        String dir = s.getOrDefault("lua.log.file", "").trim();
+        synchronized (DRAIN_LOCK) {
+            if (!dir.equals(fileDir)) {
+                if (file != null) file.close();
+                file = null;
+                fileDir = dir;
+                if (!dir.isEmpty()) {
+                    try {
+                        file = new RollingMappedFile(Paths.get(dir), s.getOrDefault("lua.log.file.prefix", "lua"),
+                                number(s, "lua.log.file.segmentBytes", 16 << 20), (int) number(s, "lua.log.file.keep", 8));
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("[lua.log] cannot open log file in " + dir + ": " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> withSystemProperties(Map<String, String> config) {
+        Map<String, String> s = new HashMap<>(config);
+        for (String k : System.getProperties().stringPropertyNames()) {
+            if (k.startsWith("lua.log")) s.put(k, System.getProperty(k));
+        }
+        return s;
+    }
+
+    /** The configured level of category or of its nearest configured parent. */
+    private static int threshold(Map<String, String> s, String category) {
+        for (String c = category; ; ) {
+            String v = s.get("lua.log.level." + c);
+            if (v != null) return level(v);
+            int dot = c.lastIndexOf('.');
+            if (dot < 0) break;
+            c = c.substring(0, dot);
+        }
+        return level(s.getOrDefault("lua.log.level", "INFO"));
+    }
+
+    private static int level(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase()).ordinal();
+        } catch (IllegalArgumentException e) {
+            return Level.INFO.ordinal();
+        }
+    }
+
+    private static long number(Map<String, String> s, String key, long def) {
+        String v = s.get(key);
+        if (v == null) return def;
+        try {
+            return (long) Double.parseDouble(v.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private static boolean bool(Map<String, String> s, String key, boolean def) {
+        String v = s.get(key);
+        return v == null ? def : Boolean.parseBoolean(v.trim());
+    }
+
+    /* ---------------- Loggers ---------------- */
+
+    /** Logs under one category. Get one with {@link Log#logger(String)} and keep it in a static field. */
+    public static final class Logger {
+        final String category;
+        volatile int threshold;
+
+        private Logger(String category) {
+            this.category = category;
+        }
+
+        public String category() { return category; }
+
+        public boolean isEnabled(Level level) {
+            return level.ordinal() >= threshold;
+        }
+
+        public void log(Level level, Object msg) {
+            if (isEnabled(level)) submit(new Event(this, level, snapshot(msg), null));
+        }
+
+        /** fmt is a lua.string.format string; it is only formatted if level is enabled. */
+        public void log(Level level, String fmt, Object... args) {
+            if (!isEnabled(level)) return;
+            for (int i = 0; i < args.length; i++) args[i] = snapshot(args[i]);
+            submit(new Event(this, level, fmt, args));
+        }
+
+        /** msg.get() runs only if level is enabled (on the calling thread). */
+        public void log(Level level, Supplier<?> msg) {
+            if (isEnabled(level)) submit(new Event(this, level, snapshot(msg.get()), null));
+        }
+
+        public void trace(Object msg) { log(Level.TRACE, msg); }
+        public void debug(Object msg) { log(Level.DEBUG, msg); }
+        public void info(Object msg) { log(Level.INFO, msg); }
+        public void warn(Object msg) { log(Level.WARN, msg); }
+        public void error(Object msg) { log(Level.ERROR, msg); }
+
+        public void trace(String fmt, Object... args) { log(Level.TRACE, fmt, args); }
+        public void debug(String fmt, Object... args) { log(Level.DEBUG, fmt, args); }
+        public void info(String fmt, Object... args) { log(Level.INFO, fmt, args); }
+        public void warn(String fmt, Object... args) { log(Level.WARN, fmt, args); }
+        public void error(String fmt, Object... args) { log(Level.ERROR, fmt, args); }
+    }
+
+    /** Immutable values are kept for the writer; anything else is rendered now. */
+    private static Object snapshot(Object o) {
+        if (o == null || o instanceof String || o instanceof Number || o instanceof Boolean || o instanceof Character) return o;
+        return lua.tostring(o);
+    }
+
+    private static final class Event {
+        final Logger logger;
+        final Level level;
+        final long time = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final Object msg;
+        final Object[] args;
+
+        Event(Logger logger, Level level, Object msg, Object[] args) {
+            this.logger = logger;
+            this.level = level;
+            this.msg = msg;
+            this.args = args;
+        }
+
+        String message() {
+            if (args == null) return String.valueOf(msg);
+            try {
+                return lua.string.format((String) msg, args);
+            } catch (IllegalArgumentException e) {
+                StringBuilder sb = new StringBuilder(String.valueOf(msg));
+                for (Object a : args) sb.append(' ').append(a);
+                return sb.toString();
+            }
+        }
+    }
+
+    /* ---------------- Queue and writer ---------------- */
+
+    private static void submit(Event e) {
+        if (!async) {
+            synchronized (DRAIN_LOCK) {
+                Event[] one = { e };
+                write(one, 1);
+            }
+            return;
+        }
+        startWriter();
+        while (!QUEUE.offer(e)) {
+            if (dropWhenFull && e.level.ordinal() < Level.WARN.ordinal()) {
+                DROPPED.increment();
+                return;
+            }
+            drain();
+        }
+    }
+
+    /** Write up to one batch of queued events; returns how many were taken. */
+    private static int drain() {
+        if (QUEUE.size() == 0) return 0;
+        synchronized (DRAIN_LOCK) {
+            Event[] batch = new Event[Math.min(batchSize, Math.max(1, QUEUE.size()))];
+            int n = 0;
+            while (n < batch.length) {
+                Event e = QUEUE.poll();
+                if (e == null) break;
+                batch[n++] = e;
+            }
+            if (n > 0) write(batch, n);
+            return n;
+        }
+    }
+
+    /** Write everything queued so far. */
+    public static void flush() {
+        while (drain() > 0) { }
+        synchronized (DRAIN_LOCK) {
+            System.out.flush();
+        }
+    }
+
+    private static void shutdown() {
+        writer = null;
+        flush();
+        synchronized (DRAIN_LOCK) {
+            if (file != null) file.close();
+            file = null;
+        }
+    }
+
+    private static void startWriter() {
+        if (writer != null) return;
+        synchronized (Log.class) {
+            if (writer != null) return;
+            Thread t = new Thread(Log::runWriter, "lua-log");
+            t.setDaemon(true);
+            writer = t;
+            t.start();
+        }
+    }
+
+    private static void runWriter() {
+        Thread self = Thread.currentThread();
+        while (writer == self) {
+            if (drain() == 0) LockSupport.parkNanos(flushNanos);
+        }
+    }
+
+    /* ---------------- Sinks ---------------- */
+
+    private static final StringBuilder CONSOLE = new StringBuilder(1 << 12);
+    private static final StringBuilder FILE = new StringBuilder(1 << 12);
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static long stampSecond = Long.MIN_VALUE;
+    private static String stampText = "";
+
+    /** Called with DRAIN_LOCK held. */
+    private static void write(Event[] batch, int n) {
+        boolean toConsole = console;
+        RollingMappedFile f = file;
+        CONSOLE.setLength(0);
+        FILE.setLength(0);
+        for (int i = 0; i < n; i++) {
+            Event e = batch[i];
+            String text;
+            try {
+                text = e.message();
+            } catch (RuntimeException ex) {
+                text = e.msg + " (format failed: " + ex + ")";
+            }
+            if (toConsole) {
+                if (e.level != Level.INFO) CONSOLE.append('[').append(e.level).append("] ");
+                if (!e.logger.category.equals("lua")) CONSOLE.append('[').append(e.logger.category).append("] ");
+                CONSOLE.append(text).append('\n');
+            }
+            if (f != null) {
+                long sec = e.time / 1000;
+                if (sec != stampSecond) {
+                    stampSecond = sec;
+                    stampText = STAMP.format(Instant.ofEpochSecond(sec));
+                }
+                int ms = (int) (e.time % 1000);
+                FILE.append(stampText).append('.').append((char) ('0' + ms / 100)).append((char) ('0' + ms / 10 % 10)).append((char) ('0' + ms % 10))
+                        .append(' ').append(e.level).append(' ').append(e.logger.category)
+                        .append(" [").append(e.thread).append("] ").append(text).append('\n');
+            }
+        }
+        if (toConsole) {
+            PrintStream out = System.out;
+            out.print(CONSOLE);
+            out.flush();
+        }
+        if (f != null) {
+            try {
+                f.write(FILE);
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("[lua.log] log file write failed: " + ex);
+            }
+        }
+        WRITTEN.add(n);
+        if (CONSOLE.capacity() > 1 << 16) CONSOLE.trimToSize();
+        if (FILE.capacity() > 1 << 16) FILE.trimToSize();
+    }
+
+    /* ---------------- Counters ---------------- */
+
+    /** Events written to the sinks. */
+    public static long written() { return WRITTEN.sum(); }
+    /** Events below WARN dropped because the queue was full (lua.log.dropWhenFull). */
+    public static long dropped() { return DROPPED.sum(); }
+    /** Events waiting right now. */
+    public static int pending() { return QUEUE.size(); }
+
+    public static String stats() {
+        return "async=" + async + " written=" + written() + " dropped=" + dropped() + " pending=" + pending() + "/" + QUEUE.capacity()
+                + (file != null ? " file=" + file.current() : "");
+    }
+
+    /** The log file in use, or null. */
+    public static Path currentFile() {
+        RollingMappedFile f = file;
+        return f != null ? f.current() : null;
+    }
+}
@@ -1,37 +1,435 @@
 package libraries.lua.com.lua;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
+/**
+ * Named APIs visible to scripts.
+ *
+ * - Copy-on-write: writers (mod loading, hot reload) build a new immutable {@link Snapshot} under a
+ *   lock and publish it with one volatile write; readers never lock.
+ * - Names are case-insensitive and normalized once when registered; get() of an already
+ *   lower-case name does not allocate.
+ * - slot(name) resolves a name once into a stable {@link Slot} that always holds the current value.
+ * - snapshot() pins a consistent, versioned API set, e.g. for the lifetime of a script.
+ */
 public class LuaAPIRegistry {
 
-    private static final HashMap<String, Object> apis = new HashMap<>();
+    private static final Object WRITE_LOCK = new Object();
+    private static volatile Snapshot current = new Snapshot(new HashMap<>(), 0);
+    private static final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
 
     /** Register all builtin Lua APIs */
     public static void registerBuiltin() {
-        register("tonumber", (LuaFunction) (args) -> lua.tonumber((String) args[0]));
-        register("tostring", (LuaFunction) (args) -> lua.tostring(args[0]));
-        register("sleep", (LuaFunction) (args) -> {
-            lua.sleep((long) args[0]);
-        });
+        register("tonumber", (LuaFunction1) a -> a instanceof Number ? a : lua.tonumber(String.valueOf(a)));
+        register("tostring", (LuaFunction1) lua::tostring);
+        register("sleep", (LongConsumer1) lua::sleep);
         register("print", (LuaFunction) lua::print);
 
         // Sub-APIs
         register("math", new lua.math());
         register("string", new lua.string());
         register("table", new lua.table());
+        register("metrics", new MetricsAPI());
+        register("storage", new StorageAPI());
+        register("codec", new CodecAPI());
+
+    }
+    /** metrics.dump() / metrics.enable() / metrics.disable() / metrics.reset(); see {@link Metrics}. */
+    public static class MetricsAPI {
+        public static String dump() { return Metrics.dump(); }
+        public static void enable() { Metrics.setEnabled(true); }
+        public static void disable() { Metrics.setEnabled(false); }
+        public static void reset() { Metrics.reset(); }
+    }
+
+    /**
+     * local t = storage.open("name") returns a {@link PersistentTable} in -Dlua.storage.dir
+     * (default "lua-data"); the same name gives the same table. storage.keys(t) lists its keys,
+     * storage.flush() forces every open table to disk, storage.compact(t) compacts one now.
+     * Open tables are closed on shutdown.
+     */
+    public static class StorageAPI {
+        private static final Map<String, PersistentTable> OPEN = new HashMap<>();
+        private static boolean hooked;
+
+        public static synchronized PersistentTable open(String name) throws java.io.IOException {
+            String file = fileName(name);
+            PersistentTable t = OPEN.get(file);
+            if (t != null) return t;
+            t = PersistentTable.open(file(name, ".tbl"));
+            OPEN.put(file, t);
+            if (!hooked) {
+                hooked = true;
+                Runtime.getRuntime().addShutdownHook(new Thread(StorageAPI::closeAll, "lua-storage-close"));
+            }
+            return t;
+        }
+
+        public static lua.table keys(PersistentTable t) {
+            lua.table out = new lua.table(t.size(), 0);
+            long i = 1;
+            for (Object k : t.keys()) out.seti(i++, k);
+            return out;
+        }
+
+        public static synchronized void flush() {
+            for (PersistentTable t : OPEN.values()) t.flush();
+        }
+
+        public static void compact(PersistentTable t) throws java.io.IOException { t.compact(); }
+
+        static String fileName(String name) {
+            String file = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_.-]", "_");
+            if (file.isEmpty() || file.startsWith(".")) throw new IllegalArgumentException("bad storage name: " + name);
+            return file;
+        }
+
+        /** name's file in the storage directory, which is created if needed. */
+        static java.nio.file.Path file(String name, String extension) throws java.io.IOException {
+            java.nio.file.Path dir = java.nio.file.Path.of(System.getProperty("lua.storage.dir", "lua-data"));
+            java.nio.file.Files.createDirectories(dir);
+            return dir.resolve(fileName(name) + extension);
+        }
+
+        static synchronized void closeAll() {
+            for (PersistentTable t : OPEN.values()) {
+                try {
+                    t.close();
+                } catch (java.io.IOException ignored) {
+                    // shutting down; the records are already in the page cache
+                }
+            }
+            OPEN.clear();
+        }
+    }
+
+    /**
+     * codec.toJson(value) / codec.fromJson(text) convert tables (and io.run results) to and from
+     * JSON text. codec.writeJson(value, "name") / codec.readJson("name") and codec.writeBinary /
+     * codec.readBinary stream them to and from files in the storage directory (name.json,
+     * name.ltc) through {@link TableCodec}; readBinary maps the file and returns a {@link LazyTable}
+     * that decodes only what is read (codec.toTable(t) decodes all of it). Writes go to a temp
+     * file that replaces name.* in one rename, so a table still mapped from the old file (even the
+     * one being written) keeps reading the old bytes.
+     */
+    public static class CodecAPI {
+        public static String toJson(Object value) {
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            try {
+                TableCodec.writeJson(value, out);
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+            return out.toString(java.nio.charset.StandardCharsets.UTF_8);
+        }
+
+        public static Object fromJson(String text) {
+            return TableCodec.readJson(java.nio.ByteBuffer.wrap(text.getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+        }
+
+        public static void writeJson(Object value, String name) throws java.io.IOException {
+            replace(StorageAPI.file(name, ".json"), out -> TableCodec.writeJson(value, out));
+        }
+
+        public static Object readJson(String name) throws java.io.IOException {
+            try (java.io.InputStream in = java.nio.file.Files.newInputStream(StorageAPI.file(name, ".json"))) {
+                return TableCodec.readJson(in);
+            }
+        }
+
+        public static void writeBinary(Object value, String name) throws java.io.IOException {
+            replace(StorageAPI.file(name, ".ltc"), out -> TableCodec.writeBinary(value, out));
+        }
+
+        public static Object readBinary(String name) throws java.io.IOException {
+            try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(StorageAPI.file(name, ".ltc"))) {
+                if (ch.size() > Integer.MAX_VALUE) throw new IllegalArgumentException(name + " is over 2 GiB; read it with TableCodec.readBinary(InputStream)");
+                return TableCodec.readBinary(ch.map(java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            }
+        }
+
+        public static Object toTable(Object value) {
+            return value instanceof LazyTable ? ((LazyTable) value).toTable() : value;
+        }
+
+        private interface Writer {
+            void write(java.io.OutputStream out) throws java.io.IOException;
+        }
+
+        /** Write file through a temp file in its directory; never truncates a file that may be mapped. */
+        private static void replace(java.nio.file.Path file, Writer writer) throws java.io.IOException {
+            java.nio.file.Path tmp = java.nio.file.Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (java.io.OutputStream out = java.nio.file.Files.newOutputStream(tmp)) {
+                    writer.write(out);
+                }
+                java.nio.file.Files.move(tmp, file, java.nio.file.StandardCopyOption.ATOMIC_MOVE,
+                        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                java.nio.file.Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /** chat:send(msg) / chat:system(msg); goes through the lua.chat queue. */
+    public static class MinecraftChatAPI {
+        public void send(String message) { lua.chat(message); }
+        public void system(String message) { lua.systemChat(message); }
+    }
+
+    /**
+     * bus:publish(topic, data) sends data to every server process on the {@link ChatBus};
+     * bus:poll(topic) returns the list of data received on topic since the last poll (polling a
+     * topic subscribes to it; up to 256 entries wait per topic, the oldest are dropped).
+     */
+    public static class BusAPI {
+        private final ChatBus bus;
+        private final ConcurrentHashMap<String, RingBuffer<String>> inboxes = new ConcurrentHashMap<>();
+
+        public BusAPI(ChatBus bus) { this.bus = bus; }
+
+        public void publish(String topic, String data) { bus.publish(topic, data); }
+
+        public lua.table poll(String topic) {
+            RingBuffer<String> inbox = inboxes.computeIfAbsent(topic, t -> {
+                RingBuffer<String> box = new RingBuffer<>(256);
+                bus.subscribe(t, data -> {
+                    while (!box.offer(data)) box.poll();
+                });
+                return box;
+            });
+            lua.table list = new lua.table();
+            long n = 0;
+            for (String data; (data = inbox.poll()) != null; ) list.seti(++n, data);
+            return list;
+        }
+    }
+
+    /** The client's level, else the server's overworld; 0/false while there is no world. */
+    public static class MinecraftWorldAPI {
+        public long getDayTime() {
+            Object level = MinecraftBindings.LEVEL_DAY_TIME != null ? MinecraftBindings.level() : null;
+            return level != null ? MinecraftBindings.LEVEL_DAY_TIME.call(level) : 0;
+        }
+        public long getGameTime() {
+            Object level = MinecraftBindings.LEVEL_GAME_TIME != null ? MinecraftBindings.level() : null;
+            return level != null ? MinecraftBindings.LEVEL_GAME_TIME.call(level) : 0;
+        }
+        public boolean isRaining() {
+            Object level = MinecraftBindings.LEVEL_RAINING != null ? MinecraftBindings.level() : null;
+            return level != null && MinecraftBindings.LEVEL_RAINING.call(level);
+        }
+
+        // Entity queries answer from this tick's WorldCache snapshot; entities are {id, name,
+        // player, x, y, z, health} tables
+        public lua.table entitiesNear(double x, double y, double z, double r) {
+            WorldSnapshot s = WorldCache.snapshot();
+            return entityList(s, s.within(x, y, z, r, false));
+        }
+        public lua.table entitiesIn(double x1, double y1, double z1, double x2, double y2, double z2) {
+            WorldSnapshot s = WorldCache.snapshot();
+            return entityList(s, s.inBox(x1, y1, z1, x2, y2, z2, false));
+        }
+        public lua.table nearestEntity(double x, double y, double z) {
+            return nearestEntity(x, y, z, Double.POSITIVE_INFINITY);
+        }
+        public lua.table nearestEntity(double x, double y, double z, double maxDistance) {
+            WorldSnapshot s = WorldCache.snapshot();
+            return entityTable(s, s.nearest(x, y, z, maxDistance, false));
+        }
+        public long entityCount() { return WorldCache.snapshot().size(); }
+    }
+
+    /** The local player; nil/0 while there is none. */
+    public static class MinecraftPlayerAPI {
+        public String getName() {
+            Object p = MinecraftBindings.ENTITY_NAME != null ? MinecraftBindings.clientPlayer() : null;
+            if (p == null) return null;
+            Object name = MinecraftBindings.ENTITY_NAME.call(p);
+            return MinecraftBindings.COMPONENT_TEXT != null ? (String) MinecraftBindings.COMPONENT_TEXT.call(name) : String.valueOf(name);
+        }
+        public double getX() { return read(MinecraftBindings.ENTITY_X); }
+        public double getY() { return read(MinecraftBindings.ENTITY_Y); }
+        public double getZ() { return read(MinecraftBindings.ENTITY_Z); }
+        public double getHealth() { return read(MinecraftBindings.ENTITY_HEALTH); }
+
+        // Every player in the world, from this tick's WorldCache snapshot (see MinecraftWorldAPI)
+        public lua.table players() {
+            WorldSnapshot s = WorldCache.snapshot();
+            return entityList(s, s.players());
+        }
+        public lua.table playersNear(double x, double y, double z, double r) {
+            WorldSnapshot s = WorldCache.snapshot();
+            return entityList(s, s.within(x, y, z, r, true));
+        }
+        public lua.table nearestPlayer(double x, double y, double z) {
+            WorldSnapshot s = WorldCache.snapshot();
+            return entityTable(s, s.nearest(x, y, z, Double.POSITIVE_INFINITY, true));
+        }
+
+        private static double read(Bindings.ToDouble1 getter) {
+            Object p = getter != null ? MinecraftBindings.clientPlayer() : null;
+            return p != null ? getter.call(p) : 0;
+        }
+    }
 
+    private static lua.table entityList(WorldSnapshot s, int[] hits) {
+        lua.table list = new lua.table(hits.length, 0);
+        for (int i = 0; i < hits.length; i++) list.seti(i + 1, entityTable(s, hits[i]));
+        return list;
     }
-    public static class MinecraftChatAPI {}
-    public static class MinecraftWorldAPI {}
-    public static class MinecraftPlayerAPI {}
+
+    /** One entity of s as a table; nil for -1 (no entity). */
+    private static lua.table entityTable(WorldSnapshot s, int e) {
+        if (e < 0) return null;
+        lua.table t = new lua.table(0, 7);
+        t.set("id", s.id(e));
+        t.set("name", s.name(e));
+        t.set("player", s.isPlayer(e));
+        t.setNumber("x", s.x(e));
+        t.setNumber("y", s.y(e));
+        t.setNumber("z", s.z(e));
+        t.setNumber("health", s.health(e));
+        return t;
+    }
+
     /** Register a named API */
     public static void register(String name, Object api) {
-        apis.put(name.toLowerCase(), api);
+        String key = normalize(name);
+        update(apis -> apis.put(key, instrumented ? wrap(key, api) : api));
+    }
+
+    /** Remove a named API. */
+    public static void unregister(String name) {
+        String key = normalize(name);
+        update(apis -> apis.remove(key));
     }
 
     /** Get an API by name (for your scripts or calls) */
     public static Object get(String name) {
-        return apis.get(name.toLowerCase());
+        return current.get(name);
+    }
+
+    /**
+     * Apply several changes as one new version: changes edits a copy of the current API map
+     * (get/put/remove/containsKey normalize names), which is then published atomically.
+     * Used for hot reload.
+     */
+    public static void reload(Consumer<Map<String, Object>> changes) {
+        update(apis -> {
+            changes.accept(new NormalizingMap(apis));
+            if (instrumented) apis.replaceAll(LuaAPIRegistry::wrap);
+        });
+    }
+
+    /* ---------------- Instrumentation ---------------- */
+
+    private static volatile boolean instrumented;
+
+    /**
+     * Publish a new version in which every LuaFunction is wrapped in a {@link Metrics} timer
+     * ("api.NAME"), or unwrapped again. Called by Metrics.setEnabled; while off, callers get the
+     * registered functions themselves and pay nothing.
+     */
+    static void instrument(boolean on) {
+        synchronized (WRITE_LOCK) {
+            if (instrumented == on) return;
+            instrumented = on;
+            update(apis -> apis.replaceAll(on ? LuaAPIRegistry::wrap : (k, v) -> LuaFunctions.untimed(v)));
+        }
+    }
+
+    private static Object wrap(String name, Object api) {
+        return LuaFunctions.isFunction(api) ? LuaFunctions.timed(api, Metrics.timer("api." + name)) : api;
+    }
+
+    /** The current API set; it never changes, later registrations produce a new snapshot. */
+    public static Snapshot snapshot() {
+        return current;
+    }
+
+    /** A stable handle for name whose get() always returns the current value (null if unregistered). */
+    public static Slot slot(String name) {
+        String key = normalize(name);
+        Slot s = slots.get(key);
+        if (s != null) return s;
+        synchronized (WRITE_LOCK) {
+            return slots.computeIfAbsent(key, k -> new Slot(k, current.apis.get(k)));
+        }
+    }
+
+    private static void update(Consumer<HashMap<String, Object>> change) {
+        synchronized (WRITE_LOCK) {
+            Snapshot old = current;
+            HashMap<String, Object> apis = new HashMap<>(old.apis);
+            change.accept(apis);
+            apis.keySet().removeIf(k -> k == null || !k.equals(normalize(k)));
+            apis.values().removeIf(v -> v == null);
+            Snapshot next = new Snapshot(apis, old.version + 1);
+            current = next;
+            for (Slot s : slots.values()) s.value = next.apis.get(s.name);
+        }
+    }
+
+    /** Lower-case name, returning name itself (no allocation) when it already is. */
+    static String normalize(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || c > 0x7f) return name.toLowerCase(Locale.ROOT);
+        }
+        return name;
+    }
+
+    /** The map handed to reload(): a view over the new API set that normalizes names. */
+    private static final class NormalizingMap extends java.util.AbstractMap<String, Object> {
+        private final HashMap<String, Object> apis;
+
+        NormalizingMap(HashMap<String, Object> apis) { this.apis = apis; }
+
+        @Override public Object get(Object key) { return key instanceof String ? apis.get(normalize((String) key)) : null; }
+        @Override public boolean containsKey(Object key) { return key instanceof String && apis.containsKey(normalize((String) key)); }
+        @Override public Object put(String key, Object value) { return apis.put(normalize(key), value); }
+        @Override public Object remove(Object key) { return key instanceof String ? apis.remove(normalize((String) key)) : null; }
+        @Override public Set<Map.Entry<String, Object>> entrySet() { return apis.entrySet(); }
+    }
+
+    /** An immutable, versioned API set. */
+    public static final class Snapshot {
+        private final HashMap<String, Object> apis;
+        private final long version;
+
+        private Snapshot(HashMap<String, Object> apis, long version) {
+            this.apis = apis;
+            this.version = version;
+        }
+
+        public Object get(String name) { return apis.get(normalize(name)); }
+
+        /** Increases by one with every register, unregister or reload. */
+        public long version() { return version; }
+
+        public Set<String> names() { return Collections.unmodifiableSet(apis.keySet()); }
+    }
+
+    /** One registry name, resolved once; reading it is a single volatile load. */
+    public static final class Slot {
+        private final String name;
+        private volatile Object value;
+
+        private Slot(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public Object get() { return value; }
+
+        public String name() { return name; }
     }
 
 
@@ -41,20 +439,20 @@ public class LuaAPIRegistry {
        ------------------------------------------------------------- */
     public static void registerMinecraftAPIs() {
         // Add Forge API wrapper ONLY if Forge classes are present
-        if (classExists("net.minecraftforge.fml.common.Mod")) {
+        if (Bindings.probe("net.minecraftforge.fml.common.Mod") != null) {
             register("chat", new MinecraftChatAPI());
             register("world", new MinecraftWorldAPI());
             register("player", new MinecraftPlayerAPI());
         }
+        StartupCache.flush();
     }
 
-    private static boolean classExists(String cls) {
-        try {
-            Class.forName(cls);
-            return true;
-        } catch (ClassNotFoundException e) {
-            return false;
-        }
+
+    /** Register "bus" when the chat bus is on (-Dlua.bus=true); joins the bus. */
+    public static void registerBusAPI() {
+        if (!Boolean.getBoolean("lua.bus")) return; // checked first: lua.chatBus() resolves the chat sender
+        ChatBus bus = lua.chatBus();
+        if (bus != null) register("bus", new BusAPI(bus));
     }
 
 
@@ -62,15 +460,63 @@ public class LuaAPIRegistry {
        Functional interfaces (Lua-like)
        ------------------------------------------------------------- */
 
+    /*
+     * Shapes a registered function can have. The fixed-arity and primitive ones let the VM call
+     * straight from its registers (no Object[], no boxing for Double/Long shapes) and return a
+     * result; LuaFunctions.as() adapts between them for Java callers. Missing arguments are nil
+     * (0 for primitive shapes), extra ones are dropped.
+     */
+
+    /** The original shape: any number of arguments, no result. */
     public interface LuaFunction {
         void call(Object... args);
     }
 
+    public interface LuaFunction0 {
+        Object call();
+    }
+
     public interface LuaFunction1 {
         Object call(Object a);
     }
 
+    /** One number argument, truncated to long. */
     public interface LuaFunction2 {
         Object call(long a);
     }
+
+    /** Two arguments, with a result (LuaFunction2 is the older long shape above). */
+    public interface LuaBiFunction {
+        Object call(Object a, Object b);
+    }
+
+    public interface LuaFunction3 {
+        Object call(Object a, Object b, Object c);
+    }
+
+    /** Any number of arguments, with a result. */
+    public interface LuaFunctionN {
+        Object call(Object... args);
+    }
+
+    public interface DoubleFunction1 {
+        double call(double a);
+    }
+
+    public interface DoubleFunction2 {
+        double call(double a, double b);
+    }
+
+    /** Numbers are truncated to long on the way in. */
+    public interface LongFunction1 {
+        long call(long a);
+    }
+
+    public interface LongFunction2 {
+        long call(long a, long b);
+    }
+
+    public interface LongConsumer1 {
+        void call(long a);
+    }
 }
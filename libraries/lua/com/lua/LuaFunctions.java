@@ -0,0 +1,357 @@
+package libraries.lua.com.lua;
+
+import libraries.lua.com.lua.LuaAPIRegistry.DoubleFunction1;
+import libraries.lua.com.lua.LuaAPIRegistry.DoubleFunction2;
+import libraries.lua.com.lua.LuaAPIRegistry.LongConsumer1;
+import libraries.lua.com.lua.LuaAPIRegistry.LongFunction1;
+import libraries.lua.com.lua.LuaAPIRegistry.LongFunction2;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaBiFunction;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction0;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction1;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction2;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunction3;
+import libraries.lua.com.lua.LuaAPIRegistry.LuaFunctionN;
+
+/**
+ * Works with the function shapes of {@link LuaAPIRegistry} (LuaFunction0/1/3, LuaBiFunction,
+ * LuaFunctionN, the Double/Long variants, LuaFunction2 and the original varargs LuaFunction) without knowing which one a
+ * registration used.
+ *
+ * - as(shape, fn) gives fn in the shape the caller wants, so a hot caller binds once and then
+ *   calls without an Object[] or boxing: fn itself when it already has that shape, else an adapter.
+ *   Adapters between primitive shapes stay primitive; adapters over Object shapes box numbers as
+ *   Long (integral) or Double, like the interpreter does.
+ * - invoke(fn, args...) calls any shape; the general, allocating path.
+ * - Numbers given to a primitive shape are converted; a numeric string is parsed; anything
+ *   else is an IllegalArgumentException.
+ *
+ * Example:
+ *   DoubleFunction1 sqrt = LuaFunctions.as(DoubleFunction1.class, LuaAPIRegistry.get("sqrt"));
+ *   for (...) sum += sqrt.call(x); // nothing allocated per call
+ */
+public final class LuaFunctions {
+
+    private LuaFunctions() {}
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /** Whether v is a function in one of the registry's shapes. */
+    public static boolean isFunction(Object v) {
+        return v instanceof LuaFunction || v instanceof LuaFunction0 || v instanceof LuaFunction1
+                || v instanceof LuaFunction2 || v instanceof LuaBiFunction || v instanceof LuaFunction3 || v instanceof LuaFunctionN
+                || v instanceof DoubleFunction1 || v instanceof DoubleFunction2 || v instanceof LongFunction1
+                || v instanceof LongFunction2 || v instanceof LongConsumer1;
+    }
+
+    /** The fixed argument count of fn's shape, or -1 for varargs shapes. */
+    public static int arity(Object fn) {
+        if (fn instanceof LuaFunction0) return 0;
+        if (fn instanceof LuaFunction1 || fn instanceof DoubleFunction1 || fn instanceof LongFunction1
+                || fn instanceof LongConsumer1 || fn instanceof LuaFunction2) return 1;
+        if (fn instanceof LuaBiFunction || fn instanceof DoubleFunction2 || fn instanceof LongFunction2) return 2;
+        if (fn instanceof LuaFunction3) return 3;
+        return -1;
+    }
+
+    /* ---------------- Calling any shape ---------------- */
+
+    /** Call fn with args; missing arguments are nil, extra ones are dropped. Void shapes return null. */
+    public static Object invoke(Object fn, Object... args) {
+        if (args == null) args = NO_ARGS;
+        if (fn instanceof LuaFunctionN) return ((LuaFunctionN) fn).call(args);
+        if (fn instanceof LuaFunction) {
+            ((LuaFunction) fn).call(args);
+            return null;
+        }
+        switch (arity(fn)) {
+            case 0: return call0(fn);
+            case 1: return call1(fn, arg(args, 0));
+            case 2: return call2(fn, arg(args, 0), arg(args, 1));
+            case 3: return call3(fn, arg(args, 0), arg(args, 1), arg(args, 2));
+            default: throw new IllegalArgumentException("not a function: " + fn);
+        }
+    }
+
+    static Object call0(Object fn) {
+        if (fn instanceof LuaFunction0) return ((LuaFunction0) fn).call();
+        return invoke(fn, NO_ARGS);
+    }
+
+    static Object call1(Object fn, Object a) {
+        if (fn instanceof LuaFunction1) return ((LuaFunction1) fn).call(a);
+        if (fn instanceof DoubleFunction1) return box(((DoubleFunction1) fn).call(toDouble(a, 1)));
+        if (fn instanceof LongFunction1) return ((LongFunction1) fn).call(toLong(a, 1));
+        if (fn instanceof LuaFunction2) return ((LuaFunction2) fn).call(toLong(a, 1));
+        if (fn instanceof LongConsumer1) {
+            ((LongConsumer1) fn).call(toLong(a, 1));
+            return null;
+        }
+        if (arity(fn) >= 0) return callFixed(fn, a, null, null);
+        return invoke(fn, a);
+    }
+
+    static Object call2(Object fn, Object a, Object b) {
+        if (fn instanceof LuaBiFunction) return ((LuaBiFunction) fn).call(a, b);
+        if (fn instanceof DoubleFunction2) return box(((DoubleFunction2) fn).call(toDouble(a, 1), toDouble(b, 2)));
+        if (fn instanceof LongFunction2) return ((LongFunction2) fn).call(toLong(a, 1), toLong(b, 2));
+        if (arity(fn) >= 0) return callFixed(fn, a, b, null);
+        return invoke(fn, a, b);
+    }
+
+    static Object call3(Object fn, Object a, Object b, Object c) {
+        if (fn instanceof LuaFunction3) return ((LuaFunction3) fn).call(a, b, c);
+        if (arity(fn) >= 0) return callFixed(fn, a, b, c);
+        return invoke(fn, a, b, c);
+    }
+
+    /** A fixed-arity fn called with a different number of arguments: drop or pad with nil. */
+    private static Object callFixed(Object fn, Object a, Object b, Object c) {
+        switch (arity(fn)) {
+            case 0: return call0(fn);
+            case 1: return call1(fn, a);
+            case 2: return call2(fn, a, b);
+            default: return call3(fn, a, b, c);
+        }
+    }
+
+    private static Object arg(Object[] args, int i) {
+        return i < args.length ? args[i] : null;
+    }
+
+    /* ---------------- Binding to a shape ---------------- */
+
+    /** fn as the given shape: fn itself if it already is one, else an adapter; null if fn is null. */
+    @SuppressWarnings("unchecked")
+    public static <T> T as(Class<T> shape, Object fn) {
+        if (fn == null || shape.isInstance(fn)) return (T) fn;
+        if (!isFunction(fn)) throw new IllegalArgumentException("not a function: " + fn);
+        Object f = fn;
+        Object adapter;
+        if (shape == LuaFunction0.class) adapter = (LuaFunction0) () -> call0(f);
+        else if (shape == LuaFunction1.class) adapter = (LuaFunction1) a -> call1(f, a);
+        else if (shape == LuaFunction2.class) adapter = (LuaFunction2) a -> call1(f, a);
+        else if (shape == LuaBiFunction.class) adapter = (LuaBiFunction) (a, b) -> call2(f, a, b);
+        else if (shape == LuaFunction3.class) adapter = (LuaFunction3) (a, b, c) -> call3(f, a, b, c);
+        else if (shape == LuaFunctionN.class) adapter = (LuaFunctionN) args -> invoke(f, args);
+        else if (shape == LuaFunction.class) adapter = (LuaFunction) args -> invoke(f, args);
+        else if (shape == DoubleFunction1.class) adapter = asDouble1(f);
+        else if (shape == DoubleFunction2.class) adapter = asDouble2(f);
+        else if (shape == LongFunction1.class) adapter = asLong1(f);
+        else if (shape == LongFunction2.class) adapter = asLong2(f);
+        else if (shape == LongConsumer1.class) adapter = asLongConsumer1(f);
+        else throw new IllegalArgumentException("not a function shape: " + shape.getName());
+        return (T) adapter;
+    }
+
+    private static DoubleFunction1 asDouble1(Object f) {
+        if (f instanceof LongFunction1) return a -> ((LongFunction1) f).call((long) a);
+        return a -> toDouble(call1(f, box(a)), 0);
+    }
+
+    private static DoubleFunction2 asDouble2(Object f) {
+        if (f instanceof LongFunction2) return (a, b) -> ((LongFunction2) f).call((long) a, (long) b);
+        return (a, b) -> toDouble(call2(f, box(a), box(b)), 0);
+    }
+
+    private static LongFunction1 asLong1(Object f) {
+        if (f instanceof DoubleFunction1) return a -> (long) ((DoubleFunction1) f).call(a);
+        return a -> toLong(call1(f, a), 0);
+    }
+
+    private static LongFunction2 asLong2(Object f) {
+        if (f instanceof DoubleFunction2) return (a, b) -> (long) ((DoubleFunction2) f).call(a, b);
+        return (a, b) -> toLong(call2(f, a, b), 0);
+    }
+
+    private static LongConsumer1 asLongConsumer1(Object f) {
+        if (f instanceof LongFunction1) return a -> ((LongFunction1) f).call(a);
+        if (f instanceof DoubleFunction1) return a -> ((DoubleFunction1) f).call(a);
+        return a -> call1(f, a);
+    }
+
+    /* ---------------- Numbers ---------------- */
+
+    /** Integral values as Long, others as Double (the interpreter's boxing). */
+    static Object box(double d) {
+        long l = (long) d;
+        if (l == d && l != Long.MAX_VALUE && !(d == 0 && 1 / d < 0)) return l;
+        return d;
+    }
+
+    /** v as a double; argument is its 1-based position for the error message (0: a result). */
+    static double toDouble(Object v, int argument) {
+        if (v instanceof Number) return ((Number) v).doubleValue();
+        if (v instanceof String) {
+            try {
+                return Double.parseDouble(((String) v).trim());
+            } catch (NumberFormatException ignored) {
+                // fall through to the error
+            }
+        }
+        throw new IllegalArgumentException((argument > 0 ? "bad argument #" + argument : "bad result")
+                + " (number expected, got " + (v == null ? "nil" : v.getClass().getSimpleName()) + ")");
+    }
+
+    static long toLong(Object v, int argument) {
+        return v instanceof Long || v instanceof Integer ? ((Number) v).longValue() : (long) toDouble(v, argument);
+    }
+
+    /* ---------------- Metrics ---------------- */
+
+    /** fn in the same shape, recording every call on timer (see {@link Metrics}). */
+    static Object timed(Object fn, Metrics.Timer timer) {
+        if (fn instanceof Timed) return fn;
+        if (fn instanceof LuaFunction0) return new Timed0((LuaFunction0) fn, timer);
+        if (fn instanceof LuaFunction1) return new Timed1((LuaFunction1) fn, timer);
+        if (fn instanceof LuaFunction2) return new Timed2((LuaFunction2) fn, timer);
+        if (fn instanceof LuaBiFunction) return new TimedBi((LuaBiFunction) fn, timer);
+        if (fn instanceof LuaFunction3) return new Timed3((LuaFunction3) fn, timer);
+        if (fn instanceof LuaFunctionN) return new TimedN((LuaFunctionN) fn, timer);
+        if (fn instanceof DoubleFunction1) return new TimedDouble1((DoubleFunction1) fn, timer);
+        if (fn instanceof DoubleFunction2) return new TimedDouble2((DoubleFunction2) fn, timer);
+        if (fn instanceof LongFunction1) return new TimedLong1((LongFunction1) fn, timer);
+        if (fn instanceof LongFunction2) return new TimedLong2((LongFunction2) fn, timer);
+        if (fn instanceof LongConsumer1) return new TimedLongConsumer1((LongConsumer1) fn, timer);
+        if (fn instanceof LuaFunction) return new TimedVarargs((LuaFunction) fn, timer);
+        return fn;
+    }
+
+    /** The function under a timed() wrapper, or fn itself. */
+    static Object untimed(Object fn) {
+        return fn instanceof Timed ? ((Timed) fn).fn : fn;
+    }
+
+    /** A registered function under a timer; one subclass per shape so callers keep their shape. */
+    abstract static class Timed {
+        final Object fn;
+        final Metrics.Timer timer;
+
+        Timed(Object fn, Metrics.Timer timer) {
+            this.fn = fn;
+            this.timer = timer;
+        }
+
+        final RuntimeException failed(RuntimeException e) {
+            timer.recordError();
+            return e;
+        }
+
+        final Error failed(Error e) {
+            timer.recordError();
+            return e;
+        }
+
+        final void done(long t0) {
+            timer.record(System.nanoTime() - t0);
+        }
+    }
+
+    static final class Timed0 extends Timed implements LuaFunction0 {
+        private final LuaFunction0 f;
+        Timed0(LuaFunction0 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public Object call() {
+            long t0 = System.nanoTime();
+            try { return f.call(); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class Timed1 extends Timed implements LuaFunction1 {
+        private final LuaFunction1 f;
+        Timed1(LuaFunction1 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public Object call(Object a) {
+            long t0 = System.nanoTime();
+            try { return f.call(a); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class Timed2 extends Timed implements LuaFunction2 {
+        private final LuaFunction2 f;
+        Timed2(LuaFunction2 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public Object call(long a) {
+            long t0 = System.nanoTime();
+            try { return f.call(a); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedBi extends Timed implements LuaBiFunction {
+        private final LuaBiFunction f;
+        TimedBi(LuaBiFunction f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public Object call(Object a, Object b) {
+            long t0 = System.nanoTime();
+            try { return f.call(a, b); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class Timed3 extends Timed implements LuaFunction3 {
+        private final LuaFunction3 f;
+        Timed3(LuaFunction3 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public Object call(Object a, Object b, Object c) {
+            long t0 = System.nanoTime();
+            try { return f.call(a, b, c); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedN extends Timed implements LuaFunctionN {
+        private final LuaFunctionN f;
+        TimedN(LuaFunctionN f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public Object call(Object... args) {
+            long t0 = System.nanoTime();
+            try { return f.call(args); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedVarargs extends Timed implements LuaFunction {
+        private final LuaFunction f;
+        TimedVarargs(LuaFunction f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public void call(Object... args) {
+            long t0 = System.nanoTime();
+            try { f.call(args); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedDouble1 extends Timed implements DoubleFunction1 {
+        private final DoubleFunction1 f;
+        TimedDouble1(DoubleFunction1 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public double call(double a) {
+            long t0 = System.nanoTime();
+            try { return f.call(a); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedDouble2 extends Timed implements DoubleFunction2 {
+        private final DoubleFunction2 f;
+        TimedDouble2(DoubleFunction2 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public double call(double a, double b) {
+            long t0 = System.nanoTime();
+            try { return f.call(a, b); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedLong1 extends Timed implements LongFunction1 {
+        private final LongFunction1 f;
+        TimedLong1(LongFunction1 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public long call(long a) {
+            long t0 = System.nanoTime();
+            try { return f.call(a); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedLong2 extends Timed implements LongFunction2 {
+        private final LongFunction2 f;
+        TimedLong2(LongFunction2 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public long call(long a, long b) {
+            long t0 = System.nanoTime();
+            try { return f.call(a, b); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+
+    static final class TimedLongConsumer1 extends Timed implements LongConsumer1 {
+        private final LongConsumer1 f;
+        TimedLongConsumer1(LongConsumer1 f, Metrics.Timer timer) { super(f, timer); this.f = f; }
+        @Override public void call(long a) {
+            long t0 = System.nanoTime();
+            try { f.call(a); } catch (RuntimeException e) { throw failed(e); } catch (Error e) { throw failed(e); } finally { done(t0); }
+        }
+    }
+}
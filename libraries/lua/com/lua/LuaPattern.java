@@ -0,0 +1,636 @@
+package libraries.lua.com.lua;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compiled Lua pattern (string.find / match / gmatch / gsub syntax).
+ *
+ * - compile(p) parses the pattern once into parallel item arrays (kind, quantifier, char, set)
+ *   and caches it by pattern text; -Dlua.pattern.cache bounds the cache (256 patterns).
+ * - A {@link Matcher} runs over any CharSequence (String, StringBuilder, CharBuffer view...)
+ *   without copying it, and reports matches and captures as offsets. Substrings are only made
+ *   when a caller asks for group(i).
+ * - Character classes follow the C locale: %a, %d, %s, ... only match ASCII characters.
+ * - Malformed patterns throw IllegalArgumentException with Lua's message.
+ *
+ * Example:
+ *   LuaPattern.Matcher m = LuaPattern.compile("(%w+)=(%d+)").matcher(line);
+ *   for (int at = 0; m.find(at); at = m.nextFrom()) { m.start(1); m.end(1); m.group(2); }
+ */
+public final class LuaPattern {
+
+    private static final int MAX_CAPTURES = 32;
+    private static final int CACHE_SIZE = Integer.getInteger("lua.pattern.cache", 256);
+    private static final ConcurrentHashMap<String, LuaPattern> CACHE = new ConcurrentHashMap<>();
+
+    // item kinds
+    private static final byte CHAR = 0, ANY = 1, SET = 2, OPEN = 3, POSITION = 4, CLOSE = 5,
+            BALANCE = 6, FRONTIER = 7, BACKREF = 8, END = 9;
+
+    // capture lengths that are not lengths
+    private static final int CAP_UNFINISHED = -1, CAP_POSITION = -2;
+
+    private final String source;
+    private final boolean anchored;
+    /** The pattern itself when it has no special characters: matching is a plain search. */
+    private final String literal;
+    private final int captures;
+
+    private final byte[] kind;
+    /** Quantifier of a single-char item: 0, '*', '+', '-' or '?'. */
+    private final char[] rep;
+    /** CHAR: the char; BALANCE: the opening char; BACKREF: the capture index. */
+    private final char[] ch;
+    /** BALANCE: the closing char. */
+    private final char[] ch2;
+    /** SET / FRONTIER: the class. */
+    private final CharClass[] sets;
+    /** The literal char that must come right after item i (captures skipped), or -1. */
+    private final int[] follow;
+    private final int size;
+    /** A char every match starts with, or -1: find() skips ahead to it. */
+    private final int firstChar;
+
+    /** The compiled form of pattern, from the cache when possible. */
+    public static LuaPattern compile(String pattern) {
+        LuaPattern p = CACHE.get(pattern);
+        if (p == null) {
+            p = new LuaPattern(pattern);
+            if (CACHE.size() >= CACHE_SIZE) CACHE.clear();
+            CACHE.put(pattern, p);
+        }
+        return p;
+    }
+
+    /** Whether p has none of Lua's pattern specials, so it matches only itself. */
+    public static boolean isLiteral(String p) {
+        for (int i = 0; i < p.length(); i++) {
+            if ("^$*+?.()[%-".indexOf(p.charAt(i)) >= 0) return false;
+        }
+        return true;
+    }
+
+    private LuaPattern(String p) {
+        source = p;
+        int n = isLiteral(p) ? 0 : p.length();
+        kind = new byte[n];
+        rep = new char[n];
+        ch = new char[n];
+        ch2 = new char[n];
+        sets = new CharClass[n];
+        follow = new int[n];
+        if (n == 0) {
+            literal = p;
+            anchored = false;
+            captures = 0;
+            size = 0;
+            firstChar = -1;
+            return;
+        }
+        literal = null;
+        int i = 0;
+        anchored = n > 0 && p.charAt(0) == '^';
+        if (anchored) i++;
+        int items = 0;
+        int opened = 0;
+        int[] open = new int[MAX_CAPTURES];
+        boolean[] closed = new boolean[MAX_CAPTURES];
+        int depth = 0;
+        while (i < n) {
+            char c = p.charAt(i);
+            int at = items++;
+            if (c == '(') {
+                if (opened == MAX_CAPTURES) throw new IllegalArgumentException("too many captures");
+                if (i + 1 < n && p.charAt(i + 1) == ')') {
+                    kind[at] = POSITION;
+                    closed[opened] = true;
+                    i += 2;
+                } else {
+                    kind[at] = OPEN;
+                    open[depth++] = opened;
+                    i++;
+                }
+                opened++;
+            } else if (c == ')') {
+                if (depth == 0) throw new IllegalArgumentException("invalid pattern capture");
+                closed[open[--depth]] = true;
+                kind[at] = CLOSE;
+                i++;
+            } else if (c == '$' && i == n - 1) {
+                kind[at] = END;
+                i++;
+            } else if (c == '%' && i + 1 < n && p.charAt(i + 1) == 'b') {
+                if (i + 3 >= n) throw new IllegalArgumentException("malformed pattern (missing arguments to '%b')");
+                kind[at] = BALANCE;
+                ch[at] = p.charAt(i + 2);
+                ch2[at] = p.charAt(i + 3);
+                i += 4;
+            } else if (c == '%' && i + 1 < n && p.charAt(i + 1) == 'f') {
+                i += 2;
+                if (i >= n || p.charAt(i) != '[') throw new IllegalArgumentException("missing '[' after '%f' in pattern");
+                kind[at] = FRONTIER;
+                i = parseSet(p, i, at);
+            } else if (c == '%' && i + 1 < n && p.charAt(i + 1) >= '0' && p.charAt(i + 1) <= '9') {
+                int l = p.charAt(i + 1) - '1';
+                if (l < 0 || l >= opened || !closed[l]) {
+                    throw new IllegalArgumentException("invalid capture index %" + (l + 1));
+                }
+                kind[at] = BACKREF;
+                ch[at] = (char) l;
+                i += 2;
+            } else {
+                i = parseSingle(p, i, at);
+                if (i < n && "*+-?".indexOf(p.charAt(i)) >= 0) rep[at] = p.charAt(i++);
+            }
+        }
+        if (depth > 0) throw new IllegalArgumentException("unfinished capture");
+        captures = opened;
+        size = items;
+        for (int k = 0; k < size; k++) follow[k] = requiredChar(k + 1);
+        firstChar = anchored ? -1 : requiredChar(0);
+    }
+
+    /** The char a match of items from..size must start with, if it is a single literal. */
+    private int requiredChar(int from) {
+        int k = from;
+        while (k < size && (kind[k] == OPEN || kind[k] == CLOSE || kind[k] == POSITION)) k++;
+        return k < size && kind[k] == CHAR && (rep[k] == 0 || rep[k] == '+') ? ch[k] : -1;
+    }
+
+    /** A single-char class at i ('.', %x, [set] or a literal); returns the index after it. */
+    private int parseSingle(String p, int i, int at) {
+        char c = p.charAt(i);
+        if (c == '.') {
+            kind[at] = ANY;
+            return i + 1;
+        }
+        if (c == '[') {
+            kind[at] = SET;
+            return parseSet(p, i, at);
+        }
+        if (c == '%') {
+            if (i + 1 >= p.length()) throw new IllegalArgumentException("malformed pattern (ends with '%')");
+            char e = p.charAt(i + 1);
+            CharClass cls = CharClass.escape(e);
+            if (cls != null) {
+                kind[at] = SET;
+                sets[at] = cls;
+            } else {
+                kind[at] = CHAR;
+                ch[at] = e;
+            }
+            return i + 2;
+        }
+        kind[at] = CHAR;
+        ch[at] = c;
+        return i + 1;
+    }
+
+    /** [set] starting at i (the '['); returns the index after the ']'. */
+    private int parseSet(String p, int i, int at) {
+        int n = p.length();
+        CharClass cls = new CharClass();
+        i++;
+        if (i < n && p.charAt(i) == '^') {
+            cls.negated = true;
+            i++;
+        }
+        boolean first = true;
+        while (true) {
+            if (i >= n) throw new IllegalArgumentException("malformed pattern (missing ']')");
+            char c = p.charAt(i);
+            if (c == ']' && !first) {
+                sets[at] = cls;
+                return i + 1;
+            }
+            first = false;
+            if (c == '%') {
+                if (i + 1 >= n) throw new IllegalArgumentException("malformed pattern (missing ']')");
+                char e = p.charAt(i + 1);
+                CharClass esc = CharClass.escape(e);
+                if (esc != null) cls.addAll(esc);
+                else cls.add(e, e);
+                i += 2;
+            } else if (i + 2 < n && p.charAt(i + 1) == '-' && p.charAt(i + 2) != ']') {
+                cls.add(c, p.charAt(i + 2));
+                i += 3;
+            } else {
+                cls.add(c, c);
+                i++;
+            }
+        }
+    }
+
+    public String pattern() { return source; }
+
+    /** Number of captures, position captures included. */
+    public int captureCount() { return captures; }
+
+    public boolean isAnchored() { return anchored; }
+
+    public Matcher matcher(CharSequence s) {
+        return new Matcher(this, s);
+    }
+
+    @Override public String toString() { return source; }
+
+    /* ---------------- Matching ---------------- */
+
+    /**
+     * Match state over one subject. Offsets are 0-based, end exclusive. Not thread-safe; reset()
+     * reuses it for another subject.
+     */
+    public static final class Matcher {
+        private final LuaPattern p;
+        private CharSequence s;
+        private int len;
+        private int level;
+        private final int[] capStart;
+        private final int[] capLen;
+        private int start = -1, end = -1;
+
+        Matcher(LuaPattern p, CharSequence s) {
+            this.p = p;
+            this.capStart = new int[p.captures];
+            this.capLen = new int[p.captures];
+            reset(s);
+        }
+
+        public Matcher reset(CharSequence s) {
+            this.s = s;
+            this.len = s.length();
+            this.start = this.end = -1;
+            this.level = 0;
+            return this;
+        }
+
+        public LuaPattern pattern() { return p; }
+
+        public CharSequence subject() { return s; }
+
+        /**
+         * Find the first match starting at or after from (only at from if the pattern is anchored
+         * with '^'). On success start()/end() and the captures describe it.
+         */
+        public boolean find(int from) {
+            if (from < 0) from = 0;
+            if (from > len) return false;
+            if (p.literal != null) {
+                int at = indexOf(p.literal, from);
+                if (at < 0) return false;
+                start = at;
+                end = at + p.literal.length();
+                level = 0;
+                return true;
+            }
+            int at = from;
+            int first = p.firstChar;
+            while (true) {
+                if (first >= 0) {
+                    while (at < len && s.charAt(at) != first) at++;
+                    if (at >= len) return false;
+                }
+                level = 0;
+                int e = doMatch(at, 0);
+                if (e >= 0) {
+                    start = at;
+                    end = e;
+                    return true;
+                }
+                if (p.anchored || ++at > len) return false;
+            }
+        }
+
+        /** Match only at pos; returns the end of the match, or -1. */
+        public int matchAt(int pos) {
+            level = 0;
+            int e;
+            if (p.literal != null) {
+                String lit = p.literal;
+                e = pos + lit.length() <= len && regionMatches(lit, pos) ? pos + lit.length() : -1;
+            } else {
+                e = doMatch(pos, 0);
+            }
+            if (e >= 0) {
+                start = pos;
+                end = e;
+            }
+            return e;
+        }
+
+        /** Where to search next after a match (one past an empty match, so loops advance). */
+        public int nextFrom() { return end > start ? end : end + 1; }
+
+        public int start() { return start; }
+
+        public int end() { return end; }
+
+        /** Captures of the last match (0 when the pattern has none). */
+        public int groupCount() { return level; }
+
+        /** Start of capture i (1-based); i = 0 is the whole match. */
+        public int start(int i) {
+            return i == 0 ? start : capStart[check(i)];
+        }
+
+        /** End of capture i; for a position capture () this equals its start. */
+        public int end(int i) {
+            if (i == 0) return end;
+            int l = check(i);
+            return capLen[l] == CAP_POSITION ? capStart[l] : capStart[l] + capLen[l];
+        }
+
+        /** Whether capture i is a position capture (), whose Lua value is start(i) + 1. */
+        public boolean isPosition(int i) {
+            return i > 0 && capLen[check(i)] == CAP_POSITION;
+        }
+
+        /** Text of capture i (the whole match for 0); position captures give their Lua position. */
+        public String group(int i) {
+            if (isPosition(i)) return Integer.toString(start(i) + 1);
+            return s.subSequence(start(i), end(i)).toString();
+        }
+
+        /**
+         * Capture i as Lua returns it: with no captures in the pattern, capture 1 is the whole
+         * match; position captures are Longs.
+         */
+        public Object capture(int i) {
+            if (level == 0 && i == 1) return s.subSequence(start, end).toString();
+            if (isPosition(i)) return (long) start(i) + 1;
+            return group(i);
+        }
+
+        /**
+         * Append repl with %0-%9 replaced by the captures of the last match and %% by '%'.
+         * Throws IllegalArgumentException for any other use of '%'.
+         */
+        public void appendReplacement(StringBuilder out, CharSequence repl) {
+            int n = repl.length();
+            for (int i = 0; i < n; i++) {
+                char c = repl.charAt(i);
+                if (c != '%') {
+                    out.append(c);
+                    continue;
+                }
+                if (++i >= n) throw new IllegalArgumentException("invalid use of '%' in replacement string");
+                char d = repl.charAt(i);
+                if (d == '%') {
+                    out.append('%');
+                } else if (d == '0') {
+                    out.append(s, start, end);
+                } else if (d >= '1' && d <= '9') {
+                    int l = d - '0';
+                    if (level == 0 && l == 1) out.append(s, start, end);
+                    else if (l > level) throw new IllegalArgumentException("invalid capture index %" + l + " in replacement string");
+                    else if (isPosition(l)) out.append(start(l) + 1);
+                    else out.append(s, start(l), end(l));
+                } else {
+                    throw new IllegalArgumentException("invalid use of '%' in replacement string");
+                }
+            }
+        }
+
+        private int check(int i) {
+            if (i < 1 || i > level) throw new IndexOutOfBoundsException("no capture " + i);
+            int l = i - 1;
+            if (capLen[l] == CAP_UNFINISHED) throw new IllegalArgumentException("unfinished capture");
+            return l;
+        }
+
+        /* ---------------- Backtracking over the compiled items ---------------- */
+
+        /** Match items ip.. at subject index at; returns the end of the match or -1. */
+        private int doMatch(int at, int ip) {
+            LuaPattern p = this.p;
+            while (true) {
+                if (ip == p.size) return at;
+                switch (p.kind[ip]) {
+                    case OPEN:
+                        return startCapture(at, ip + 1, CAP_UNFINISHED);
+                    case POSITION:
+                        return startCapture(at, ip + 1, CAP_POSITION);
+                    case CLOSE:
+                        return endCapture(at, ip + 1);
+                    case END:
+                        return at == len ? at : -1;
+                    case BALANCE:
+                        at = matchBalance(at, p.ch[ip], p.ch2[ip]);
+                        if (at < 0) return -1;
+                        ip++;
+                        continue;
+                    case FRONTIER: {
+                        char prev = at == 0 ? '\0' : s.charAt(at - 1);
+                        char cur = at < len ? s.charAt(at) : '\0';
+                        CharClass set = p.sets[ip];
+                        if (set.matches(prev) || !set.matches(cur)) return -1;
+                        ip++;
+                        continue;
+                    }
+                    case BACKREF:
+                        at = matchCapture(at, p.ch[ip]);
+                        if (at < 0) return -1;
+                        ip++;
+                        continue;
+                    default: {
+                        boolean m = at < len && single(s.charAt(at), ip);
+                        switch (p.rep[ip]) {
+                            case '?':
+                                if (m) {
+                                    int r = doMatch(at + 1, ip + 1);
+                                    if (r >= 0) return r;
+                                }
+                                ip++;
+                                continue;
+                            case '+':
+                                return m ? maxExpand(at + 1, ip) : -1;
+                            case '*':
+                                return maxExpand(at, ip);
+                            case '-':
+                                return minExpand(at, ip);
+                            default:
+                                if (!m) return -1;
+                                at++;
+                                ip++;
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean single(char c, int ip) {
+            switch (p.kind[ip]) {
+                case ANY: return true;
+                case CHAR: return c == p.ch[ip];
+                default: return p.sets[ip].matches(c);
+            }
+        }
+
+        // both only try the rest of the pattern where its required first char (if any) is present
+
+        private int maxExpand(int at, int ip) {
+            int i = 0;
+            while (at + i < len && single(s.charAt(at + i), ip)) i++;
+            int f = p.follow[ip];
+            for (; i >= 0; i--) {
+                if (f >= 0 && (at + i >= len || s.charAt(at + i) != f)) continue;
+                int r = doMatch(at + i, ip + 1);
+                if (r >= 0) return r;
+            }
+            return -1;
+        }
+
+        private int minExpand(int at, int ip) {
+            int f = p.follow[ip];
+            while (true) {
+                int r = f >= 0 && (at >= len || s.charAt(at) != f) ? -1 : doMatch(at, ip + 1);
+                if (r >= 0) return r;
+                if (at < len && single(s.charAt(at), ip)) at++;
+                else return -1;
+            }
+        }
+
+        private int startCapture(int at, int ip, int what) {
+            capStart[level] = at;
+            capLen[level] = what;
+            level++;
+            int r = doMatch(at, ip);
+            if (r < 0) level--;
+            return r;
+        }
+
+        private int endCapture(int at, int ip) {
+            int l = level - 1;
+            while (capLen[l] != CAP_UNFINISHED) l--;
+            capLen[l] = at - capStart[l];
+            int r = doMatch(at, ip);
+            if (r < 0) capLen[l] = CAP_UNFINISHED;
+            return r;
+        }
+
+        private int matchBalance(int at, char open, char close) {
+            if (at >= len || s.charAt(at) != open) return -1;
+            int depth = 1;
+            for (int i = at + 1; i < len; i++) {
+                char c = s.charAt(i);
+                if (c == close) {
+                    if (--depth == 0) return i + 1;
+                } else if (c == open) {
+                    depth++;
+                }
+            }
+            return -1;
+        }
+
+        private int matchCapture(int at, int l) {
+            int from = capStart[l];
+            int n = capLen[l];
+            if (n < 0) n = 0;
+            if (len - at < n) return -1;
+            for (int i = 0; i < n; i++) {
+                if (s.charAt(from + i) != s.charAt(at + i)) return -1;
+            }
+            return at + n;
+        }
+
+        private int indexOf(String lit, int from) {
+            if (s instanceof String) return ((String) s).indexOf(lit, from);
+            int n = lit.length();
+            if (n == 0) return from;
+            char first = lit.charAt(0);
+            for (int i = from; i + n <= len; i++) {
+                if (s.charAt(i) == first && regionMatches(lit, i)) return i;
+            }
+            return -1;
+        }
+
+        private boolean regionMatches(String lit, int at) {
+            for (int i = 0; i < lit.length(); i++) {
+                if (s.charAt(at + i) != lit.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+
+    /* ---------------- Character classes ---------------- */
+
+    /**
+     * A set of chars: a bitmap for ASCII plus ranges above it. Escapes (%a, %d, ...) use the C
+     * locale, so their complements (%A, %D, ...) contain every non-ASCII char.
+     */
+    static final class CharClass {
+        long lo, hi;
+        boolean allHigh;
+        char[] ranges = NO_RANGES;
+        boolean negated;
+
+        private static final char[] NO_RANGES = new char[0];
+
+        boolean matches(char c) {
+            boolean in;
+            if (c < 64) in = (lo >>> c & 1) != 0;
+            else if (c < 128) in = (hi >>> (c - 64) & 1) != 0;
+            else in = allHigh || inRanges(c);
+            return in != negated;
+        }
+
+        private boolean inRanges(char c) {
+            char[] r = ranges;
+            for (int i = 0; i < r.length; i += 2) {
+                if (c >= r[i] && c <= r[i + 1]) return true;
+            }
+            return false;
+        }
+
+        void add(char from, char to) {
+            for (int c = from; c <= to && c < 128; c++) {
+                if (c < 64) lo |= 1L << c;
+                else hi |= 1L << (c - 64);
+            }
+            if (to >= 128) {
+                char[] r = java.util.Arrays.copyOf(ranges, ranges.length + 2);
+                r[r.length - 2] = (char) Math.max(from, 128);
+                r[r.length - 1] = to;
+                ranges = r;
+            }
+        }
+
+        void addAll(CharClass o) {
+            if (o.negated) {
+                lo |= ~o.lo;
+                hi |= ~o.hi;
+                allHigh |= !o.allHigh;
+            } else {
+                lo |= o.lo;
+                hi |= o.hi;
+                allHigh |= o.allHigh;
+            }
+        }
+
+        /** The class for %e, or null if e is not a class letter (then %e is the literal e). */
+        static CharClass escape(char e) {
+            CharClass c = new CharClass();
+            switch (Character.toLowerCase(e)) {
+                case 'a': c.add('a', 'z'); c.add('A', 'Z'); break;
+                case 'c': c.add('\0', (char) 31); c.add((char) 127, (char) 127); break;
+                case 'd': c.add('0', '9'); break;
+                case 'g': c.add('!', '~'); break;
+                case 'l': c.add('a', 'z'); break;
+                case 'p':
+                    c.add('!', '/'); c.add(':', '@'); c.add('[', '`'); c.add('{', '~');
+                    break;
+                case 's': c.add('\t', '\r'); c.add(' ', ' '); break;
+                case 'u': c.add('A', 'Z'); break;
+                case 'w': c.add('a', 'z'); c.add('A', 'Z'); c.add('0', '9'); break;
+                case 'x': c.add('0', '9'); c.add('a', 'f'); c.add('A', 'F'); break;
+                default: return null;
+            }
+            if (Character.isUpperCase(e)) {
+                c.lo = ~c.lo;
+                c.hi = ~c.hi;
+                c.allHigh = true;
+            }
+            return c;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package libraries.lua.com.lua;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Call counts, error counts and latency percentiles for script APIs and the runtime's own spans
+ * (io.run, io.eval, chat).
+ *
+ * - Off by default (-Dlua.metrics=true or setEnabled(true) turns it on). While off, a span costs one
+ *   volatile read, and {@link LuaAPIRegistry} hands out the registered functions themselves; turning
+ *   metrics on republishes the registry with every LuaFunction wrapped in a timer ("api.NAME").
+ * - Latencies go into a log-linear histogram (8 sub-buckets per power of two, so a percentile is
+ *   within ~6% of the true value), striped by thread. Recording is two atomic adds on the caller's
+ *   stripe; it never locks or allocates.
+ * - dump() is a plain-text table (also metrics.dump() in scripts). JMX: one MXBean per timer under
+ *   "libraries.lua:type=Metrics,name=...", plus a control bean "libraries.lua:type=Metrics" with
+ *   Enabled, dump() and reset(). Registered when metrics are first enabled, or at startup with
+ *   -Dlua.metrics.jmx=true.
+ * - Spans slower than -Dlua.metrics.slowMillis (0 = never) are also logged at WARN under "lua.metrics".
+ *
+ * Example:
+ *   private static final Metrics.Timer SPAN = Metrics.timer("io.run");
+ *   long t0 = SPAN.start();
+ *   try { ... } catch (RuntimeException e) { SPAN.error(t0); throw e; } finally { SPAN.stop(t0); }
+ */
+public final class Metrics {
+
+    private Metrics() {}
+
+    /** What start() returns while metrics are off; stop() and error() ignore it. */
+    public static final long OFF = Long.MIN_VALUE;
+
+    private static final Log.Logger LOG = Log.logger("lua.metrics");
+    private static final ConcurrentHashMap<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final long SLOW_NANOS = Long.getLong("lua.metrics.slowMillis", 0) * 1_000_000L;
+    private static volatile boolean enabled;
+    private static volatile MBeanServer jmx;
+
+    static {
+        if (Boolean.getBoolean("lua.metrics.jmx")) registerJmx();
+        if (Boolean.getBoolean("lua.metrics")) setEnabled(true);
+    }
+
+    public static boolean isEnabled() { return enabled; }
+
+    /** Turn recording on or off; the registry is re-published with or without its timers. */
+    public static synchronized void setEnabled(boolean on) {
+        if (on) registerJmx();
+        enabled = on;
+        LuaAPIRegistry.instrument(on);
+    }
+
+    /** The timer for name, created on first use. Keep it in a static field. */
+    public static Timer timer(String name) {
+        Timer t = TIMERS.get(name);
+        if (t != null) return t;
+        t = TIMERS.computeIfAbsent(name, Timer::new);
+        MBeanServer server = jmx;
+        if (server != null) register(server, t);
+        return t;
+    }
+
+    /** Zero every timer. */
+    public static void reset() {
+        for (Timer t : TIMERS.values()) t.reset();
+    }
+
+    /** One line per timer that has seen calls, slowest total first. */
+    public static String dump() {
+        List<Timer> list = new ArrayList<>();
+        for (Timer t : TIMERS.values()) if (t.count() > 0) list.add(t);
+        list.sort((a, b) -> Long.compare(b.totalNanos(), a.totalNanos()));
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-24s %10s %7s %10s %10s %10s %10s %10s%n",
+                "name", "calls", "errors", "mean", "p50", "p90", "p99", "max"));
+        for (Timer t : list) {
+            long[] b = t.buckets();
+            long max = t.maxNanos();
+            sb.append(String.format(Locale.ROOT, "%-24s %10d %7d %10s %10s %10s %10s %10s%n", t.name, t.count(), t.errors(), time(t.meanNanos()),
+                    time(Math.min(max, percentile(b, 0.50))), time(Math.min(max, percentile(b, 0.90))), time(Math.min(max, percentile(b, 0.99))), time(max)));
+        }
+        if (list.isEmpty()) sb.append(enabled ? "(no calls recorded)\n" : "(metrics are off)\n");
+        return sb.toString();
+    }
+
+    private static String time(double nanos) {
+        if (nanos < 1_000) return String.format(Locale.ROOT, "%.0fns", nanos);
+        if (nanos < 1_000_000) return String.format(Locale.ROOT, "%.1fus", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format(Locale.ROOT, "%.1fms", nanos / 1e6);
+        return String.format(Locale.ROOT, "%.2fs", nanos / 1e9);
+    }
+
+    /* ---------------- Timers ---------------- */
+
+    // bucket i < 8 holds the value i; above that, each power of two [2^e, 2^(e+1)) is split into 8
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = ((43 - SUB_BITS + 1) << SUB_BITS) + SUB; // up to ~2^44 ns (4.9 hours)
+    private static final int STRIPE = BUCKETS + 1;
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1));
+
+    static int bucket(long v) {
+        if (v < SUB) return (int) Math.max(0, v);
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        int i = ((e - SUB_BITS + 1) << SUB_BITS) | (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+        return Math.min(i, BUCKETS - 1);
+    }
+
+    /** The middle of bucket i. */
+    static double bucketValue(int i) {
+        if (i < SUB) return i;
+        int e = (i >>> SUB_BITS) + SUB_BITS - 1;
+        long lo = (long) (SUB + (i & (SUB - 1))) << (e - SUB_BITS);
+        return lo + ((1L << (e - SUB_BITS)) - 1) / 2.0;
+    }
+
+    static double percentile(long[] buckets, double p) {
+        long total = 0;
+        for (long c : buckets) total += c;
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= Math.max(1, rank)) return bucketValue(i);
+        }
+        return bucketValue(buckets.length - 1);
+    }
+
+    /** Counts and latencies of one API or span. Thread-safe; recording is lock-free. */
+    public static final class Timer implements TimerMXBean {
+        final String name;
+        private final LongAdder errors = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        /** Per stripe: BUCKETS counts, then the total nanos. The call count is the sum of the counts. */
+        private final AtomicLongArray histogram = new AtomicLongArray(STRIPES * STRIPE);
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        public String name() { return name; }
+
+        /** A start time, or OFF while metrics are off. */
+        public long start() {
+            return enabled ? System.nanoTime() : OFF;
+        }
+
+        /** End a span begun with start(). */
+        public void stop(long start) {
+            if (start != OFF) record(System.nanoTime() - start);
+        }
+
+        /** Count the span begun with start() as failed (call stop() as well). */
+        public void error(long start) {
+            if (start != OFF) errors.increment();
+        }
+
+        /** Record one call that took nanos. */
+        public void record(long nanos) {
+            int at = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE;
+            histogram.getAndIncrement(at + bucket(nanos));
+            histogram.getAndAdd(at + BUCKETS, nanos);
+            max.accumulate(nanos);
+            if (SLOW_NANOS > 0 && nanos >= SLOW_NANOS) LOG.warn("slow %s: %.1f ms", name, nanos / 1e6);
+        }
+
+        /** Count one failed call without timing it. */
+        public void recordError() {
+            errors.increment();
+        }
+
+        long[] buckets() {
+            long[] b = new long[BUCKETS];
+            for (int s = 0; s < STRIPES; s++) {
+                for (int i = 0; i < BUCKETS; i++) b[i] += histogram.get(s * STRIPE + i);
+            }
+            return b;
+        }
+
+        void reset() {
+            errors.reset();
+            max.reset();
+            for (int i = 0; i < histogram.length(); i++) histogram.set(i, 0);
+        }
+
+        @Override public long getCount() { return count(); }
+        @Override public long getErrors() { return errors.sum(); }
+        @Override public double getMeanMicros() { return meanNanos() / 1e3; }
+        @Override public double getP50Micros() { return percentileNanos(0.50) / 1e3; }
+        @Override public double getP90Micros() { return percentileNanos(0.90) / 1e3; }
+        @Override public double getP99Micros() { return percentileNanos(0.99) / 1e3; }
+        @Override public double getP999Micros() { return percentileNanos(0.999) / 1e3; }
+        @Override public double getMaxMicros() { return maxNanos() / 1e3; }
+
+        public long count() {
+            long n = 0;
+            for (long c : buckets()) n += c;
+            return n;
+        }
+
+        public long totalNanos() {
+            long t = 0;
+            for (int s = 0; s < STRIPES; s++) t += histogram.get(s * STRIPE + BUCKETS);
+            return t;
+        }
+
+        public long errors() { return errors.sum(); }
+        public long maxNanos() { return max.get(); }
+        public double meanNanos() { long n = count(); return n == 0 ? 0 : (double) totalNanos() / n; }
+        /** The p-th quantile (0..1) of recorded latencies, in nanoseconds. */
+        public double percentileNanos(double p) { return Math.min(maxNanos(), percentile(buckets(), p)); }
+    }
+
+    /* ---------------- JMX ---------------- */
+
+    public interface TimerMXBean {
+        long getCount();
+        long getErrors();
+        double getMeanMicros();
+        double getP50Micros();
+        double getP90Micros();
+        double getP99Micros();
+        double getP999Micros();
+        double getMaxMicros();
+    }
+
+    public interface ControlMXBean {
+        boolean isEnabled();
+        void setEnabled(boolean on);
+        String dump();
+        void reset();
+    }
+
+    private static final class Control implements ControlMXBean {
+        @Override public boolean isEnabled() { return Metrics.isEnabled(); }
+        @Override public void setEnabled(boolean on) { Metrics.setEnabled(on); }
+        @Override public String dump() { return Metrics.dump(); }
+        @Override public void reset() { Metrics.reset(); }
+    }
+
+    private static synchronized void registerJmx() {
+        if (jmx != null) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName control = new ObjectName("libraries.lua:type=Metrics");
+            if (!server.isRegistered(control)) server.registerMBean(new Control(), control);
+            jmx = server;
+            for (Timer t : TIMERS.values()) register(server, t);
+        } catch (JMException | RuntimeException e) {
+            LOG.warn("JMX registration failed: %s", e.toString());
+        }
+    }
+
+    private static void register(MBeanServer server, Timer t) {
+        try {
+            ObjectName n = new ObjectName("libraries.lua:type=Metrics,name=" + ObjectName.quote(t.name));
+            if (!server.isRegistered(n)) server.registerMBean(t, n);
+        } catch (InstanceAlreadyExistsException e) {
+            // registered by a concurrent registerJmx()
+        } catch (JMException e) {
+            LOG.warn("JMX registration of %s failed: %s", t.name, e.toString());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package libraries.lua.com.lua;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+import libraries.lua.com.lua.Bindings.Call0;
+import libraries.lua.com.lua.Bindings.Call1;
+import libraries.lua.com.lua.Bindings.Run3;
+import libraries.lua.com.lua.Bindings.ToBoolean1;
+import libraries.lua.com.lua.Bindings.ToDouble1;
+import libraries.lua.com.lua.Bindings.ToLong1;
+
+import static libraries.lua.com.lua.Bindings.accessor;
+import static libraries.lua.com.lua.Bindings.bind;
+import static libraries.lua.com.lua.Bindings.getter;
+import static libraries.lua.com.lua.Bindings.method;
+import static libraries.lua.com.lua.Bindings.probe;
+
+/**
+ * Minecraft / Forge call sites, bound once through {@link Bindings} when this class loads.
+ * Each one is null when the running game (or its mappings) does not have it; outside Minecraft
+ * they are all null. Shared by the chat sender in {@link lua} and the Minecraft APIs in
+ * {@link LuaAPIRegistry}.
+ */
+final class MinecraftBindings {
+
+    private MinecraftBindings() {}
+
+    /* ---------------- Text components ---------------- */
+
+    static final Class<?> COMPONENT = probe("net.minecraft.network.chat.Component");
+    /** Component.literal(String) */
+    static final Call1 LITERAL = bind(Call1.class, method(COMPONENT, "literal", String.class));
+    /** component.getString() */
+    static final Call1 COMPONENT_TEXT = bind(Call1.class, method(COMPONENT, "getString"));
+
+    /* ---------------- Client ---------------- */
+
+    static final Class<?> MINECRAFT = probe("net.minecraft.client.Minecraft");
+    static final Call0 GET_INSTANCE = bind(Call0.class, method(MINECRAFT, "getInstance"));
+    /** minecraft.player (a field in current mappings), or player() / getPlayer() */
+    static final Call1 CLIENT_PLAYER = bind(Call1.class, firstNonNull(
+            accessor(MINECRAFT, "player"), method(MINECRAFT, "getPlayer")));
+    /** minecraft.level */
+    static final Call1 CLIENT_LEVEL = bind(Call1.class, accessor(MINECRAFT, "level"));
+    /** localPlayer.displayClientMessage(Component, boolean overlay) */
+    static final Run3 DISPLAY_CLIENT_MESSAGE = bind(Run3.class, method(
+            probe("net.minecraft.client.player.LocalPlayer"), "displayClientMessage", COMPONENT, boolean.class));
+
+    /* ---------------- Server ---------------- */
+
+    static final Class<?> SERVER_PLAYER = probe("net.minecraft.server.level.ServerPlayer");
+    static final Class<?> MINECRAFT_SERVER = probe("net.minecraft.server.MinecraftServer");
+    /** Forge: ServerLifecycleHooks.getCurrentServer() */
+    static final Call0 CURRENT_SERVER = bind(Call0.class, method(
+            probe("net.minecraftforge.server.ServerLifecycleHooks"), "getCurrentServer"));
+    /** Older servers: MinecraftServer.getServer() */
+    static final Call0 STATIC_SERVER = bind(Call0.class, method(MINECRAFT_SERVER, "getServer"));
+    /** server.broadcastSystemMessage(Component, UUID) */
+    static final Run3 SERVER_BROADCAST = bind(Run3.class, method(
+            MINECRAFT_SERVER, "broadcastSystemMessage", COMPONENT, UUID.class));
+    /** server.getPlayerList() */
+    static final Call1 PLAYER_LIST = bind(Call1.class, method(MINECRAFT_SERVER, "getPlayerList"));
+    /** playerList.broadcastSystemMessage(Component, UUID) */
+    static final Run3 PLAYER_LIST_BROADCAST = bind(Run3.class, method(
+            probe("net.minecraft.server.players.PlayerList"), "broadcastSystemMessage", COMPONENT, UUID.class));
+    /** server.overworld() */
+    static final Call1 OVERWORLD = bind(Call1.class, method(MINECRAFT_SERVER, "overworld"));
+
+    /* ---------------- Entities and levels ---------------- */
+
+    static final Class<?> ENTITY = probe("net.minecraft.world.entity.Entity");
+    static final ToDouble1 ENTITY_X = bind(ToDouble1.class, method(ENTITY, "getX"));
+    static final ToDouble1 ENTITY_Y = bind(ToDouble1.class, method(ENTITY, "getY"));
+    static final ToDouble1 ENTITY_Z = bind(ToDouble1.class, method(ENTITY, "getZ"));
+    static final Call1 ENTITY_NAME = bind(Call1.class, method(ENTITY, "getName"));
+    static final ToLong1 ENTITY_ID = bind(ToLong1.class, method(ENTITY, "getId"));
+    static final Class<?> LIVING_ENTITY = probe("net.minecraft.world.entity.LivingEntity");
+    static final ToDouble1 ENTITY_HEALTH = bind(ToDouble1.class, method(LIVING_ENTITY, "getHealth"));
+    static final Class<?> PLAYER = probe("net.minecraft.world.entity.player.Player");
+
+    static final Class<?> LEVEL = probe("net.minecraft.world.level.Level");
+    static final ToLong1 LEVEL_DAY_TIME = bind(ToLong1.class, method(LEVEL, "getDayTime"));
+    static final ToLong1 LEVEL_GAME_TIME = bind(ToLong1.class, method(LEVEL, "getGameTime"));
+    static final ToBoolean1 LEVEL_RAINING = bind(ToBoolean1.class, method(LEVEL, "isRaining"));
+    /** serverLevel.getAllEntities() */
+    static final Class<?> SERVER_LEVEL = probe("net.minecraft.server.level.ServerLevel");
+    static final Call1 SERVER_LEVEL_ENTITIES = bind(Call1.class, method(SERVER_LEVEL, "getAllEntities"));
+    /** clientLevel.entitiesForRendering() */
+    static final Class<?> CLIENT_LEVEL_TYPE = probe("net.minecraft.client.multiplayer.ClientLevel");
+    static final Call1 CLIENT_LEVEL_ENTITIES = bind(Call1.class, method(CLIENT_LEVEL_TYPE, "entitiesForRendering"));
+
+    /* ---------------- Tick hook ---------------- */
+
+    /** Forge: MinecraftForge.EVENT_BUS */
+    static final Call0 EVENT_BUS = bind(Call0.class, getter(probe("net.minecraftforge.common.MinecraftForge"), "EVENT_BUS"));
+    static final Class<?> EVENT_PRIORITY = probe("net.minecraftforge.eventbus.api.EventPriority");
+    /** bus.addListener(EventPriority, boolean receiveCancelled, Class<T>, Consumer<T>) */
+    static final java.lang.invoke.MethodHandle ADD_LISTENER = method(probe("net.minecraftforge.eventbus.api.IEventBus"),
+            "addListener", EVENT_PRIORITY, boolean.class, Class.class, Consumer.class);
+    static final Class<?> SERVER_TICK = probe("net.minecraftforge.event.TickEvent$ServerTickEvent");
+    static final Class<?> CLIENT_TICK = probe("net.minecraftforge.event.TickEvent$ClientTickEvent");
+    /** tickEvent.phase (START or END) */
+    static final Call1 TICK_PHASE = bind(Call1.class, getter(probe("net.minecraftforge.event.TickEvent"), "phase"));
+
+    /** Run r on the game thread at the end of every client (or server) tick; false without Forge's event bus. */
+    static boolean onTickEnd(boolean client, Runnable r) {
+        Class<?> event = client ? CLIENT_TICK : SERVER_TICK;
+        if (EVENT_BUS == null || ADD_LISTENER == null || event == null || TICK_PHASE == null) return false;
+        Object normal = null;
+        for (Object p : EVENT_PRIORITY.getEnumConstants()) if ("NORMAL".equals(String.valueOf(p))) normal = p;
+        Consumer<Object> listener = e -> {
+            if ("END".equals(String.valueOf(TICK_PHASE.call(e)))) r.run();
+        };
+        try {
+            ADD_LISTENER.invoke(EVENT_BUS.call(), normal, false, event, listener);
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /* ---------------- Instances ---------------- */
+
+    // Minecraft.getInstance() is a singleton: cache it once it exists
+    private static volatile Object minecraft;
+
+    static Object minecraft() {
+        Object mc = minecraft;
+        if (mc == null && GET_INSTANCE != null) minecraft = mc = GET_INSTANCE.call();
+        return mc;
+    }
+
+    /** The local player, or null (no client, or not in a world). */
+    static Object clientPlayer() {
+        Object mc = CLIENT_PLAYER != null ? minecraft() : null;
+        return mc != null ? CLIENT_PLAYER.call(mc) : null;
+    }
+
+    /** The running server, or null. The server changes between worlds, so it is not cached. */
+    static Object server() {
+        if (CURRENT_SERVER != null) return CURRENT_SERVER.call();
+        return STATIC_SERVER != null ? STATIC_SERVER.call() : null;
+    }
+
+    /** The client's level, else the server's overworld; null when there is no world. */
+    static Object level() {
+        Object mc = CLIENT_LEVEL != null ? minecraft() : null;
+        Object level = mc != null ? CLIENT_LEVEL.call(mc) : null;
+        if (level == null && OVERWORLD != null) {
+            Object server = server();
+            if (server != null) level = OVERWORLD.call(server);
+        }
+        return level;
+    }
+
+    private static java.lang.invoke.MethodHandle firstNonNull(java.lang.invoke.MethodHandle... handles) {
+        for (java.lang.invoke.MethodHandle h : handles) if (h != null) return h;
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+package libraries.lua.com.lua;
+
+/**
+ * The running game's level as a {@link WorldAdapter}: every entity of the client's level (else
+ * the server's overworld), read through {@link MinecraftBindings}. Health is read for living
+ * entities only.
+ */
+final class MinecraftWorldAdapter implements WorldAdapter {
+
+    private MinecraftWorldAdapter() {}
+
+    /** This adapter, or WorldAdapter.NONE when the game (or its entity bindings) is not there. */
+    static WorldAdapter createOrNone() {
+        boolean canList = MinecraftBindings.SERVER_LEVEL_ENTITIES != null || MinecraftBindings.CLIENT_LEVEL_ENTITIES != null;
+        boolean canRead = MinecraftBindings.ENTITY_X != null && MinecraftBindings.ENTITY_Y != null
+                && MinecraftBindings.ENTITY_Z != null;
+        return canList && canRead ? new MinecraftWorldAdapter() : NONE;
+    }
+
+    /**
+     * Refresh WorldCache at the end of every tick of the side whose level this adapter reads
+     * (the client's if there is one), so entities are only read on that side's thread.
+     * False when the game has no tick hook we can use.
+     */
+    static boolean driveFromTick() {
+        return MinecraftBindings.onTickEnd(MinecraftBindings.minecraft() != null, WorldCache::tick);
+    }
+
+    @Override
+    public void forEachEntity(EntitySink sink) {
+        Object level = MinecraftBindings.level();
+        Iterable<?> entities = level != null ? entities(level) : null;
+        if (entities == null) return;
+        for (Object e : entities) {
+            if (e == null) continue;
+            boolean living = MinecraftBindings.LIVING_ENTITY != null && MinecraftBindings.LIVING_ENTITY.isInstance(e);
+            sink.entity(
+                    MinecraftBindings.ENTITY_ID != null ? MinecraftBindings.ENTITY_ID.call(e) : System.identityHashCode(e),
+                    name(e),
+                    MinecraftBindings.PLAYER != null && MinecraftBindings.PLAYER.isInstance(e),
+                    MinecraftBindings.ENTITY_X.call(e),
+                    MinecraftBindings.ENTITY_Y.call(e),
+                    MinecraftBindings.ENTITY_Z.call(e),
+                    living && MinecraftBindings.ENTITY_HEALTH != null ? MinecraftBindings.ENTITY_HEALTH.call(e) : 0);
+        }
+    }
+
+    private static Iterable<?> entities(Object level) {
+        if (MinecraftBindings.CLIENT_LEVEL_ENTITIES != null && MinecraftBindings.CLIENT_LEVEL_TYPE.isInstance(level)) {
+            return (Iterable<?>) MinecraftBindings.CLIENT_LEVEL_ENTITIES.call(level);
+        }
+        if (MinecraftBindings.SERVER_LEVEL_ENTITIES != null && MinecraftBindings.SERVER_LEVEL.isInstance(level)) {
+            return (Iterable<?>) MinecraftBindings.SERVER_LEVEL_ENTITIES.call(level);
+        }
+        return null;
+    }
+
+    private static String name(Object e) {
+        if (MinecraftBindings.ENTITY_NAME == null) return null;
+        Object name = MinecraftBindings.ENTITY_NAME.call(e);
+        return MinecraftBindings.COMPONENT_TEXT != null ? (String) MinecraftBindings.COMPONENT_TEXT.call(name) : String.valueOf(name);
+    }
+}
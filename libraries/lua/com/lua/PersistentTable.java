@@ -0,0 +1,532 @@
+package libraries.lua.com.lua;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A table whose contents live in a memory-mapped file and survive restarts.
+ *
+ * - Keys are strings, numbers and booleans; values are nil, booleans, numbers, strings and nested
+ *   lua.tables (stored by value: change a nested table, then set it again to persist the change).
+ * - Every set appends one record (length, CRC32, key, value) to the file; nothing is rewritten in
+ *   place. compact() rewrites the live records followed by an index sorted by key hash; it runs by
+ *   itself once -Dlua.storage.compactBytes (1 MiB) have been appended since the last compaction and
+ *   over half the file is overwritten or removed records.
+ * - Opening is lazy: it maps the file, reads the header and replays only the records appended
+ *   since the last compaction. Other keys are found by binary search of the mapped index and
+ *   decoded the first time they are read, so startup does not grow with the table.
+ * - Writes reach the OS page cache at once (they survive a crash of the JVM); flush() forces them
+ *   to disk. A torn record at the end of the file (power loss) fails its checksum and is ignored.
+ * - One file is at most 1 GiB. Not thread-safe, like lua.table.
+ * - Scripts index it like a table (t.coins = t.coins + 1); it has no methods of its own there, see
+ *   the "storage" API in {@link LuaAPIRegistry}.
+ *
+ * Example:
+ *   PersistentTable t = PersistentTable.open(Path.of("lua-data/steve.tbl"));
+ *   t.set("coins", 10L);
+ *   long coins = t.getLong("coins", 0);
+ */
+public final class PersistentTable implements lua.Indexable, Closeable {
+
+    private static final int MAGIC = 0x4C54424C; // "LTBL"
+    private static final int VERSION = 1;
+    // header: magic, version, index offset (long), index entries (int), log start (long)
+    private static final int HEADER = 28;
+    private static final int INDEX_ENTRY = 16; // key hash, record offset
+    private static final long MAX_BYTES = 1L << 30;
+
+    // value encoding
+    private static final byte T_NIL = 0, T_FALSE = 1, T_TRUE = 2, T_LONG = 3, T_DOUBLE = 4, T_STRING = 5, T_TABLE = 6;
+
+    private static final long COMPACT_BYTES = Long.getLong("lua.storage.compactBytes", 1 << 20);
+    private static final long DELETED = -1;
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private long indexOffset;
+    private int indexCount;
+    private long logStart;
+    private int end;                                             // where the next record goes
+
+    /** Records since the last compaction: key -> record offset, or DELETED. */
+    private final HashMap<Object, Long> overlay = new HashMap<>();
+    /** Values already decoded (null values are not cached). */
+    private final HashMap<Object, Object> cache = new HashMap<>();
+    private int live;
+    private long liveBytes;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+
+    private PersistentTable(Path path) {
+        this.path = path;
+    }
+
+    /** Open (or create) the table stored at file. */
+    public static PersistentTable open(Path file) throws IOException {
+        PersistentTable t = new PersistentTable(file);
+        t.load();
+        return t;
+    }
+
+    public Path path() { return path; }
+
+    /* ---------------- Reads ---------------- */
+
+    public Object get(Object key) {
+        Object k = normalize(key);
+        Object v = cache.get(k);
+        if (v != null) return v;
+        long at = locate(k);
+        if (at < 0) return null;
+        v = readValue(at);
+        if (v != null) cache.put(k, v);
+        return v;
+    }
+
+    public boolean contains(Object key) {
+        return locate(normalize(key)) >= 0;
+    }
+
+    public double getNumber(Object key, double def) {
+        Object v = get(key);
+        return v instanceof Number ? ((Number) v).doubleValue() : def;
+    }
+
+    public long getLong(Object key, long def) {
+        Object v = get(key);
+        return v instanceof Number ? ((Number) v).longValue() : def;
+    }
+
+    public String getString(Object key) {
+        Object v = get(key);
+        return v instanceof String ? (String) v : null;
+    }
+
+    /** Number of non-nil entries. */
+    public int size() { return live; }
+
+    /** Every key (this reads the whole index). */
+    public List<Object> keys() {
+        List<Object> out = new ArrayList<>(live);
+        for (int i = 0; i < indexCount; i++) {
+            long rec = map.getLong((int) (indexOffset + (long) i * INDEX_ENTRY + 8));
+            Object k = readKey(rec);
+            if (!overlay.containsKey(k)) out.add(k);
+        }
+        for (Map.Entry<Object, Long> e : overlay.entrySet()) if (e.getValue() != DELETED) out.add(e.getKey());
+        return out;
+    }
+
+    /** A heap copy of the whole table. */
+    public lua.table toTable() {
+        List<Object> keys = keys();
+        lua.table t = new lua.table(0, keys.size());
+        for (Object k : keys) t.set(k, get(k));
+        return t;
+    }
+
+    @Override public Object index(Object key) { return get(key); }
+    @Override public void newindex(Object key, Object value) { set(key, value); }
+
+    /* ---------------- Writes ---------------- */
+
+    /** t[key] = value; nil removes the key. */
+    public void set(Object key, Object value) {
+        Object k = normalize(key);
+        long old = locate(k);
+        if (value == null && old < 0) return;
+        ByteBuffer b = encodeRecord(k, value);
+        int len = b.remaining();
+        ensureRoom(len);
+        int at = end;
+        map.put(at, b, 0, len);
+        end += len;
+        overlay.put(k, value == null ? DELETED : (long) at);
+        if (old >= 0) liveBytes -= map.getInt((int) old);
+        if (value == null) live--;
+        else if (old < 0) live++;
+        if (value != null) liveBytes += len;
+        // tables are cached as read back, so a later change to the caller's table is not visible
+        if (value == null || value instanceof lua.table) cache.remove(k);
+        else cache.put(k, normalizeValue(value));
+        if (end - logStart > COMPACT_BYTES && garbageBytes() > liveBytes) {
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+    }
+
+    public void remove(Object key) { set(key, null); }
+
+    /** Force written records to disk. */
+    public void flush() {
+        map.force();
+    }
+
+    @Override public void close() throws IOException {
+        if (channel == null) return;
+        map.force();
+        try {
+            channel.truncate(end);
+        } catch (IOException ignored) {
+            // still mapped on some platforms; the zero tail is skipped on open
+        }
+        channel.close();
+        channel = null;
+        map = null;
+        cache.clear();
+        overlay.clear();
+    }
+
+    /** Bytes in use in the file, and how many of them hold overwritten or removed records. */
+    public long fileBytes() { return end; }
+    public long garbageBytes() { return end - HEADER - (long) indexCount * INDEX_ENTRY - liveBytes; }
+
+    /* ---------------- Opening ---------------- */
+
+    private void load() throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > MAX_BYTES) throw new IOException(path + " is larger than " + MAX_BYTES + " bytes");
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, 4096));
+        if (size < HEADER || map.getInt(0) != MAGIC) {
+            if (size >= HEADER && map.getInt(0) != 0) throw new IOException(path + " is not a table file");
+            writeHeader(map, HEADER, 0, HEADER);
+            indexOffset = HEADER;
+            indexCount = 0;
+            logStart = HEADER;
+            end = HEADER;
+            return;
+        }
+        if (map.getInt(4) != VERSION) throw new IOException(path + ": unsupported version " + map.getInt(4));
+        indexOffset = map.getLong(8);
+        indexCount = map.getInt(16);
+        logStart = map.getLong(20);
+        live = indexCount;
+        liveBytes = indexOffset - HEADER;
+        // replay the log since the last compaction; stop at the first empty or torn record
+        int at = (int) logStart;
+        while (at + 8 <= size) {
+            int len = map.getInt(at);
+            if (len < 9 || at + len > size || !checksumOk(at, len)) break;
+            Object k = readKey(at);
+            long old = locate(k);
+            boolean isDelete = map.get(valueOffset(at)) == T_NIL;
+            overlay.put(k, isDelete ? DELETED : (long) at);
+            if (old >= 0) liveBytes -= map.getInt((int) old);
+            if (isDelete && old >= 0) live--;
+            else if (!isDelete && old < 0) live++;
+            if (!isDelete) liveBytes += len;
+            at += len;
+        }
+        end = at;
+    }
+
+    private static void writeHeader(ByteBuffer b, long indexOffset, int indexCount, long logStart) {
+        b.putInt(0, MAGIC);
+        b.putInt(4, VERSION);
+        b.putLong(8, indexOffset);
+        b.putInt(16, indexCount);
+        b.putLong(20, logStart);
+    }
+
+    /* ---------------- Lookup ---------------- */
+
+    /** The offset of key's current record, or -1 if it has none (or was removed). */
+    private long locate(Object k) {
+        Long o = overlay.get(k);
+        if (o != null) return o;
+        if (indexCount == 0) return -1;
+        long h = hash(k);
+        int lo = 0, hi = indexCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long mh = map.getLong((int) (indexOffset + (long) mid * INDEX_ENTRY));
+            if (mh < h) lo = mid + 1;
+            else if (mh > h) hi = mid - 1;
+            else {
+                // equal hashes are adjacent: scan both ways for the key itself
+                for (int i = mid; i >= 0 && entryHash(i) == h; i--) if (k.equals(readKey(entryRecord(i)))) return entryRecord(i);
+                for (int i = mid + 1; i < indexCount && entryHash(i) == h; i++) if (k.equals(readKey(entryRecord(i)))) return entryRecord(i);
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private long entryHash(int i) { return map.getLong((int) (indexOffset + (long) i * INDEX_ENTRY)); }
+    private long entryRecord(int i) { return map.getLong((int) (indexOffset + (long) i * INDEX_ENTRY + 8)); }
+
+    /** 64-bit hash of a normalized key (stable across runs: never uses hashCode of the JVM). */
+    private static long hash(Object k) {
+        long h;
+        if (k instanceof String) {
+            String s = (String) k;
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        } else if (k instanceof Long) {
+            h = (Long) k * 0x9E3779B97F4A7C15L + 1;
+        } else if (k instanceof Double) {
+            h = Double.doubleToLongBits((Double) k) * 0xC2B2AE3D27D4EB4FL + 2;
+        } else {
+            h = ((Boolean) k) ? 3 : 4;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        return h ^ (h >>> 33);
+    }
+
+    /* ---------------- Records ---------------- */
+
+    // record: int length (whole record), int crc32 (of the rest), key, value
+
+    private boolean checksumOk(int at, int len) {
+        crc.reset();
+        ByteBuffer b = map.duplicate();
+        b.limit(at + len).position(at + 8);
+        crc.update(b);
+        return (int) crc.getValue() == map.getInt(at + 4);
+    }
+
+    private Object readKey(long rec) {
+        ByteBuffer b = map.duplicate();
+        b.position((int) rec + 8);
+        return readValue(b);
+    }
+
+    private Object readValue(long rec) {
+        ByteBuffer b = map.duplicate();
+        b.position(valueOffset((int) rec));
+        return readValue(b);
+    }
+
+    private int valueOffset(int rec) {
+        ByteBuffer b = map.duplicate();
+        b.position(rec + 8);
+        skip(b);
+        return b.position();
+    }
+
+    private ByteBuffer encodeRecord(Object k, Object v) {
+        ByteBuffer b = scratch;
+        while (true) {
+            try {
+                b.clear();
+                b.position(8);
+                write(b, k, 0);
+                write(b, v, 0);
+                break;
+            } catch (java.nio.BufferOverflowException e) {
+                b = scratch = ByteBuffer.allocate(b.capacity() * 2);
+            }
+        }
+        int len = b.position();
+        b.putInt(0, len);
+        crc.reset();
+        b.flip().position(8);
+        crc.update(b);
+        b.putInt(4, (int) crc.getValue());
+        b.position(0);
+        return b;
+    }
+
+    private static void write(ByteBuffer b, Object v, int depth) {
+        if (v == null) b.put(T_NIL);
+        else if (v instanceof Boolean) b.put((Boolean) v ? T_TRUE : T_FALSE);
+        else if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) b.put(T_LONG).putLong(((Number) v).longValue());
+        else if (v instanceof Number) {
+            double d = ((Number) v).doubleValue();
+            long l = (long) d;
+            if (l == d && l != Long.MAX_VALUE && !(d == 0 && 1 / d < 0)) b.put(T_LONG).putLong(l);
+            else b.put(T_DOUBLE).putDouble(d);
+        } else if (v instanceof CharSequence) {
+            byte[] s = v.toString().getBytes(StandardCharsets.UTF_8);
+            b.put(T_STRING);
+            putVarint(b, s.length);
+            b.put(s);
+        } else if (v instanceof lua.table) {
+            if (depth > 100) throw new IllegalArgumentException("table nested too deep (or cyclic) to persist");
+            lua.table t = (lua.table) v;
+            b.put(T_TABLE);
+            putVarint(b, t.size());
+            for (int p = t.next(-1); p >= 0; p = t.next(p)) {
+                write(b, t.keyAt(p), depth + 1);
+                write(b, t.valueAt(p), depth + 1);
+            }
+        } else {
+            throw new IllegalArgumentException("cannot persist a value of type " + v.getClass().getSimpleName());
+        }
+    }
+
+    private static Object readValue(ByteBuffer b) {
+        byte tag = b.get();
+        switch (tag) {
+            case T_NIL: return null;
+            case T_FALSE: return Boolean.FALSE;
+            case T_TRUE: return Boolean.TRUE;
+            case T_LONG: return b.getLong();
+            case T_DOUBLE: return b.getDouble();
+            case T_STRING: {
+                int n = getVarint(b);
+                return new String(bytes(b, n), StandardCharsets.UTF_8);
+            }
+            case T_TABLE: {
+                int n = getVarint(b);
+                lua.table t = new lua.table(0, n);
+                for (int i = 0; i < n; i++) {
+                    Object k = readValue(b);
+                    t.set(k, readValue(b));
+                }
+                return t;
+            }
+            default: throw new IllegalStateException("corrupt record (tag " + tag + ")");
+        }
+    }
+
+    private static byte[] bytes(ByteBuffer b, int n) {
+        byte[] out = new byte[n];
+        b.get(out);
+        return out;
+    }
+
+    private static void skip(ByteBuffer b) {
+        byte tag = b.get();
+        switch (tag) {
+            case T_LONG:
+            case T_DOUBLE: b.position(b.position() + 8); break;
+            case T_STRING: { int n = getVarint(b); b.position(b.position() + n); break; }
+            case T_TABLE: { int n = getVarint(b); for (int i = 0; i < 2 * n; i++) skip(b); break; }
+            default: break;
+        }
+    }
+
+    private static void putVarint(ByteBuffer b, int v) {
+        while ((v & ~0x7F) != 0) {
+            b.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        b.put((byte) v);
+    }
+
+    private static int getVarint(ByteBuffer b) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte x = b.get();
+            v |= (x & 0x7F) << shift;
+            if (x >= 0) return v;
+        }
+    }
+
+    /** The key as stored: integral numbers become Long, other numbers Double. */
+    private static Object normalize(Object key) {
+        if (key == null) throw new IllegalArgumentException("table index is nil");
+        if (key instanceof String || key instanceof Boolean) return key;
+        if (key instanceof Number) {
+            double d = ((Number) key).doubleValue();
+            if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) return ((Number) key).longValue();
+            if (d != d) throw new IllegalArgumentException("table index is NaN");
+            long l = (long) d;
+            return l == d && l != Long.MAX_VALUE ? (Object) l : (Object) d;
+        }
+        if (key instanceof CharSequence) return key.toString();
+        throw new IllegalArgumentException("cannot persist a key of type " + key.getClass().getSimpleName());
+    }
+
+    /** The value as get() will return it after a restart. */
+    private static Object normalizeValue(Object v) {
+        if (v instanceof Number || v instanceof CharSequence) {
+            ByteBuffer b = ByteBuffer.allocate(16 + (v instanceof CharSequence ? 4 * ((CharSequence) v).length() : 0));
+            write(b, v, 0);
+            b.flip();
+            return readValue(b);
+        }
+        return v;
+    }
+
+    /* ---------------- Space ---------------- */
+
+    private void ensureRoom(int len) {
+        if (end + (long) len <= map.capacity()) return;
+        long need = (long) end + len;
+        if (need > MAX_BYTES) throw new IllegalStateException(path + ": table file would exceed " + MAX_BYTES + " bytes");
+        long cap = Math.min(MAX_BYTES, Math.max(need, map.capacity() * 2L));
+        try {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, cap);
+        } catch (IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Rewrite the file as its live records followed by a fresh index, then swap it in. Values are
+     * copied as bytes, never decoded.
+     */
+    public void compact() throws IOException {
+        List<Object> keys = keys();
+        long[] recs = new long[keys.size()];
+        long[] hashes = new long[keys.size()];
+        long bytes = HEADER;
+        for (int i = 0; i < recs.length; i++) {
+            Object k = keys.get(i);
+            recs[i] = locate(k);
+            hashes[i] = hash(k);
+            bytes += map.getInt((int) recs[i]);
+        }
+        long indexAt = bytes;
+        bytes += (long) recs.length * INDEX_ENTRY;
+        if (bytes > MAX_BYTES) throw new IOException(path + ": compacted table would exceed " + MAX_BYTES + " bytes");
+
+        // sort record positions by key hash
+        Integer[] order = new Integer[recs.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        java.util.Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer m = out.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(bytes, 4096));
+            writeHeader(m, indexAt, recs.length, bytes);
+            int at = HEADER;
+            long[] moved = new long[recs.length];
+            for (int i : order) {
+                int len = map.getInt((int) recs[i]);
+                ByteBuffer src = map.duplicate();
+                src.limit((int) recs[i] + len).position((int) recs[i]);
+                m.put(at, src, src.position(), len);
+                moved[i] = at;
+                at += len;
+            }
+            int ix = (int) indexAt;
+            for (int i : order) {
+                m.putLong(ix, hashes[i]);
+                m.putLong(ix + 8, moved[i]);
+                ix += INDEX_ENTRY;
+            }
+            m.force();
+        }
+        channel.close();
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        overlay.clear();
+        cache.clear();
+        live = 0;
+        liveBytes = 0;
+        load();
+    }
+}
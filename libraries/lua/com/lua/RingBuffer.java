@@ -0,0 +1,84 @@
+package libraries.lua.com.lua;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue (Vyukov's array queue).
+ *
+ * - Any number of threads may offer; each slot carries a sequence number, so producers never
+ *   block one another and a full queue is detected without locking.
+ * - Used as an MPSC queue: one drainer polls. poll() is also safe from producers, which is what
+ *   a drop-oldest policy does when the queue is full.
+ * - Capacity is rounded up to a power of two.
+ */
+final class RingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLongArray sequence;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    RingBuffer(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = cap - 1;
+        items = new AtomicReferenceArray<>(cap);
+        sequence = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; i++) sequence.set(i, i);
+    }
+
+    /** Enqueue e; false if the queue is full. */
+    boolean offer(E e) {
+        long pos = tail.get();
+        for (;;) {
+            int i = (int) (pos & mask);
+            long diff = sequence.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(i, e);
+                    sequence.set(i, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /** Dequeue the oldest element, or null if the queue is empty. */
+    E poll() {
+        long pos = head.get();
+        for (;;) {
+            int i = (int) (pos & mask);
+            long diff = sequence.get(i) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = items.get(i);
+                    items.lazySet(i, null);
+                    sequence.set(i, pos + mask + 1);
+                    return e;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /** Approximate number of queued elements. */
+    int size() {
+        long n = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(n, mask + 1));
+    }
+
+    boolean isEmpty() { return size() == 0; }
+
+    int capacity() { return mask + 1; }
+}
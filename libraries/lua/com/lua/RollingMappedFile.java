@@ -0,0 +1,152 @@
+package libraries.lua.com.lua;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only text log in fixed-size memory-mapped segments: prefix-000001.log, prefix-000002.log, ...
+ *
+ * - Text is encoded (UTF-8) straight into the mapping; there is no write() syscall per batch, and
+ *   the OS writes the pages back (they survive a crash of the JVM, not of the machine).
+ * - A segment is only ever appended to. When a batch does not fit, the segment ends after its last
+ *   complete line, is truncated to what was written and the next one is mapped; segments are never
+ *   renamed, so readers can follow the newest file.
+ * - Only the newest keep segments are kept. Not thread-safe: {@link Log} writes under its drain lock.
+ */
+final class RollingMappedFile {
+
+    private final Path dir;
+    private final String prefix;
+    private final long segmentBytes;
+    private final int keep;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    private int index;
+    private Path path;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+
+    RollingMappedFile(Path dir, String prefix, long segmentBytes, int keep) throws IOException {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.segmentBytes = Math.max(4096, Math.min(segmentBytes, Integer.MAX_VALUE));
+        this.keep = Math.max(1, keep);
+        Files.createDirectories(dir);
+        for (Path p : segments()) index = Math.max(index, indexOf(p));
+        roll();
+    }
+
+    Path current() { return path; }
+
+    /** Append text, which should end with a newline. */
+    void write(CharSequence text) throws IOException {
+        CharBuffer in = CharBuffer.wrap(text);
+        encoder.reset();
+        int fromChar = 0, fromByte = map.position();
+        while (true) {
+            CoderResult r = encoder.encode(in, map, true);
+            if (r.isUnderflow()) {
+                encoder.flush(map);
+                return;
+            }
+            if (!r.isOverflow()) r.throwException();
+            backUpToLine(in, fromChar, fromByte);
+            roll();
+            fromChar = in.position();
+            fromByte = 0;
+        }
+    }
+
+    /**
+     * After an overflow: unwrite the partial last line, unless it is all the segment holds.
+     * map[fromByte ..] holds what was encoded of in[fromChar ..].
+     */
+    private void backUpToLine(CharBuffer in, int fromChar, int fromByte) {
+        int bytes = map.position();
+        int b = bytes - 1;
+        while (b >= fromByte && map.get(b) != '\n') b--;
+        int c = in.position() - 1;
+        while (c >= fromChar && in.get(c) != '\n') c--;
+        if (c < fromChar) {
+            // the partial line is this write's first: move it whole if the segment ends on a line before it
+            if (fromByte == 0 || map.get(fromByte - 1) != '\n') return;
+            b = fromByte - 1;
+            c = fromChar - 1;
+        }
+        for (int i = b + 1; i < bytes; i++) map.put(i, (byte) 0);
+        map.position(b + 1);
+        in.position(c + 1);
+    }
+
+    private void roll() throws IOException {
+        closeSegment();
+        index++;
+        path = dir.resolve(String.format("%s-%06d.log", prefix, index));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        prune();
+    }
+
+    private void closeSegment() {
+        if (channel == null) return;
+        try {
+            channel.truncate(map.position());
+        } catch (IOException ignored) {
+            // some platforms refuse to truncate a mapped file; the tail stays zero-filled
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing left to write
+        }
+        channel = null;
+        map = null;
+    }
+
+    void close() {
+        closeSegment();
+    }
+
+    private void prune() {
+        List<Path> all = segments();
+        all.sort((a, b) -> Integer.compare(indexOf(a), indexOf(b)));
+        for (int i = 0; i < all.size() - keep; i++) {
+            try {
+                Files.deleteIfExists(all.get(i));
+            } catch (IOException ignored) {
+                // still mapped elsewhere (Windows); retried on the next roll
+            }
+        }
+    }
+
+    private List<Path> segments() {
+        List<Path> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "-*.log")) {
+            for (Path p : ds) if (indexOf(p) > 0) out.add(p);
+        } catch (IOException ignored) {
+            // nothing to list
+        }
+        return out;
+    }
+
+    private int indexOf(Path p) {
+        String name = p.getFileName().toString();
+        String digits = name.substring(prefix.length() + 1, name.length() - 4);
+        try {
+            return Integer.parseInt(digits);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
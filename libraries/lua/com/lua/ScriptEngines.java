@@ -0,0 +1,273 @@
+package libraries.lua.com.lua;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.script.*;
+
+/**
+ * Pooled, thread-confined script engines backing io.eval / io.compile.
+ *
+ * - The ScriptEngineManager (engine discovery) is created once per class loader.
+ * - Each thread gets its own engine; engines are never shared across threads, so
+ *   engines that are not thread-safe (most of them) are safe to use from any script thread.
+ * - Each thread keeps a bounded LRU cache of CompiledScript objects keyed by script source.
+ * - Every evaluation gets a fresh engine scope: the engine and compilations are reused, globals
+ *   are not.
+ * - With a timeout (-Dlua.io.evalTimeoutMillis, default 0 = none) io.eval runs on a fixed set of
+ *   long-lived daemon threads, never on the io workers io.run needs, and is abandoned, interrupted,
+ *   once the deadline passes; time spent queued counts against it. Engines cannot be stopped from
+ *   outside, so a script that ignores the interrupt keeps its thread until it ends; while
+ *   -Dlua.io.evalMaxRunaway (default 4) such evals are still running, further timed evals are refused.
+ * - The eval threads are -Dlua.io.evalThreads (default 2) plus evalMaxRunaway, so runaways cannot
+ *   take the threads the others need. Each has its own engine and cache like any thread: a timed
+ *   script compiles at most once per eval thread, and the set never shrinks, so those caches stay warm.
+ */
+public final class ScriptEngines {
+
+    private ScriptEngines() {}
+
+    /** Default number of compiled scripts kept per thread. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static volatile int cacheSize = DEFAULT_CACHE_SIZE;
+    private static volatile long timeoutMillis = Long.getLong("lua.io.evalTimeoutMillis", 0);
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+    private static final LongAdder TIMEOUTS = new LongAdder();
+
+    private static final ThreadLocal<EngineSlot> SLOT = ThreadLocal.withInitial(EngineSlot::new);
+
+    private static final int MAX_RUNAWAY = Math.max(1, Integer.getInteger("lua.io.evalMaxRunaway", 4));
+    static final int EVAL_THREADS = Math.max(1, Integer.getInteger("lua.io.evalThreads", 2)) + MAX_RUNAWAY;
+    /** Threads for timed evals: started on demand up to EVAL_THREADS, then kept for good. */
+    private static final ExecutorService EVAL_POOL = evalPool();
+    /** Timed-out evals whose thread is still running. */
+    private static final AtomicInteger RUNAWAY = new AtomicInteger();
+
+    private static ExecutorService evalPool() {
+        AtomicInteger ids = new AtomicInteger();
+        return new ThreadPoolExecutor(EVAL_THREADS, EVAL_THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "lua-eval-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /** Lazily discovered engine factory, shared by all threads. */
+    private static final class Discovery {
+        static final ScriptEngineFactory FACTORY = findFactory();
+
+        private static ScriptEngineFactory findFactory() {
+            ScriptEngineManager mgr = new ScriptEngineManager();
+            // Prefer "js" engines
+            ScriptEngine engine = mgr.getEngineByName("js");
+            if (engine == null) engine = mgr.getEngineByName("JavaScript");
+            return engine != null ? engine.getFactory() : null;
+        }
+    }
+
+    /** One engine and its compiled-script cache, confined to a single thread. */
+    private static final class EngineSlot {
+        final ScriptEngine engine;
+        final Compilable compiler;
+        final LinkedHashMap<String, CompiledScript> cache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                if (size() > cacheSize) {
+                    EVICTIONS.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        EngineSlot() {
+            ScriptEngineFactory f = Discovery.FACTORY;
+            engine = f != null ? f.getScriptEngine() : null;
+            compiler = engine instanceof Compilable ? (Compilable) engine : null;
+        }
+
+        /** Returns the compiled form of src, or null if the engine cannot compile. */
+        CompiledScript compiled(String src) throws ScriptException {
+            if (compiler == null) return null;
+            CompiledScript cs = cache.get(src);
+            if (cs != null) {
+                HITS.increment();
+                return cs;
+            }
+            MISSES.increment();
+            cs = compiler.compile(src);
+            cache.put(src, cs);
+            // removeEldestEntry drops one entry per insert; after setCacheSize shrank the cache,
+            // bring it down to the new size
+            for (var it = cache.keySet().iterator(); cache.size() > cacheSize && it.hasNext(); ) {
+                it.next();
+                it.remove();
+                EVICTIONS.increment();
+            }
+            return cs;
+        }
+    }
+
+    /* ---------------- Public API ---------------- */
+
+    /** True if a JS script engine was found on this runtime. */
+    public static boolean available() {
+        return Discovery.FACTORY != null;
+    }
+
+    /**
+     * Evaluate src on the calling thread's engine, reusing a cached compilation if present.
+     * Throws IllegalStateException when no engine is available.
+     */
+    public static Object eval(String src) throws ScriptException {
+        return eval(src, null);
+    }
+
+    /**
+     * Evaluate src with the given variables (may be null) bound in a fresh engine scope, so globals
+     * set by one call never reach the next one, as with an engine per call.
+     */
+    public static Object eval(String src, Map<String, Object> bindings) throws ScriptException {
+        EngineSlot slot = slot();
+        CompiledScript cs = slot.compiled(src);
+        javax.script.Bindings scope = scope(bindings);
+        return cs != null ? cs.eval(scope) : slot.engine.eval(src, scope);
+    }
+
+    /** A new scope seeded with a copy of bindings: what a script assigns never reaches the caller's map. */
+    private static javax.script.Bindings scope(Map<String, Object> bindings) {
+        return bindings == null ? new SimpleBindings() : new SimpleBindings(new HashMap<>(bindings));
+    }
+
+    /**
+     * eval(src) under the io.eval deadline (see setTimeoutMillis); without one, on the calling thread.
+     * Throws TimeoutException once it passes, and IllegalStateException while lua.io.evalMaxRunaway
+     * timed-out evals are still running.
+     */
+    public static Object evalWithDeadline(String src) throws ScriptException, TimeoutException, InterruptedException {
+        long ms = timeoutMillis;
+        if (ms <= 0) return eval(src);
+        if (RUNAWAY.get() >= MAX_RUNAWAY) {
+            throw new IllegalStateException(RUNAWAY.get() + " timed-out evals are still running; try again later");
+        }
+        // 0 not started, 1 running, 2 finished, 3 abandoned at the deadline; an abandoned eval
+        // that is still running counts in RUNAWAY until it ends
+        AtomicInteger state = new AtomicInteger();
+        Future<Object> f = EVAL_POOL.submit(() -> {
+            if (!state.compareAndSet(0, 1)) return null;
+            try {
+                return eval(src);
+            } finally {
+                if (!state.compareAndSet(1, 2)) RUNAWAY.decrementAndGet();
+            }
+        });
+        try {
+            return f.get(ms, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (state.compareAndSet(1, 3)) RUNAWAY.incrementAndGet();
+            else state.compareAndSet(0, 3);
+            f.cancel(true);
+            TIMEOUTS.increment();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof ScriptException) throw (ScriptException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IllegalStateException(c);
+        }
+    }
+
+    /**
+     * Precompile src and return a reusable handle. Compilation happens eagerly on the
+     * calling thread so syntax errors surface here rather than on first call.
+     */
+    public static CompiledChunk compile(String src) throws ScriptException {
+        EngineSlot slot = slot();
+        return new CompiledChunk(src, Thread.currentThread(), slot.compiled(src));
+    }
+
+    private static EngineSlot slot() {
+        EngineSlot slot = SLOT.get();
+        if (slot.engine == null) throw new IllegalStateException("No script engine available");
+        return slot;
+    }
+
+    /**
+     * Handle returned by io.compile. Calling it from the thread that compiled it reuses the
+     * compiled script directly; other threads go through their own engine and cache.
+     */
+    public static final class CompiledChunk {
+        private final String source;
+        private final Thread owner;
+        private final CompiledScript script;
+
+        private CompiledChunk(String source, Thread owner, CompiledScript script) {
+            this.source = source;
+            this.owner = owner;
+            this.script = script;
+        }
+
+        public String source() { return source; }
+
+        /** Run the chunk with no extra bindings. */
+        public Object call() throws ScriptException {
+            return call(null);
+        }
+
+        /** Run the chunk with the given variables bound in a fresh engine scope. */
+        public Object call(Map<String, Object> bindings) throws ScriptException {
+            if (script != null && Thread.currentThread() == owner) {
+                HITS.increment();
+                return script.eval(scope(bindings));
+            }
+            return ScriptEngines.eval(source, bindings);
+        }
+
+        @Override public String toString() { return "chunk@" + Integer.toHexString(source.hashCode()); }
+    }
+
+    /* ---------------- Configuration and stats ---------------- */
+
+    /** Set the per-thread compiled-script cache size (minimum 1). Applies on the next insert. */
+    public static void setCacheSize(int size) {
+        cacheSize = Math.max(1, size);
+    }
+
+    public static int cacheSize() { return cacheSize; }
+
+    /** Deadline for io.eval in milliseconds; 0 runs it on the caller's thread without one. */
+    public static void setTimeoutMillis(long millis) { timeoutMillis = Math.max(0, millis); }
+    public static long timeoutMillis() { return timeoutMillis; }
+
+    public static long hits() { return HITS.sum(); }
+    public static long misses() { return MISSES.sum(); }
+    public static long evictions() { return EVICTIONS.sum(); }
+    public static long timeouts() { return TIMEOUTS.sum(); }
+    /** Timed-out evals that have not ended yet. */
+    public static int runaway() { return RUNAWAY.get(); }
+
+    public static void resetStats() {
+        HITS.reset();
+        MISSES.reset();
+        EVICTIONS.reset();
+        TIMEOUTS.reset();
+    }
+
+    /** Stats in a single line, e.g. for print(io.evalStats()). */
+    public static String stats() {
+        return "hits=" + hits() + " misses=" + misses() + " evictions=" + evictions() + " timeouts=" + timeouts() + " runaway=" + runaway() + " cacheSize=" + cacheSize;
+    }
+}
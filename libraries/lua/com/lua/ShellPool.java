@@ -0,0 +1,331 @@
+package libraries.lua.com.lua;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Long-lived shell workers and a result cache behind io.run / io.runCached.
+ *
+ * - Off by default (-Dlua.io.pool=true or setEnabled(true)). While on, io.run hands the command to
+ *   one of up to -Dlua.io.pool.size (2) idle "sh" processes instead of starting a new one. Each
+ *   command runs as ( eval 'command' ) &lt;/dev/null, so cd, exit and variables stay inside it and a
+ *   syntax error cannot swallow the next command; a marker line with a random token ends its
+ *   stdout and stderr. Unix only: on Windows io.run keeps starting "cmd /c".
+ * - A worker is replaced after -Dlua.io.pool.maxUses (500) commands, and whenever it dies, its
+ *   framing breaks or a command times out.
+ * - -Dlua.io.timeoutMillis (0 = none) bounds every io.run, pooled or not: the process tree is
+ *   killed and the result has exit code -1.
+ * - cached(command, ttl, run) keeps results (exit code 0 or more) for ttl ms, up to
+ *   -Dlua.io.cacheSize (256) commands. Concurrent misses of one command share a single run.
+ *   Only for commands whose output does not depend on when they run.
+ */
+public final class ShellPool {
+
+    private ShellPool() {}
+
+    private static final Log.Logger LOG = Log.logger("lua.io");
+
+    private static final boolean UNIX = !System.getProperty("os.name", "").toLowerCase().contains("win");
+    private static final int SIZE = Math.max(1, Integer.getInteger("lua.io.pool.size", 2));
+    private static final int MAX_USES = Math.max(1, Integer.getInteger("lua.io.pool.maxUses", 500));
+    private static final int CACHE_SIZE = Math.max(1, Integer.getInteger("lua.io.cacheSize", 256));
+
+    private static volatile boolean enabled;
+    private static volatile long timeoutMillis = Long.getLong("lua.io.timeoutMillis", 0);
+
+    private static final Semaphore PERMITS = new Semaphore(SIZE, true);
+    private static final ArrayDeque<Worker> IDLE = new ArrayDeque<>();
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private static final LongAdder POOLED = new LongAdder();
+    private static final LongAdder POOLED_NANOS = new LongAdder();
+    private static final LongAdder COLD = new LongAdder();
+    private static final LongAdder COLD_NANOS = new LongAdder();
+    private static final LongAdder SPAWNED = new LongAdder();
+    private static final LongAdder RECYCLED = new LongAdder();
+    private static final LongAdder TIMEOUTS = new LongAdder();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    static {
+        if (Boolean.getBoolean("lua.io.pool")) setEnabled(true);
+    }
+
+    /** True while io.run goes to pooled workers (never on Windows). */
+    public static boolean isEnabled() { return enabled; }
+
+    /** Turn the pool on or off; turning it off stops the idle workers. */
+    public static void setEnabled(boolean on) {
+        enabled = on && UNIX;
+        if (!enabled) closeIdle();
+    }
+
+    /** Limit for every io.run in milliseconds; 0 waits forever. */
+    public static void setTimeoutMillis(long millis) { timeoutMillis = Math.max(0, millis); }
+    public static long timeoutMillis() { return timeoutMillis; }
+
+    /* ---------------- Pooled runs ---------------- */
+
+    /** Run command on an idle worker (starting one if the pool is not full); see lua.io_run. */
+    static lua.ProcessResult run(String command, int limit, lua.OutputListener listener) throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        PERMITS.acquire();
+        Worker w = null;
+        boolean healthy = false;
+        try {
+            w = take();
+            lua.ProcessResult r = w.run(command, limit, listener);
+            healthy = r != null;
+            if (r == null) r = w.timedOut ? new lua.ProcessResult(-1, "", "", false, true) : new lua.ProcessResult(-1, "", "shell worker failed");
+            return r;
+        } finally {
+            if (w != null) give(w, healthy);
+            PERMITS.release();
+            POOLED.increment();
+            POOLED_NANOS.add(System.nanoTime() - t0);
+        }
+    }
+
+    private static Worker take() throws IOException {
+        synchronized (IDLE) {
+            Worker w;
+            while ((w = IDLE.poll()) != null) {
+                if (w.process.isAlive()) return w;
+                RECYCLED.increment();
+            }
+        }
+        return new Worker();
+    }
+
+    private static void give(Worker w, boolean healthy) {
+        if (healthy && enabled && w.uses < MAX_USES && w.process.isAlive()) {
+            synchronized (IDLE) {
+                IDLE.push(w);
+            }
+            return;
+        }
+        RECYCLED.increment();
+        w.kill();
+    }
+
+    private static void closeIdle() {
+        synchronized (IDLE) {
+            for (Worker w : IDLE) w.kill();
+            IDLE.clear();
+        }
+    }
+
+    /** One "sh" reading commands from its stdin. Used by one caller at a time. */
+    private static final class Worker {
+        final Process process;
+        final Writer in;
+        final BufferedReader out;
+        final BufferedReader err;
+        final String marker = "__lua_done_" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "__";
+        int uses;
+        volatile boolean timedOut;
+
+        Worker() throws IOException {
+            process = new ProcessBuilder("sh").start();
+            in = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            err = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8));
+            SPAWNED.increment();
+            LOG.debug("started shell worker %d (pid %d)", IDS.incrementAndGet(), process.pid());
+        }
+
+        /** The result, or null if the worker broke (it is then recycled). */
+        lua.ProcessResult run(String command, int limit, lua.OutputListener listener) throws InterruptedException {
+            uses++;
+            lua.OutputReader stdout = new lua.OutputReader(false, limit, listener);
+            lua.OutputReader stderr = new lua.OutputReader(true, limit, listener);
+            Deadline deadline = killAfter(process, timeoutMillis);
+            try {
+                in.write("( eval '" + command.replace("'", "'\\''") + "' ) </dev/null; printf '%s %d\\n' " + marker
+                        + " \"$?\"; printf '%s\\n' " + marker + " >&2\n");
+                in.flush();
+                Future<Integer> errF = lua.IoPool.EXECUTOR.submit(() -> frame(err, stderr));
+                Integer exit = frame(out, stdout);
+                if (exit == null) kill(); // ends the stderr reader too
+                Integer errDone = errF.get();
+                if (exit == null || errDone == null || deadline.expired) return null;
+                return new lua.ProcessResult(exit, stdout.text(), stderr.text(), stdout.truncated || stderr.truncated);
+            } catch (IOException | java.util.concurrent.ExecutionException e) {
+                kill();
+                return null;
+            } finally {
+                deadline.cancel();
+                timedOut = deadline.expired;
+            }
+        }
+
+        /** Read one command's lines up to the marker: its exit code (0 on stderr), or null at EOF. */
+        private Integer frame(BufferedReader r, lua.OutputReader sink) throws IOException {
+            String line;
+            while ((line = r.readLine()) != null) {
+                int m = line.indexOf(marker);
+                if (m < 0) {
+                    sink.add(line);
+                    continue;
+                }
+                if (m > 0) sink.add(line.substring(0, m)); // output without a final newline
+                String rest = line.substring(m + marker.length()).trim();
+                try {
+                    return rest.isEmpty() ? 0 : Integer.parseInt(rest);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        void kill() {
+            killTree(process);
+        }
+    }
+
+    /* ---------------- Timeouts ---------------- */
+
+    private static final ScheduledThreadPoolExecutor WATCHDOG = watchdog();
+
+    private static ScheduledThreadPoolExecutor watchdog() {
+        ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "lua-io-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        s.setRemoveOnCancelPolicy(true);
+        return s;
+    }
+
+    /** A pending kill; cancel() once the process is done, then expired tells whether it fired. */
+    static final class Deadline {
+        static final Deadline NONE = new Deadline();
+        private volatile ScheduledFuture<?> kill;
+        volatile boolean expired;
+
+        void cancel() {
+            ScheduledFuture<?> k = kill;
+            if (k != null) k.cancel(false);
+        }
+    }
+
+    /** Kill p and everything it started after millis (0 = never). */
+    static Deadline killAfter(Process p, long millis) {
+        if (millis <= 0) return Deadline.NONE;
+        Deadline d = new Deadline();
+        d.kill = WATCHDOG.schedule(() -> {
+            d.expired = true;
+            TIMEOUTS.increment();
+            LOG.warn("io.run timed out after %d ms; killing pid %d", millis, p.pid());
+            killTree(p);
+        }, millis, TimeUnit.MILLISECONDS);
+        return d;
+    }
+
+    private static void killTree(Process p) {
+        // children first: they hold the pipes open after the shell itself is gone
+        p.descendants().forEach(ProcessHandle::destroyForcibly);
+        p.destroyForcibly();
+    }
+
+    /** Count one io.run that started its own process. */
+    static void recordCold(long nanos) {
+        COLD.increment();
+        COLD_NANOS.add(nanos);
+    }
+
+    /* ---------------- Result cache ---------------- */
+
+    private static final class Cached {
+        final CompletableFuture<lua.ProcessResult> result = new CompletableFuture<>();
+        volatile long expires = Long.MAX_VALUE; // set when the result is in
+    }
+
+    private static final ConcurrentHashMap<String, Cached> CACHE = new ConcurrentHashMap<>();
+
+    /** run's result for command, reused for ttlMillis; failed runs (exit code -1) are not kept. */
+    static lua.ProcessResult cached(String command, long ttlMillis, Supplier<lua.ProcessResult> run) {
+        while (true) {
+            Cached c = CACHE.get(command);
+            if (c != null && c.expires > System.nanoTime()) {
+                HITS.increment();
+                try {
+                    return c.result.join();
+                } catch (RuntimeException e) {
+                    CACHE.remove(command, c);
+                    continue;
+                }
+            }
+            Cached mine = new Cached();
+            boolean won = c == null ? CACHE.putIfAbsent(command, mine) == null : CACHE.replace(command, c, mine);
+            if (!won) continue;
+            MISSES.increment();
+            if (CACHE.size() > CACHE_SIZE) evict();
+            lua.ProcessResult r;
+            try {
+                r = run.get();
+            } catch (RuntimeException e) {
+                CACHE.remove(command, mine);
+                mine.result.completeExceptionally(e);
+                throw e;
+            }
+            if (r.exitCode < 0) CACHE.remove(command, mine);
+            else mine.expires = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, ttlMillis));
+            mine.result.complete(r);
+            return r;
+        }
+    }
+
+    /** Drop expired results, then (still over size) any finished ones. */
+    private static void evict() {
+        long now = System.nanoTime();
+        CACHE.values().removeIf(c -> c.expires <= now);
+        for (Iterator<Map.Entry<String, Cached>> it = CACHE.entrySet().iterator(); it.hasNext() && CACHE.size() > CACHE_SIZE; ) {
+            if (it.next().getValue().result.isDone()) it.remove();
+        }
+    }
+
+    /** Forget every cached result. */
+    public static void clearCache() { CACHE.clear(); }
+
+    /* ---------------- Stats ---------------- */
+
+    public static long hits() { return HITS.sum(); }
+    public static long misses() { return MISSES.sum(); }
+    public static long pooledRuns() { return POOLED.sum(); }
+    public static long coldRuns() { return COLD.sum(); }
+    public static long timeouts() { return TIMEOUTS.sum(); }
+    public static long recycled() { return RECYCLED.sum(); }
+
+    public static String stats() {
+        long pooled = POOLED.sum(), cold = COLD.sum();
+        int idle;
+        synchronized (IDLE) {
+            idle = IDLE.size();
+        }
+        return String.format(java.util.Locale.ROOT,
+                "pooled=%d (%.0fus avg) cold=%d (%.0fus avg) workers=%d spawned=%d recycled=%d timeouts=%d cache hits=%d misses=%d size=%d",
+                pooled, pooled == 0 ? 0.0 : POOLED_NANOS.sum() / 1e3 / pooled, cold, cold == 0 ? 0.0 : COLD_NANOS.sum() / 1e3 / cold,
+                SIZE - PERMITS.availablePermits() + idle, SPAWNED.sum(), RECYCLED.sum(), TIMEOUTS.sum(),
+                HITS.sum(), MISSES.sum(), CACHE.size());
+    }
+}
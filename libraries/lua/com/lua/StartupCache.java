@@ -0,0 +1,166 @@
+package libraries.lua.com.lua;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of startup probes kept from the previous boot: which classes are not on the classpath
+ * and which chat path was picked. A restart on an unchanged classpath skips the Class.forName
+ * misses behind {@link Bindings#probe} and the chat sender probe in {@link lua}.
+ *
+ * - Entries live in a properties file, -Dlua.startup.cacheFile (default lua-data/startup.cache),
+ *   under a fingerprint of java.version, java.home, the class path, the class loader and the
+ *   mods directory (-Dlua.startup.modsDir, default mods: its file names and modification time);
+ *   a different fingerprint drops every entry. Jars are not stat'ed (that costs more than the
+ *   probes it saves on a few hundred entries), so after replacing a jar in place under the same
+ *   name, delete the file.
+ * - Only absences of the fixed startup probes are cached; a class that is present still loads
+ *   normally, and Bindings.type (names from scripts) never goes through here.
+ * - put() only marks the cache dirty; flush() writes it (temp file + rename), and a shutdown hook
+ *   flushes whatever is left. A file that cannot be read or written just means probing again.
+ * - -Dlua.startup.cache=false turns it off: every probe runs and nothing is written.
+ *
+ * Example:
+ *   if (StartupCache.isMissing("net.minecraft.client.Minecraft")) return null; // known absent
+ */
+public final class StartupCache {
+
+    private StartupCache() {}
+
+    private static final Log.Logger LOG = Log.logger("lua.startup");
+
+    private static final boolean ENABLED = !"false".equals(System.getProperty("lua.startup.cache"));
+    private static final Path FILE = Path.of(System.getProperty("lua.startup.cacheFile", "lua-data/startup.cache"));
+    private static final String FINGERPRINT_KEY = "fingerprint";
+    private static final String MISSING = "missing";
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private static final Properties ENTRIES = new Properties();
+    private static final String FINGERPRINT;
+    private static boolean dirty;
+    private static boolean hooked;
+
+    static {
+        FINGERPRINT = ENABLED ? fingerprint() : "";
+        if (ENABLED) load();
+    }
+
+    /* ---------------- Probes ---------------- */
+
+    /** The cached answer for key, or null if this boot has to probe. */
+    public static synchronized String get(String key) {
+        String v = ENABLED ? ENTRIES.getProperty(key) : null;
+        (v != null ? HITS : MISSES).increment();
+        return v;
+    }
+
+    /** Remember value for key; written by the next flush(). */
+    public static synchronized void put(String key, String value) {
+        if (!ENABLED || value.equals(ENTRIES.getProperty(key))) return;
+        ENTRIES.setProperty(key, value);
+        dirty = true;
+        if (!hooked) {
+            hooked = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(StartupCache::flush, "lua-startup-cache"));
+        }
+    }
+
+    /** Whether an earlier boot with this fingerprint found no class called name. */
+    public static boolean isMissing(String className) {
+        return MISSING.equals(get("class.".concat(className)));
+    }
+
+    public static void recordMissing(String className) {
+        put("class.".concat(className), MISSING);
+    }
+
+    /** Write the cache if anything changed since it was loaded or last written. */
+    public static synchronized void flush() {
+        if (!dirty) return;
+        dirty = false;
+        Path tmp = FILE.resolveSibling(FILE.getFileName() + ".tmp");
+        try {
+            if (FILE.getParent() != null) Files.createDirectories(FILE.getParent());
+            Properties p = new Properties();
+            p.putAll(ENTRIES);
+            p.setProperty(FINGERPRINT_KEY, FINGERPRINT);
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                p.store(out, "startup probes; delete to probe again");
+            }
+            Files.move(tmp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("cannot write %s: %s", FILE, e);
+        }
+    }
+
+    /** Forget every entry, here and on disk. */
+    public static synchronized void clear() {
+        ENTRIES.clear();
+        dirty = false;
+        try {
+            Files.deleteIfExists(FILE);
+        } catch (IOException e) {
+            LOG.warn("cannot delete %s: %s", FILE, e);
+        }
+    }
+
+    public static String stats() {
+        return "enabled=" + ENABLED + " hits=" + HITS.sum() + " misses=" + MISSES.sum() + " file=" + FILE;
+    }
+
+    /* ---------------- File ---------------- */
+
+    private static void load() {
+        File file = FILE.toFile();
+        if (!file.isFile()) return;
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("ignoring %s: %s", FILE, e);
+            return;
+        }
+        if (!FINGERPRINT.equals(p.getProperty(FINGERPRINT_KEY))) {
+            LOG.debug("classpath changed, probing again");
+            dirty = true; // rewrite with the new fingerprint on the next flush
+            return;
+        }
+        p.remove(FINGERPRINT_KEY);
+        ENTRIES.putAll(p);
+    }
+
+    /** java.version, java.home, the class path, our class loader and the mods directory. */
+    static String fingerprint() {
+        // StringBuilder rather than +: this runs before anything has bootstrapped string concatenation
+        StringBuilder b = new StringBuilder().append(System.getProperty("java.version")).append('|')
+                .append(System.getProperty("java.home")).append('|').append(System.getProperty("java.class.path", ""))
+                .append('|').append(loaderName());
+        // mod loaders add jars from here on their own loader, out of sight of java.class.path
+        File mods = new File(System.getProperty("lua.startup.modsDir", "mods"));
+        String[] names = mods.list();
+        if (names != null) {
+            Arrays.sort(names);
+            b.append('|').append(mods.lastModified());
+            for (String n : names) b.append('|').append(n);
+        }
+        String s = b.toString();
+        return Integer.toHexString(s.hashCode()).concat("-").concat(Integer.toHexString(s.length()));
+    }
+
+    /** The loader's type and name; not its toString(), which carries an identity hash that changes every boot. */
+    private static String loaderName() {
+        ClassLoader l = StartupCache.class.getClassLoader();
+        return l == null ? "boot" : l.getClass().getName().concat("/").concat(String.valueOf(l.getName()));
+    }
+}
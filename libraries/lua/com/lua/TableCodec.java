@@ -0,0 +1,908 @@
+package libraries.lua.com.lua;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming JSON and binary codec for lua.table (nested tables included) and lua.ProcessResult.
+ *
+ * - Writers go straight to an OutputStream (through one 64 KiB buffer) or into a ByteBuffer:
+ *   no String or byte[] of the whole document is built, and strings are UTF-8 encoded as they
+ *   are written. Memory does not grow with the data.
+ * - Readers parse an InputStream (or ByteBuffer) incrementally into lua.tables.
+ * - readBinary(ByteBuffer) is lazy: a table comes back as a {@link LazyTable} over the buffer
+ *   (e.g. a mapped file), and each field is decoded the first time it is read.
+ * - Values: nil, booleans, numbers (integers and floats stay distinct), strings, tables, and
+ *   ProcessResult, written as {exitCode, stdout, stderr, truncated, timedOut}. Other values, NaN or
+ *   infinity in JSON, and tables nested deeper than 512 (or cyclic) raise IllegalArgumentException,
+ *   as does malformed input.
+ * - JSON: a table whose keys are exactly 1..#t is an array, any other table an object whose
+ *   number keys become strings (as with other Lua JSON libraries); an empty table is {}. Integral
+ *   floats are written as integers, as tostring does, and read back as Long.
+ * - Binary: "LTC1", then one value. Tags as in PersistentTable (nil 0, false 1, true 2,
+ *   integer 3 as a zigzag varint, float 4, string 5 with a varint length); a table is
+ *   [6][int body length][varint #t][varint other keys][t[1]..t[#t]][key, value...], so a
+ *   reader can step over a table without reading it.
+ *
+ * Example:
+ *   try (OutputStream out = Files.newOutputStream(path)) { TableCodec.writeJson(t, out); }
+ *   Object v = TableCodec.readBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+ */
+public final class TableCodec {
+
+    private TableCodec() {}
+
+    static final int MAGIC = 0x4C544331; // "LTC1"
+    static final byte T_NIL = 0, T_FALSE = 1, T_TRUE = 2, T_LONG = 3, T_DOUBLE = 4, T_STRING = 5, T_TABLE = 6;
+    static final int MAX_DEPTH = 512;
+    private static final int BUFFER = 64 * 1024;
+    /** Characters encoded per buffer check; 3 UTF-8 bytes each must fit the buffer. */
+    private static final int CHUNK = 4096;
+
+    /* ---------------- Public API ---------------- */
+
+    public static void writeJson(Object value, OutputStream out) throws IOException {
+        Sink sink = new Sink(out);
+        new JsonWriter(sink).value(value, 0);
+        sink.finish();
+    }
+
+    /** Encode into out from its position; BufferOverflowException if it does not fit. */
+    public static void writeJson(Object value, ByteBuffer out) {
+        try {
+            new JsonWriter(new Sink(out)).value(value, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a ByteBuffer sink does no IO
+        }
+    }
+
+    public static Object readJson(InputStream in) throws IOException {
+        return new JsonReader(new Source(in)).document();
+    }
+
+    public static Object readJson(ByteBuffer in) {
+        try {
+            return new JsonReader(new Source(in)).document();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("truncated JSON", e);
+        }
+    }
+
+    public static void writeBinary(Object value, OutputStream out) throws IOException {
+        Sink sink = new Sink(out);
+        BinaryWriter w = new BinaryWriter(sink);
+        w.measure(value); // table lengths go before their bodies: one sizing pass first
+        sink.putInt(MAGIC);
+        w.value(value, 0);
+        sink.finish();
+    }
+
+    /** Encode into out from its position; BufferOverflowException if it does not fit (see binarySize). */
+    public static void writeBinary(Object value, ByteBuffer out) {
+        try {
+            Sink sink = new Sink(out);
+            sink.putInt(MAGIC);
+            new BinaryWriter(sink).value(value, 0); // table lengths are patched in afterwards
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Bytes writeBinary will produce for value. */
+    public static long binarySize(Object value) {
+        return 4 + new BinaryWriter(null).measure(value);
+    }
+
+    /** Decode everything now. */
+    public static Object readBinary(InputStream in) throws IOException {
+        Source src = new Source(in);
+        if (src.getInt() != MAGIC) throw new IllegalArgumentException("not a TableCodec stream");
+        return readValue(src, 0);
+    }
+
+    /**
+     * Decode lazily: a table is returned as a {@link LazyTable} reading from in, which must stay
+     * unchanged while it is in use. in's position is not moved.
+     */
+    public static Object readBinary(ByteBuffer in) {
+        ByteBuffer b = in.duplicate();
+        if (b.remaining() < 5 || b.getInt() != MAGIC) throw new IllegalArgumentException("not a TableCodec buffer");
+        return LazyTable.read(b);
+    }
+
+    /* ---------------- Output ---------------- */
+
+    /** Writes into a ByteBuffer: the caller's, or a fixed buffer drained into an OutputStream. */
+    static final class Sink {
+        final OutputStream out;
+        ByteBuffer b;
+
+        Sink(OutputStream out) {
+            this.out = out;
+            this.b = ByteBuffer.allocate(BUFFER);
+        }
+
+        Sink(ByteBuffer target) {
+            this.out = null;
+            this.b = target;
+        }
+
+        void ensure(int n) throws IOException {
+            if (b.remaining() < n) {
+                if (out == null) throw new BufferOverflowException();
+                drain();
+            }
+        }
+
+        void drain() throws IOException {
+            out.write(b.array(), 0, b.position());
+            b.clear();
+        }
+
+        void finish() throws IOException {
+            if (b.position() > 0) drain();
+            out.flush();
+        }
+
+        void put(byte x) throws IOException {
+            if (!b.hasRemaining()) ensure(1);
+            b.put(x);
+        }
+
+        void putInt(int x) throws IOException {
+            ensure(4);
+            b.putInt(x);
+        }
+
+        void putDouble(double x) throws IOException {
+            ensure(8);
+            b.putDouble(x);
+        }
+
+        // a stream reserves the widest encoding (no need to measure: it just drains early); a
+        // caller's buffer, sized exactly by binarySize, is asked for the real length
+
+        void putVarint(int v) throws IOException {
+            ensure(out != null ? 5 : varintLength(v));
+            while ((v & ~0x7F) != 0) {
+                b.put((byte) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            b.put((byte) v);
+        }
+
+        void putZigzag(long v) throws IOException {
+            ensure(out != null ? 10 : zigzagLength(v));
+            long z = (v << 1) ^ (v >> 63);
+            while ((z & ~0x7FL) != 0) {
+                b.put((byte) ((z & 0x7F) | 0x80));
+                z >>>= 7;
+            }
+            b.put((byte) z);
+        }
+
+        void putAscii(String s) throws IOException {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) b.put((byte) s.charAt(i));
+        }
+
+        /** Copy src's remaining bytes (src's position moves). */
+        void putBytes(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                if (!b.hasRemaining()) ensure(1);
+                int n = Math.min(src.remaining(), b.remaining());
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + n);
+                b.put(part);
+                src.position(src.position() + n);
+            }
+        }
+
+        /** s as UTF-8; a lone surrogate becomes '?', as in String.getBytes. */
+        void putUtf8(CharSequence s) throws IOException {
+            int n = s.length();
+            for (int i = 0; i < n; ) {
+                int end = Math.min(n, i + CHUNK);
+                // reserve the worst case (+1: a surrogate pair may straddle end); a caller's
+                // buffer that cannot take it is filled char by char, checking each one
+                boolean exact = false;
+                if (b.remaining() < (end - i) * 3 + 1) {
+                    if (out != null) drain();
+                    else exact = true;
+                }
+                for (; i < end; i++) {
+                    char c = s.charAt(i);
+                    if (c < 0x80) {
+                        if (exact) ensure(1);
+                        b.put((byte) c);
+                    } else if (c < 0x800) {
+                        if (exact) ensure(2);
+                        b.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                            if (exact) ensure(4);
+                            int cp = Character.toCodePoint(c, s.charAt(++i));
+                            b.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+                                    .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+                        } else {
+                            if (exact) ensure(1);
+                            b.put((byte) '?');
+                        }
+                    } else {
+                        if (exact) ensure(3);
+                        b.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+                    }
+                }
+            }
+        }
+    }
+
+    static int utf8Length(CharSequence s) {
+        int n = s.length();
+        long bytes = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) bytes += 1;
+            else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) { bytes += 2; i++; }
+            else if (!Character.isSurrogate(c)) bytes += 2;
+        }
+        if (bytes > Integer.MAX_VALUE) throw new IllegalArgumentException("string too long to encode");
+        return (int) bytes;
+    }
+
+    private static lua.table asTable(lua.ProcessResult r) {
+        lua.table t = new lua.table(0, 5);
+        t.set("exitCode", (long) r.exitCode);
+        t.set("stdout", r.stdout);
+        t.set("stderr", r.stderr);
+        t.set("truncated", r.truncated);
+        t.set("timedOut", r.timedOut);
+        return t;
+    }
+
+    private static IllegalArgumentException unsupported(Object v) {
+        return new IllegalArgumentException("cannot encode a value of type " + v.getClass().getSimpleName());
+    }
+
+    private static IllegalArgumentException tooDeep() {
+        return new IllegalArgumentException("table nested too deep (or cyclic) to encode");
+    }
+
+    /* ---------------- Binary writer ---------------- */
+
+    private static final class BinaryWriter {
+        private final Sink sink;
+        /** Body length of each table, in the order value() meets them (filled by measure()). */
+        private int[] sizes = new int[16];
+        private int measured;
+        private int next;
+
+        BinaryWriter(Sink sink) {
+            this.sink = sink;
+        }
+
+        long measure(Object v) {
+            return size(v, 0);
+        }
+
+        private long size(Object v, int depth) {
+            if (v == null || v instanceof Boolean) return 1;
+            if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) return 1 + zigzagLength(((Number) v).longValue());
+            if (v instanceof Number) return 9;
+            if (v instanceof CharSequence) {
+                int n = utf8Length((CharSequence) v);
+                return 1 + varintLength(n) + n;
+            }
+            if (v instanceof lua.table) return tableSize((lua.table) v, depth);
+            if (v instanceof LazyTable) {
+                LazyTable lazy = (LazyTable) v;
+                ByteBuffer raw = lazy.encoded();
+                return raw != null ? raw.remaining() : tableSize(lazy.table(), depth);
+            }
+            if (v instanceof lua.ProcessResult) return tableSize(asTable((lua.ProcessResult) v), depth);
+            throw unsupported(v);
+        }
+
+        private long tableSize(lua.table t, int depth) {
+            if (depth >= MAX_DEPTH) throw tooDeep();
+            int slot = measured++;
+            if (slot == sizes.length) sizes = java.util.Arrays.copyOf(sizes, slot * 2);
+            int n = t.length();
+            long body = 0;
+            int others = 0;
+            for (long i = 1; i <= n; i++) body += entrySize(t, t.find(i), depth);
+            for (int p = t.next(-1); p >= 0; p = t.next(p)) {
+                if (inArray(t, p, n)) continue;
+                others++;
+                byte kt = t.keyTagAt(p);
+                body += kt == lua.table.LONG ? 1 + zigzagLength(t.keyLongAt(p)) : kt == lua.table.DOUBLE ? 9 : size(t.keyRefAt(p), depth + 1);
+                body += entrySize(t, p, depth);
+            }
+            body += varintLength(n) + varintLength(others);
+            if (body > Integer.MAX_VALUE) throw new IllegalArgumentException("table too large to encode (over 2 GiB)");
+            sizes[slot] = (int) body;
+            return 5 + body;
+        }
+
+        private long entrySize(lua.table t, int p, int depth) {
+            switch (t.tagAt(p)) {
+                case lua.table.NIL: return 1;
+                case lua.table.LONG: return 1 + zigzagLength(t.longAt(p));
+                case lua.table.DOUBLE: return 9;
+                default: return size(t.refAt(p), depth + 1);
+            }
+        }
+
+        void value(Object v, int depth) throws IOException {
+            if (v == null) sink.put(T_NIL);
+            else if (v instanceof Boolean) sink.put((Boolean) v ? T_TRUE : T_FALSE);
+            else if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+                sink.put(T_LONG);
+                sink.putZigzag(((Number) v).longValue());
+            } else if (v instanceof Number) {
+                sink.put(T_DOUBLE);
+                sink.putDouble(((Number) v).doubleValue());
+            } else if (v instanceof CharSequence) {
+                CharSequence s = (CharSequence) v;
+                sink.put(T_STRING);
+                sink.putVarint(utf8Length(s));
+                sink.putUtf8(s);
+            } else if (v instanceof lua.table) {
+                table((lua.table) v, depth);
+            } else if (v instanceof LazyTable) {
+                LazyTable lazy = (LazyTable) v;
+                ByteBuffer raw = lazy.encoded();
+                if (raw != null) sink.putBytes(raw); // unchanged since it was read: copy the bytes
+                else table(lazy.table(), depth);
+            } else if (v instanceof lua.ProcessResult) {
+                table(asTable((lua.ProcessResult) v), depth);
+            } else {
+                throw unsupported(v);
+            }
+        }
+
+        private void table(lua.table t, int depth) throws IOException {
+            if (depth >= MAX_DEPTH) throw tooDeep();
+            int n = t.length();
+            int others = 0;
+            for (int p = t.next(-1); p >= 0; p = t.next(p)) if (!inArray(t, p, n)) others++;
+            sink.put(T_TABLE);
+            int lengthAt = -1;
+            if (sink.out != null) {
+                sink.putInt(sizes[next++]);
+            } else {
+                lengthAt = sink.b.position();
+                sink.putInt(0);
+            }
+            sink.putVarint(n);
+            sink.putVarint(others);
+            for (long i = 1; i <= n; i++) entry(t, t.find(i), depth);
+            for (int p = t.next(-1); p >= 0; p = t.next(p)) {
+                if (inArray(t, p, n)) continue;
+                switch (t.keyTagAt(p)) {
+                    case lua.table.LONG: sink.put(T_LONG); sink.putZigzag(t.keyLongAt(p)); break;
+                    case lua.table.DOUBLE: sink.put(T_DOUBLE); sink.putDouble(t.keyDoubleAt(p)); break;
+                    default: value(t.keyRefAt(p), depth + 1);
+                }
+                entry(t, p, depth);
+            }
+            if (lengthAt >= 0) sink.b.putInt(lengthAt, sink.b.position() - lengthAt - 4);
+        }
+
+        private void entry(lua.table t, int p, int depth) throws IOException {
+            switch (t.tagAt(p)) {
+                case lua.table.NIL: sink.put(T_NIL); break;
+                case lua.table.LONG: sink.put(T_LONG); sink.putZigzag(t.longAt(p)); break;
+                case lua.table.DOUBLE: sink.put(T_DOUBLE); sink.putDouble(t.doubleAt(p)); break;
+                default: value(t.refAt(p), depth + 1);
+            }
+        }
+    }
+
+    /** Whether the entry at p is one of t[1]..t[n] (the array section). */
+    private static boolean inArray(lua.table t, int p, int n) {
+        if (t.keyTagAt(p) != lua.table.LONG) return false;
+        long k = t.keyLongAt(p);
+        return k >= 1 && k <= n;
+    }
+
+    private static int varintLength(int v) {
+        return v < 0 ? 5 : (38 - Integer.numberOfLeadingZeros(v | 1)) / 7;
+    }
+
+    private static int zigzagLength(long v) {
+        long z = (v << 1) ^ (v >> 63);
+        return (70 - Long.numberOfLeadingZeros(z | 1)) / 7;
+    }
+
+    /* ---------------- JSON writer ---------------- */
+
+    private static final class JsonWriter {
+        private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        private final Sink sink;
+        private final byte[] digits = new byte[20];
+
+        JsonWriter(Sink sink) {
+            this.sink = sink;
+        }
+
+        void value(Object v, int depth) throws IOException {
+            if (v == null) sink.putAscii("null");
+            else if (v instanceof Boolean) sink.putAscii((Boolean) v ? "true" : "false");
+            else if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) number(((Number) v).longValue());
+            else if (v instanceof Number) number(((Number) v).doubleValue());
+            else if (v instanceof CharSequence) string((CharSequence) v);
+            else if (v instanceof lua.table) table((lua.table) v, depth);
+            else if (v instanceof LazyTable) table(((LazyTable) v).table(), depth);
+            else if (v instanceof lua.ProcessResult) table(asTable((lua.ProcessResult) v), depth);
+            else throw unsupported(v);
+        }
+
+        private void table(lua.table t, int depth) throws IOException {
+            if (depth >= MAX_DEPTH) throw tooDeep();
+            int n = t.length();
+            if (n > 0 && t.size() == n) {
+                sink.put((byte) '[');
+                for (long i = 1; i <= n; i++) {
+                    if (i > 1) sink.put((byte) ',');
+                    entry(t, t.find(i), depth);
+                }
+                sink.put((byte) ']');
+                return;
+            }
+            sink.put((byte) '{');
+            boolean first = true;
+            for (int p = t.next(-1); p >= 0; p = t.next(p)) {
+                if (!first) sink.put((byte) ',');
+                first = false;
+                switch (t.keyTagAt(p)) {
+                    case lua.table.LONG:
+                        sink.put((byte) '"');
+                        digits(t.keyLongAt(p));
+                        sink.put((byte) '"');
+                        break;
+                    case lua.table.DOUBLE:
+                        string(Double.toString(t.keyDoubleAt(p)));
+                        break;
+                    default:
+                        Object k = t.keyRefAt(p);
+                        if (k instanceof CharSequence) string((CharSequence) k);
+                        else if (k instanceof Boolean) string(k.toString());
+                        else throw new IllegalArgumentException("cannot encode a JSON key of type " + k.getClass().getSimpleName());
+                }
+                sink.put((byte) ':');
+                entry(t, p, depth);
+            }
+            sink.put((byte) '}');
+        }
+
+        private void entry(lua.table t, int p, int depth) throws IOException {
+            switch (t.tagAt(p)) {
+                case lua.table.NIL: sink.putAscii("null"); break;
+                case lua.table.LONG: number(t.longAt(p)); break;
+                case lua.table.DOUBLE: number(t.doubleAt(p)); break;
+                default: value(t.refAt(p), depth + 1);
+            }
+        }
+
+        private void number(long v) throws IOException {
+            digits(v);
+        }
+
+        private void number(double d) throws IOException {
+            if (Double.isNaN(d) || Double.isInfinite(d)) throw new IllegalArgumentException("cannot encode " + d + " as JSON");
+            if (d == Math.rint(d) && Math.abs(d) < 1e15) digits((long) d); // script numbers are doubles: 3, not 3.0
+            else sink.putAscii(Double.toString(d));
+        }
+
+        private void digits(long v) throws IOException {
+            if (v == Long.MIN_VALUE) {
+                sink.putAscii("-9223372036854775808");
+                return;
+            }
+            sink.ensure(20);
+            if (v < 0) {
+                sink.b.put((byte) '-');
+                v = -v;
+            }
+            int i = digits.length;
+            do {
+                digits[--i] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            sink.b.put(digits, i, digits.length - i);
+        }
+
+        private void string(CharSequence s) throws IOException {
+            sink.put((byte) '"');
+            int n = s.length();
+            int from = 0;
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\') continue;
+                if (i > from) sink.putUtf8(s.subSequence(from, i));
+                from = i + 1;
+                sink.ensure(6);
+                ByteBuffer b = sink.b;
+                switch (c) {
+                    case '"': b.put((byte) '\\').put((byte) '"'); break;
+                    case '\\': b.put((byte) '\\').put((byte) '\\'); break;
+                    case '\n': b.put((byte) '\\').put((byte) 'n'); break;
+                    case '\r': b.put((byte) '\\').put((byte) 'r'); break;
+                    case '\t': b.put((byte) '\\').put((byte) 't'); break;
+                    case '\b': b.put((byte) '\\').put((byte) 'b'); break;
+                    case '\f': b.put((byte) '\\').put((byte) 'f'); break;
+                    default: b.put((byte) '\\').put((byte) 'u').put((byte) '0').put((byte) '0').put(HEX[c >> 4]).put(HEX[c & 0xF]);
+                }
+            }
+            if (from == 0) sink.putUtf8(s);
+            else if (from < n) sink.putUtf8(s.subSequence(from, n));
+            sink.put((byte) '"');
+        }
+    }
+
+    /* ---------------- Input ---------------- */
+
+    /** Reads from a ByteBuffer: the caller's, or a fixed buffer refilled from an InputStream. */
+    static final class Source {
+        private final InputStream in;
+        private final ByteBuffer b;
+        /** Bytes dropped from the front of b so far (for error positions). */
+        private long base;
+
+        Source(InputStream in) {
+            this.in = in;
+            this.b = ByteBuffer.allocate(BUFFER);
+            b.flip();
+        }
+
+        Source(ByteBuffer src) {
+            this.in = null;
+            this.b = src.duplicate();
+        }
+
+        long offset() { return base + b.position(); }
+
+        /** Make n (at most BUFFER) bytes readable. */
+        void need(int n) throws IOException {
+            if (b.remaining() >= n) return;
+            if (in == null) throw new EOFException();
+            base += b.position();
+            b.compact();
+            while (b.position() < n) {
+                int r = in.read(b.array(), b.position(), b.remaining());
+                if (r < 0) {
+                    b.flip();
+                    throw new EOFException();
+                }
+                b.position(b.position() + r);
+            }
+            b.flip();
+        }
+
+        /** The next byte, or -1 at the end. */
+        int read() throws IOException {
+            if (!b.hasRemaining()) {
+                if (in == null) return -1;
+                base += b.position();
+                b.clear();
+                int r;
+                do r = in.read(b.array(), 0, b.capacity()); while (r == 0);
+                if (r < 0) {
+                    b.limit(0);
+                    return -1;
+                }
+                b.limit(r);
+            }
+            return b.get() & 0xFF;
+        }
+
+        byte get() throws IOException {
+            need(1);
+            return b.get();
+        }
+
+        int getInt() throws IOException {
+            need(4);
+            return b.getInt();
+        }
+
+        double getDouble() throws IOException {
+            need(8);
+            return b.getDouble();
+        }
+
+        int getVarint() throws IOException {
+            int v = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte x = get();
+                v |= (x & 0x7F) << shift;
+                if (x >= 0) return v;
+            }
+            throw new IllegalArgumentException("corrupt varint at byte " + offset());
+        }
+
+        long getZigzag() throws IOException {
+            long z = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte x = get();
+                z |= (long) (x & 0x7F) << shift;
+                if (x >= 0) return (z >>> 1) ^ -(z & 1);
+            }
+            throw new IllegalArgumentException("corrupt varint at byte " + offset());
+        }
+
+        String getUtf8(int n) throws IOException {
+            if (n <= b.remaining() || (in != null && n <= BUFFER)) {
+                need(n);
+                String s = b.hasArray()
+                        ? new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8)
+                        : StandardCharsets.UTF_8.decode(b.duplicate().limit(b.position() + n)).toString();
+                b.position(b.position() + n);
+                return s;
+            }
+            if (in == null) throw new EOFException();
+            byte[] bytes = new byte[n]; // longer than the buffer: gather it
+            int at = 0;
+            while (at < n) {
+                if (!b.hasRemaining()) need(1);
+                int k = Math.min(n - at, b.remaining());
+                b.get(bytes, at, k);
+                at += k;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** One binary value, decoded completely. */
+    static Object readValue(Source src, int depth) throws IOException {
+        return readValue(src, src.get(), depth);
+    }
+
+    private static Object readValue(Source src, byte tag, int depth) throws IOException {
+        switch (tag) {
+            case T_NIL: return null;
+            case T_FALSE: return Boolean.FALSE;
+            case T_TRUE: return Boolean.TRUE;
+            case T_LONG: return src.getZigzag();
+            case T_DOUBLE: return src.getDouble();
+            case T_STRING: return src.getUtf8(src.getVarint());
+            case T_TABLE: {
+                if (depth >= MAX_DEPTH) throw new IllegalArgumentException("tables nested deeper than " + MAX_DEPTH);
+                src.getInt(); // body length: only needed to skip
+                int n = src.getVarint();
+                int others = src.getVarint();
+                lua.table t = new lua.table(n, others);
+                for (long i = 1; i <= n; i++) {
+                    byte vt = src.get();
+                    if (vt == T_LONG) t.seti(i, src.getZigzag());
+                    else if (vt == T_DOUBLE) t.seti(i, src.getDouble());
+                    else if (vt != T_NIL) t.seti(i, readValue(src, vt, depth + 1));
+                }
+                for (int i = 0; i < others; i++) {
+                    Object k = readValue(src, depth + 1);
+                    if (k == null) throw new IllegalArgumentException("nil table key at byte " + src.offset());
+                    byte vt = src.get();
+                    if (vt == T_DOUBLE) t.setNumber(k, src.getDouble());
+                    else t.set(k, readValue(src, vt, depth + 1));
+                }
+                return t;
+            }
+            default: throw new IllegalArgumentException("corrupt data (tag " + tag + ") at byte " + (src.offset() - 1));
+        }
+    }
+
+    /* ---------------- JSON reader ---------------- */
+
+    private static final class JsonReader {
+        private final Source src;
+        private byte[] text = new byte[256];
+        private final StringBuilder number = new StringBuilder();
+        /** One byte read ahead by a number, or -1. */
+        private int pushback = -1;
+
+        JsonReader(Source src) {
+            this.src = src;
+        }
+
+        Object document() throws IOException {
+            Object v = value(next(), 0);
+            int c = next();
+            if (c >= 0) throw error("trailing '" + (char) c + "'");
+            return v;
+        }
+
+        private int read() throws IOException {
+            if (pushback >= 0) {
+                int c = pushback;
+                pushback = -1;
+                return c;
+            }
+            return src.read();
+        }
+
+        /** The next byte that is not whitespace, or -1. */
+        private int next() throws IOException {
+            int c;
+            do c = read(); while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+            return c;
+        }
+
+        private IllegalArgumentException error(String what) {
+            return new IllegalArgumentException("bad JSON at byte " + src.offset() + ": " + what);
+        }
+
+        private Object value(int c, int depth) throws IOException {
+            switch (c) {
+                case '{': return object(depth);
+                case '[': return array(depth);
+                case '"': return string();
+                case 't': literal("rue"); return Boolean.TRUE;
+                case 'f': literal("alse"); return Boolean.FALSE;
+                case 'n': literal("ull"); return null;
+                case -1: throw error("unexpected end");
+                default:
+                    if (c == '-' || (c >= '0' && c <= '9')) return number(c);
+                    throw error("unexpected '" + (char) c + "'");
+            }
+        }
+
+        private void literal(String rest) throws IOException {
+            for (int i = 0; i < rest.length(); i++) {
+                if (read() != rest.charAt(i)) throw error("bad literal");
+            }
+        }
+
+        private lua.table object(int depth) throws IOException {
+            if (depth >= MAX_DEPTH) throw error("nested deeper than " + MAX_DEPTH);
+            lua.table t = new lua.table();
+            int c = next();
+            if (c == '}') return t;
+            while (true) {
+                if (c != '"') throw error("expected a key");
+                String k = string();
+                if (next() != ':') throw error("expected ':'");
+                t.set(k, value(next(), depth + 1));
+                c = next();
+                if (c == '}') return t;
+                if (c != ',') throw error("expected ',' or '}'");
+                c = next();
+            }
+        }
+
+        private lua.table array(int depth) throws IOException {
+            if (depth >= MAX_DEPTH) throw error("nested deeper than " + MAX_DEPTH);
+            lua.table t = new lua.table();
+            int c = next();
+            if (c == ']') return t;
+            for (long i = 1; ; i++) {
+                t.seti(i, value(c, depth + 1));
+                c = next();
+                if (c == ']') return t;
+                if (c != ',') throw error("expected ',' or ']'");
+                c = next();
+            }
+        }
+
+        private Object number(int c) throws IOException {
+            number.setLength(0);
+            boolean negative = c == '-';
+            boolean integral = true;
+            long v = 0;
+            boolean overflow = false;
+            if (negative) {
+                number.append('-');
+                c = read();
+            }
+            if (c < '0' || c > '9') throw error("bad number");
+            boolean leadingZero = c == '0';
+            for (; c >= '0' && c <= '9'; c = read()) { // negated, so Long.MIN_VALUE fits
+                number.append((char) c);
+                int d = c - '0';
+                if (v < (Long.MIN_VALUE + d) / 10) overflow = true;
+                else v = v * 10 - d;
+            }
+            if (leadingZero && number.length() > (negative ? 2 : 1)) throw error("bad number " + number + " (leading zero)");
+            if (c == '.') {
+                integral = false;
+                number.append('.');
+                c = digits(read());
+            }
+            if (c == 'e' || c == 'E') {
+                integral = false;
+                number.append('e');
+                c = read();
+                if (c == '+' || c == '-') {
+                    number.append((char) c);
+                    c = read();
+                }
+                c = digits(c);
+            }
+            pushback = c;
+            if (integral && !overflow && (negative || v != Long.MIN_VALUE)) return negative ? v : -v;
+            try {
+                return Double.parseDouble(number.toString());
+            } catch (NumberFormatException e) {
+                throw error("bad number " + number);
+            }
+        }
+
+        /** Append one or more digits starting at c; returns the character after them. */
+        private int digits(int c) throws IOException {
+            if (c < '0' || c > '9') throw error("bad number " + number);
+            for (; c >= '0' && c <= '9'; c = read()) number.append((char) c);
+            return c;
+        }
+
+        private String string() throws IOException {
+            int n = 0;
+            while (true) {
+                int c = read();
+                if (c == '"') return new String(text, 0, n, StandardCharsets.UTF_8);
+                if (c < 0) throw error("unterminated string");
+                if (n + 4 > text.length) text = java.util.Arrays.copyOf(text, text.length * 2);
+                if (c != '\\') {
+                    text[n++] = (byte) c;
+                    continue;
+                }
+                c = read();
+                switch (c) {
+                    case '"': case '\\': case '/': text[n++] = (byte) c; break;
+                    case 'n': text[n++] = '\n'; break;
+                    case 'r': text[n++] = '\r'; break;
+                    case 't': text[n++] = '\t'; break;
+                    case 'b': text[n++] = '\b'; break;
+                    case 'f': text[n++] = '\f'; break;
+                    case 'u': n = escape(n); break;
+                    default: throw error("bad escape");
+                }
+            }
+        }
+
+        /** A \\uXXXX escape (and the low half of a surrogate pair) as UTF-8 at text[n]. */
+        private int escape(int n) throws IOException {
+            int cp = hex4();
+            if (Character.isHighSurrogate((char) cp)) {
+                if (read() != '\\' || read() != 'u') throw error("lone surrogate");
+                int low = hex4();
+                if (!Character.isLowSurrogate((char) low)) throw error("lone surrogate");
+                cp = Character.toCodePoint((char) cp, (char) low);
+            } else if (Character.isLowSurrogate((char) cp)) {
+                throw error("lone surrogate");
+            }
+            if (cp < 0x80) {
+                text[n++] = (byte) cp;
+            } else if (cp < 0x800) {
+                text[n++] = (byte) (0xC0 | cp >> 6);
+                text[n++] = (byte) (0x80 | cp & 0x3F);
+            } else if (cp < 0x10000) {
+                text[n++] = (byte) (0xE0 | cp >> 12);
+                text[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                text[n++] = (byte) (0x80 | cp & 0x3F);
+            } else {
+                text[n++] = (byte) (0xF0 | cp >> 18);
+                text[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                text[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                text[n++] = (byte) (0x80 | cp & 0x3F);
+            }
+            return n;
+        }
+
+        private int hex4() throws IOException {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                int d = Character.digit(read(), 16);
+                if (d < 0) throw error("bad \\u escape");
+                v = v << 4 | d;
+            }
+            return v;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package libraries.lua.com.lua;
+
+/**
+ * Where {@link WorldCache} reads the world from, once per tick: the running game
+ * (MinecraftWorldAdapter) or anything else that can list entities, such as a synthetic world in
+ * a benchmark.
+ *
+ * - forEachEntity reports every entity once, as plain values; the snapshot keeps no reference
+ *   to game objects.
+ * - It is called on the thread that refreshes the cache (see {@link WorldCache#setTickDriven}).
+ *
+ * Example:
+ *   WorldCache.setAdapter(sink -> {
+ *       for (Mob m : mobs) sink.entity(m.id, m.name, false, m.x, m.y, m.z, m.hp);
+ *   });
+ */
+@FunctionalInterface
+public interface WorldAdapter {
+
+    /** An adapter for no world: every snapshot is empty. */
+    WorldAdapter NONE = sink -> {};
+
+    void forEachEntity(EntitySink sink);
+
+    /** Receives one entity; health is 0 for entities that have none. */
+    @FunctionalInterface
+    interface EntitySink {
+        void entity(long id, String name, boolean player, double x, double y, double z, double health);
+    }
+}
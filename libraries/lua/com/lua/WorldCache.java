@@ -0,0 +1,103 @@
+package libraries.lua.com.lua;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The current {@link WorldSnapshot}, read from a {@link WorldAdapter} at most once per tick.
+ * Behind the world and player APIs: every query of a tick shares one pass over the world.
+ *
+ * - snapshot() returns this tick's snapshot; the first call after a tick has passed rebuilds it.
+ * - setTickDriven(true) stops snapshot() from rebuilding; the host calls tick() from its game
+ *   tick instead, so the adapter only ever runs on the game thread (as with ChatPipeline).
+ * - The adapter is the running Minecraft world when its bindings are present, else
+ *   WorldAdapter.NONE; setAdapter() replaces it (e.g. with a synthetic world). With the Minecraft
+ *   adapter the cache hooks the game tick and turns tick-driven by itself (snapshots are empty
+ *   until the first tick); without a hook it warns and rebuilds on the calling thread.
+ * - If the adapter throws, the previous snapshot stays current and the error is logged.
+ * - Settings: -Dlua.world.tickMillis (50).
+ *
+ * Example:
+ *   WorldSnapshot s = WorldCache.snapshot();
+ *   int p = s.nearest(x, y, z, 64, true);
+ */
+public final class WorldCache {
+
+    private WorldCache() {}
+
+    private static final Log.Logger LOG = Log.logger("lua.world");
+    /** Time to read the world and index it, per rebuild. */
+    private static final Metrics.Timer BUILD_SPAN = Metrics.timer("world.snapshot");
+
+    private static volatile WorldAdapter adapter;
+    private static volatile WorldSnapshot current = WorldSnapshot.EMPTY;
+    private static volatile long builtAt;
+    private static volatile boolean stale = true;
+    private static volatile boolean tickDriven;
+    private static volatile long tickNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("lua.world.tickMillis", 50));
+
+    private static final LongAdder REBUILDS = new LongAdder();
+    private static final LongAdder FAILURES = new LongAdder();
+    private static volatile long lastBuildNanos;
+
+    /** The snapshot of the current tick. */
+    public static WorldSnapshot snapshot() {
+        if (adapter == null) adapter(); // may hook the game tick, so before tickDriven is read
+        if (!tickDriven && (stale || System.nanoTime() - builtAt >= tickNanos)) refresh(false);
+        return current;
+    }
+
+    /** Rebuild now; for hosts that drive the cache from their game tick. */
+    public static WorldSnapshot tick() {
+        return refresh(true);
+    }
+
+    private static synchronized WorldSnapshot refresh(boolean force) {
+        long t0 = System.nanoTime();
+        if (!force && !stale && t0 - builtAt < tickNanos) return current; // another caller just rebuilt it
+        try {
+            current = WorldSnapshot.of(adapter());
+            REBUILDS.increment();
+        } catch (RuntimeException | LinkageError e) {
+            FAILURES.increment();
+            BUILD_SPAN.recordError();
+            LOG.warn("world snapshot failed, keeping the last one: %s", e);
+        }
+        long now = System.nanoTime();
+        lastBuildNanos = now - t0;
+        BUILD_SPAN.record(lastBuildNanos);
+        builtAt = now;
+        stale = false;
+        return current;
+    }
+
+    private static synchronized WorldAdapter adapter() {
+        WorldAdapter a = adapter;
+        if (a == null) {
+            adapter = a = MinecraftWorldAdapter.createOrNone();
+            if (a == WorldAdapter.NONE) return a;
+            if (MinecraftWorldAdapter.driveFromTick()) tickDriven = true;
+            else LOG.warn("no game tick hook; the world is read from script threads (call setTickDriven/tick from the host)");
+        }
+        return a;
+    }
+
+    /* ---------------- Settings ---------------- */
+
+    /** Read the world through a; the next snapshot() rebuilds. */
+    public static void setAdapter(WorldAdapter a) {
+        adapter = a != null ? a : WorldAdapter.NONE;
+        stale = true;
+    }
+
+    public static synchronized void setTickDriven(boolean hostTicks) { tickDriven = hostTicks; }
+    public static boolean isTickDriven() { return tickDriven; }
+    public static void setTickMillis(long ms) { tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, ms)); }
+
+    public static String stats() {
+        WorldSnapshot s = current;
+        return "entities=" + s.size() + " players=" + s.playerCount() + " columns=" + s.cellCount()
+                + " rebuilds=" + REBUILDS.sum() + " failures=" + FAILURES.sum()
+                + String.format(" lastBuildMs=%.2f", lastBuildNanos / 1e6);
+    }
+}
@@ -0,0 +1,334 @@
+package libraries.lua.com.lua;
+
+import java.util.Arrays;
+
+/**
+ * The entities of one tick with a chunk-grid index: range, box and nearest queries look only at
+ * the 16x16 columns they overlap instead of at every entity.
+ *
+ * - Entities are stored grouped by column (struct of arrays), so a column is one contiguous run;
+ *   an entity is addressed by its position 0..size()-1 in this snapshot.
+ * - Columns are found through an open-addressing table keyed by column coordinates. When a query
+ *   would overlap more columns than are occupied, it walks the occupied columns instead, so a
+ *   huge radius costs at most one pass over the snapshot.
+ * - Players are also listed separately: player queries scan only them.
+ * - Immutable once built, so any thread may query it.
+ *
+ * Example:
+ *   WorldSnapshot s = WorldSnapshot.of(adapter);
+ *   for (int e : s.within(x, y, z, 32, false)) use(s.name(e), s.x(e));
+ */
+public final class WorldSnapshot {
+
+    /** Column width in blocks (a chunk). */
+    public static final int CELL = 16;
+
+    private static final int[] NONE = new int[0];
+
+    public static final WorldSnapshot EMPTY = new Builder(0).build();
+
+    // entity columns, in column order
+    private final long[] ids;
+    private final String[] names;
+    private final boolean[] players;
+    private final double[] xs, ys, zs, healths;
+    private final int size;
+
+    // occupied columns: key and [start, end) run in the arrays above
+    private final long[] cellKeys;
+    private final int[] cellStart;
+    private final int cells;
+    // open addressing over cellKeys: slot -> column + 1 (0 = empty)
+    private final int[] table;
+    private final int mask;
+
+    private final int[] playerIndex;
+
+    private WorldSnapshot(Builder b) {
+        size = b.size;
+        // column of every entity, then a counting sort by column
+        int cap = Integer.highestOneBit(Math.max(4, size * 2 - 1)) << 1;
+        int[] slots = new int[cap];
+        long[] keys = new long[Math.max(1, size)];
+        int[] counts = new int[Math.max(1, size)];
+        int[] cellOf = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            long key = key(cell(b.xs[i]), cell(b.zs[i]));
+            int s = slot(key, cap - 1);
+            while (slots[s] != 0 && keys[slots[s] - 1] != key) s = (s + 1) & (cap - 1);
+            if (slots[s] == 0) {
+                keys[n] = key;
+                slots[s] = ++n;
+            }
+            cellOf[i] = slots[s] - 1;
+            counts[cellOf[i]]++;
+        }
+        cells = n;
+        cellKeys = Arrays.copyOf(keys, n);
+        cellStart = new int[n + 1];
+        for (int c = 0; c < n; c++) cellStart[c + 1] = cellStart[c] + counts[c];
+        table = slots;
+        mask = cap - 1;
+
+        ids = new long[size];
+        names = new String[size];
+        players = new boolean[size];
+        xs = new double[size];
+        ys = new double[size];
+        zs = new double[size];
+        healths = new double[size];
+        int[] fill = Arrays.copyOf(cellStart, n);
+        int playerCount = 0;
+        for (int i = 0; i < size; i++) {
+            int at = fill[cellOf[i]]++;
+            ids[at] = b.ids[i];
+            names[at] = b.names[i];
+            players[at] = b.players[i];
+            xs[at] = b.xs[i];
+            ys[at] = b.ys[i];
+            zs[at] = b.zs[i];
+            healths[at] = b.healths[i];
+            if (b.players[i]) playerCount++;
+        }
+        playerIndex = new int[playerCount];
+        for (int i = 0, p = 0; i < size; i++) if (players[i]) playerIndex[p++] = i;
+    }
+
+    /** Read every entity from adapter into a new snapshot. */
+    public static WorldSnapshot of(WorldAdapter adapter) {
+        Builder b = new Builder(1024);
+        adapter.forEachEntity(b);
+        return b.build();
+    }
+
+    /* ---------------- Entities ---------------- */
+
+    public int size() { return size; }
+    public int playerCount() { return playerIndex.length; }
+    /** Occupied 16x16 columns. */
+    public int cellCount() { return cells; }
+
+    public long id(int e) { return ids[e]; }
+    public String name(int e) { return names[e]; }
+    public boolean isPlayer(int e) { return players[e]; }
+    public double x(int e) { return xs[e]; }
+    public double y(int e) { return ys[e]; }
+    public double z(int e) { return zs[e]; }
+    public double health(int e) { return healths[e]; }
+
+    /** Every player. */
+    public int[] players() { return playerIndex.clone(); }
+
+    /* ---------------- Queries ---------------- */
+
+    /** Entities (or only players) within radius r of (x, y, z). */
+    public int[] within(double x, double y, double z, double r, boolean playersOnly) {
+        if (!(r >= 0)) return NONE;
+        double r2 = r * r;
+        Hits hits = new Hits();
+        if (playersOnly) {
+            for (int e : playerIndex) if (dist2(e, x, y, z) <= r2) hits.add(e);
+            return hits.toArray();
+        }
+        int cx0 = cell(x - r), cx1 = cell(x + r), cz0 = cell(z - r), cz1 = cell(z + r);
+        if (columns(cx0, cx1, cz0, cz1) > cells) {
+            for (int c = 0; c < cells; c++) {
+                if (cellDist2(c, x, z) > r2) continue;
+                for (int e = cellStart[c]; e < cellStart[c + 1]; e++) if (dist2(e, x, y, z) <= r2) hits.add(e);
+            }
+            return hits.toArray();
+        }
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cz = cz0; cz <= cz1; cz++) {
+                int c = find(key(cx, cz));
+                if (c < 0) continue;
+                for (int e = cellStart[c]; e < cellStart[c + 1]; e++) if (dist2(e, x, y, z) <= r2) hits.add(e);
+            }
+        }
+        return hits.toArray();
+    }
+
+    /** Entities (or only players) inside the box with corners (x1, y1, z1) and (x2, y2, z2), inclusive. */
+    public int[] inBox(double x1, double y1, double z1, double x2, double y2, double z2, boolean playersOnly) {
+        double minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+        double minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+        double minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+        Hits hits = new Hits();
+        if (playersOnly) {
+            for (int e : playerIndex) if (inside(e, minX, minY, minZ, maxX, maxY, maxZ)) hits.add(e);
+            return hits.toArray();
+        }
+        int cx0 = cell(minX), cx1 = cell(maxX), cz0 = cell(minZ), cz1 = cell(maxZ);
+        if (columns(cx0, cx1, cz0, cz1) > cells) {
+            for (int c = 0; c < cells; c++) {
+                int cx = (int) (cellKeys[c] >> 32), cz = (int) cellKeys[c];
+                if (cx < cx0 || cx > cx1 || cz < cz0 || cz > cz1) continue;
+                for (int e = cellStart[c]; e < cellStart[c + 1]; e++) if (inside(e, minX, minY, minZ, maxX, maxY, maxZ)) hits.add(e);
+            }
+            return hits.toArray();
+        }
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cz = cz0; cz <= cz1; cz++) {
+                int c = find(key(cx, cz));
+                if (c < 0) continue;
+                for (int e = cellStart[c]; e < cellStart[c + 1]; e++) if (inside(e, minX, minY, minZ, maxX, maxY, maxZ)) hits.add(e);
+            }
+        }
+        return hits.toArray();
+    }
+
+    /** The entity (or player) nearest to (x, y, z) within maxDistance (negative: any distance), or -1. */
+    public int nearest(double x, double y, double z, double maxDistance, boolean playersOnly) {
+        double best = maxDistance >= 0 ? maxDistance * maxDistance : Double.POSITIVE_INFINITY;
+        int found = -1;
+        if (playersOnly) {
+            for (int e : playerIndex) {
+                double d = dist2(e, x, y, z);
+                if (d <= best) { best = d; found = e; }
+            }
+            return found;
+        }
+        // rings of columns around the query's column, until no unvisited column can be closer
+        int cx = cell(x), cz = cell(z);
+        int ring = 0;
+        for (; 8L * ring <= cells; ring++) {
+            double reach = Math.max(0, ring - 1) * (double) CELL; // least distance to any column of this ring
+            if (reach * reach > best) return found;
+            for (int i = -ring; i <= ring; i++) {
+                int step = i == -ring || i == ring ? 1 : 2 * ring; // the ring's perimeter only
+                for (int j = -ring; j <= ring; j += step) {
+                    int f = closest(find(key(cx + i, cz + j)), x, y, z, found, best);
+                    if (f != found) { found = f; best = dist2(f, x, y, z); }
+                }
+            }
+        }
+        // wider rings than there are occupied columns: check those columns instead
+        for (int c = 0; c < cells; c++) {
+            if (cellDist2(c, x, z) > best) continue;
+            int f = closest(c, x, y, z, found, best);
+            if (f != found) { found = f; best = dist2(f, x, y, z); }
+        }
+        return found;
+    }
+
+    /** The closer of found and the entities of column c (no column: found). */
+    private int closest(int c, double x, double y, double z, int found, double best) {
+        if (c < 0) return found;
+        for (int e = cellStart[c]; e < cellStart[c + 1]; e++) {
+            double d = dist2(e, x, y, z);
+            if (d <= best) { best = d; found = e; }
+        }
+        return found;
+    }
+
+    /* ---------------- Grid ---------------- */
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL);
+    }
+
+    private static long key(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xffffffffL);
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /** The occupied column with this key, or -1. */
+    private int find(long key) {
+        for (int s = slot(key, mask); ; s = (s + 1) & mask) {
+            int c = table[s];
+            if (c == 0) return -1;
+            if (cellKeys[c - 1] == key) return c - 1;
+        }
+    }
+
+    private static long columns(int cx0, int cx1, int cz0, int cz1) {
+        return ((long) cx1 - cx0 + 1) * ((long) cz1 - cz0 + 1);
+    }
+
+    /** Squared horizontal distance from (x, z) to column c. */
+    private double cellDist2(int c, double x, double z) {
+        double x0 = (int) (cellKeys[c] >> 32) * (double) CELL, z0 = (int) cellKeys[c] * (double) CELL;
+        double dx = x < x0 ? x0 - x : Math.max(0, x - (x0 + CELL));
+        double dz = z < z0 ? z0 - z : Math.max(0, z - (z0 + CELL));
+        return dx * dx + dz * dz;
+    }
+
+    private double dist2(int e, double x, double y, double z) {
+        double dx = xs[e] - x, dy = ys[e] - y, dz = zs[e] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private boolean inside(int e, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        return xs[e] >= minX && xs[e] <= maxX && ys[e] >= minY && ys[e] <= maxY && zs[e] >= minZ && zs[e] <= maxZ;
+    }
+
+    /** A growable int list for query results. */
+    private static final class Hits {
+        int[] a = new int[16];
+        int n;
+
+        void add(int e) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            a[n++] = e;
+        }
+
+        int[] toArray() {
+            return n == 0 ? NONE : Arrays.copyOf(a, n);
+        }
+    }
+
+    /* ---------------- Building ---------------- */
+
+    /** Collects entities in arrival order; build() indexes them. Also the sink adapters write into. */
+    public static final class Builder implements WorldAdapter.EntitySink {
+        long[] ids;
+        String[] names;
+        boolean[] players;
+        double[] xs, ys, zs, healths;
+        int size;
+
+        public Builder(int expected) {
+            int n = Math.max(16, expected);
+            ids = new long[n];
+            names = new String[n];
+            players = new boolean[n];
+            xs = new double[n];
+            ys = new double[n];
+            zs = new double[n];
+            healths = new double[n];
+        }
+
+        @Override public void entity(long id, String name, boolean player, double x, double y, double z, double health) {
+            if (!(x == x && z == z && Math.abs(x) < 3e7 && Math.abs(z) < 3e7)) return; // NaN or off any world
+            if (size == ids.length) grow();
+            ids[size] = id;
+            names[size] = name;
+            players[size] = player;
+            xs[size] = x;
+            ys[size] = y;
+            zs[size] = z;
+            healths[size] = health;
+            size++;
+        }
+
+        private void grow() {
+            int n = size * 2;
+            ids = Arrays.copyOf(ids, n);
+            names = Arrays.copyOf(names, n);
+            players = Arrays.copyOf(players, n);
+            xs = Arrays.copyOf(xs, n);
+            ys = Arrays.copyOf(ys, n);
+            zs = Arrays.copyOf(zs, n);
+            healths = Arrays.copyOf(healths, n);
+        }
+
+        public WorldSnapshot build() {
+            return new WorldSnapshot(this);
+        }
+    }
+}
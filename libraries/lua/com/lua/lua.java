@@ -1,7 +1,6 @@
 package libraries.lua.com.lua;
 
 import java.io.*;
-import java.lang.reflect.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
@@ -18,16 +17,26 @@ public class lua {
 
     /* ---------------- Basic functions (from your previous version) ---------------- */
 
+    /** Script output (print / warn / error); see {@link Log}. */
+    private static final Log.Logger OUT = Log.logger("lua");
+    private static final Log.Logger CHAT_LOG = Log.logger("lua.chat");
+
+    /** One line per argument, written asynchronously at INFO. */
     public static void print(Object... args) {
+        if (!OUT.isEnabled(Log.Level.INFO)) return;
         if (args == null || args.length == 0) {
-            System.out.println("nil");
+            OUT.info("nil");
             return;
         }
         for (Object o : args) {
-            System.out.println(tostring(o));
+            OUT.info(o);
         }
     }
 
+    /**
+     * Block the calling Java thread. Scripts spawned on a vm.Scheduler do not come here: their
+     * sleep parks the coroutine in the scheduler's timer wheel instead.
+     */
     public static void sleep(long ms) {
         try { Thread.sleep(ms); } catch (InterruptedException ignored) {}
     }
@@ -46,20 +55,437 @@ public class lua {
 
     /* ---------------- Tables / math / string / warn / error as before ---------------- */
 
+    /**
+     * Lua table: an array part for the keys 1..n and an open-addressing hash part for the rest.
+     *
+     * - Numeric keys are normalized (1, 1L and 1.0 are the same key) and stored unboxed, as are
+     *   numeric values; strings, booleans and other objects are kept as references.
+     * - Setting a value to nil (null) removes it; length() is the Lua border (#t).
+     * - Positions address entries without allocating and stay valid until a new key is added:
+     *     for (int p = t.next(-1); p >= 0; p = t.next(p)) { t.keyAt(p); t.valueAt(p); }   // pairs
+     *     for (long i = 1; t.tagOf(i) != table.NIL; i++) { t.getNumber(i, 0); }            // ipairs
+     *   Clearing or overwriting existing fields while iterating is allowed, as in Lua.
+     * - Not thread-safe.
+     */
     public static class table {
-        private java.util.HashMap<Object, Object> map = new java.util.HashMap<>();
-
-        public void set(Object key, Object value) { map.put(key, value); }
-        public Object get(Object key) { return map.get(key); }
-        public boolean contains(Object key) { return map.containsKey(key); }
-        public void remove(Object key) { map.remove(key); }
-        public java.util.Set<Object> keys() { return map.keySet(); }
-        public java.util.Collection<Object> values() { return map.values(); }
-        public int length() { return map.size(); }
-        @Override public String toString() { return map.toString(); }
+        /** Entry tags, see {@link #tagAt(int)} and {@link #keyTagAt(int)}. */
+        public static final byte NIL = 0, LONG = 1, DOUBLE = 2, REF = 3;
+
+        private static final byte[] NO_TAGS = new byte[0];
+        private static final long[] NO_BITS = new long[0];
+        private static final Object[] NO_REFS = new Object[0];
+        private static final int MAX_ARRAY = 1 << 30;
+
+        // array part: key i + 1 lives at index i; numbers in abits (DOUBLE as raw bits)
+        private byte[] atag = NO_TAGS;
+        private long[] abits = NO_BITS;
+        private Object[] aref = NO_REFS;    // allocated on the first non-numeric value
+        private int alive;
+
+        // hash part: power-of-two capacity, linear probing. A removed entry keeps its key with a
+        // nil value (so next() still finds it) until the next rehash drops it.
+        private byte[] ktag = NO_TAGS;
+        private long[] kbits = NO_BITS;
+        private Object[] kref = NO_REFS;
+        private byte[] vtag = NO_TAGS;
+        private long[] vbits = NO_BITS;
+        private Object[] vref = NO_REFS;
+        private int hkeys;
+        private int hlive;
+
+        public table() {}
+
+        /** Pre-sized table, like lua_createtable(narr, nrec). */
+        public table(int narr, int nrec) {
+            if (narr > 0) resizeArray(Math.min(narr, MAX_ARRAY));
+            if (nrec > 0) resizeHash(capacityFor(nrec));
+        }
+
+        /* ---- reads ---- */
+
+        public Object get(Object key) { return valueAt(find(key)); }
+
+        /** t[key] for an integer key, without boxing it. */
+        public Object geti(long key) { return valueAt(find(key)); }
+
+        public boolean contains(Object key) { return tagAt(find(key)) != NIL; }
+
+        /** Tag of the value stored under key (NIL when absent). */
+        public byte tagOf(long key) { return tagAt(find(key)); }
+        public byte tagOf(Object key) { return tagAt(find(key)); }
+
+        /** The number stored under key, or def if the value there is not a number. */
+        public double getNumber(long key, double def) {
+            int p = find(key);
+            return isNumberAt(p) ? doubleAt(p) : def;
+        }
+
+        public double getNumber(Object key, double def) {
+            int p = find(key);
+            return isNumberAt(p) ? doubleAt(p) : def;
+        }
+
+        public long getLong(long key, long def) {
+            int p = find(key);
+            return isNumberAt(p) ? longAt(p) : def;
+        }
+
+        public long getLong(Object key, long def) {
+            int p = find(key);
+            return isNumberAt(p) ? longAt(p) : def;
+        }
+
+        /* ---- writes (a nil value removes the key) ---- */
+
+        public void set(Object key, Object value) {
+            if (key instanceof Double || key instanceof Float) {
+                double d = ((Number) key).doubleValue();
+                long l = (long) d;
+                if (l == d && l != Long.MAX_VALUE) { seti(l, value); return; }
+                if (d != d) throw new IllegalArgumentException("table index is NaN");
+                putHash(DOUBLE, Double.doubleToRawLongBits(d), null, value);
+                return;
+            }
+            if (isIntegral(key)) { seti(((Number) key).longValue(), value); return; }
+            if (key == null) throw new IllegalArgumentException("table index is nil");
+            putHash(REF, 0, key, value);
+        }
+
+        /** t[key] = value for a number value, without boxing it. */
+        public void setNumber(Object key, double value) {
+            if (key instanceof Number) { set(key, (Object) value); return; }
+            if (key == null) throw new IllegalArgumentException("table index is nil");
+            putHash(REF, 0, key, DOUBLE, Double.doubleToRawLongBits(value), null);
+        }
+
+        /** t[key] = value for an integer key, without boxing it. */
+        public void seti(long key, Object value) {
+            if (value == null) putLong(key, NIL, 0, null);
+            else if (value instanceof Double || value instanceof Float) putLong(key, DOUBLE, Double.doubleToRawLongBits(((Number) value).doubleValue()), null);
+            else if (isIntegral(value)) putLong(key, LONG, ((Number) value).longValue(), null);
+            else putLong(key, REF, 0, value);
+        }
+
+        public void seti(long key, long value) { putLong(key, LONG, value, null); }
+        public void seti(long key, double value) { putLong(key, DOUBLE, Double.doubleToRawLongBits(value), null); }
+
+        public void remove(Object key) { if (key != null) set(key, null); }
+
+        /* ---- size ---- */
+
+        /** The border #t: n such that t[n] is non-nil and t[n+1] is nil (0 if t[1] is nil). */
+        public int length() {
+            int n = atag.length;
+            if (n > 0 && atag[n - 1] == NIL) {
+                int lo = 0, hi = n;     // t[lo] non-nil (or lo == 0), t[hi] nil
+                while (hi - lo > 1) {
+                    int m = (lo + hi) >>> 1;
+                    if (atag[m - 1] == NIL) hi = m; else lo = m;
+                }
+                return lo;
+            }
+            if (hlive == 0) return n;
+            long i = n, j = n + 1L;
+            while (tagOf(j) != NIL) {
+                i = j;
+                if (j > Integer.MAX_VALUE / 2) {
+                    long k = 1;
+                    while (tagOf(k) != NIL) k++;
+                    return (int) (k - 1);
+                }
+                j *= 2;
+            }
+            while (j - i > 1) {
+                long m = (i + j) >>> 1;
+                if (tagOf(m) == NIL) j = m; else i = m;
+            }
+            return (int) i;
+        }
+
+        /** Number of non-nil entries. */
+        public int size() { return alive + hlive; }
+
+        /* ---- positions ---- */
+
+        /** Position of key, or -1; the value there may be nil (see {@link #tagAt(int)}). */
+        public int find(long key) {
+            long i = key - 1;
+            if (i >= 0 && i < atag.length) return (int) i;
+            int h = hashFind(LONG, key, null);
+            return h < 0 ? -1 : atag.length + h;
+        }
+
+        public int find(double key) {
+            long l = (long) key;
+            if (l == key && l != Long.MAX_VALUE) return find(l);
+            if (key != key) return -1;
+            int h = hashFind(DOUBLE, Double.doubleToRawLongBits(key), null);
+            return h < 0 ? -1 : atag.length + h;
+        }
+
+        public int find(Object key) {
+            if (key instanceof Double || key instanceof Float) return find(((Number) key).doubleValue());
+            if (isIntegral(key)) return find(((Number) key).longValue());
+            if (key == null) return -1;
+            int h = hashFind(REF, 0, key);
+            return h < 0 ? -1 : atag.length + h;
+        }
+
+        /** Next position after pos (-1 to start) holding a non-nil value, or -1 at the end. */
+        public int next(int pos) {
+            int n = atag.length;
+            for (int p = pos + 1; p < n; p++) {
+                if (atag[p] != NIL) return p;
+            }
+            for (int h = Math.max(0, pos + 1 - n); h < vtag.length; h++) {
+                if (vtag[h] != NIL) return n + h;
+            }
+            return -1;
+        }
+
+        public byte tagAt(int pos) {
+            if (pos < 0) return NIL;
+            int n = atag.length;
+            return pos < n ? atag[pos] : vtag[pos - n];
+        }
+
+        public boolean isNumberAt(int pos) {
+            byte t = tagAt(pos);
+            return t == LONG || t == DOUBLE;
+        }
+
+        public double doubleAt(int pos) {
+            int n = atag.length;
+            byte t;
+            long bits;
+            if (pos < n) { t = atag[pos]; bits = abits[pos]; } else { t = vtag[pos - n]; bits = vbits[pos - n]; }
+            return t == LONG ? (double) bits : t == DOUBLE ? Double.longBitsToDouble(bits) : 0;
+        }
+
+        public long longAt(int pos) {
+            int n = atag.length;
+            byte t;
+            long bits;
+            if (pos < n) { t = atag[pos]; bits = abits[pos]; } else { t = vtag[pos - n]; bits = vbits[pos - n]; }
+            return t == LONG ? bits : t == DOUBLE ? (long) Double.longBitsToDouble(bits) : 0;
+        }
+
+        /** The value at pos if it is not a number, else null. */
+        public Object refAt(int pos) {
+            int n = atag.length;
+            if (pos < n) return aref.length == 0 ? null : aref[pos];
+            return vref[pos - n];
+        }
+
+        /** The value at pos, boxed (Long or Double) if it is a number; null if absent. */
+        public Object valueAt(int pos) {
+            switch (tagAt(pos)) {
+                case LONG: return longAt(pos);
+                case DOUBLE: return doubleAt(pos);
+                case REF: return refAt(pos);
+                default: return null;
+            }
+        }
+
+        public byte keyTagAt(int pos) {
+            int n = atag.length;
+            return pos < n ? LONG : ktag[pos - n];
+        }
+
+        public long keyLongAt(int pos) {
+            int n = atag.length;
+            if (pos < n) return pos + 1L;
+            int h = pos - n;
+            return ktag[h] == DOUBLE ? (long) Double.longBitsToDouble(kbits[h]) : kbits[h];
+        }
+
+        public double keyDoubleAt(int pos) {
+            int n = atag.length;
+            if (pos < n) return pos + 1.0;
+            int h = pos - n;
+            return ktag[h] == DOUBLE ? Double.longBitsToDouble(kbits[h]) : (double) kbits[h];
+        }
+
+        public Object keyRefAt(int pos) {
+            int n = atag.length;
+            return pos < n ? null : kref[pos - n];
+        }
+
+        /** The key at pos, boxed (Long or Double) if it is a number. */
+        public Object keyAt(int pos) {
+            switch (keyTagAt(pos)) {
+                case LONG: return keyLongAt(pos);
+                case DOUBLE: return keyDoubleAt(pos);
+                default: return keyRefAt(pos);
+            }
+        }
+
+        /* ---- snapshots (allocate; prefer positions in hot code) ---- */
+
+        public java.util.Set<Object> keys() {
+            java.util.Set<Object> out = new java.util.LinkedHashSet<>();
+            for (int p = next(-1); p >= 0; p = next(p)) out.add(keyAt(p));
+            return out;
+        }
+
+        public java.util.Collection<Object> values() {
+            java.util.List<Object> out = new java.util.ArrayList<>(size());
+            for (int p = next(-1); p >= 0; p = next(p)) out.add(valueAt(p));
+            return out;
+        }
+
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder("{");
+            for (int p = next(-1); p >= 0; p = next(p)) {
+                if (sb.length() > 1) sb.append(", ");
+                Object v = valueAt(p);
+                sb.append(keyAt(p)).append('=').append(v == this ? "(this table)" : v);
+            }
+            return sb.append('}').toString();
+        }
+
+        /* ---- internals ---- */
+
+        private static boolean isIntegral(Object o) {
+            return o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte;
+        }
+
+        private static int hash(byte tag, long bits, Object ref) {
+            long h = (tag == REF ? ref.hashCode() : bits) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static int capacityFor(int entries) {
+            int cap = 4;
+            while (cap < entries * 2 && cap < (1 << 30)) cap <<= 1;
+            return cap;
+        }
+
+        private int hashFind(byte tag, long bits, Object ref) {
+            if (hkeys == 0) return -1;
+            int mask = ktag.length - 1;
+            for (int i = hash(tag, bits, ref) & mask; ; i = (i + 1) & mask) {
+                byte t = ktag[i];
+                if (t == NIL) return -1;
+                if (t == tag && (tag == REF ? ref.equals(kref[i]) : kbits[i] == bits)) return i;
+            }
+        }
+
+        private void putLong(long key, byte vt, long bits, Object ref) {
+            long i = key - 1;
+            if (i >= 0 && i < atag.length) {
+                storeArray((int) i, vt, bits, ref);
+                return;
+            }
+            if (vt != NIL && i == atag.length && i < MAX_ARRAY) {
+                growArray();
+                storeArray((int) i, vt, bits, ref);
+                return;
+            }
+            putHash(LONG, key, null, vt, bits, ref);
+        }
+
+        private void putHash(byte kt, long kb, Object kr, Object value) {
+            if (value == null) putHash(kt, kb, kr, NIL, 0, null);
+            else if (value instanceof Double || value instanceof Float) putHash(kt, kb, kr, DOUBLE, Double.doubleToRawLongBits(((Number) value).doubleValue()), null);
+            else if (isIntegral(value)) putHash(kt, kb, kr, LONG, ((Number) value).longValue(), null);
+            else putHash(kt, kb, kr, REF, 0, value);
+        }
+
+        private void putHash(byte kt, long kb, Object kr, byte vt, long bits, Object ref) {
+            int h = hashFind(kt, kb, kr);
+            if (h < 0) {
+                if (vt == NIL) return;
+                if ((hkeys + 1) * 4 > ktag.length * 3) resizeHash(capacityFor(hlive + 1));
+                int mask = ktag.length - 1;
+                h = hash(kt, kb, kr) & mask;
+                while (ktag[h] != NIL) h = (h + 1) & mask;
+                ktag[h] = kt;
+                kbits[h] = kb;
+                kref[h] = kr;
+                hkeys++;
+            }
+            byte old = vtag[h];
+            vtag[h] = vt;
+            vbits[h] = bits;
+            vref[h] = ref;
+            if (old == NIL && vt != NIL) hlive++;
+            else if (old != NIL && vt == NIL) hlive--;
+        }
+
+        private void storeArray(int i, byte vt, long bits, Object ref) {
+            byte old = atag[i];
+            atag[i] = vt;
+            abits[i] = bits;
+            if (vt == REF) {
+                if (aref.length == 0) aref = new Object[atag.length];
+                aref[i] = ref;
+            } else if (aref.length != 0) {
+                aref[i] = null;
+            }
+            if (old == NIL && vt != NIL) alive++;
+            else if (old != NIL && vt == NIL) alive--;
+        }
+
+        /** Double the array part and pull in keys that now fit; repeat while the run continues. */
+        private void growArray() {
+            do {
+                int from = atag.length;
+                resizeArray((int) Math.min(MAX_ARRAY, Math.max(4L, from * 2L)));
+                if (hlive == 0) return;
+                for (int i = from; i < atag.length; i++) {
+                    int h = hashFind(LONG, i + 1L, null);
+                    if (h >= 0 && vtag[h] != NIL) {
+                        storeArray(i, vtag[h], vbits[h], vref[h]);
+                        vtag[h] = NIL;
+                        vref[h] = null;
+                        hlive--;
+                    }
+                }
+            } while (atag.length < MAX_ARRAY && hlive > 0 && tagAt(find(atag.length + 1L)) != NIL);
+        }
+
+        private void resizeArray(int size) {
+            atag = java.util.Arrays.copyOf(atag, size);
+            abits = java.util.Arrays.copyOf(abits, size);
+            if (aref.length != 0) aref = java.util.Arrays.copyOf(aref, size);
+        }
+
+        private void resizeHash(int cap) {
+            byte[] okt = ktag, ovt = vtag;
+            long[] okb = kbits, ovb = vbits;
+            Object[] okr = kref, ovr = vref;
+            ktag = new byte[cap];
+            kbits = new long[cap];
+            kref = new Object[cap];
+            vtag = new byte[cap];
+            vbits = new long[cap];
+            vref = new Object[cap];
+            hkeys = 0;
+            int mask = cap - 1;
+            for (int j = 0; j < okt.length; j++) {
+                if (ovt[j] == NIL) continue;
+                int h = hash(okt[j], okb[j], okr[j]) & mask;
+                while (ktag[h] != NIL) h = (h + 1) & mask;
+                ktag[h] = okt[j];
+                kbits[h] = okb[j];
+                kref[h] = okr[j];
+                vtag[h] = ovt[j];
+                vbits[h] = ovb[j];
+                vref[h] = ovr[j];
+                hkeys++;
+            }
+        }
     }
     public static table table() { return new table(); }
 
+    /**
+     * Lua's math library. For whole arrays or buffers at once see {@link BatchMath}.
+     *
+     * - random draws from a generator owned by the calling thread (a SplittableRandom split off a
+     *   shared root), so threads never contend the way they did on Math.random()'s shared seed.
+     * - randomseed(seed) makes the calling thread's sequence repeatable; other threads are unaffected.
+     */
     public static class math {
         public static double abs(double x) { return Math.abs(x); }
         public static double sqrt(double x) { return Math.sqrt(x); }
@@ -68,11 +494,45 @@ public class lua {
         public static double tan(double x) { return Math.tan(x); }
         public static double floor(double x) { return Math.floor(x); }
         public static double ceil(double x) { return Math.ceil(x); }
+
+        private static final SplittableRandom ROOT = new SplittableRandom();
+        private static final ThreadLocal<SplittableRandom> RANDOM = ThreadLocal.withInitial(math::split);
+
+        private static SplittableRandom split() {
+            synchronized (ROOT) {
+                return ROOT.split();
+            }
+        }
+
+        /** The calling thread's generator. */
+        public static SplittableRandom generator() { return RANDOM.get(); }
+
+        /** A uniform double in [0, 1). */
+        public static double random() { return RANDOM.get().nextDouble(); }
+
+        /** A uniform integer in [1, max]. */
+        public static int random(int max) { return random(1, max); }
+
+        /** A uniform integer in [min, max]. */
         public static int random(int min, int max) {
-            return (int) (Math.random() * (max - min + 1)) + min;
+            if (min > max) throw new IllegalArgumentException("bad argument to 'random' (interval is empty)");
+            return (int) RANDOM.get().nextLong(min, (long) max + 1);
         }
+
+        /** Restart the calling thread's sequence from seed. */
+        public static void randomseed(long seed) { RANDOM.set(new SplittableRandom(seed)); }
     }
 
+    /**
+     * Lua's string library for Java callers. Scripts get the same functions, with multiple
+     * results, from the VM's own string table.
+     *
+     * - find / match / gmatch / gsub take Lua patterns, compiled once and cached (see {@link LuaPattern}).
+     *   They accept any CharSequence, so a StringBuilder or a view() of a large buffer is matched
+     *   in place; only returned captures become Strings.
+     * - For offsets instead of substrings use matcher(s, pattern) and read start(i) / end(i).
+     * - format follows C's printf as Lua does: %d %i %u %c %o %x %X %e %E %f %g %G %a %q %s %%.
+     */
     public static class string {
         public static int len(String s) { return s.length(); }
         public static String upper(String s) { return s.toUpperCase(); }
@@ -80,10 +540,327 @@ public class lua {
         public static boolean contains(String s, String find) { return s.contains(find); }
         public static String sub(String s, int start, int end) { return s.substring(start - 1, end); }
         public static String rep(String s, int n) { return s.repeat(n); }
+        public static String reverse(String s) { return new StringBuilder(s).reverse().toString(); }
+
+        /** Characters i..j (1-based, inclusive) of s as a CharSequence that shares s's storage. */
+        public static CharSequence view(CharSequence s, int i, int j) {
+            return java.nio.CharBuffer.wrap(s, i - 1, j);
+        }
+
+        /** Codes of the characters i..j (1-based, inclusive). */
+        public static int[] codes(String s, int i, int j) {
+            int from = Math.max(i, 1), to = Math.min(j, s.length());
+            int[] out = new int[Math.max(0, to - from + 1)];
+            for (int k = 0; k < out.length; k++) out[k] = s.charAt(from - 1 + k);
+            return out;
+        }
+
+        /** string.char: a string of the given character codes. */
+        public static String chars(int... codes) {
+            char[] c = new char[codes.length];
+            for (int i = 0; i < codes.length; i++) c[i] = (char) codes[i];
+            return new String(c);
+        }
+
+        /** {start, end} (1-based, inclusive) of the first match of pattern in s, or null. */
+        public static int[] find(CharSequence s, String pattern) {
+            LuaPattern.Matcher m = matcher(s, pattern);
+            return m.find(0) ? new int[] { m.start() + 1, m.end() } : null;
+        }
+
+        /** The first capture of the first match (the whole match if there are no captures), or null. */
+        public static String match(CharSequence s, String pattern) {
+            LuaPattern.Matcher m = matcher(s, pattern);
+            return m.find(0) ? String.valueOf(m.capture(1)) : null;
+        }
+
+        /** Each match's first capture (or the whole match), found lazily. */
+        public static Iterable<String> gmatch(CharSequence s, String pattern) {
+            LuaPattern p = LuaPattern.compile(pattern);
+            return () -> new Iterator<String>() {
+                final LuaPattern.Matcher m = p.matcher(s);
+                int from = 0;
+                boolean ready;
+
+                @Override public boolean hasNext() {
+                    if (!ready && from <= s.length() && m.find(from)) {
+                        ready = true;
+                        from = m.nextFrom();
+                    }
+                    return ready;
+                }
+
+                @Override public String next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    ready = false;
+                    return String.valueOf(m.capture(1));
+                }
+            };
+        }
+
+        /** A matcher over s for offset-based loops: {@code for (int at = 0; m.find(at); at = m.nextFrom())}. */
+        public static LuaPattern.Matcher matcher(CharSequence s, String pattern) {
+            return LuaPattern.compile(pattern).matcher(s);
+        }
+
+        public static String gsub(CharSequence s, String pattern, String repl) {
+            return gsub(s, pattern, repl, Integer.MAX_VALUE);
+        }
+
+        /** Replace up to max matches; repl may use %0-%9 for captures and %% for '%'. */
+        public static String gsub(CharSequence s, String pattern, String repl, int max) {
+            LuaPattern.Matcher m = matcher(s, pattern);
+            StringBuilder out = new StringBuilder(s.length());
+            int at = 0, last = -1, n = 0, len = s.length();
+            while (n < max) {
+                int e = m.matchAt(at);
+                if (e >= 0 && e != last) {
+                    n++;
+                    m.appendReplacement(out, repl);
+                    at = last = e;
+                } else if (at < len) {
+                    out.append(s.charAt(at++));
+                } else {
+                    break;
+                }
+                if (m.pattern().isAnchored()) break;
+            }
+            out.append(s, at, len);
+            return out.toString();
+        }
+
+        /* ---------------- format ---------------- */
+
+        /**
+         * Lua's string.format. Numbers may be given as any Number or a numeric String; %s prints
+         * numbers the way Lua does (%.14g). Errors throw IllegalArgumentException with Lua's message.
+         */
+        public static String format(String fmt, Object... args) {
+            StringBuilder out = new StringBuilder(fmt.length() + 16 * args.length);
+            int arg = 0;
+            int n = fmt.length();
+            for (int i = 0; i < n; i++) {
+                char c = fmt.charAt(i);
+                if (c != '%') {
+                    out.append(c);
+                    continue;
+                }
+                if (++i >= n) throw new IllegalArgumentException("invalid conversion '%' to 'format'");
+                if (fmt.charAt(i) == '%') {
+                    out.append('%');
+                    continue;
+                }
+                int specStart = i;
+                while (i < n && "-+ #0".indexOf(fmt.charAt(i)) >= 0) i++;
+                String flags = fmt.substring(specStart, i);
+                int width = -1, precision = -1;
+                int digits = i;
+                while (i < n && Character.isDigit(fmt.charAt(i))) i++;
+                if (i > digits) width = Integer.parseInt(fmt.substring(digits, i));
+                if (i < n && fmt.charAt(i) == '.') {
+                    digits = ++i;
+                    while (i < n && Character.isDigit(fmt.charAt(i))) i++;
+                    precision = i > digits ? Integer.parseInt(fmt.substring(digits, i)) : 0;
+                }
+                if (i >= n || width > 99 || precision > 99 || flags.length() > 5) {
+                    throw new IllegalArgumentException("invalid conversion '%" + fmt.substring(specStart, Math.min(i + 1, n)) + "' to 'format'");
+                }
+                char conv = fmt.charAt(i);
+                if (arg >= args.length) throw new IllegalArgumentException("bad argument #" + (arg + 2) + " to 'format' (no value)");
+                Object v = args[arg++];
+                String body;
+                switch (conv) {
+                    case 'd': case 'i': case 'u':
+                        body = formatInteger(toNumber(v, arg), flags, precision);
+                        break;
+                    case 'c':
+                        body = String.valueOf((char) toNumber(v, arg));
+                        break;
+                    case 'o': case 'x': case 'X': {
+                        long l = (long) toNumber(v, arg);
+                        String digitsText = conv == 'o' ? Long.toOctalString(l) : Long.toHexString(l);
+                        if (precision >= 0) digitsText = zeros(precision - digitsText.length()) + digitsText;
+                        if (flags.indexOf('#') >= 0 && l != 0) digitsText = (conv == 'o' ? "0" : "0x") + digitsText;
+                        body = conv == 'X' ? digitsText.toUpperCase() : digitsText;
+                        break;
+                    }
+                    case 'e': case 'E': case 'f': case 'F': case 'g': case 'G': case 'a': case 'A': {
+                        double d = toNumber(v, arg);
+                        int p = precision < 0 ? 6 : precision;
+                        boolean alt = flags.indexOf('#') >= 0;
+                        String mag;
+                        if (!Double.isFinite(d)) mag = d != d ? "nan" : "inf";
+                        else if (conv == 'e' || conv == 'E') mag = scientific(Math.abs(d), p, alt);
+                        else if (conv == 'f' || conv == 'F') mag = fixed(Math.abs(d), p, alt);
+                        else if (conv == 'g' || conv == 'G') mag = general(Math.abs(d), p, alt);
+                        else mag = hex(Math.abs(d));
+                        boolean negative = d < 0 || (d == 0 && 1 / d < 0);
+                        body = (negative ? "-" : flags.indexOf('+') >= 0 ? "+" : flags.indexOf(' ') >= 0 ? " " : "") + mag;
+                        if (Character.isUpperCase(conv)) body = body.toUpperCase();
+                        break;
+                    }
+                    case 'q':
+                        body = quote(v);
+                        break;
+                    case 's': {
+                        body = formatValue(v);
+                        if (precision >= 0 && body.length() > precision) body = body.substring(0, precision);
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("invalid conversion '%" + fmt.substring(specStart, i + 1) + "' to 'format'");
+                }
+                pad(out, body, width, flags, "dicuoxXeEfFgGaA".indexOf(conv) >= 0);
+            }
+            return out.toString();
+        }
+
+        private static double toNumber(Object v, int arg) {
+            if (v instanceof Number) return ((Number) v).doubleValue();
+            if (v instanceof String) {
+                String t = ((String) v).trim();
+                try {
+                    if (t.startsWith("0x") || t.startsWith("0X")) return Long.parseLong(t.substring(2), 16);
+                    return Double.parseDouble(t);
+                } catch (NumberFormatException ignored) {
+                    // fall through to the error
+                }
+            }
+            throw new IllegalArgumentException("bad argument #" + (arg + 1) + " to 'format' (number expected, got "
+                    + typeName(v) + ")");
+        }
+
+        private static String typeName(Object v) {
+            if (v == null) return "nil";
+            if (v instanceof Boolean) return "boolean";
+            if (v instanceof String) return "string";
+            if (v instanceof table) return "table";
+            return "userdata";
+        }
+
+        private static String formatInteger(double d, String flags, int precision) {
+            long l = (long) d;
+            String digits = Long.toString(Math.abs(l));
+            if (l == Long.MIN_VALUE) digits = digits.substring(1);
+            if (precision >= 0) digits = precision == 0 && l == 0 ? "" : zeros(precision - digits.length()) + digits;
+            if (l < 0) return "-" + digits;
+            if (flags.indexOf('+') >= 0) return "+" + digits;
+            if (flags.indexOf(' ') >= 0) return " " + digits;
+            return digits;
+        }
+
+        /*
+         * %f / %e / %g of a finite, non-negative d. Rounding is done on the exact binary value,
+         * half to even, as C's printf does (Java's Formatter rounds half up: 2.25 -> "2.3").
+         */
+        private static String fixed(double d, int p, boolean alt) {
+            String s = new java.math.BigDecimal(d).setScale(p, java.math.RoundingMode.HALF_EVEN).toPlainString();
+            return alt && p == 0 ? s + "." : s;
+        }
+
+        private static String scientific(double d, int p, boolean alt) {
+            String digits;
+            int exp;
+            if (d == 0) {
+                digits = "0";
+                exp = 0;
+            } else {
+                java.math.BigDecimal bd = new java.math.BigDecimal(d).round(new java.math.MathContext(p + 1, java.math.RoundingMode.HALF_EVEN));
+                digits = bd.unscaledValue().toString();
+                exp = bd.precision() - bd.scale() - 1;
+            }
+            StringBuilder b = new StringBuilder(p + 8).append(digits.charAt(0));
+            if (p > 0 || alt) b.append('.');
+            for (int i = 1; i <= p; i++) b.append(i < digits.length() ? digits.charAt(i) : '0');
+            b.append(exp < 0 ? "e-" : "e+");
+            int e = Math.abs(exp);
+            if (e < 10) b.append('0');
+            return b.append(e).toString();
+        }
+
+        private static String hex(double d) {
+            String h = Double.toHexString(d).replace(".0p", "p");
+            int at = h.indexOf('p') + 1;
+            return h.charAt(at) == '-' ? h : h.substring(0, at) + "+" + h.substring(at);
+        }
+
+        /** C's %g: %e or %f depending on the exponent, without trailing zeros unless '#'. */
+        private static String general(double d, int precision, boolean alt) {
+            int p = precision == 0 ? 1 : precision;
+            int exp = 0;
+            if (d != 0) {
+                java.math.BigDecimal bd = new java.math.BigDecimal(d).round(new java.math.MathContext(p, java.math.RoundingMode.HALF_EVEN));
+                exp = bd.precision() - bd.scale() - 1;
+            }
+            String s = exp < -4 || exp >= p ? scientific(d, p - 1, alt) : fixed(d, p - 1 - exp, alt);
+            if (alt) return s;
+            int e = s.indexOf('e');
+            String mantissa = e >= 0 ? s.substring(0, e) : s;
+            if (mantissa.indexOf('.') >= 0) {
+                int end = mantissa.length();
+                while (mantissa.charAt(end - 1) == '0') end--;
+                if (mantissa.charAt(end - 1) == '.') end--;
+                mantissa = mantissa.substring(0, end);
+            }
+            return e >= 0 ? mantissa + s.substring(e) : mantissa;
+        }
+
+        /** %s of a value: numbers as Lua prints them, everything else through tostring. */
+        private static String formatValue(Object v) {
+            if (v instanceof Double || v instanceof Float) {
+                double d = ((Number) v).doubleValue();
+                if (d == Math.rint(d) && Math.abs(d) < 1e15) return Long.toString((long) d);
+                if (!Double.isFinite(d)) return d != d ? "nan" : d > 0 ? "inf" : "-inf";
+                return (d < 0 ? "-" : "") + general(Math.abs(d), 14, false);
+            }
+            return v instanceof String ? (String) v : tostring(v);
+        }
+
+        /** %q: a string literal Lua can read back. */
+        private static String quote(Object v) {
+            if (!(v instanceof String)) return formatValue(v);
+            String s = (String) v;
+            StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': b.append("\\\""); break;
+                    case '\\': b.append("\\\\"); break;
+                    case '\n': b.append("\\\n"); break;
+                    case '\r': b.append("\\r"); break;
+                    case '\0': b.append("\\0"); break;
+                    default: b.append(c);
+                }
+            }
+            return b.append('"').toString();
+        }
+
+        private static void pad(StringBuilder out, String body, int width, String flags, boolean numeric) {
+            int fill = width - body.length();
+            if (fill <= 0) {
+                out.append(body);
+            } else if (flags.indexOf('-') >= 0) {
+                out.append(body);
+                for (int i = 0; i < fill; i++) out.append(' ');
+            } else if (numeric && flags.indexOf('0') >= 0 && !body.endsWith("inf") && !body.endsWith("nan")) {
+                int sign = !body.isEmpty() && "+- ".indexOf(body.charAt(0)) >= 0 ? 1 : 0;
+                if (body.startsWith("0x", sign) || body.startsWith("0X", sign)) sign += 2;
+                out.append(body, 0, sign);
+                for (int i = 0; i < fill; i++) out.append('0');
+                out.append(body, sign, body.length());
+            } else {
+                for (int i = 0; i < fill; i++) out.append(' ');
+                out.append(body);
+            }
+        }
+
+        private static String zeros(int n) {
+            return n > 0 ? "0".repeat(n) : "";
+        }
     }
 
-    public static void warn(Object msg) { System.out.println("[WARN] " + msg); }
-    public static void error(Object msg) { System.out.println("[ERROR] " + msg); }
+    public static void warn(Object msg) { OUT.warn(msg); }
+    public static void error(Object msg) { OUT.error(msg); }
 
     /* ---------------- IO: run and eval ---------------- */
 
@@ -94,91 +871,311 @@ public class lua {
         public final int exitCode;
         public final String stdout;
         public final String stderr;
+        /** True if stdout or stderr went over the output limit and was cut short. */
+        public final boolean truncated;
+        /** True if the process was killed at the io.run deadline (exitCode is then -1). */
+        public final boolean timedOut;
         public ProcessResult(int exitCode, String stdout, String stderr) {
-            this.exitCode = exitCode; this.stdout = stdout; this.stderr = stderr;
+            this(exitCode, stdout, stderr, false);
+        }
+        public ProcessResult(int exitCode, String stdout, String stderr, boolean truncated) {
+            this(exitCode, stdout, stderr, truncated, false);
+        }
+        public ProcessResult(int exitCode, String stdout, String stderr, boolean truncated, boolean timedOut) {
+            this.exitCode = exitCode; this.stdout = stdout; this.stderr = stderr; this.truncated = truncated; this.timedOut = timedOut;
         }
         @Override public String toString() {
-            return "exit=" + exitCode + " stdout=" + stdout + " stderr=" + stderr;
+            return "exit=" + exitCode + " stdout=" + stdout + " stderr=" + stderr + (truncated ? " (truncated)" : "")
+                    + (timedOut ? " (timed out)" : "");
         }
     }
 
+    /** Receives io.run output line by line as the process produces it. */
+    public interface OutputListener {
+        void line(boolean stderr, String line);
+    }
+
+    private static volatile int maxOutput = Integer.getInteger("lua.io.maxOutput", 1 << 20);
+
+    /** Characters kept per stream by io.run (default 1M, or -Dlua.io.maxOutput); the rest is dropped. */
+    public static void io_setMaxOutput(int chars) { maxOutput = Math.max(0, chars); }
+    public static int io_maxOutput() { return maxOutput; }
+
     /**
      * Run an OS command synchronously. Returns stdout/stderr and exit code.
+     * Output past the limit (see io_setMaxOutput) is read and dropped, and the result is marked truncated.
      * Example: io.run("echo hello")
      */
     public static ProcessResult io_run(String command) {
-        try {
-            // On Windows keep using "cmd /c", on Unix use "sh -c"
-            boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
-            ProcessBuilder pb = isWindows
-                    ? new ProcessBuilder("cmd", "/c", command)
-                    : new ProcessBuilder("sh", "-c", command);
+        return runProcess(command, maxOutput, null);
+    }
 
-            pb.redirectErrorStream(false);
-            Process p = pb.start();
+    /** io.run with a per-call output limit in characters. */
+    public static ProcessResult io_run(String command, int maxOutputChars) {
+        return runProcess(command, Math.max(0, maxOutputChars), null);
+    }
 
-            // read stdout and stderr concurrently
-            Future<String> outF = readStreamAsync(p.getInputStream());
-            Future<String> errF = readStreamAsync(p.getErrorStream());
+    /**
+     * Run an OS command and stream its output to listener line by line instead of collecting it;
+     * the returned result carries the exit code with empty stdout/stderr. Calls to the listener are
+     * serialized, and lines longer than the output limit are cut.
+     * Example: io.run("ping -c 3 localhost", (err, line) -> print(line))
+     */
+    public static ProcessResult io_run(String command, OutputListener listener) {
+        return runProcess(command, maxOutput, Objects.requireNonNull(listener, "listener"));
+    }
 
-            int exit = p.waitFor();
-            String out = outF.get(5, TimeUnit.SECONDS);
-            String err = errF.get(5, TimeUnit.SECONDS);
-            return new ProcessResult(exit, out, err);
+    /**
+     * io.run for an idempotent command whose result may be reused for ttlMillis (see {@link ShellPool}).
+     * Example: io.runCached("git rev-parse HEAD", 60000)
+     */
+    public static ProcessResult io_runCached(String command, long ttlMillis) {
+        return ShellPool.cached(command, ttlMillis, () -> io_run(command));
+    }
+
+    private static final Metrics.Timer RUN_SPAN = Metrics.timer("io.run");
+    private static final Metrics.Timer EVAL_SPAN = Metrics.timer("io.eval");
+    private static final Metrics.Timer CHAT_SPAN = Metrics.timer("chat.submit");
+
+    private static ProcessResult runProcess(String command, int limit, OutputListener listener) {
+        long t0 = RUN_SPAN.start();
+        try {
+            ProcessResult r = ShellPool.isEnabled() ? ShellPool.run(command, limit, listener) : spawn(command, limit, listener);
+            if (r.exitCode != 0) RUN_SPAN.error(t0);
+            return r;
         } catch (Exception e) {
+            RUN_SPAN.error(t0);
             return new ProcessResult(-1, "", e.getMessage());
+        } finally {
+            RUN_SPAN.stop(t0);
+        }
+    }
+
+    /** Start a new process for command (see {@link ShellPool} for the pooled path). */
+    private static ProcessResult spawn(String command, int limit, OutputListener listener) throws Exception {
+        long t0 = System.nanoTime();
+        // On Windows keep using "cmd /c", on Unix use "sh -c"
+        boolean isWindows = System.getProperty("os.name").toLowerCase().contains("win");
+        ProcessBuilder pb = isWindows
+                ? new ProcessBuilder("cmd", "/c", command)
+                : new ProcessBuilder("sh", "-c", command);
+
+        pb.redirectErrorStream(false);
+        Process p = pb.start();
+        ShellPool.Deadline deadline = ShellPool.killAfter(p, ShellPool.timeoutMillis());
+        try {
+            // stderr is drained on the shared pool, stdout on this thread
+            OutputReader out = new OutputReader(false, limit, listener);
+            OutputReader err = new OutputReader(true, limit, listener);
+            Future<?> errF = IoPool.EXECUTOR.submit(() -> { err.drain(p.getErrorStream()); return null; });
+            out.drain(p.getInputStream());
+
+            int exit = p.waitFor();
+            errF.get(5, TimeUnit.SECONDS);
+            return new ProcessResult(deadline.expired ? -1 : exit, out.text(), err.text(), out.truncated || err.truncated, deadline.expired);
+        } finally {
+            deadline.cancel();
+            ShellPool.recordCold(System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Executor shared by all io.run calls: virtual threads when the runtime has them, otherwise a
+     * bounded pool of daemon threads (-Dlua.io.threads, default 2 per CPU) that time out when idle.
+     */
+    static final class IoPool {
+        static final ExecutorService EXECUTOR = create();
+
+        private static ExecutorService create() {
+            try {
+                java.lang.invoke.MethodHandle factory = java.lang.invoke.MethodHandles.publicLookup().findStatic(
+                        Executors.class, "newVirtualThreadPerTaskExecutor",
+                        java.lang.invoke.MethodType.methodType(ExecutorService.class));
+                return (ExecutorService) factory.invoke();
+            } catch (Throwable ignored) {
+                // before Java 21 (or without --enable-preview on 19/20)
+            }
+            int threads = Math.max(1, Integer.getInteger("lua.io.threads", 2 * Runtime.getRuntime().availableProcessors()));
+            java.util.concurrent.atomic.AtomicInteger ids = new java.util.concurrent.atomic.AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "lua-io-" + ids.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
         }
     }
 
-    private static Future<String> readStreamAsync(InputStream is) {
-        ExecutorService es = Executors.newSingleThreadExecutor();
-        return es.submit(() -> {
-            try (BufferedReader r = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-                StringBuilder sb = new StringBuilder();
-                String l;
-                while ((l = r.readLine()) != null) {
-                    sb.append(l).append("\n");
+    /** Splits a process stream into lines; collects up to limit chars or forwards to a listener. */
+    static final class OutputReader {
+        private final boolean stderr;
+        private final int limit;
+        private final OutputListener listener;
+        private final StringBuilder text = new StringBuilder();
+        /** Some output was cut: a line past the limit, or everything after the total reached it. */
+        volatile boolean truncated;
+        /** text holds limit chars; later lines are dropped. */
+        private boolean full;
+
+        OutputReader(boolean stderr, int limit, OutputListener listener) {
+            this.stderr = stderr;
+            this.limit = limit;
+            this.listener = listener;
+        }
+
+        void drain(InputStream is) throws IOException {
+            try (Reader r = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+                char[] buf = new char[8192];
+                StringBuilder line = new StringBuilder();
+                boolean afterCr = false;
+                int n;
+                while ((n = r.read(buf)) > 0) {
+                    for (int i = 0; i < n; i++) {
+                        char c = buf[i];
+                        if (c == '\n' || c == '\r') {
+                            if (!(c == '\n' && afterCr)) {
+                                emit(line);
+                                line.setLength(0);
+                            }
+                            afterCr = c == '\r';
+                            continue;
+                        }
+                        afterCr = false;
+                        if (line.length() < limit) line.append(c);
+                        else truncated = true;
+                    }
                 }
-                return sb.toString();
-            } finally {
-                es.shutdown();
+                if (line.length() > 0) emit(line);
             }
-        });
+        }
+
+        /** One line of a framed stream (see ShellPool), cut to the limit like drain() does. */
+        void add(String line) {
+            if (line.length() > limit) {
+                truncated = true;
+                line = line.substring(0, limit);
+            }
+            emit(line);
+        }
+
+        private void emit(CharSequence line) {
+            if (listener != null) {
+                synchronized (listener) {
+                    listener.line(stderr, line.toString());
+                }
+                return;
+            }
+            if (full) return;
+            int room = limit - text.length();
+            if (line.length() + 1 > room) {
+                text.append(line, 0, Math.min(line.length(), room));
+                truncated = true;
+                full = true;
+                return;
+            }
+            text.append(line).append('\n');
+        }
+
+        String text() { return text.toString(); }
     }
 
     /**
      * Evaluate a script using the Java ScriptEngine if available (commonly JS/Nashorn or other).
+     * Engines are thread-confined and compiled scripts are cached; -Dlua.io.evalTimeoutMillis bounds
+     * how long it may run. See {@link ScriptEngines}.
      * Returns stringified result or error message.
      * Example: io.eval("1+2")
      */
     public static String io_eval(String script) {
+        long t0 = EVAL_SPAN.start();
         try {
-            ScriptEngineManager mgr = new ScriptEngineManager();
-            // Prefer "js" engines
-            ScriptEngine engine = mgr.getEngineByName("js");
-            if (engine == null) engine = mgr.getEngineByName("JavaScript");
-            if (engine == null) return "No script engine available";
-            Object res = engine.eval(script);
+            if (!ScriptEngines.available()) return "No script engine available";
+            Object res = ScriptEngines.evalWithDeadline(script);
             return String.valueOf(res);
         } catch (ScriptException se) {
+            EVAL_SPAN.error(t0);
             return "Script error: " + se.getMessage();
+        } catch (java.util.concurrent.TimeoutException te) {
+            EVAL_SPAN.error(t0);
+            return "Eval error: timed out after " + ScriptEngines.timeoutMillis() + " ms";
         } catch (Exception e) {
+            EVAL_SPAN.error(t0);
             return "Eval error: " + e.getMessage();
+        } finally {
+            EVAL_SPAN.stop(t0);
+        }
+    }
+
+    /**
+     * Precompile a script for repeated calls with different bindings.
+     * Returns null (and logs) if no engine is available or the script does not compile.
+     * Example: chunk = io.compile("a+b"); chunk.call(Map.of("a", 1, "b", 2))
+     */
+    public static ScriptEngines.CompiledChunk io_compile(String script) {
+        try {
+            if (!ScriptEngines.available()) {
+                warn("io.compile: no script engine available");
+                return null;
+            }
+            return ScriptEngines.compile(script);
+        } catch (ScriptException se) {
+            error("io.compile: " + se.getMessage());
+            return null;
         }
     }
 
     /* ---------------- Minecraft / Forge integration (best-effort via reflection) ---------------- */
 
-    // These function references will be set if Minecraft/Forge classes detected; otherwise they remain simulation fallbacks.
-    private static ChatSender CHAT_SENDER = null;
+    /**
+     * The Minecraft chat path, or null outside Minecraft. Resolved on first chat delivery: the
+     * reflection behind it (see {@link MinecraftBindings}) is not paid by startup or by scripts
+     * that never chat.
+     */
+    private static final class ChatSenderHolder {
+        static final ChatSender LOCAL = tryCreateMinecraftChatSender();
+        /** LOCAL, or the log outside Minecraft; where other processes' lines end up. */
+        static final ChatSender SHOW_LOCAL = (message, system) -> {
+            if (LOCAL != null) LOCAL.send(message, system);
+            else OUT.info("[CHAT] %s", message);
+        };
+        /**
+         * With -Dlua.bus=true, LOCAL behind the {@link ChatBus} every server process on the host
+         * shares. Other processes' lines are queued on CHAT and shown through LOCAL by its drain,
+         * never from the bus thread.
+         */
+        static final ChatBus BUS = Boolean.getBoolean("lua.bus")
+                ? ChatBus.start(LOCAL, (message, system) -> CHAT.submitTo(message, system, SHOW_LOCAL))
+                : null;
+        static final ChatSender SENDER = BUS != null ? BUS : LOCAL;
+    }
+
+    /** Queue between chat()/systemChat() callers and the chat sender, see {@link ChatPipeline}. */
+    private static final ChatPipeline CHAT = new ChatPipeline((message, system) -> {
+        ChatSender sender = ChatSenderHolder.SENDER;
+        if (sender != null) sender.send(message, system);
+        else OUT.info("[CHAT] %s", message);
+    });
+
     static {
-        CHAT_SENDER = tryCreateMinecraftChatSender();
+        // whatever is still queued at exit goes out; one hook for the shared pipeline only
+        Runtime.getRuntime().addShutdownHook(new Thread(CHAT::flush, "lua-chat-flush"));
+    }
+
+    /**
+     * A Java object scripts index like a table (t.k and t.k = v), e.g. {@link PersistentTable}.
+     * Numeric keys and values arrive boxed as Long or Double; nil is null.
+     */
+    public interface Indexable {
+        Object index(Object key);
+        void newindex(Object key, Object value);
     }
 
     /**
      * Generic interface used internally to send chat messages.
      */
-    private interface ChatSender {
+    interface ChatSender {
         /**
          * send chat message.
          * @param message the string message
@@ -187,170 +1184,131 @@ public class lua {
         void send(String message, boolean system);
     }
 
+    /** The chat path this boot picked; kept in {@link StartupCache} under "chat.sender". */
     private static ChatSender tryCreateMinecraftChatSender() {
-        // Attempt client-side: Minecraft.getInstance().getPlayer().displayClientMessage(Component, boolean)
+        // an unchanged classpath without Minecraft: skip binding MinecraftBindings altogether
+        if ("none".equals(StartupCache.get("chat.sender"))) return simulatedChatSender();
+        ChatSender sender = probeMinecraftChatSender();
+        StartupCache.put("chat.sender", sender instanceof SimulatedChatSender ? "none"
+                : sender instanceof ClientChatSender ? "client" : "server");
+        StartupCache.flush();
+        return sender;
+    }
+
+    /** Marker types for what tryCreateMinecraftChatSender records. */
+    private interface ClientChatSender extends ChatSender {}
+    private interface SimulatedChatSender extends ChatSender {}
+
+    private static ChatSender simulatedChatSender() {
+        return (SimulatedChatSender) (message, system) -> OUT.info(system ? "[SYSTEM] %s" : "[CHAT] %s", message);
+    }
+
+    /**
+     * Pick the chat path, using the call sites bound in {@link MinecraftBindings}:
+     * client (displayClientMessage on the local player), then server (broadcastSystemMessage on
+     * the server or its player list), then stdout.
+     */
+    private static ChatSender probeMinecraftChatSender() {
+        // Attempt client-side: Minecraft.getInstance().player.displayClientMessage(Component, boolean)
         try {
-            Class<?> mcClass = Class.forName("net.minecraft.client.Minecraft");
-            Method getInstance = mcClass.getMethod("getInstance");
-            Object mcInstance = getInstance.invoke(null);
-            Method getPlayer = null;
-            try { getPlayer = mcClass.getMethod("player"); } catch (NoSuchMethodException ignore) {}
-            if (getPlayer == null) {
-                try { getPlayer = mcClass.getMethod("getPlayer"); } catch (NoSuchMethodException ignore2) {}
-            }
-            if (getPlayer != null) {
-                // find Component class
-                Class<?> componentCls = Class.forName("net.minecraft.network.chat.Component");
-                Method literal = componentCls.getMethod("literal", String.class);
-                // try client LocalPlayer.displayClientMessage(Component, boolean)
-                Class<?> localPlayerCls = Class.forName("net.minecraft.client.player.LocalPlayer");
-                Method displayClientMessage = null;
-                try { displayClientMessage = localPlayerCls.getMethod("displayClientMessage", componentCls, boolean.class); } catch (NoSuchMethodException ignore) {}
-                if (displayClientMessage != null) {
-                    Method finalGetPlayer = getPlayer;
-                    Method finalDisplayClientMessage = displayClientMessage;
-                    return (message, system) -> {
-                        try {
-                            Object mc = getInstance.invoke(null);
-                            Object player = finalGetPlayer.invoke(mc);
-                            Object comp = literal.invoke(null, message);
-                            finalDisplayClientMessage.invoke(player, comp, false); // false: add to chat
-                        } catch (Throwable t) {
-                            System.out.println("[lua.chat] client display failed: " + t.getMessage());
-                            System.out.println(message);
+            if (MinecraftBindings.GET_INSTANCE != null && MinecraftBindings.CLIENT_PLAYER != null
+                    && MinecraftBindings.LITERAL != null && MinecraftBindings.DISPLAY_CLIENT_MESSAGE != null) {
+                Bindings.Call1 literal = MinecraftBindings.LITERAL;
+                Bindings.Run3 display = MinecraftBindings.DISPLAY_CLIENT_MESSAGE;
+                return (ClientChatSender) (message, system) -> {
+                    try {
+                        Object player = MinecraftBindings.clientPlayer();
+                        if (player == null) {
+                            OUT.info(message); // not in a world yet
+                            return;
                         }
-                    };
-                }
+                        display.call(player, literal.call(message), Boolean.FALSE); // false: add to chat
+                    } catch (Throwable t) {
+                        CHAT_LOG.warn("client display failed: %s", t.getMessage());
+                        OUT.info(message);
+                    }
+                };
             }
-        } catch (ClassNotFoundException e) {
-            // client not present — that's fine, try server-side below
         } catch (Throwable t) {
-            System.out.println("[lua.chat] client reflection failed: " + t.getMessage());
+            CHAT_LOG.warn("client reflection failed: %s", t.getMessage());
         }
 
-        // Attempt server-side: try to find a Server and broadcast a system message
+        // Attempt server-side: broadcast a system message to all players
         try {
-            // Typical server-side class to build components: net.minecraft.network.chat.Component.literal(...)
-            Class<?> componentCls = Class.forName("net.minecraft.network.chat.Component");
-            Method literal = componentCls.getMethod("literal", String.class);
-
-            // Try ServerPlayer.sendSystemMessage(Component, UUID)
-            Class<?> serverPlayerCls = null;
-            try {
-                serverPlayerCls = Class.forName("net.minecraft.server.level.ServerPlayer");
-            } catch (ClassNotFoundException ignored) {}
-
-            if (serverPlayerCls != null) {
-                // find a simple way to broadcast to all players via server.getPlayerList().broadcastChatMessage(...) or server.getPlayerList().broadcastSystemMessage(...)
-                // There are multiple possible method names/params across versions; attempt a few options:
-                Class<?> minecraftServerCls = Class.forName("net.minecraft.server.MinecraftServer");
-                // try to get server from somewhere: net.minecraftforge.server.ServerLifecycleHooks.getCurrentServer() (Forge helper)
-                try {
-                    Class<?> lifecycle = Class.forName("net.minecraftforge.server.ServerLifecycleHooks");
-                    Method getCurrentServer = lifecycle.getMethod("getCurrentServer");
-                    Object server = getCurrentServer.invoke(null);
-                    if (server != null) {
-                        // try broadcastSystemMessage(Component, UUID)
+            if (MinecraftBindings.SERVER_PLAYER != null && MinecraftBindings.LITERAL != null
+                    && (MinecraftBindings.CURRENT_SERVER != null || MinecraftBindings.STATIC_SERVER != null)) {
+                Bindings.Call1 literal = MinecraftBindings.LITERAL;
+                Bindings.Run3 serverBroadcast = MinecraftBindings.SERVER_BROADCAST;
+                Bindings.Call1 playerList = MinecraftBindings.PLAYER_LIST;
+                Bindings.Run3 listBroadcast = MinecraftBindings.PLAYER_LIST_BROADCAST;
+                if (serverBroadcast != null || (playerList != null && listBroadcast != null)) {
+                    return (message, system) -> {
                         try {
-                            Method broadcast = server.getClass().getMethod("broadcastSystemMessage", componentCls, java.util.UUID.class);
-                            return (message, system) -> {
-                                try {
-                                    Object comp = literal.invoke(null, message);
-                                    // broadcast to all players with null UUID (some versions accept null)
-                                    broadcast.invoke(server, comp, null);
-                                } catch (Throwable t) {
-                                    System.out.println("[lua.chat] server broadcast failed: " + t.getMessage());
-                                    System.out.println(message);
-                                }
-                            };
-                        } catch (NoSuchMethodException ignore) {
-                            // fallback: try player list methods
-                            try {
-                                Method getPlayerList = server.getClass().getMethod("getPlayerList");
-                                Object playerList = getPlayerList.invoke(server);
-                                // many versions have broadcastSystemMessage on playerList
-                                try {
-                                    Method broadcastSystemMessage = playerList.getClass().getMethod("broadcastSystemMessage", componentCls, java.util.UUID.class);
-                                    return (message, system) -> {
-                                        try {
-                                            Object comp = literal.invoke(null, message);
-                                            broadcastSystemMessage.invoke(playerList, comp, null);
-                                        } catch (Throwable t) {
-                                            System.out.println("[lua.chat] playerList broadcast failed: " + t.getMessage());
-                                            System.out.println(message);
-                                        }
-                                    };
-                                } catch (NoSuchMethodException ignore2) {}
-                            } catch (NoSuchMethodException ignore3) {}
-                        }
-                    }
-                } catch (ClassNotFoundException ignored) {
-                    // Forge ServerLifecycleHooks not present — maybe plain server. Try to find any running server via common classes (best effort)
-                    try {
-                        Method getServer = minecraftServerCls.getMethod("getServer");
-                        Object server = getServer.invoke(null);
-                        if (server != null) {
-                            Method getPlayerList = server.getClass().getMethod("getPlayerList");
-                            Object playerList = getPlayerList.invoke(server);
-                            try {
-                                Method broadcastSystemMessage = playerList.getClass().getMethod("broadcastSystemMessage", componentCls, java.util.UUID.class);
-                                return (message, system) -> {
-                                    try {
-                                        Object comp = literal.invoke(null, message);
-                                        broadcastSystemMessage.invoke(playerList, comp, null);
-                                    } catch (Throwable t) {
-                                        System.out.println("[lua.chat] fallback server broadcast failed: " + t.getMessage());
-                                        System.out.println(message);
-                                    }
-                                };
-                            } catch (NoSuchMethodException ignore2) {}
+                            Object server = MinecraftBindings.server();
+                            if (server == null) {
+                                OUT.info(system ? "[SYSTEM] %s" : "[CHAT] %s", message);
+                                return;
+                            }
+                            Object comp = literal.call(message);
+                            // broadcast to all players with null UUID (some versions accept null)
+                            if (serverBroadcast != null) serverBroadcast.call(server, comp, null);
+                            else listBroadcast.call(playerList.call(server), comp, null);
+                        } catch (Throwable t) {
+                            CHAT_LOG.warn("server broadcast failed: %s", t.getMessage());
+                            OUT.info(message);
                         }
-                    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException ignore3) {}
+                    };
                 }
             }
-        } catch (ClassNotFoundException e) {
-            // server classes not found either
         } catch (Throwable t) {
-            System.out.println("[lua.chat] server reflection failed: " + t.getMessage());
+            CHAT_LOG.warn("server reflection failed: %s", t.getMessage());
         }
 
-        // If all reflection attempts fail, return a simulation sender that prints to stdout.
-        return (message, system) -> {
-            if (system) {
-                System.out.println("[SYSTEM] " + message);
-            } else {
-                System.out.println("[CHAT] " + message);
-            }
-        };
+        // If all reflection attempts fail, return a simulation sender that logs the message.
+        return simulatedChatSender();
     }
 
     /**
      * Lua-style chat helper.
      * - chat("hi") => posts to game chat if running inside MC/Forge, otherwise prints.
      * - systemChat("server restart") => attempts to send system-level message.
+     * - Messages are queued and sent in batches once per tick, so callers never wait on the game.
      */
     public static void chat(String message) { chat(message, false); }
     public static void systemChat(String message) { chat(message, true); }
     public static void chat(String message, boolean system) {
-        try {
-            if (CHAT_SENDER != null) CHAT_SENDER.send(message, system);
-            else System.out.println("[CHAT] " + message);
-        } catch (Throwable t) {
-            System.out.println("[lua.chat] fallback log: " + message);
-        }
+        long t0 = CHAT_SPAN.start();
+        if (!CHAT.submit(message, system)) CHAT_SPAN.error(t0); // dropped by backpressure
+        CHAT_SPAN.stop(t0);
     }
 
+    /** The chat queue: backpressure policy, tick-driven draining and counters. */
+    public static ChatPipeline chatPipeline() { return CHAT; }
+
+    /** The bus chat fans out through (-Dlua.bus=true), joining it on first use; null when off. */
+    public static ChatBus chatBus() { return ChatSenderHolder.BUS; }
+
     /* ---------------- Convenience lua-style wrappers ---------------- */
 
     // io table
     public static class io {
         public static ProcessResult run(String cmd) { return lua.io_run(cmd); }
+        public static ProcessResult run(String cmd, int maxOutputChars) { return lua.io_run(cmd, maxOutputChars); }
+        public static ProcessResult run(String cmd, OutputListener listener) { return lua.io_run(cmd, listener); }
+        public static ProcessResult runCached(String cmd, long ttlMillis) { return lua.io_runCached(cmd, ttlMillis); }
+        public static void setMaxOutput(int chars) { lua.io_setMaxOutput(chars); }
+        public static void setTimeout(long millis) { ShellPool.setTimeoutMillis(millis); }
+        public static void setPooled(boolean on) { ShellPool.setEnabled(on); }
+        public static String runStats() { return ShellPool.stats(); }
         public static String eval(String script) { return lua.io_eval(script); }
+        public static ScriptEngines.CompiledChunk compile(String script) { return lua.io_compile(script); }
+        public static String evalStats() { return ScriptEngines.stats(); }
+        public static void setEvalTimeout(long millis) { ScriptEngines.setTimeoutMillis(millis); }
         // Convenience: run and print result
         public static void runAndPrint(String cmd) {
             ProcessResult pr = io_run(cmd);
-            System.out.println(pr.stdout);
-            if (!pr.stderr.isEmpty()) System.err.println(pr.stderr);
+            OUT.info(pr.stdout);
+            if (!pr.stderr.isEmpty()) OUT.error(pr.stderr);
         }
     }
 
@@ -358,6 +1316,8 @@ public class lua {
     public static class env {
         public static void chat(String msg) { lua.chat(msg); }
         public static void system(String msg) { lua.systemChat(msg); }
+        public static void flush() { CHAT.flush(); }
+        public static String stats() { return CHAT.stats(); }
     }
 
     /* ---------------- Example helpers and documentation ---------------- */
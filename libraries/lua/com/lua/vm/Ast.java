@@ -0,0 +1,178 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.List;
+
+/**
+ * Syntax tree produced by {@link Parser}. Consumed by {@link Compiler} and by the
+ * tree-walking {@link TreeInterpreter} baseline.
+ */
+final class Ast {
+
+    private Ast() {}
+
+    /* ---------------- Expressions ---------------- */
+
+    abstract static class Exp {
+        int line;
+    }
+
+    static final class Nil extends Exp {}
+    static final class True extends Exp {}
+    static final class False extends Exp {}
+    static final class Vararg extends Exp {}
+
+    static final class Num extends Exp {
+        final double value;
+        Num(double value) { this.value = value; }
+    }
+
+    static final class Str extends Exp {
+        final String value;
+        Str(String value) { this.value = value; }
+    }
+
+    static final class Name extends Exp {
+        final String name;
+        Name(String name) { this.name = name; }
+    }
+
+    static final class Index extends Exp {
+        final Exp obj, key;
+        Index(Exp obj, Exp key) { this.obj = obj; this.key = key; }
+    }
+
+    static final class Call extends Exp {
+        final Exp fn;
+        final List<Exp> args;
+        Call(Exp fn, List<Exp> args) { this.fn = fn; this.args = args; }
+    }
+
+    static final class MethodCall extends Exp {
+        final Exp obj;
+        final String method;
+        final List<Exp> args;
+        MethodCall(Exp obj, String method, List<Exp> args) { this.obj = obj; this.method = method; this.args = args; }
+    }
+
+    /** Binary operator; op is a {@link Lexer} token (AND / OR included). */
+    static final class BinOp extends Exp {
+        final int op;
+        final Exp a, b;
+        BinOp(int op, Exp a, Exp b) { this.op = op; this.a = a; this.b = b; }
+    }
+
+    /** Unary operator; op is Lexer.MINUS, Lexer.NOT or Lexer.HASH. */
+    static final class UnOp extends Exp {
+        final int op;
+        final Exp a;
+        UnOp(int op, Exp a) { this.op = op; this.a = a; }
+    }
+
+    /** Parenthesized expression: truncates calls and varargs to one value. */
+    static final class Paren extends Exp {
+        final Exp exp;
+        Paren(Exp exp) { this.exp = exp; }
+    }
+
+    static final class Function extends Exp {
+        final List<String> params;
+        final boolean vararg;
+        final Block body;
+        String name = "?";
+        Function(List<String> params, boolean vararg, Block body) {
+            this.params = params; this.vararg = vararg; this.body = body;
+        }
+    }
+
+    /** Table constructor; a field with a null key is positional. */
+    static final class Table extends Exp {
+        final List<Exp> keys;
+        final List<Exp> values;
+        Table(List<Exp> keys, List<Exp> values) { this.keys = keys; this.values = values; }
+    }
+
+    static boolean isMulti(Exp e) {
+        return e instanceof Call || e instanceof MethodCall || e instanceof Vararg;
+    }
+
+    /* ---------------- Statements ---------------- */
+
+    abstract static class Stat {
+        int line;
+    }
+
+    static final class Block {
+        final List<Stat> stats;
+        Block(List<Stat> stats) { this.stats = stats; }
+    }
+
+    static final class Local extends Stat {
+        final List<String> names;
+        final List<Exp> exps;
+        Local(List<String> names, List<Exp> exps) { this.names = names; this.exps = exps; }
+    }
+
+    static final class Assign extends Stat {
+        final List<Exp> targets;
+        final List<Exp> exps;
+        Assign(List<Exp> targets, List<Exp> exps) { this.targets = targets; this.exps = exps; }
+    }
+
+    static final class CallStat extends Stat {
+        final Exp call;
+        CallStat(Exp call) { this.call = call; }
+    }
+
+    static final class Do extends Stat {
+        final Block block;
+        Do(Block block) { this.block = block; }
+    }
+
+    static final class While extends Stat {
+        final Exp cond;
+        final Block block;
+        While(Exp cond, Block block) { this.cond = cond; this.block = block; }
+    }
+
+    static final class Repeat extends Stat {
+        final Block block;
+        final Exp cond;
+        Repeat(Block block, Exp cond) { this.block = block; this.cond = cond; }
+    }
+
+    static final class If extends Stat {
+        final List<Exp> conds;
+        final List<Block> blocks;
+        final Block orElse;
+        If(List<Exp> conds, List<Block> blocks, Block orElse) { this.conds = conds; this.blocks = blocks; this.orElse = orElse; }
+    }
+
+    static final class NumFor extends Stat {
+        final String var;
+        final Exp start, limit, step;
+        final Block block;
+        NumFor(String var, Exp start, Exp limit, Exp step, Block block) {
+            this.var = var; this.start = start; this.limit = limit; this.step = step; this.block = block;
+        }
+    }
+
+    static final class GenFor extends Stat {
+        final List<String> names;
+        final List<Exp> exps;
+        final Block block;
+        GenFor(List<String> names, List<Exp> exps, Block block) { this.names = names; this.exps = exps; this.block = block; }
+    }
+
+    static final class LocalFunction extends Stat {
+        final String name;
+        final Function fn;
+        LocalFunction(String name, Function fn) { this.name = name; this.fn = fn; }
+    }
+
+    static final class Return extends Stat {
+        final List<Exp> exps;
+        Return(List<Exp> exps) { this.exps = exps; }
+    }
+
+    static final class Break extends Stat {}
+}
@@ -0,0 +1,239 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.Map;
+import libraries.lua.com.lua.Log;
+import libraries.lua.com.lua.lua;
+
+import static libraries.lua.com.lua.vm.LuaValues.NUM;
+
+/**
+ * Core functions that are part of the language rather than a registry API:
+ * print, type, tostring, tonumber, pairs, ipairs, next, select, error, assert, pcall,
+ * unpack and the raw* accessors.
+ */
+final class BaseLib {
+
+    private BaseLib() {}
+
+    private static final Log.Logger OUT = Log.logger("lua");
+
+    static void install(Map<String, Object> g) {
+        g.put("print", new NativeFunction("print") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                if (!OUT.isEnabled(Log.Level.INFO)) return 0; // filtered: skip tostring entirely
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < nargs; i++) {
+                    if (i > 0) sb.append('\t');
+                    sb.append(tostring(t, base + i));
+                }
+                lua.print(sb.toString());
+                return 0;
+            }
+        });
+        g.put("type", new NativeFunction("type") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                if (nargs == 0) throw new LuaError("bad argument #1 to 'type' (value expected)");
+                t.set(base, t.isNumber(base) ? "number" : LuaValues.type(t.ref(base)));
+                return 1;
+            }
+        });
+        g.put("tostring", new NativeFunction("tostring") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.set(base, nargs == 0 ? "nil" : tostring(t, base));
+                return 1;
+            }
+        });
+        g.put("tonumber", new NativeFunction("tonumber") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                if (nargs == 0) return 0;
+                if (t.isNumber(base)) return 1;
+                Object v = t.ref(base);
+                double d = Double.NaN;
+                if (v instanceof String) {
+                    if (nargs > 1) {
+                        try {
+                            d = Long.parseLong(((String) v).trim(), (int) t.checkNumber(base, nargs, 1, "tonumber"));
+                        } catch (NumberFormatException ignored) {}
+                    } else {
+                        d = LuaValues.parseNumber((String) v);
+                    }
+                }
+                if (d == d) t.setNumber(base, d);
+                else t.set(base, null);
+                return 1;
+            }
+        });
+        g.put("ipairs", new NativeFunction("ipairs") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                checkTable(t, base, nargs, "ipairs");
+                t.ensureStack(base + 3);
+                t.copy(base, base + 1);
+                t.set(base, IPAIRS_AUX);
+                t.setNumber(base + 2, 0);
+                return 3;
+            }
+        });
+        NativeFunction next = new NativeFunction("next") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                lua.table tbl = checkTable(t, base, nargs, "next");
+                int pos = -1;
+                if (nargs > 1 && t.ref(base + 1) != null) {
+                    pos = find(t, tbl, base + 1);
+                    if (pos < 0) throw new LuaError("invalid key to 'next'");
+                }
+                return next(t, base, tbl, pos);
+            }
+        };
+        g.put("next", next);
+        g.put("pairs", new NativeFunction("pairs") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                lua.table tbl = checkTable(t, base, nargs, "pairs");
+                t.ensureStack(base + 3);
+                t.set(base, next);
+                t.set(base + 1, tbl);
+                t.set(base + 2, null);
+                return 3;
+            }
+        });
+        g.put("select", new NativeFunction("select") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                if (nargs > 0 && "#".equals(t.ref(base))) {
+                    t.setNumber(base, nargs - 1);
+                    return 1;
+                }
+                int n = (int) t.checkNumber(base, nargs, 0, "select");
+                if (n < 0) n = nargs + n;
+                else if (n == 0) throw new LuaError("bad argument #1 to 'select' (index out of range)");
+                if (n < 1) throw new LuaError("bad argument #1 to 'select' (index out of range)");
+                int count = Math.max(0, nargs - n);
+                for (int i = 0; i < count; i++) t.copy(base + n + i, base + i);
+                return count;
+            }
+        });
+        g.put("error", new NativeFunction("error") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                Object v = nargs > 0 ? t.get(base) : null;
+                int level = nargs > 1 ? (int) t.checkNumber(base, nargs, 1, "error") : 1;
+                if (v instanceof String && level > 0) {
+                    String msg = t.where(level) + " " + v;
+                    throw new LuaThread.LocatedError(msg, msg);
+                }
+                throw new LuaThread.LocatedError(v, LuaValues.tostring(v));
+            }
+        });
+        g.put("assert", new NativeFunction("assert") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                if (nargs == 0) throw new LuaError("bad argument #1 to 'assert' (value expected)");
+                if (!LuaValues.truthy(t.ref(base))) {
+                    throw new LuaError(nargs > 1 ? LuaValues.tostring(t.get(base + 1)) : "assertion failed!");
+                }
+                return nargs;
+            }
+        });
+        g.put("pcall", new NativeFunction("pcall") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                if (nargs == 0) throw new LuaError("bad argument #1 to 'pcall' (value expected)");
+                try {
+                    t.call(base, nargs - 1, -1);
+                } catch (Budget.Exceeded e) {
+                    throw e; // a script may not swallow its own overrun
+                } catch (LuaError e) {
+                    t.ensureStack(base + 2);
+                    t.set(base, Boolean.FALSE);
+                    t.set(base + 1, e.value());
+                    return 2;
+                } catch (StackOverflowError e) {
+                    t.set(base, Boolean.FALSE);
+                    t.set(base + 1, "stack overflow");
+                    return 2;
+                }
+                int n = t.top - base;
+                t.ensureStack(base + n + 1);
+                for (int i = n - 1; i >= 0; i--) t.copy(base + i, base + i + 1);
+                t.set(base, Boolean.TRUE);
+                return n + 1;
+            }
+        });
+        g.put("unpack", new NativeFunction("unpack") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                lua.table tbl = checkTable(t, base, nargs, "unpack");
+                int from = nargs > 1 && t.ref(base + 1) != null ? (int) t.checkNumber(base, nargs, 1, "unpack") : 1;
+                int to = nargs > 2 && t.ref(base + 2) != null ? (int) t.checkNumber(base, nargs, 2, "unpack") : tbl.length();
+                int n = Math.max(0, to - from + 1);
+                t.ensureStack(base + n);
+                for (int i = 0; i < n; i++) t.load(base + i, tbl, tbl.find((long) from + i));
+                return n;
+            }
+        });
+        g.put("rawget", new NativeFunction("rawget") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                lua.table tbl = checkTable(t, base, nargs, "rawget");
+                t.load(base, tbl, nargs > 1 ? find(t, tbl, base + 1) : -1);
+                return 1;
+            }
+        });
+        g.put("rawset", new NativeFunction("rawset") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                lua.table tbl = checkTable(t, base, nargs, "rawset");
+                if (nargs < 3) throw new LuaError("bad argument #3 to 'rawset' (value expected)");
+                LuaThread.tableSet(tbl, t.ref(base + 1), t.number(base + 1), t.ref(base + 2), t.number(base + 2));
+                return 1;
+            }
+        });
+        g.put("rawequal", new NativeFunction("rawequal") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.set(base, nargs >= 2 && LuaValues.rawEquals(t.get(base), t.get(base + 1)));
+                return 1;
+            }
+        });
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    static String tostring(LuaThread t, int idx) {
+        return t.isNumber(idx) ? LuaValues.numberToString(t.number(idx)) : LuaValues.tostring(t.ref(idx));
+    }
+
+    static lua.table checkTable(LuaThread t, int base, int nargs, String fname) {
+        Object v = nargs > 0 ? t.ref(base) : null;
+        if (v instanceof lua.table) return (lua.table) v;
+        throw new LuaError("bad argument #1 to '" + fname + "' (table expected, got "
+                + (nargs > 0 ? (v == NUM ? "number" : LuaValues.type(v)) : "no value") + ")");
+    }
+
+    /** Position in tbl of the key held at idx, or -1. */
+    private static int find(LuaThread t, lua.table tbl, int idx) {
+        return t.isNumber(idx) ? tbl.find(t.number(idx)) : tbl.find(t.ref(idx));
+    }
+
+    private static final NativeFunction IPAIRS_AUX = new NativeFunction("ipairs_aux") {
+        @Override public int call(LuaThread t, int base, int nargs) {
+            lua.table tbl = (lua.table) t.ref(base);
+            double i = t.number(base + 1) + 1;
+            int pos = tbl.find(i);
+            if (tbl.tagAt(pos) == lua.table.NIL) {
+                t.set(base, null);
+                return 1;
+            }
+            t.setNumber(base, i);
+            t.load(base + 1, tbl, pos);
+            return 2;
+        }
+    };
+
+    /**
+     * next(t, k) for the key at position pos (-1 for nil). Walks the table's positions, so a
+     * pairs() loop allocates nothing and fields may be cleared while iterating.
+     */
+    private static int next(LuaThread t, int base, lua.table tbl, int pos) {
+        int p = tbl.next(pos);
+        if (p < 0) {
+            t.set(base, null);
+            return 1;
+        }
+        t.ensureStack(base + 2);
+        t.loadKey(base, tbl, p);
+        t.load(base + 1, tbl, p);
+        return 2;
+    }
+}
@@ -0,0 +1,178 @@
+package libraries.lua.com.lua.vm;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits on what one run of a script may cost, enforced cooperatively by the interpreter.
+ *
+ * - A run is one call from Java into a VM ({@link LuaVM#setBudget}) or one resume of a
+ *   {@link Scheduler} coroutine. Coroutines resumed from a script share their resumer's budget.
+ * - instructions: VM instructions per run. They are counted where control can repeat (a loop's
+ *   back-edge charges the loop body's length, a Lua call charges 1), which is exact for
+ *   straight-line bodies and an upper bound otherwise.
+ * - millis: wall-clock time per run.
+ * - bytes: heap allocated by the running Java thread during the run (HotSpot's per-thread counter,
+ *   so allocations by natives on the script's behalf count too; ignored on JVMs without one).
+ * - 0 means unlimited. A run over a limit fails with {@link Exceeded}, which pcall and
+ *   coroutine.resume pass on instead of catching.
+ * - The interpreter settles with its budget every {@link #CHECK_INTERVAL} counted instructions; the
+ *   same check ends a scheduler's time slice, see {@link Scheduler}.
+ * - Settings for scheduled scripts: -Dlua.budget.instructions, -Dlua.budget.millis, -Dlua.budget.bytes.
+ *
+ * Example:
+ *   vm.setBudget(new Budget(10_000_000, 50, 64 << 20));
+ *   vm.exec(untrusted); // throws Budget.Exceeded past 10M instructions, 50 ms or 64 MiB
+ */
+public final class Budget {
+
+    /** Counted instructions between two checks. */
+    public static final int CHECK_INTERVAL = 4096;
+
+    /** What charge() tells the interpreter. */
+    static final int OK = 0, SLICE_OVER = 1;
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private static final LongAdder OVER_INSTRUCTIONS = new LongAdder();
+    private static final LongAdder OVER_TIME = new LongAdder();
+    private static final LongAdder OVER_MEMORY = new LongAdder();
+    private static final LongAdder PREEMPTED = new LongAdder();
+
+    private final long maxInstructions;
+    private final long maxNanos;
+    private final long maxBytes;
+
+    // the current run
+    private long instructions;
+    private long startNanos;
+    private long startBytes;
+    private long sliceEnd = Long.MAX_VALUE;
+    private boolean sliceOver;
+
+    // every run so far
+    private long runs;
+    private long totalInstructions;
+    private long totalNanos;
+    private long totalBytes;
+    private long overruns;
+
+    public Budget(long maxInstructions, long maxMillis, long maxBytes) {
+        this.maxInstructions = Math.max(0, maxInstructions);
+        this.maxNanos = Math.max(0, maxMillis) * 1_000_000L;
+        this.maxBytes = THREADS != null ? Math.max(0, maxBytes) : 0;
+    }
+
+    /** A budget with the -Dlua.budget.* limits (unlimited where unset). */
+    public static Budget fromProperties() {
+        return new Budget(Long.getLong("lua.budget.instructions", 0), Long.getLong("lua.budget.millis", 0),
+                Long.getLong("lua.budget.bytes", 0));
+    }
+
+    /** Thrown when a run goes over a limit. Not catchable by pcall. */
+    public static final class Exceeded extends LuaError {
+        private static final long serialVersionUID = 1L;
+
+        Exceeded(String message) {
+            super(message);
+        }
+    }
+
+    /* ---------------- Runs (interpreter and scheduler) ---------------- */
+
+    /** Start a run; sliceNanos &gt; 0 asks the running coroutine to yield once that much time has passed. */
+    void begin(long sliceNanos) {
+        instructions = 0;
+        startNanos = System.nanoTime();
+        startBytes = THREADS != null && maxBytes > 0 ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+        sliceEnd = sliceNanos > 0 ? startNanos + sliceNanos : Long.MAX_VALUE;
+        sliceOver = false;
+    }
+
+    /** End the run begun last; returns whether its slice ran out (the coroutine was preempted). */
+    boolean end() {
+        runs++;
+        totalInstructions += instructions;
+        totalNanos += System.nanoTime() - startNanos;
+        if (startBytes != 0) totalBytes += THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+        if (sliceOver) PREEMPTED.increment();
+        return sliceOver;
+    }
+
+    /** Account for used instructions on t; throws Exceeded past a limit, else OK or SLICE_OVER. */
+    int charge(LuaThread t, int used) {
+        instructions += used;
+        if (maxInstructions > 0 && instructions > maxInstructions) {
+            OVER_INSTRUCTIONS.increment();
+            throw exceeded(t, "instruction budget exceeded (" + maxInstructions + ")");
+        }
+        long now = System.nanoTime();
+        if (maxNanos > 0 && now - startNanos > maxNanos) {
+            OVER_TIME.increment();
+            throw exceeded(t, "time budget exceeded (" + maxNanos / 1_000_000 + " ms)");
+        }
+        if (maxBytes > 0 && THREADS.getCurrentThreadAllocatedBytes() - startBytes > maxBytes) {
+            OVER_MEMORY.increment();
+            throw exceeded(t, "memory budget exceeded (" + maxBytes + " bytes)");
+        }
+        if (now >= sliceEnd) {
+            sliceOver = true;
+            return SLICE_OVER;
+        }
+        return OK;
+    }
+
+    private Exceeded exceeded(LuaThread t, String what) {
+        overruns++;
+        String where = t.where(1);
+        return new Exceeded(where.isEmpty() ? what : where + " " + what);
+    }
+
+    /* ---------------- Usage ---------------- */
+
+    public long maxInstructions() { return maxInstructions; }
+    public long maxMillis() { return maxNanos / 1_000_000; }
+    public long maxBytes() { return maxBytes; }
+
+    public long runs() { return runs; }
+    public long totalInstructions() { return totalInstructions; }
+    public long totalNanos() { return totalNanos; }
+    /** Bytes allocated over all runs (0 unless a byte limit is set). */
+    public long totalBytes() { return totalBytes; }
+    /** Runs of this budget that went over a limit. */
+    public long overruns() { return overruns; }
+
+    @Override public String toString() {
+        return "runs=" + runs + " instructions=" + totalInstructions + " ms=" + totalNanos / 1_000_000
+                + " bytes=" + totalBytes + " overruns=" + overruns;
+    }
+
+    /* ---------------- Counters over all budgets ---------------- */
+
+    public static long instructionOverruns() { return OVER_INSTRUCTIONS.sum(); }
+    public static long timeOverruns() { return OVER_TIME.sum(); }
+    public static long memoryOverruns() { return OVER_MEMORY.sum(); }
+    /** Scheduled coroutines made to yield because their slice of the tick ran out. */
+    public static long preemptions() { return PREEMPTED.sum(); }
+
+    public static String stats() {
+        return "over instructions=" + instructionOverruns() + " time=" + timeOverruns() + " memory=" + memoryOverruns()
+                + " preempted=" + preemptions();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        try {
+            java.lang.management.ThreadMXBean b = ManagementFactory.getThreadMXBean();
+            if (b instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) b;
+                if (sun.isThreadAllocatedMemorySupported()) {
+                    sun.setThreadAllocatedMemoryEnabled(true);
+                    return sun;
+                }
+            }
+        } catch (RuntimeException | LinkageError ignored) {
+            // not HotSpot, or the management module is missing
+        }
+        return null;
+    }
+}
@@ -0,0 +1,856 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static libraries.lua.com.lua.vm.OpCodes.*;
+
+/**
+ * Compiles a syntax tree into register bytecode.
+ *
+ * Register discipline follows lcode.c: locals occupy the lowest registers of a frame in
+ * declaration order, temporaries are allocated above them and released after each statement.
+ * Constants are used directly as RK operands where the instruction allows it.
+ */
+final class Compiler {
+
+    private static final int MAX_REGISTERS = 250;
+
+    /** Dedup key for nil in the constant table (HashMap keys cannot be null). */
+    private static final Object NIL_KEY = new Object();
+
+    private final String source;
+
+    private Compiler(String source) {
+        this.source = source;
+    }
+
+    static Proto compile(Ast.Function main, String source) {
+        return new Compiler(source).function(null, main);
+    }
+
+    /* ---------------- Per-function state ---------------- */
+
+    private static final class Block {
+        Block prev;
+        int nactvar;
+        boolean upval;
+        /** A local of this block or of an enclosing one was captured (loop exits must CLOSE). */
+        boolean innerUpval;
+        boolean loop;
+        List<Integer> breaks;
+    }
+
+    private final class FuncState {
+        final FuncState parent;
+        final Proto f = new Proto();
+        int[] code = new int[32];
+        int[] lines = new int[32];
+        int pc;
+        final List<Object> k = new ArrayList<>();
+        double[] kn = new double[16];
+        final HashMap<Object, Integer> kcache = new HashMap<>();
+        final List<Proto> protos = new ArrayList<>();
+        final List<String> actvars = new ArrayList<>();
+        final List<String> upNames = new ArrayList<>();
+        final List<Boolean> upInStack = new ArrayList<>();
+        final List<Integer> upIndex = new ArrayList<>();
+        final List<String> globalNames = new ArrayList<>();
+        final HashMap<String, Integer> globalIndex = new HashMap<>();
+        int freereg;
+        int maxStack = 2;
+        Block bl;
+        int line;
+
+        FuncState(FuncState parent) {
+            this.parent = parent;
+        }
+
+        LuaError error(String msg) {
+            return new LuaError(source + ":" + line + ": " + msg);
+        }
+
+        /* ---------- code emission ---------- */
+
+        int emit(int instruction) {
+            if (pc == code.length) {
+                code = Arrays.copyOf(code, pc * 2);
+                lines = Arrays.copyOf(lines, pc * 2);
+            }
+            code[pc] = instruction;
+            lines[pc] = line;
+            return pc++;
+        }
+
+        int emitABC(int op, int a, int b, int c) { return emit(abc(op, a, b, c)); }
+        int emitABx(int op, int a, int bx) { return emit(abx(op, a, bx)); }
+
+        int jump() { return emit(asbx(JMP, 0, 0)); }
+
+        void patch(int jmp, int target) {
+            int offset = target - (jmp + 1);
+            if (Math.abs(offset) > MAXARG_sBx) throw error("control structure too long");
+            code[jmp] = asbx(op(code[jmp]), a(code[jmp]), offset);
+        }
+
+        void patchHere(List<Integer> jumps) {
+            for (int j : jumps) patch(j, pc);
+        }
+
+        /* ---------- registers ---------- */
+
+        int allocReg() {
+            int r = freereg++;
+            if (freereg > maxStack) {
+                if (freereg > MAX_REGISTERS) throw error("function or expression too complex");
+                maxStack = freereg;
+            }
+            return r;
+        }
+
+        void reserve(int n) {
+            for (int i = 0; i < n; i++) allocReg();
+        }
+
+        int nactvar() { return actvars.size(); }
+
+        /* ---------- constants ---------- */
+
+        int constant(Object key, Object value, double num) {
+            Integer idx = kcache.get(key);
+            if (idx != null) return idx;
+            int i = k.size();
+            if (i > MAXARG_Bx) throw error("too many constants");
+            k.add(value);
+            if (i == kn.length) kn = Arrays.copyOf(kn, i * 2);
+            kn[i] = num;
+            kcache.put(key, i);
+            return i;
+        }
+
+        int numberK(double d) {
+            // -0.0 and 0.0 must not share a slot; keying on the raw bits keeps them apart
+            return constant(Double.doubleToRawLongBits(d), LuaValues.NUM, d);
+        }
+
+        int stringK(String s) { return constant(s, s, 0); }
+        int nilK() { return constant(NIL_KEY, null, 0); }
+        int boolK(boolean b) { return constant(b, b, 0); }
+
+        /* ---------- scopes ---------- */
+
+        void enterBlock(boolean loop) {
+            Block b = new Block();
+            b.prev = bl;
+            b.nactvar = nactvar();
+            b.loop = loop;
+            if (loop) b.breaks = new ArrayList<>();
+            bl = b;
+        }
+
+        /** Leave the current block; emits CLOSE when a local of the block was captured and emitClose is set. */
+        Block leaveBlock(boolean emitClose) {
+            Block b = bl;
+            bl = b.prev;
+            while (actvars.size() > b.nactvar) actvars.remove(actvars.size() - 1);
+            if (emitClose && b.upval) emitABC(CLOSE, b.nactvar, 0, 0);
+            freereg = b.nactvar;
+            return b;
+        }
+
+        void addLocal(String name) {
+            actvars.add(name);
+        }
+
+        int findLocal(String name) {
+            for (int i = actvars.size() - 1; i >= 0; i--) {
+                if (actvars.get(i).equals(name)) return i;
+            }
+            return -1;
+        }
+
+        void markUpval(int reg) {
+            Block b = bl;
+            while (b != null && b.nactvar > reg) b = b.prev;
+            if (b != null) b.upval = true;
+            for (Block o = bl; o != null; o = o.prev) o.innerUpval = true;
+        }
+
+        int findUpvalue(String name) {
+            int idx = upNames.indexOf(name);
+            if (idx >= 0) return idx;
+            if (parent == null) return -1;
+            int reg = parent.findLocal(name);
+            if (reg >= 0) {
+                parent.markUpval(reg);
+                return addUpvalue(name, true, reg);
+            }
+            int up = parent.findUpvalue(name);
+            if (up < 0) return -1;
+            return addUpvalue(name, false, up);
+        }
+
+        int addUpvalue(String name, boolean inStack, int index) {
+            if (upNames.size() > MAXARG_B) throw error("too many upvalues");
+            upNames.add(name);
+            upInStack.add(inStack);
+            upIndex.add(index);
+            return upNames.size() - 1;
+        }
+
+        int globalSlot(String name) {
+            Integer idx = globalIndex.get(name);
+            if (idx != null) return idx;
+            int i = globalNames.size();
+            if (i > MAXARG_Bx) throw error("too many globals");
+            globalNames.add(name);
+            globalIndex.put(name, i);
+            return i;
+        }
+
+        Proto finish(Ast.Function fn) {
+            Proto p = f;
+            p.source = source;
+            p.name = fn.name;
+            p.lineDefined = fn.line;
+            p.code = Arrays.copyOf(code, pc);
+            p.lines = Arrays.copyOf(lines, pc);
+            p.k = k.toArray();
+            p.kn = Arrays.copyOf(kn, k.size());
+            p.p = protos.toArray(new Proto[0]);
+            p.numParams = fn.params.size();
+            p.vararg = fn.vararg;
+            p.maxStack = maxStack;
+            p.upNames = upNames.toArray(new String[0]);
+            p.upInStack = new boolean[upInStack.size()];
+            p.upIndex = new int[upIndex.size()];
+            for (int i = 0; i < p.upIndex.length; i++) {
+                p.upInStack[i] = upInStack.get(i);
+                p.upIndex[i] = upIndex.get(i);
+            }
+            p.globalNames = globalNames.toArray(new String[0]);
+            return p;
+        }
+    }
+
+    private FuncState fs;
+
+    /* ---------------- Functions ---------------- */
+
+    private Proto function(FuncState parent, Ast.Function fn) {
+        FuncState saved = fs;
+        fs = new FuncState(parent);
+        fs.line = fn.line;
+        for (String param : fn.params) fs.addLocal(param);
+        fs.reserve(fn.params.size());
+        fs.enterBlock(false);
+        block(fn.body);
+        fs.leaveBlock(false);
+        fs.emitABC(RETURN, 0, 1, 0);
+        Proto p = fs.finish(fn);
+        fs = saved;
+        return p;
+    }
+
+    /* ---------------- Statements ---------------- */
+
+    private void block(Ast.Block b) {
+        for (Ast.Stat s : b.stats) {
+            fs.line = s.line;
+            statement(s);
+            fs.freereg = fs.nactvar();
+        }
+    }
+
+    private void statement(Ast.Stat s) {
+        if (s instanceof Ast.Local) localStat((Ast.Local) s);
+        else if (s instanceof Ast.Assign) assignStat((Ast.Assign) s);
+        else if (s instanceof Ast.CallStat) callStat((Ast.CallStat) s);
+        else if (s instanceof Ast.If) ifStat((Ast.If) s);
+        else if (s instanceof Ast.While) whileStat((Ast.While) s);
+        else if (s instanceof Ast.NumFor) numForStat((Ast.NumFor) s);
+        else if (s instanceof Ast.GenFor) genForStat((Ast.GenFor) s);
+        else if (s instanceof Ast.Repeat) repeatStat((Ast.Repeat) s);
+        else if (s instanceof Ast.Do) {
+            fs.enterBlock(false);
+            block(((Ast.Do) s).block);
+            fs.leaveBlock(true);
+        } else if (s instanceof Ast.LocalFunction) localFunctionStat((Ast.LocalFunction) s);
+        else if (s instanceof Ast.Return) returnStat((Ast.Return) s);
+        else if (s instanceof Ast.Break) breakStat();
+        else throw fs.error("unsupported statement");
+    }
+
+    private void localStat(Ast.Local s) {
+        int n = s.names.size();
+        int base = fs.freereg;
+        explist(s.exps, n);
+        fs.freereg = base + n;
+        for (String name : s.names) fs.addLocal(name);
+    }
+
+    private void localFunctionStat(Ast.LocalFunction s) {
+        int r = fs.allocReg();
+        fs.addLocal(s.name);
+        closure(s.fn, r);
+    }
+
+    private void callStat(Ast.CallStat s) {
+        call(s.call, 0);
+    }
+
+    private void assignStat(Ast.Assign s) {
+        if (s.targets.size() == 1 && s.exps.size() == 1) {
+            assignSingle(s.targets.get(0), s.exps.get(0));
+            return;
+        }
+        int n = s.targets.size();
+        int[] objRegs = new int[n];
+        int[] keyRKs = new int[n];
+        for (int i = 0; i < n; i++) {
+            Ast.Exp t = s.targets.get(i);
+            if (t instanceof Ast.Index) {
+                objRegs[i] = anyReg(((Ast.Index) t).obj);
+                keyRKs[i] = rk(((Ast.Index) t).key);
+            }
+        }
+        int base = fs.freereg;
+        explist(s.exps, n);
+        for (int i = n - 1; i >= 0; i--) {
+            store(s.targets.get(i), base + i, objRegs[i], keyRKs[i]);
+        }
+    }
+
+    private void assignSingle(Ast.Exp target, Ast.Exp value) {
+        if (target instanceof Ast.Name) {
+            String name = ((Ast.Name) target).name;
+            int reg = fs.findLocal(name);
+            if (reg >= 0) {
+                toReg(value, reg);
+                return;
+            }
+            int r = anyReg(value);
+            int up = fs.findUpvalue(name);
+            if (up >= 0) fs.emitABC(SETUPVAL, r, up, 0);
+            else fs.emitABx(SETGLOBAL, r, fs.globalSlot(name));
+            return;
+        }
+        Ast.Index idx = (Ast.Index) target;
+        int obj = anyReg(idx.obj);
+        int key = rk(idx.key);
+        int val = rk(value);
+        fs.emitABC(SETTABLE, obj, key, val);
+    }
+
+    private void store(Ast.Exp target, int src, int objReg, int keyRK) {
+        if (target instanceof Ast.Index) {
+            fs.emitABC(SETTABLE, objReg, keyRK, src);
+            return;
+        }
+        String name = ((Ast.Name) target).name;
+        int reg = fs.findLocal(name);
+        if (reg >= 0) {
+            if (reg != src) fs.emitABC(MOVE, reg, src, 0);
+            return;
+        }
+        int up = fs.findUpvalue(name);
+        if (up >= 0) fs.emitABC(SETUPVAL, src, up, 0);
+        else fs.emitABx(SETGLOBAL, src, fs.globalSlot(name));
+    }
+
+    private void ifStat(Ast.If s) {
+        List<Integer> escapes = new ArrayList<>();
+        int n = s.conds.size();
+        for (int i = 0; i < n; i++) {
+            List<Integer> onFalse = cond(s.conds.get(i), false);
+            fs.enterBlock(false);
+            block(s.blocks.get(i));
+            fs.leaveBlock(true);
+            if (i < n - 1 || s.orElse != null) escapes.add(fs.jump());
+            fs.patchHere(onFalse);
+        }
+        if (s.orElse != null) {
+            fs.enterBlock(false);
+            block(s.orElse);
+            fs.leaveBlock(true);
+        }
+        fs.patchHere(escapes);
+    }
+
+    private void whileStat(Ast.While s) {
+        int start = fs.pc;
+        List<Integer> onFalse = cond(s.cond, false);
+        fs.enterBlock(true);
+        block(s.block);
+        Block b = fs.leaveBlock(true);
+        fs.patch(fs.jump(), start);
+        loopExit(b, onFalse);
+    }
+
+    /** Land breaks (and extra exit jumps) after the loop, closing captured loop locals on the way out. */
+    private void loopExit(Block loop, List<Integer> exits) {
+        fs.patchHere(exits);
+        fs.patchHere(loop.breaks);
+        if (loop.upval || loop.innerUpval) fs.emitABC(CLOSE, loop.nactvar, 0, 0);
+    }
+
+    private void repeatStat(Ast.Repeat s) {
+        int start = fs.pc;
+        fs.enterBlock(true);
+        for (Ast.Stat st : s.block.stats) {
+            fs.line = st.line;
+            statement(st);
+            fs.freereg = fs.nactvar();
+        }
+        // the condition can see the body's locals
+        List<Integer> onFalse = cond(s.cond, false);
+        Block b = fs.leaveBlock(false);
+        if (!b.upval && !b.innerUpval) {
+            for (int j : onFalse) fs.patch(j, start);
+            loopExit(b, new ArrayList<>());
+            return;
+        }
+        int exit = fs.jump();
+        fs.patchHere(onFalse);
+        fs.emitABC(CLOSE, b.nactvar, 0, 0);
+        fs.patch(fs.jump(), start);
+        List<Integer> exits = new ArrayList<>();
+        exits.add(exit);
+        loopExit(b, exits);
+    }
+
+    private void numForStat(Ast.NumFor s) {
+        fs.enterBlock(false);
+        int base = fs.freereg;
+        toReg(s.start, fs.allocReg());
+        toReg(s.limit, fs.allocReg());
+        if (s.step != null) toReg(s.step, fs.allocReg());
+        else fs.emitABx(LOADK, fs.allocReg(), fs.numberK(1));
+        fs.addLocal("(for index)");
+        fs.addLocal("(for limit)");
+        fs.addLocal("(for step)");
+        int prep = fs.emit(asbx(FORPREP, base, 0));
+        fs.enterBlock(true);
+        fs.addLocal(s.var);
+        fs.allocReg();
+        int bodyStart = fs.pc;
+        block(s.block);
+        Block loop = fs.leaveBlock(true);
+        fs.patch(prep, fs.pc);
+        int back = fs.emit(asbx(FORLOOP, base, 0));
+        fs.patch(back, bodyStart);
+        loopExit(loop, new ArrayList<>());
+        fs.leaveBlock(true);
+    }
+
+    private void genForStat(Ast.GenFor s) {
+        fs.enterBlock(false);
+        int base = fs.freereg;
+        explist(s.exps, 3);
+        fs.freereg = base + 3;
+        fs.addLocal("(for generator)");
+        fs.addLocal("(for state)");
+        fs.addLocal("(for control)");
+        int toCall = fs.jump();
+        fs.enterBlock(true);
+        for (String name : s.names) fs.addLocal(name);
+        fs.reserve(s.names.size());
+        // TFORCALL copies the generator triple above the loop variables
+        fs.maxStack = Math.max(fs.maxStack, base + 6);
+        int bodyStart = fs.pc;
+        block(s.block);
+        Block loop = fs.leaveBlock(true);
+        fs.patch(toCall, fs.pc);
+        fs.line = s.line;
+        fs.emitABC(TFORCALL, base, 0, s.names.size());
+        int back = fs.emit(asbx(TFORLOOP, base, 0));
+        fs.patch(back, bodyStart);
+        loopExit(loop, new ArrayList<>());
+        fs.leaveBlock(true);
+    }
+
+    private void returnStat(Ast.Return s) {
+        if (s.exps.isEmpty()) {
+            fs.emitABC(RETURN, 0, 1, 0);
+            return;
+        }
+        if (s.exps.size() == 1 && (s.exps.get(0) instanceof Ast.Call || s.exps.get(0) instanceof Ast.MethodCall)) {
+            // a tail call reuses this frame, so return f(x) recursion runs in constant stack
+            int base = call(s.exps.get(0), -1, true);
+            fs.emitABC(RETURN, base, 0, 0);
+            return;
+        }
+        if (s.exps.size() == 1 && !Ast.isMulti(s.exps.get(0))) {
+            int r = anyReg(s.exps.get(0));
+            fs.emitABC(RETURN, r, 2, 0);
+            return;
+        }
+        int base = fs.freereg;
+        int n = explist(s.exps, -1);
+        fs.emitABC(RETURN, base, n < 0 ? 0 : n + 1, 0);
+    }
+
+    private void breakStat() {
+        Block b = fs.bl;
+        while (b != null && !b.loop) b = b.prev;
+        if (b == null) throw fs.error("no loop to break");
+        // captured locals are closed where the breaks land, see loopExit
+        b.breaks.add(fs.jump());
+    }
+
+    /* ---------------- Expression lists ---------------- */
+
+    /**
+     * Evaluate exps into consecutive registers starting at freereg, adjusted to want values
+     * (want &lt; 0: keep every value, with a trailing call or vararg left open up to top).
+     * Returns the number of values placed, or -1 if the list ends open.
+     */
+    private int explist(List<Ast.Exp> exps, int want) {
+        int n = exps.size();
+        for (int i = 0; i < n; i++) {
+            Ast.Exp e = exps.get(i);
+            boolean last = i == n - 1;
+            if (last && Ast.isMulti(e) && (want < 0 || want > i)) {
+                multi(e, want < 0 ? -1 : want - i);
+                return want < 0 ? -1 : want;
+            }
+            toReg(e, fs.allocReg());
+        }
+        if (want > n) {
+            int first = fs.freereg;
+            fs.reserve(want - n);
+            fs.emitABC(LOADNIL, first, first + want - n - 1, 0);
+        }
+        return want < 0 ? n : want;
+    }
+
+    /** Place a call or vararg at freereg with nresults values (-1: all, up to top). */
+    private void multi(Ast.Exp e, int nresults) {
+        if (e instanceof Ast.Vararg) {
+            int base = fs.allocReg();
+            fs.emitABC(VARARG, base, nresults + 1, 0);
+            if (nresults > 1) fs.reserve(nresults - 1);
+            return;
+        }
+        int base = call(e, nresults);
+        fs.freereg = base + Math.max(nresults, 1);
+        if (fs.freereg > fs.maxStack) fs.maxStack = fs.freereg;
+    }
+
+    /** Compile a call with its function at freereg; returns that base register. */
+    private int call(Ast.Exp e, int nresults) {
+        return call(e, nresults, false);
+    }
+
+    private int call(Ast.Exp e, int nresults, boolean tail) {
+        int line = fs.line;
+        fs.line = e.line;
+        int base;
+        List<Ast.Exp> args;
+        if (e instanceof Ast.MethodCall) {
+            Ast.MethodCall mc = (Ast.MethodCall) e;
+            base = fs.freereg;
+            int obj = anyReg(mc.obj);
+            fs.freereg = base;
+            fs.reserve(2);
+            fs.emitABC(SELF, base, obj, rkString(mc.method));
+            args = mc.args;
+        } else {
+            Ast.Call c = (Ast.Call) e;
+            base = fs.allocReg();
+            toReg(c.fn, base);
+            args = c.args;
+        }
+        int nargs = explist(args, -1);
+        if (e instanceof Ast.MethodCall && nargs >= 0) nargs++;
+        fs.line = e.line;
+        fs.emitABC(tail ? TAILCALL : CALL, base, nargs < 0 ? 0 : nargs + 1, nresults + 1);
+        fs.freereg = base;
+        fs.line = line;
+        return base;
+    }
+
+    /* ---------------- Single expressions ---------------- */
+
+    /** Compile e into any register: a local's own register, or a fresh temporary. */
+    private int anyReg(Ast.Exp e) {
+        if (e instanceof Ast.Name) {
+            int reg = fs.findLocal(((Ast.Name) e).name);
+            if (reg >= 0) return reg;
+        }
+        if (e instanceof Ast.Paren) return anyReg(((Ast.Paren) e).exp);
+        int r = fs.allocReg();
+        toReg(e, r);
+        return r;
+    }
+
+    /** Compile e as an RK operand: a constant index when possible, else a register. */
+    private int rk(Ast.Exp e) {
+        int k = -1;
+        if (e instanceof Ast.Num) k = fs.numberK(((Ast.Num) e).value);
+        else if (e instanceof Ast.Str) k = fs.stringK(((Ast.Str) e).value);
+        else if (e instanceof Ast.Nil) k = fs.nilK();
+        else if (e instanceof Ast.True) k = fs.boolK(true);
+        else if (e instanceof Ast.False) k = fs.boolK(false);
+        if (k >= 0 && k <= MAXINDEXRK) return rkAsK(k);
+        return anyReg(e);
+    }
+
+    private int rkString(String s) {
+        int k = fs.stringK(s);
+        if (k <= MAXINDEXRK) return rkAsK(k);
+        int r = fs.allocReg();
+        fs.emitABx(LOADK, r, k);
+        return r;
+    }
+
+    /** Compile e so its (single) value ends up in register target. */
+    private void toReg(Ast.Exp e, int target) {
+        int save = fs.freereg;
+        int line = fs.line;
+        if (e.line > 0) fs.line = e.line;
+        if (e instanceof Ast.Nil) {
+            fs.emitABC(LOADNIL, target, target, 0);
+        } else if (e instanceof Ast.True || e instanceof Ast.False) {
+            fs.emitABC(LOADBOOL, target, e instanceof Ast.True ? 1 : 0, 0);
+        } else if (e instanceof Ast.Num) {
+            fs.emitABx(LOADK, target, fs.numberK(((Ast.Num) e).value));
+        } else if (e instanceof Ast.Str) {
+            fs.emitABx(LOADK, target, fs.stringK(((Ast.Str) e).value));
+        } else if (e instanceof Ast.Vararg) {
+            fs.emitABC(VARARG, target, 2, 0);
+        } else if (e instanceof Ast.Name) {
+            name((Ast.Name) e, target);
+        } else if (e instanceof Ast.Index) {
+            Ast.Index idx = (Ast.Index) e;
+            int obj = anyReg(idx.obj);
+            int key = rk(idx.key);
+            fs.emitABC(GETTABLE, target, obj, key);
+        } else if (e instanceof Ast.Call || e instanceof Ast.MethodCall) {
+            if (target == fs.freereg - 1 && target >= fs.nactvar()) fs.freereg = target;
+            int base = call(e, 1);
+            if (base != target) fs.emitABC(MOVE, target, base, 0);
+        } else if (e instanceof Ast.Paren) {
+            toReg(((Ast.Paren) e).exp, target);
+        } else if (e instanceof Ast.Function) {
+            closure((Ast.Function) e, target);
+        } else if (e instanceof Ast.BinOp) {
+            binop((Ast.BinOp) e, target);
+        } else if (e instanceof Ast.UnOp) {
+            Ast.UnOp u = (Ast.UnOp) e;
+            int r = anyReg(u.a);
+            fs.emitABC(u.op == Lexer.MINUS ? UNM : u.op == Lexer.NOT ? NOT : LEN, target, r, 0);
+        } else if (e instanceof Ast.Table) {
+            table((Ast.Table) e, target);
+        } else {
+            throw fs.error("unsupported expression");
+        }
+        fs.freereg = Math.max(save, target + 1);
+        fs.line = line;
+    }
+
+    private void name(Ast.Name n, int target) {
+        int reg = fs.findLocal(n.name);
+        if (reg >= 0) {
+            if (reg != target) fs.emitABC(MOVE, target, reg, 0);
+            return;
+        }
+        int up = fs.findUpvalue(n.name);
+        if (up >= 0) fs.emitABC(GETUPVAL, target, up, 0);
+        else fs.emitABx(GETGLOBAL, target, fs.globalSlot(n.name));
+    }
+
+    private void closure(Ast.Function fn, int target) {
+        Proto p = function(fs, fn);
+        int idx = fs.protos.size();
+        if (idx > MAXARG_Bx) throw fs.error("too many functions");
+        fs.protos.add(p);
+        fs.emitABx(CLOSURE, target, idx);
+    }
+
+    private void binop(Ast.BinOp e, int target) {
+        switch (e.op) {
+            case Lexer.AND:
+            case Lexer.OR: {
+                // writing target before reading the second operand would clobber a local used there
+                if (target < fs.nactvar()) {
+                    int tmp = fs.allocReg();
+                    toReg(e, tmp);
+                    fs.emitABC(MOVE, target, tmp, 0);
+                    return;
+                }
+                toReg(e.a, target);
+                fs.emitABC(TEST, target, 0, e.op == Lexer.AND ? 0 : 1);
+                int skip = fs.jump();
+                toReg(e.b, target);
+                fs.patch(skip, fs.pc);
+                return;
+            }
+            case Lexer.EQ: case Lexer.NE: case Lexer.LT: case Lexer.LE: case Lexer.GT: case Lexer.GE: {
+                List<Integer> onFalse = cond(e, false);
+                fs.emitABC(LOADBOOL, target, 1, 1);
+                fs.patchHere(onFalse);
+                fs.emitABC(LOADBOOL, target, 0, 0);
+                return;
+            }
+            case Lexer.CONCAT: {
+                List<Ast.Exp> parts = new ArrayList<>();
+                flattenConcat(e, parts);
+                int first = fs.freereg;
+                for (Ast.Exp part : parts) toReg(part, fs.allocReg());
+                fs.emitABC(CONCAT, target, first, first + parts.size() - 1);
+                return;
+            }
+            default: {
+                int b = rk(e.a);
+                int c = rk(e.b);
+                fs.emitABC(arithOp(e.op), target, b, c);
+            }
+        }
+    }
+
+    private static void flattenConcat(Ast.Exp e, List<Ast.Exp> out) {
+        if (e instanceof Ast.BinOp && ((Ast.BinOp) e).op == Lexer.CONCAT) {
+            flattenConcat(((Ast.BinOp) e).a, out);
+            flattenConcat(((Ast.BinOp) e).b, out);
+        } else {
+            out.add(e);
+        }
+    }
+
+    private int arithOp(int token) {
+        switch (token) {
+            case Lexer.PLUS: return ADD;
+            case Lexer.MINUS: return SUB;
+            case Lexer.STAR: return MUL;
+            case Lexer.SLASH: return DIV;
+            case Lexer.PERCENT: return MOD;
+            case Lexer.CARET: return POW;
+            default: throw fs.error("unsupported operator " + Lexer.name(token));
+        }
+    }
+
+    private void table(Ast.Table t, int target) {
+        if (target != fs.freereg - 1 || target < fs.nactvar()) {
+            // positional items need the registers directly above the table
+            int tmp = fs.allocReg();
+            table(t, tmp);
+            fs.emitABC(MOVE, target, tmp, 0);
+            return;
+        }
+        int narr = 0;
+        for (Ast.Exp key : t.keys) if (key == null) narr++;
+        // size hints: B = positional items, C = keyed fields (both capped to the operand width)
+        fs.emitABC(NEWTABLE, target, Math.min(narr, 511), Math.min(t.keys.size() - narr, 511));
+        int pending = 0;
+        int flushed = 0;
+        int n = t.values.size();
+        for (int i = 0; i < n; i++) {
+            Ast.Exp key = t.keys.get(i);
+            Ast.Exp value = t.values.get(i);
+            if (key != null) {
+                int save = fs.freereg;
+                int kr = rk(key);
+                int vr = rk(value);
+                fs.emitABC(SETTABLE, target, kr, vr);
+                fs.freereg = save;
+                continue;
+            }
+            if (i == n - 1 && Ast.isMulti(value)) {
+                multi(value, -1);
+                setList(target, 0, flushed / FPF + 1);
+                pending = 0;
+                break;
+            }
+            toReg(value, fs.allocReg());
+            pending++;
+            if (pending == FPF) {
+                setList(target, pending, flushed / FPF + 1);
+                flushed += pending;
+                pending = 0;
+                fs.freereg = target + 1;
+            }
+        }
+        if (pending > 0) setList(target, pending, flushed / FPF + 1);
+        fs.freereg = target + 1;
+    }
+
+    private void setList(int table, int count, int blockNumber) {
+        if (blockNumber <= MAXARG_B) {
+            fs.emitABC(SETLIST, table, count, blockNumber);
+        } else {
+            fs.emitABC(SETLIST, table, count, 0);
+            fs.emit(blockNumber);
+        }
+    }
+
+    /* ---------------- Conditions ---------------- */
+
+    /** Emit code for e that jumps when its truthiness equals jumpIf; returns the jumps to patch. */
+    private List<Integer> cond(Ast.Exp e, boolean jumpIf) {
+        List<Integer> jumps = new ArrayList<>();
+        int save = fs.freereg;
+        if (e instanceof Ast.Paren) return cond(((Ast.Paren) e).exp, jumpIf);
+        if (e instanceof Ast.UnOp && ((Ast.UnOp) e).op == Lexer.NOT) return cond(((Ast.UnOp) e).a, !jumpIf);
+        if (e instanceof Ast.Nil || e instanceof Ast.False) {
+            if (!jumpIf) jumps.add(fs.jump());
+            return jumps;
+        }
+        if (e instanceof Ast.True || e instanceof Ast.Num || e instanceof Ast.Str) {
+            if (jumpIf) jumps.add(fs.jump());
+            return jumps;
+        }
+        if (e instanceof Ast.BinOp) {
+            Ast.BinOp b = (Ast.BinOp) e;
+            switch (b.op) {
+                case Lexer.AND:
+                    if (!jumpIf) {
+                        jumps.addAll(cond(b.a, false));
+                        jumps.addAll(cond(b.b, false));
+                    } else {
+                        List<Integer> through = cond(b.a, false);
+                        jumps.addAll(cond(b.b, true));
+                        fs.patchHere(through);
+                    }
+                    return jumps;
+                case Lexer.OR:
+                    if (jumpIf) {
+                        jumps.addAll(cond(b.a, true));
+                        jumps.addAll(cond(b.b, true));
+                    } else {
+                        List<Integer> through = cond(b.a, true);
+                        jumps.addAll(cond(b.b, false));
+                        fs.patchHere(through);
+                    }
+                    return jumps;
+                case Lexer.EQ: case Lexer.NE: case Lexer.LT: case Lexer.LE: case Lexer.GT: case Lexer.GE: {
+                    int line = fs.line;
+                    fs.line = b.line;
+                    int x = rk(b.a);
+                    int y = rk(b.b);
+                    int flag = jumpIf ? 1 : 0;
+                    switch (b.op) {
+                        case Lexer.EQ: fs.emitABC(EQ, flag, x, y); break;
+                        case Lexer.NE: fs.emitABC(EQ, flag ^ 1, x, y); break;
+                        case Lexer.LT: fs.emitABC(LT, flag, x, y); break;
+                        case Lexer.LE: fs.emitABC(LE, flag, x, y); break;
+                        case Lexer.GT: fs.emitABC(LT, flag, y, x); break;
+                        default: fs.emitABC(LE, flag, y, x); break;
+                    }
+                    jumps.add(fs.jump());
+                    fs.freereg = save;
+                    fs.line = line;
+                    return jumps;
+                }
+                default:
+            }
+        }
+        int r = anyReg(e);
+        fs.emitABC(TEST, r, 0, jumpIf ? 1 : 0);
+        jumps.add(fs.jump());
+        fs.freereg = save;
+        return jumps;
+    }
+}
@@ -0,0 +1,143 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.Arrays;
+
+/**
+ * A Lua coroutine (type "thread"): a function running on its own {@link LuaThread}.
+ *
+ * No Java thread is attached while it is suspended. Lua-to-Lua calls live in the thread's frame
+ * arrays, so a yield only unwinds the few Java frames between the yielding native and resume;
+ * the next resume re-enters the interpreter at the saved pc. A suspended coroutine costs its
+ * register and frame arrays (well under a kilobyte for a typical script), which is what lets a
+ * {@link Scheduler} keep tens of thousands of sleeping scripts.
+ *
+ * Like the VM it belongs to, a coroutine is confined to one Java thread at a time.
+ */
+public final class Coroutine {
+
+    public enum Status {
+        SUSPENDED, RUNNING, NORMAL, DEAD;
+
+        /** The name coroutine.status returns. */
+        public String luaName() { return name().toLowerCase(); }
+    }
+
+    final LuaThread thread;
+    private Object body;
+    private boolean started;
+    Status status = Status.SUSPENDED;
+
+    /** Where the values of the next resume go: the yielding native's call slot and wanted count. */
+    int pendingFunc, pendingWanted;
+    /** First of the values produced by the last run(). */
+    int out;
+
+    // owned by the Scheduler that spawned this coroutine, if any
+    Scheduler scheduler;
+    long wakeTick = -1;
+    Coroutine nextTimer;
+    Object[] startArgs;
+
+    public Coroutine(LuaVM vm, Object body) {
+        this.thread = new LuaThread(vm, this, 32, 4);
+        this.body = body;
+    }
+
+    public Status status() { return status; }
+
+    public boolean isDead() { return status == Status.DEAD; }
+
+    /** The scheduler running this coroutine, or null. */
+    public Scheduler scheduler() { return scheduler; }
+
+    /**
+     * Resume from Java. Returns the values passed to yield, or the body's results once it
+     * returns; an error in the body is rethrown and leaves the coroutine dead.
+     */
+    public Object[] resume(Object... args) {
+        int dst = prepare(args.length);
+        for (int i = 0; i < args.length; i++) thread.set(dst + i, args[i]);
+        int n = run(args.length, null);
+        Object[] res = new Object[n];
+        for (int i = 0; i < n; i++) res[i] = thread.get(out + i);
+        finish();
+        return res;
+    }
+
+    /* ---------------- Resume protocol (used by the natives and the scheduler) ---------------- */
+
+    /** Check this coroutine can be resumed with n values; returns the register they must be written to. */
+    int prepare(int n) {
+        if (status != Status.SUSPENDED) {
+            throw new LuaError("cannot resume " + (status == Status.DEAD ? "dead" : "non-suspended") + " coroutine");
+        }
+        int dst;
+        if (!started) dst = 1;
+        else if (thread.ci < 0) dst = 0;
+        else dst = pendingFunc;
+        thread.ensureStack(dst + Math.max(n, pendingWanted) + 1);
+        return dst;
+    }
+
+    /**
+     * Run until the body yields, returns or fails, with the n values written at prepare()'s
+     * register. Returns how many values it produced; they sit at thread.stack[out ..].
+     * resumer is the coroutine doing the resume (null from Java or the main thread).
+     */
+    int run(int n, Coroutine resumer) {
+        LuaThread t = thread;
+        if (resumer != null) resumer.status = Status.NORMAL;
+        status = Status.RUNNING;
+        try {
+            if (!started) {
+                started = true;
+                t.stack[0] = body;
+                body = null;
+                t.top = 1 + n;
+                if (t.precall(0, n, -1)) t.execute(0);
+            } else if (t.ci < 0) {
+                // yielded straight from a Java body: the resume values are its results
+                t.top = n;
+            } else {
+                int func = pendingFunc;
+                int wanted = pendingWanted;
+                if (wanted < 0) t.top = func + n;
+                else for (int i = n; i < wanted; i++) t.stack[func + i] = null;
+                t.execute(0);
+            }
+            status = Status.DEAD;
+            out = 0;
+            return t.top;
+        } catch (LuaThread.Yield y) {
+            status = Status.SUSPENDED;
+            out = t.yieldBase;
+            return t.yieldCount;
+        } catch (LuaError e) {
+            die();
+            throw e;
+        } catch (StackOverflowError e) {
+            die();
+            throw new LuaError("stack overflow");
+        } catch (RuntimeException e) {
+            die();
+            throw new LuaError(String.valueOf(e));
+        } finally {
+            if (resumer != null) resumer.status = Status.RUNNING;
+        }
+    }
+
+    /** Drop the produced values once they have been copied out; a dead coroutine lets go of everything. */
+    void finish() {
+        if (status == Status.DEAD) Arrays.fill(thread.stack, null);
+    }
+
+    private void die() {
+        status = Status.DEAD;
+        thread.unwind(0, 0);
+        Arrays.fill(thread.stack, null);
+    }
+
+    @Override public String toString() {
+        return "thread: " + Integer.toHexString(System.identityHashCode(this));
+    }
+}
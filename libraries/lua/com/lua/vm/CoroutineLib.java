@@ -0,0 +1,126 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.Map;
+import libraries.lua.com.lua.lua;
+
+import static libraries.lua.com.lua.vm.LuaValues.NUM;
+
+/**
+ * The coroutine table (create, resume, yield, status, wrap, running, isyieldable) and sleep.
+ *
+ * sleep(ms) parks the running coroutine when it was spawned by a {@link Scheduler}; anywhere
+ * else (the main thread, a coroutine resumed by hand, under pcall) it blocks like lua.sleep.
+ */
+final class CoroutineLib {
+
+    private CoroutineLib() {}
+
+    static void install(Map<String, Object> g) {
+        lua.table co = new lua.table(0, 8);
+        co.set("create", new NativeFunction("create") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.set(base, new Coroutine(t.vm, checkFunction(t, base, nargs, "create")));
+                return 1;
+            }
+        });
+        co.set("resume", new NativeFunction("resume") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                Coroutine c = checkCoroutine(t, base, nargs, "resume");
+                try {
+                    int n = resume(t, c, base + 1, nargs - 1, base + 1);
+                    t.set(base, Boolean.TRUE);
+                    return n + 1;
+                } catch (Budget.Exceeded e) {
+                    throw e;
+                } catch (LuaError e) {
+                    t.ensureStack(base + 2);
+                    t.set(base, Boolean.FALSE);
+                    t.set(base + 1, e.value());
+                    return 2;
+                }
+            }
+        });
+        co.set("yield", new NativeFunction("yield") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                throw t.yield(base, nargs);
+            }
+        });
+        co.set("status", new NativeFunction("status") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.set(base, checkCoroutine(t, base, nargs, "status").status.luaName());
+                return 1;
+            }
+        });
+        co.set("wrap", new NativeFunction("wrap") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                Coroutine c = new Coroutine(t.vm, checkFunction(t, base, nargs, "wrap"));
+                t.set(base, new NativeFunction("wrap") {
+                    @Override public int call(LuaThread t, int base, int nargs) {
+                        return resume(t, c, base, nargs, base); // errors propagate to the caller
+                    }
+                });
+                return 1;
+            }
+        });
+        co.set("running", new NativeFunction("running") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.ensureStack(base + 1);
+                t.set(base, t.co);
+                return 1;
+            }
+        });
+        co.set("isyieldable", new NativeFunction("isyieldable") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.ensureStack(base + 1);
+                t.set(base, t.isYieldable());
+                return 1;
+            }
+        });
+        g.put("coroutine", co);
+
+        g.put("sleep", new NativeFunction("sleep") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                double ms = nargs > 0 ? t.checkNumber(base, nargs, 0, "sleep") : 0;
+                Scheduler s = t.co != null ? t.co.scheduler : null;
+                if (s != null && t.isYieldable()) throw s.sleep(t, base, ms);
+                if (ms > 0) lua.sleep((long) ms);
+                return 0;
+            }
+        });
+    }
+
+    /**
+     * Resume c with the n values at caller[from ..]; its results are copied to caller[dst ..]
+     * and their count returned. Errors in c come back as a LuaError.
+     */
+    static int resume(LuaThread caller, Coroutine c, int from, int n, int dst) {
+        int at = c.prepare(n);
+        LuaThread.move(caller, from, c.thread, at, n);
+        // the resumed coroutine spends its resumer's budget
+        Budget own = c.thread.budget;
+        if (own == null) c.thread.budget = caller.budget;
+        int r;
+        try {
+            r = c.run(n, caller.co);
+        } finally {
+            if (own == null) c.thread.budget = null;
+        }
+        LuaThread.move(c.thread, c.out, caller, dst, r);
+        c.finish();
+        return r;
+    }
+
+    private static Object checkFunction(LuaThread t, int base, int nargs, String fname) {
+        Object v = nargs > 0 ? t.ref(base) : null;
+        if (LuaValues.type(v).equals("function")) return v;
+        throw new LuaError("bad argument #1 to '" + fname + "' (function expected, got "
+                + (nargs > 0 ? (v == NUM ? "number" : LuaValues.type(v)) : "no value") + ")");
+    }
+
+    private static Coroutine checkCoroutine(LuaThread t, int base, int nargs, String fname) {
+        Object v = nargs > 0 ? t.ref(base) : null;
+        if (v instanceof Coroutine) return (Coroutine) v;
+        throw new LuaError("bad argument #1 to '" + fname + "' (coroutine expected, got "
+                + (nargs > 0 ? (v == NUM ? "number" : LuaValues.type(v)) : "no value") + ")");
+    }
+}
@@ -0,0 +1,33 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * A global variable cell. Chunks are linked against slots once, so GETGLOBAL / SETGLOBAL
+ * never hash a name at run time. Numbers are stored unboxed, like registers.
+ */
+public final class GlobalSlot {
+
+    final String name;
+    Object value;
+    double num;
+
+    GlobalSlot(String name) {
+        this.name = name;
+    }
+
+    public String name() { return name; }
+
+    /** Current value, with numbers boxed for Java callers. */
+    public Object get() {
+        return value == LuaValues.NUM ? LuaValues.box(num) : value;
+    }
+
+    /** Set from Java; Numbers are unboxed. */
+    public void set(Object v) {
+        if (v instanceof Number) {
+            num = ((Number) v).doubleValue();
+            value = LuaValues.NUM;
+        } else {
+            value = v;
+        }
+    }
+}
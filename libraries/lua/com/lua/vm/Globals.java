@@ -0,0 +1,89 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.HashMap;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import libraries.lua.com.lua.lua;
+
+/**
+ * The global environment of a {@link LuaVM}.
+ *
+ * Each global name maps to one {@link GlobalSlot}. A chunk is linked once, right after it is
+ * compiled: every name it references is resolved to its slot, and a slot created at that point
+ * is seeded from the base library or, failing that, from {@link LuaAPIRegistry}. From then on the
+ * interpreter reads and writes slots by index and never looks a global up by name.
+ *
+ * Registry APIs come from the snapshot taken when the VM was created, so a running script sees
+ * one consistent API set; {@link #refreshApis()} moves to the registry's current version.
+ */
+public final class Globals {
+
+    private final HashMap<String, GlobalSlot> slots = new HashMap<>();
+    private final HashMap<String, Object> builtins = new HashMap<>();
+    private LuaAPIRegistry.Snapshot apis = LuaAPIRegistry.snapshot();
+
+    /** The builtin string table; strings index it. */
+    final lua.table strings;
+
+    Globals() {
+        BaseLib.install(builtins);
+        CoroutineLib.install(builtins);
+        StringLib.install(builtins);
+        strings = (lua.table) builtins.get("string");
+    }
+
+    /** The slot for name, created (and seeded) on first use. */
+    public GlobalSlot slot(String name) {
+        GlobalSlot s = slots.get(name);
+        if (s == null) {
+            s = new GlobalSlot(name);
+            Object v = builtins.get(name);
+            if (v == null) v = JavaBridge.adapt(name, apis.get(name));
+            s.set(v);
+            slots.put(name, s);
+        }
+        return s;
+    }
+
+    public Object get(String name) {
+        return slot(name).get();
+    }
+
+    public void set(String name, Object value) {
+        slot(name).set(value);
+    }
+
+    /** Version of the registry snapshot this environment reads APIs from. */
+    public long apiVersion() {
+        return apis.version();
+    }
+
+    /**
+     * Switch to the registry's current snapshot. Globals still holding the API from the old
+     * snapshot are updated; globals a script has assigned itself are left alone.
+     */
+    public void refreshApis() {
+        LuaAPIRegistry.Snapshot old = apis;
+        LuaAPIRegistry.Snapshot next = LuaAPIRegistry.snapshot();
+        if (next == old) return;
+        apis = next;
+        for (GlobalSlot s : slots.values()) {
+            if (builtins.containsKey(s.name)) continue;
+            Object was = old.get(s.name);
+            Object cur = s.get();
+            if (cur == null ? was == null : was != null && isFrom(cur, was)) {
+                s.set(JavaBridge.adapt(s.name, next.get(s.name)));
+            }
+        }
+    }
+
+    private static boolean isFrom(Object global, Object api) {
+        return global == api || (global instanceof JavaBridge.RegistryFunction && ((JavaBridge.RegistryFunction) global).fn == api);
+    }
+
+    /** Bind every global referenced by p and its nested functions. */
+    void link(Proto p) {
+        p.globals = new GlobalSlot[p.globalNames.length];
+        for (int i = 0; i < p.globalNames.length; i++) p.globals[i] = slot(p.globalNames[i]);
+        for (Proto child : p.p) link(child);
+    }
+}
@@ -0,0 +1,326 @@
+package libraries.lua.com.lua.vm;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import libraries.lua.com.lua.LuaFunctions;
+
+import static libraries.lua.com.lua.vm.LuaValues.NUM;
+
+/**
+ * Exposes plain Java objects (the APIs held by {@link LuaAPIRegistry}, results such as
+ * lua.ProcessResult) to scripts.
+ *
+ * - obj.name resolves to a public method (as a callable) or a public field, cached per class.
+ * - Static methods take the Lua arguments as-is; instance methods take the receiver first,
+ *   so they are called with ':' (obj:method(...)).
+ * - Numbers are converted to the parameter type; results come back as Lua values.
+ */
+final class JavaBridge {
+
+    private JavaBridge() {}
+
+    private static final Object NONE = new Object();
+
+    private static final ClassValue<ConcurrentHashMap<String, Object>> MEMBERS = new ClassValue<>() {
+        @Override protected ConcurrentHashMap<String, Object> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /** obj[key] for a Java object. */
+    static Object index(Object obj, Object key) {
+        if (!(key instanceof String)) return null;
+        Class<?> cls = obj instanceof String ? stringLibClass() : obj.getClass();
+        if (cls == null) return null;
+        Object m = MEMBERS.get(cls).computeIfAbsent((String) key, name -> resolve(cls, name));
+        if (m == NONE) return null;
+        if (m instanceof Field) {
+            try {
+                return ((Field) m).get(Modifier.isStatic(((Field) m).getModifiers()) ? null : obj);
+            } catch (IllegalAccessException e) {
+                throw new LuaError("cannot read field '" + key + "'");
+            }
+        }
+        return m;
+    }
+
+    private static final LuaAPIRegistry.Slot STRING_LIB = LuaAPIRegistry.slot("string");
+
+    /** Strings index the registered "string" library, so ("x"):upper() works. */
+    private static Class<?> stringLibClass() {
+        Object lib = STRING_LIB.get();
+        return lib != null ? lib.getClass() : null;
+    }
+
+    private static Object resolve(Class<?> cls, String name) {
+        List<Method> methods = new ArrayList<>();
+        for (Method m : cls.getMethods()) {
+            if (m.getName().equals(name) && m.getDeclaringClass() != Object.class) methods.add(m);
+        }
+        if (!methods.isEmpty()) return new JavaMethod(cls.getSimpleName() + "." + name, methods.toArray(new Method[0]));
+        try {
+            return cls.getField(name);
+        } catch (NoSuchFieldException e) {
+            return NONE;
+        }
+    }
+
+    /** Wrap a registry value so the VM can call it; other values pass through. */
+    static Object adapt(String name, Object v) {
+        return LuaFunctions.isFunction(v) ? registryFunction(name, v) : v;
+    }
+
+    /** Call a non-VM callable found in a register. */
+    static int call(LuaThread t, Object f, int base, int nargs) {
+        if (LuaFunctions.isFunction(f)) return registryFunction("?", f).call(t, base, nargs);
+        throw new LuaError("attempt to call a " + (f == NUM ? "number" : LuaValues.type(f)) + " value");
+    }
+
+    /* ---------------- Callables ---------------- */
+
+    /** A function registered in {@link LuaAPIRegistry}, called in its own shape. */
+    abstract static class RegistryFunction extends NativeFunction {
+        final Object fn;
+
+        RegistryFunction(String name, Object fn) {
+            super(name);
+            this.fn = fn;
+        }
+    }
+
+    /**
+     * The adapter for fn's shape. Fixed-arity shapes read their arguments straight from the
+     * registers and Double/Long shapes never box; only the varargs shapes build an Object[].
+     */
+    static RegistryFunction registryFunction(String name, Object fn) {
+        if (fn instanceof LuaAPIRegistry.DoubleFunction1) {
+            LuaAPIRegistry.DoubleFunction1 f = (LuaAPIRegistry.DoubleFunction1) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.setNumber(base, f.call(number(t, base, nargs, 0, name)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.DoubleFunction2) {
+            LuaAPIRegistry.DoubleFunction2 f = (LuaAPIRegistry.DoubleFunction2) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.setNumber(base, f.call(number(t, base, nargs, 0, name), number(t, base, nargs, 1, name)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LongFunction1) {
+            LuaAPIRegistry.LongFunction1 f = (LuaAPIRegistry.LongFunction1) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.setNumber(base, f.call((long) number(t, base, nargs, 0, name)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LongFunction2) {
+            LuaAPIRegistry.LongFunction2 f = (LuaAPIRegistry.LongFunction2) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.setNumber(base, f.call((long) number(t, base, nargs, 0, name), (long) number(t, base, nargs, 1, name)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LongConsumer1) {
+            LuaAPIRegistry.LongConsumer1 f = (LuaAPIRegistry.LongConsumer1) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    f.call((long) number(t, base, nargs, 0, name));
+                    return 0;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LuaFunction0) {
+            LuaAPIRegistry.LuaFunction0 f = (LuaAPIRegistry.LuaFunction0) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.set(base, f.call());
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LuaFunction1) {
+            LuaAPIRegistry.LuaFunction1 f = (LuaAPIRegistry.LuaFunction1) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.set(base, f.call(arg(t, base, nargs, 0)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LuaFunction2) {
+            LuaAPIRegistry.LuaFunction2 f = (LuaAPIRegistry.LuaFunction2) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.set(base, f.call((long) number(t, base, nargs, 0, name)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LuaBiFunction) {
+            LuaAPIRegistry.LuaBiFunction f = (LuaAPIRegistry.LuaBiFunction) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.set(base, f.call(arg(t, base, nargs, 0), arg(t, base, nargs, 1)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LuaFunction3) {
+            LuaAPIRegistry.LuaFunction3 f = (LuaAPIRegistry.LuaFunction3) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.set(base, f.call(arg(t, base, nargs, 0), arg(t, base, nargs, 1), arg(t, base, nargs, 2)));
+                    return 1;
+                }
+            };
+        }
+        if (fn instanceof LuaAPIRegistry.LuaFunctionN) {
+            LuaAPIRegistry.LuaFunctionN f = (LuaAPIRegistry.LuaFunctionN) fn;
+            return new RegistryFunction(name, fn) {
+                @Override public int call(LuaThread t, int base, int nargs) {
+                    t.set(base, f.call(args(t, base, nargs)));
+                    return 1;
+                }
+            };
+        }
+        LuaAPIRegistry.LuaFunction f = (LuaAPIRegistry.LuaFunction) fn;
+        return new RegistryFunction(name, fn) {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                f.call(args(t, base, nargs));
+                return 0;
+            }
+        };
+    }
+
+    private static Object arg(LuaThread t, int base, int nargs, int i) {
+        return i < nargs ? t.get(base + i) : null;
+    }
+
+    private static Object[] args(LuaThread t, int base, int nargs) {
+        Object[] args = new Object[nargs];
+        for (int i = 0; i < nargs; i++) args[i] = t.get(base + i);
+        return args;
+    }
+
+    /** Argument i as a number (numeric strings are converted, as in arithmetic). */
+    private static double number(LuaThread t, int base, int nargs, int i, String fname) {
+        if (i < nargs) {
+            if (t.isNumber(base + i)) return t.number(base + i);
+            Object v = t.ref(base + i);
+            if (v instanceof String) {
+                double d = LuaValues.parseNumber((String) v);
+                if (d == d) return d;
+            }
+        }
+        throw new LuaError("bad argument #" + (i + 1) + " to '" + fname + "' (number expected, got "
+                + (i < nargs ? LuaValues.type(t.ref(base + i)) : "no value") + ")");
+    }
+
+    /** One or more public Java methods of the same name, chosen by argument count. */
+    static final class JavaMethod extends NativeFunction {
+        final Method[] overloads;
+
+        JavaMethod(String name, Method[] overloads) {
+            super(name);
+            this.overloads = overloads;
+        }
+
+        @Override public int call(LuaThread t, int base, int nargs) {
+            for (Method m : overloads) {
+                boolean isStatic = Modifier.isStatic(m.getModifiers());
+                int params = m.getParameterCount() + (isStatic ? 0 : 1);
+                if (params == nargs || (m.isVarArgs() && nargs >= params - 1)) {
+                    return invoke(m, isStatic, t, base, nargs);
+                }
+            }
+            throw new LuaError("no overload of '" + name + "' takes " + nargs + " arguments");
+        }
+
+        private int invoke(Method m, boolean isStatic, LuaThread t, int base, int nargs) {
+            Object receiver = null;
+            int first = base;
+            if (!isStatic) {
+                receiver = t.get(base);
+                if (!m.getDeclaringClass().isInstance(receiver)) {
+                    throw new LuaError("calling '" + name + "' on bad self (use ':')");
+                }
+                first++;
+            }
+            Class<?>[] types = m.getParameterTypes();
+            Object[] args = new Object[types.length];
+            int given = nargs - (isStatic ? 0 : 1);
+            for (int i = 0; i < types.length; i++) {
+                if (m.isVarArgs() && i == types.length - 1) {
+                    Class<?> ct = types[i].getComponentType();
+                    int n = Math.max(0, given - i);
+                    Object arr = java.lang.reflect.Array.newInstance(ct, n);
+                    for (int j = 0; j < n; j++) java.lang.reflect.Array.set(arr, j, convert(t, first + i + j, ct));
+                    args[i] = arr;
+                } else {
+                    args[i] = convert(t, first + i, types[i]);
+                }
+            }
+            Object result;
+            try {
+                result = m.invoke(receiver, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof LuaError) throw (LuaError) cause;
+                throw new LuaError(name + ": " + cause);
+            } catch (IllegalAccessException e) {
+                throw new LuaError(name + ": " + e.getMessage());
+            }
+            if (m.getReturnType() == void.class) return 0;
+            t.set(base, result instanceof Character ? String.valueOf(result) : result);
+            return 1;
+        }
+    }
+
+    /** Convert the Lua value at idx to a Java parameter of the given type. */
+    static Object convert(LuaThread t, int idx, Class<?> type) {
+        Object v = t.ref(idx);
+        if (v == NUM) {
+            double d = t.number(idx);
+            if (type == double.class || type == Double.class) return d;
+            if (type == int.class || type == Integer.class) return (int) d;
+            if (type == long.class || type == Long.class) return (long) d;
+            if (type == float.class || type == Float.class) return (float) d;
+            if (type == short.class || type == Short.class) return (short) d;
+            if (type == byte.class || type == Byte.class) return (byte) d;
+            if (type == String.class || type == CharSequence.class) return LuaValues.numberToString(d);
+            if (type == boolean.class) return Boolean.TRUE;
+            return LuaValues.box(d);
+        }
+        if (type == boolean.class || type == Boolean.class) return LuaValues.truthy(v);
+        if (type.isPrimitive()) {
+            if (v instanceof String) {
+                double d = LuaValues.parseNumber((String) v);
+                if (d == d) {
+                    t.setNumber(idx, d);
+                    return convert(t, idx, type);
+                }
+            }
+            throw new LuaError("number expected, got " + LuaValues.type(v));
+        }
+        if (type == String.class && v != null && !(v instanceof String)) return LuaValues.tostring(v);
+        if (v != null && !type.isInstance(v)) {
+            throw new LuaError(type.getSimpleName() + " expected, got " + LuaValues.type(v));
+        }
+        return v;
+    }
+}
@@ -0,0 +1,301 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * Tokenizer for the Lua subset understood by {@link Parser}.
+ */
+final class Lexer {
+
+    /* ---------------- Token types ---------------- */
+
+    static final int EOF = 0, NAME = 1, NUMBER = 2, STRING = 3;
+    // keywords
+    static final int AND = 10, BREAK = 11, DO = 12, ELSE = 13, ELSEIF = 14, END = 15, FALSE = 16, FOR = 17,
+            FUNCTION = 18, IF = 19, IN = 20, LOCAL = 21, NIL = 22, NOT = 23, OR = 24, REPEAT = 25, RETURN = 26,
+            THEN = 27, TRUE = 28, UNTIL = 29, WHILE = 30;
+    // symbols
+    static final int PLUS = 40, MINUS = 41, STAR = 42, SLASH = 43, PERCENT = 44, CARET = 45, HASH = 46,
+            EQ = 47, NE = 48, LE = 49, GE = 50, LT = 51, GT = 52, ASSIGN = 53, LPAREN = 54, RPAREN = 55,
+            LBRACE = 56, RBRACE = 57, LBRACKET = 58, RBRACKET = 59, SEMI = 60, COLON = 61, COMMA = 62,
+            DOT = 63, CONCAT = 64, DOTS = 65;
+
+    private static final String[] KEYWORDS = {
+            "and", "break", "do", "else", "elseif", "end", "false", "for", "function", "if", "in",
+            "local", "nil", "not", "or", "repeat", "return", "then", "true", "until", "while"
+    };
+
+    private final String src;
+    private final String chunkName;
+    private int pos;
+    private int line = 1;
+
+    // current token
+    int token;
+    int tokenLine;
+    String text;
+    double number;
+
+    Lexer(String src, String chunkName) {
+        this.src = src;
+        this.chunkName = chunkName;
+    }
+
+    LuaError error(String msg) {
+        return new LuaError(chunkName + ":" + tokenLine + ": " + msg);
+    }
+
+    static String name(int token) {
+        if (token >= AND && token <= WHILE) return "'" + KEYWORDS[token - AND] + "'";
+        switch (token) {
+            case EOF: return "<eof>";
+            case NAME: return "<name>";
+            case NUMBER: return "<number>";
+            case STRING: return "<string>";
+            case PLUS: return "'+'";
+            case MINUS: return "'-'";
+            case STAR: return "'*'";
+            case SLASH: return "'/'";
+            case PERCENT: return "'%'";
+            case CARET: return "'^'";
+            case HASH: return "'#'";
+            case EQ: return "'=='";
+            case NE: return "'~='";
+            case LE: return "'<='";
+            case GE: return "'>='";
+            case LT: return "'<'";
+            case GT: return "'>'";
+            case ASSIGN: return "'='";
+            case LPAREN: return "'('";
+            case RPAREN: return "')'";
+            case LBRACE: return "'{'";
+            case RBRACE: return "'}'";
+            case LBRACKET: return "'['";
+            case RBRACKET: return "']'";
+            case SEMI: return "';'";
+            case COLON: return "':'";
+            case COMMA: return "','";
+            case DOT: return "'.'";
+            case CONCAT: return "'..'";
+            case DOTS: return "'...'";
+            default: return "token " + token;
+        }
+    }
+
+    /** Advance to the next token. */
+    void next() {
+        skipWhitespaceAndComments();
+        tokenLine = line;
+        text = null;
+        if (pos >= src.length()) {
+            token = EOF;
+            return;
+        }
+        char c = src.charAt(pos);
+        if (Character.isLetter(c) || c == '_') {
+            int start = pos;
+            while (pos < src.length() && (Character.isLetterOrDigit(src.charAt(pos)) || src.charAt(pos) == '_')) pos++;
+            text = src.substring(start, pos);
+            token = keyword(text);
+            return;
+        }
+        if (Character.isDigit(c) || (c == '.' && pos + 1 < src.length() && Character.isDigit(src.charAt(pos + 1)))) {
+            readNumber();
+            return;
+        }
+        pos++;
+        switch (c) {
+            case '+': token = PLUS; return;
+            case '-': token = MINUS; return;
+            case '*': token = STAR; return;
+            case '/': token = SLASH; return;
+            case '%': token = PERCENT; return;
+            case '^': token = CARET; return;
+            case '#': token = HASH; return;
+            case '(': token = LPAREN; return;
+            case ')': token = RPAREN; return;
+            case '{': token = LBRACE; return;
+            case '}': token = RBRACE; return;
+            case ']': token = RBRACKET; return;
+            case ';': token = SEMI; return;
+            case ':': token = COLON; return;
+            case ',': token = COMMA; return;
+            case '=': token = match('=') ? EQ : ASSIGN; return;
+            case '<': token = match('=') ? LE : LT; return;
+            case '>': token = match('=') ? GE : GT; return;
+            case '~':
+                if (match('=')) { token = NE; return; }
+                throw error("unexpected symbol near '~'");
+            case '.':
+                if (match('.')) { token = match('.') ? DOTS : CONCAT; return; }
+                token = DOT;
+                return;
+            case '[': {
+                int level = longBracketLevel();
+                if (level >= 0) {
+                    text = readLongString(level);
+                    token = STRING;
+                    return;
+                }
+                token = LBRACKET;
+                return;
+            }
+            case '"':
+            case '\'':
+                readString(c);
+                return;
+            default:
+                throw error("unexpected symbol near '" + c + "'");
+        }
+    }
+
+    private static int keyword(String s) {
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            if (KEYWORDS[i].equals(s)) return AND + i;
+        }
+        return NAME;
+    }
+
+    private boolean match(char c) {
+        if (pos < src.length() && src.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+            if (c == '\n') {
+                line++;
+                pos++;
+            } else if (Character.isWhitespace(c)) {
+                pos++;
+            } else if (c == '-' && pos + 1 < src.length() && src.charAt(pos + 1) == '-') {
+                pos += 2;
+                if (pos < src.length() && src.charAt(pos) == '[') {
+                    pos++;
+                    int level = longBracketLevel();
+                    if (level >= 0) {
+                        readLongString(level);
+                        continue;
+                    }
+                }
+                while (pos < src.length() && src.charAt(pos) != '\n') pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /** After a '[' has been consumed: returns the level of a long bracket ([[ or [==[), or -1. */
+    private int longBracketLevel() {
+        int p = pos;
+        int level = 0;
+        while (p < src.length() && src.charAt(p) == '=') {
+            level++;
+            p++;
+        }
+        if (p < src.length() && src.charAt(p) == '[') {
+            pos = p + 1;
+            return level;
+        }
+        return -1;
+    }
+
+    private String readLongString(int level) {
+        // a newline directly after the opening bracket is skipped
+        if (pos < src.length() && src.charAt(pos) == '\n') {
+            line++;
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder();
+        while (pos < src.length()) {
+            char c = src.charAt(pos);
+            if (c == ']') {
+                int p = pos + 1;
+                int l = 0;
+                while (p < src.length() && src.charAt(p) == '=') {
+                    l++;
+                    p++;
+                }
+                if (l == level && p < src.length() && src.charAt(p) == ']') {
+                    pos = p + 1;
+                    return sb.toString();
+                }
+            }
+            if (c == '\n') line++;
+            sb.append(c);
+            pos++;
+        }
+        throw error("unfinished long string");
+    }
+
+    private void readString(char quote) {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (pos >= src.length()) throw error("unfinished string");
+            char c = src.charAt(pos++);
+            if (c == quote) break;
+            if (c == '\n') throw error("unfinished string");
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= src.length()) throw error("unfinished string");
+            char e = src.charAt(pos++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'a': sb.append('\u0007'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'v': sb.append('\u000B'); break;
+                case '\\': sb.append('\\'); break;
+                case '"': sb.append('"'); break;
+                case '\'': sb.append('\''); break;
+                case '\n': sb.append('\n'); line++; break;
+                default:
+                    if (Character.isDigit(e)) {
+                        int v = e - '0';
+                        for (int i = 0; i < 2 && pos < src.length() && Character.isDigit(src.charAt(pos)); i++) {
+                            v = v * 10 + (src.charAt(pos++) - '0');
+                        }
+                        if (v > 255) throw error("escape sequence too large");
+                        sb.append((char) v);
+                    } else {
+                        throw error("invalid escape sequence '\\" + e + "'");
+                    }
+            }
+        }
+        text = sb.toString();
+        token = STRING;
+    }
+
+    private void readNumber() {
+        int start = pos;
+        if (src.startsWith("0x", pos) || src.startsWith("0X", pos)) {
+            pos += 2;
+            while (pos < src.length() && Character.digit(src.charAt(pos), 16) >= 0) pos++;
+            try {
+                number = Long.parseLong(src.substring(start + 2, pos), 16);
+            } catch (NumberFormatException e) {
+                throw error("malformed number near '" + src.substring(start, pos) + "'");
+            }
+            token = NUMBER;
+            return;
+        }
+        while (pos < src.length() && (Character.isDigit(src.charAt(pos)) || src.charAt(pos) == '.')) pos++;
+        if (pos < src.length() && (src.charAt(pos) == 'e' || src.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < src.length() && (src.charAt(pos) == '+' || src.charAt(pos) == '-')) pos++;
+            while (pos < src.length() && Character.isDigit(src.charAt(pos))) pos++;
+        }
+        try {
+            number = Double.parseDouble(src.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("malformed number near '" + src.substring(start, pos) + "'");
+        }
+        token = NUMBER;
+    }
+}
@@ -0,0 +1,21 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * A Lua function value: a prototype plus its captured upvalues.
+ */
+public final class LuaClosure {
+
+    final Proto p;
+    final UpVal[] ups;
+
+    LuaClosure(Proto p) {
+        this.p = p;
+        this.ups = new UpVal[p.upIndex.length];
+    }
+
+    public String name() { return p.name; }
+
+    @Override public String toString() {
+        return "function: " + p.source + ":" + p.lineDefined;
+    }
+}
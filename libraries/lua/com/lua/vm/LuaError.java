@@ -0,0 +1,25 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * Runtime or compile error raised by a Lua script.
+ * The value is what the script passed to error(...), or the message for internal errors.
+ */
+public class LuaError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object value;
+
+    public LuaError(String message) {
+        super(message);
+        this.value = message;
+    }
+
+    public LuaError(Object value, String message) {
+        super(message);
+        this.value = value;
+    }
+
+    /** The Lua value carried by this error (what pcall returns as its second result). */
+    public Object value() { return value; }
+}
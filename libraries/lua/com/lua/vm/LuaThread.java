@@ -0,0 +1,898 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.Arrays;
+import libraries.lua.com.lua.lua;
+
+import static libraries.lua.com.lua.vm.LuaValues.NUM;
+import static libraries.lua.com.lua.vm.OpCodes.*;
+
+/**
+ * A Lua execution stack and the interpreter loop that runs on it.
+ *
+ * Registers are two parallel arrays: {@link #stack} holds references and {@link #nstack} holds
+ * numbers (the reference slot is {@link LuaValues#NUM} when the slot is numeric). Arithmetic,
+ * comparisons, local moves and for-loops therefore never box. Lua-to-Lua calls push a frame onto
+ * parallel int arrays instead of recursing on the Java stack, and tail calls reuse the caller's.
+ *
+ * A thread is confined to the Java thread that runs it. Besides the VM's main thread, every
+ * {@link Coroutine} runs on a thread of its own; since Lua calls keep their state in the frame
+ * arrays, yield() only has to unwind the Java stack back to resume, which re-enters execute().
+ */
+public final class LuaThread {
+
+    private static final int MAX_FRAMES = 200_000;
+
+    final LuaVM vm;
+
+    Object[] stack;
+    double[] nstack;
+    /** First free slot above the last multi-result producer (CALL/VARARG with open results). */
+    int top;
+
+    // call frames, one entry per active Lua function
+    LuaClosure[] fcl;
+    int[] fbase;
+    int[] fpc;
+    int[] ffunc;
+    int[] fnres;
+    int[] fnvar;
+    int ci = -1;
+
+    /** Open upvalues, highest register first. */
+    UpVal openUpvals;
+
+    /** The coroutine running on this thread; null for the VM's main thread. */
+    final Coroutine co;
+    /** Java-to-Lua calls (pcall, natives calling back) active on this thread; no yield while > 0. */
+    int nny;
+    /** Values passed to the last yield: stack[yieldBase .. yieldBase + yieldCount). */
+    int yieldBase, yieldCount;
+
+    /** Limits of the current run, or null; see {@link Budget}. */
+    Budget budget;
+    /** Counted instructions left before the next budget check. */
+    int fuel = Budget.CHECK_INTERVAL;
+
+    LuaThread(LuaVM vm) {
+        this(vm, null, 256, 16);
+    }
+
+    LuaThread(LuaVM vm, Coroutine co, int stackSize, int frames) {
+        this.vm = vm;
+        this.co = co;
+        stack = new Object[stackSize];
+        nstack = new double[stackSize];
+        fcl = new LuaClosure[frames];
+        fbase = new int[frames];
+        fpc = new int[frames];
+        ffunc = new int[frames];
+        fnres = new int[frames];
+        fnvar = new int[frames];
+    }
+
+    public LuaVM vm() { return vm; }
+
+    /* ---------------- Stack access for natives ---------------- */
+
+    public void ensureStack(int size) {
+        if (size <= stack.length) return;
+        int n = Math.max(size, stack.length * 2);
+        stack = Arrays.copyOf(stack, n);
+        nstack = Arrays.copyOf(nstack, n);
+    }
+
+    /** Value at idx, with a number boxed. */
+    public Object get(int idx) {
+        Object v = stack[idx];
+        return v == NUM ? LuaValues.box(nstack[idx]) : v;
+    }
+
+    /** Raw slot reference ({@link LuaValues#NUM} for numbers). */
+    public Object ref(int idx) { return stack[idx]; }
+
+    public boolean isNumber(int idx) { return stack[idx] == NUM; }
+
+    public double number(int idx) { return nstack[idx]; }
+
+    public void set(int idx, Object v) {
+        if (v instanceof Number) {
+            stack[idx] = NUM;
+            nstack[idx] = ((Number) v).doubleValue();
+        } else {
+            stack[idx] = v;
+        }
+    }
+
+    public void setNumber(int idx, double d) {
+        stack[idx] = NUM;
+        nstack[idx] = d;
+    }
+
+    public void copy(int from, int to) {
+        stack[to] = stack[from];
+        nstack[to] = nstack[from];
+    }
+
+    /** Number argument with string coercion; raises a Lua error naming the function otherwise. */
+    public double checkNumber(int base, int nargs, int i, String fname) {
+        if (i < nargs) {
+            int idx = base + i;
+            if (stack[idx] == NUM) return nstack[idx];
+            if (stack[idx] instanceof String) {
+                double d = LuaValues.parseNumber((String) stack[idx]);
+                if (d == d) return d;
+            }
+        }
+        throw new LuaError("bad argument #" + (i + 1) + " to '" + fname + "' (number expected, got "
+                + (i < nargs ? LuaValues.type(stack[base + i]) : "no value") + ")");
+    }
+
+    public String checkString(int base, int nargs, int i, String fname) {
+        if (i < nargs) {
+            Object v = stack[base + i];
+            if (v instanceof String) return (String) v;
+            if (v == NUM) return LuaValues.numberToString(nstack[base + i]);
+        }
+        throw new LuaError("bad argument #" + (i + 1) + " to '" + fname + "' (string expected, got "
+                + (i < nargs ? LuaValues.type(stack[base + i]) : "no value") + ")");
+    }
+
+    /** "source:line:" of the function running level frames up (1 = innermost Lua frame). */
+    public String where(int level) {
+        int f = ci - (level - 1);
+        if (level <= 0 || f < 0) return "";
+        Proto p = fcl[f].p;
+        return p.source + ":" + p.line(fpc[f] - 1) + ":";
+    }
+
+    /* ---------------- Calls ---------------- */
+
+    /** Call fn with args from Java; returns every result, numbers boxed. */
+    public Object[] call(Object fn, Object... args) {
+        int func = top;
+        ensureStack(func + 1 + args.length + 1);
+        stack[func] = fn;
+        for (int i = 0; i < args.length; i++) set(func + 1 + i, args[i]);
+        top = func + 1 + args.length;
+        call(func, args.length, -1);
+        int n = top - func;
+        Object[] out = new Object[n];
+        for (int i = 0; i < n; i++) out[i] = get(func + i);
+        Arrays.fill(stack, func, top, null);
+        top = func;
+        return out;
+    }
+
+    /**
+     * Call the function at stack[func] with nargs arguments above it. Results are left at func;
+     * with nresults &lt; 0 all are kept and top is set past the last one.
+     */
+    public void call(int func, int nargs, int nresults) {
+        int entry = ci + 1;
+        nny++;
+        try {
+            if (precall(func, nargs, nresults)) execute(entry);
+        } catch (RuntimeException e) {
+            unwind(entry, func);
+            throw e;
+        } finally {
+            nny--;
+        }
+    }
+
+    /* ---------------- Coroutines ---------------- */
+
+    /** The coroutine running on this thread, or null on the main thread. */
+    public Coroutine coroutine() { return co; }
+
+    /** Whether a native called right now may yield (inside a coroutine, not under pcall or a Java callback). */
+    public boolean isYieldable() { return co != null && nny == 0; }
+
+    /**
+     * Suspend the running coroutine, handing stack[base .. base+nargs) to whoever resumed it.
+     * Only natives call this, as their last act: {@code throw t.yield(base, nargs);}. The values
+     * passed to the next resume become the results of the native's call.
+     */
+    public RuntimeException yield(int base, int nargs) {
+        if (co == null) throw new LuaError("attempt to yield from outside a coroutine");
+        if (nny > 0) throw new LuaError("attempt to yield across a Java call boundary");
+        yieldBase = base;
+        yieldCount = nargs;
+        if (ci >= 0) {
+            // the native was started by the CALL / TFORCALL just before the frame's saved pc
+            int i = fcl[ci].p.code[fpc[ci] - 1];
+            co.pendingFunc = base - 1;
+            co.pendingWanted = op(i) == TFORCALL ? c(i) : c(i) - 1;
+        }
+        return YIELD;
+    }
+
+    /** Unwinds a coroutine's Java stack back to resume; its frames stay on the thread. */
+    static final class Yield extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Yield() {
+            super("yield", null, false, false);
+        }
+    }
+
+    static final Yield YIELD = new Yield();
+
+    /** Copy n registers between threads, numbers unboxed. */
+    static void move(LuaThread from, int src, LuaThread to, int dst, int n) {
+        to.ensureStack(dst + n + 1);
+        System.arraycopy(from.stack, src, to.stack, dst, n);
+        System.arraycopy(from.nstack, src, to.nstack, dst, n);
+    }
+
+    /** Drop frames from entry upward after an error, closing their upvalues. */
+    void unwind(int entry, int level) {
+        closeUpvals(level);
+        while (ci >= entry) fcl[ci--] = null;
+    }
+
+    /**
+     * Start a call. Lua functions get a frame (returns true, the interpreter must run it);
+     * Java functions run to completion here (returns false).
+     */
+    boolean precall(int func, int nargs, int nresults) {
+        Object f = stack[func];
+        if (f instanceof LuaClosure) {
+            LuaClosure cl = (LuaClosure) f;
+            Proto p = cl.p;
+            int base = func + 1;
+            int nvar = 0;
+            if (p.vararg && nargs > p.numParams) {
+                // keep the extra arguments below the frame and move the fixed ones above them
+                nvar = nargs - p.numParams;
+                base = func + 1 + nargs;
+                ensureStack(base + p.maxStack);
+                for (int i = 0; i < p.numParams; i++) {
+                    stack[base + i] = stack[func + 1 + i];
+                    nstack[base + i] = nstack[func + 1 + i];
+                }
+            } else {
+                ensureStack(base + p.maxStack);
+            }
+            for (int i = nargs; i < p.numParams; i++) stack[base + i] = null;
+            if (++ci == fcl.length) growFrames();
+            if (ci >= MAX_FRAMES) {
+                ci--;
+                throw new LuaError("stack overflow");
+            }
+            fcl[ci] = cl;
+            fbase[ci] = base;
+            fpc[ci] = 0;
+            ffunc[ci] = func;
+            fnres[ci] = nresults;
+            fnvar[ci] = nvar;
+            return true;
+        }
+        int n;
+        top = func + 1 + nargs;
+        if (f instanceof NativeFunction) {
+            n = ((NativeFunction) f).call(this, func + 1, nargs);
+        } else {
+            n = JavaBridge.call(this, f, func + 1, nargs);
+        }
+        moveResults(func + 1, func, n, nresults);
+        return false;
+    }
+
+    private void moveResults(int from, int to, int n, int wanted) {
+        if (wanted < 0) {
+            for (int i = 0; i < n; i++) {
+                stack[to + i] = stack[from + i];
+                nstack[to + i] = nstack[from + i];
+            }
+            top = to + n;
+            return;
+        }
+        ensureStack(to + wanted);
+        int i = 0;
+        for (; i < n && i < wanted; i++) {
+            stack[to + i] = stack[from + i];
+            nstack[to + i] = nstack[from + i];
+        }
+        for (; i < wanted; i++) stack[to + i] = null;
+    }
+
+    private void growFrames() {
+        int n = fcl.length * 2;
+        fcl = Arrays.copyOf(fcl, n);
+        fbase = Arrays.copyOf(fbase, n);
+        fpc = Arrays.copyOf(fpc, n);
+        ffunc = Arrays.copyOf(ffunc, n);
+        fnres = Arrays.copyOf(fnres, n);
+        fnvar = Arrays.copyOf(fnvar, n);
+    }
+
+    /* ---------------- Upvalues ---------------- */
+
+    UpVal findUpval(int idx) {
+        UpVal prev = null;
+        UpVal u = openUpvals;
+        while (u != null && u.index > idx) {
+            prev = u;
+            u = u.next;
+        }
+        if (u != null && u.index == idx) return u;
+        UpVal created = new UpVal(this, idx);
+        created.next = u;
+        if (prev == null) openUpvals = created;
+        else prev.next = created;
+        return created;
+    }
+
+    void closeUpvals(int level) {
+        while (openUpvals != null && openUpvals.index >= level) {
+            UpVal u = openUpvals;
+            u.close();
+            openUpvals = u.next;
+            u.next = null;
+        }
+    }
+
+    /* ---------------- Interpreter loop ---------------- */
+
+    /** Run Lua frames until the frame at index entry returns. */
+    void execute(int entry) {
+        LuaClosure cl = fcl[ci];
+        Proto p = cl.p;
+        int[] code = p.code;
+        Object[] k = p.k;
+        double[] kn = p.kn;
+        int base = fbase[ci];
+        int pc = fpc[ci];
+        Object[] s = stack;
+        double[] ns = nstack;
+        try {
+            while (true) {
+                int i = code[pc++];
+                int ra = base + a(i);
+                switch (op(i)) {
+                    case MOVE: {
+                        int rb = base + b(i);
+                        s[ra] = s[rb];
+                        ns[ra] = ns[rb];
+                        continue;
+                    }
+                    case LOADK: {
+                        int bx = bx(i);
+                        s[ra] = k[bx];
+                        ns[ra] = kn[bx];
+                        continue;
+                    }
+                    case LOADBOOL:
+                        s[ra] = b(i) != 0 ? Boolean.TRUE : Boolean.FALSE;
+                        if (c(i) != 0) pc++;
+                        continue;
+                    case LOADNIL: {
+                        int last = base + b(i);
+                        for (int r = ra; r <= last; r++) s[r] = null;
+                        continue;
+                    }
+                    case GETUPVAL: {
+                        UpVal u = cl.ups[b(i)];
+                        if (u.thread != null) {
+                            s[ra] = u.thread.stack[u.index];
+                            ns[ra] = u.thread.nstack[u.index];
+                        } else {
+                            s[ra] = u.value;
+                            ns[ra] = u.num;
+                        }
+                        continue;
+                    }
+                    case SETUPVAL: {
+                        UpVal u = cl.ups[b(i)];
+                        if (u.thread != null) {
+                            u.thread.stack[u.index] = s[ra];
+                            u.thread.nstack[u.index] = ns[ra];
+                        } else {
+                            u.value = s[ra];
+                            u.num = ns[ra];
+                        }
+                        continue;
+                    }
+                    case GETGLOBAL: {
+                        GlobalSlot g = p.globals[bx(i)];
+                        s[ra] = g.value;
+                        ns[ra] = g.num;
+                        continue;
+                    }
+                    case SETGLOBAL: {
+                        GlobalSlot g = p.globals[bx(i)];
+                        g.value = s[ra];
+                        g.num = ns[ra];
+                        continue;
+                    }
+                    case GETTABLE: {
+                        int rb = base + b(i);
+                        int rc = c(i);
+                        Object key;
+                        double nkey;
+                        if (isK(rc)) {
+                            key = k[indexK(rc)];
+                            nkey = kn[indexK(rc)];
+                        } else {
+                            key = s[base + rc];
+                            nkey = ns[base + rc];
+                        }
+                        index(s[rb], key, nkey, ra);
+                        s = stack;
+                        continue;
+                    }
+                    case SETTABLE: {
+                        int rb = b(i);
+                        int rc = c(i);
+                        Object key, val;
+                        double nkey, nval;
+                        if (isK(rb)) {
+                            key = k[indexK(rb)];
+                            nkey = kn[indexK(rb)];
+                        } else {
+                            key = s[base + rb];
+                            nkey = ns[base + rb];
+                        }
+                        if (isK(rc)) {
+                            val = k[indexK(rc)];
+                            nval = kn[indexK(rc)];
+                        } else {
+                            val = s[base + rc];
+                            nval = ns[base + rc];
+                        }
+                        setIndex(s[ra], key, nkey, val, nval);
+                        continue;
+                    }
+                    case NEWTABLE:
+                        s[ra] = b(i) == 0 && c(i) == 0 ? new lua.table() : new lua.table(b(i), c(i));
+                        continue;
+                    case SELF: {
+                        int rb = base + b(i);
+                        Object obj = s[rb];
+                        double nobj = ns[rb];
+                        int rc = c(i);
+                        Object key = isK(rc) ? k[indexK(rc)] : s[base + rc];
+                        s[ra + 1] = obj;
+                        ns[ra + 1] = nobj;
+                        index(obj, key, 0, ra);
+                        s = stack;
+                        continue;
+                    }
+                    case ADD: case SUB: case MUL: case DIV: case MOD: case POW: {
+                        int rb = b(i);
+                        int rc = c(i);
+                        Object vb, vc;
+                        double nb, nc;
+                        if (isK(rb)) {
+                            vb = k[indexK(rb)];
+                            nb = kn[indexK(rb)];
+                        } else {
+                            vb = s[base + rb];
+                            nb = ns[base + rb];
+                        }
+                        if (isK(rc)) {
+                            vc = k[indexK(rc)];
+                            nc = kn[indexK(rc)];
+                        } else {
+                            vc = s[base + rc];
+                            nc = ns[base + rc];
+                        }
+                        if (vb != NUM) nb = arithOperand(vb);
+                        if (vc != NUM) nc = arithOperand(vc);
+                        double r;
+                        switch (op(i)) {
+                            case ADD: r = nb + nc; break;
+                            case SUB: r = nb - nc; break;
+                            case MUL: r = nb * nc; break;
+                            case DIV: r = nb / nc; break;
+                            case MOD: r = nb - Math.floor(nb / nc) * nc; break;
+                            default: r = Math.pow(nb, nc);
+                        }
+                        s[ra] = NUM;
+                        ns[ra] = r;
+                        continue;
+                    }
+                    case UNM: {
+                        int rb = base + b(i);
+                        double v = s[rb] == NUM ? ns[rb] : arithOperand(s[rb]);
+                        s[ra] = NUM;
+                        ns[ra] = -v;
+                        continue;
+                    }
+                    case NOT: {
+                        Object v = s[base + b(i)];
+                        s[ra] = v == null || v == Boolean.FALSE ? Boolean.TRUE : Boolean.FALSE;
+                        continue;
+                    }
+                    case LEN: {
+                        Object v = s[base + b(i)];
+                        double len;
+                        if (v instanceof String) len = ((String) v).length();
+                        else if (v instanceof lua.table) len = ((lua.table) v).length();
+                        else throw new LuaError("attempt to get length of a " + LuaValues.type(v) + " value");
+                        s[ra] = NUM;
+                        ns[ra] = len;
+                        continue;
+                    }
+                    case CONCAT: {
+                        int first = base + b(i);
+                        int last = base + c(i);
+                        StringBuilder sb = new StringBuilder();
+                        for (int r = first; r <= last; r++) {
+                            Object v = s[r];
+                            if (v == NUM) sb.append(LuaValues.numberToString(ns[r]));
+                            else if (v instanceof String) sb.append((String) v);
+                            else throw new LuaError("attempt to concatenate a " + LuaValues.type(v) + " value");
+                        }
+                        s[ra] = sb.toString();
+                        continue;
+                    }
+                    case JMP: {
+                        int off = sbx(i);
+                        pc += off;
+                        if (off < 0 && (fuel += off) < 0) checkpoint(pc, pc - off);
+                        continue;
+                    }
+                    case EQ: case LT: case LE: {
+                        int rb = b(i);
+                        int rc = c(i);
+                        Object vb, vc;
+                        double nb, nc;
+                        if (isK(rb)) {
+                            vb = k[indexK(rb)];
+                            nb = kn[indexK(rb)];
+                        } else {
+                            vb = s[base + rb];
+                            nb = ns[base + rb];
+                        }
+                        if (isK(rc)) {
+                            vc = k[indexK(rc)];
+                            nc = kn[indexK(rc)];
+                        } else {
+                            vc = s[base + rc];
+                            nc = ns[base + rc];
+                        }
+                        boolean res;
+                        if (vb == NUM && vc == NUM) {
+                            int o = op(i);
+                            res = o == EQ ? nb == nc : o == LT ? nb < nc : nb <= nc;
+                        } else if (op(i) == EQ) {
+                            res = vb == vc || (vb != null && vb != NUM && vb.equals(vc));
+                        } else {
+                            res = compare(vb, vc, op(i) == LE);
+                        }
+                        if (res != (a(i) != 0)) pc++;
+                        continue;
+                    }
+                    case TEST: {
+                        Object v = s[ra];
+                        boolean t = v != null && v != Boolean.FALSE;
+                        if (t != (c(i) != 0)) pc++;
+                        continue;
+                    }
+                    case CALL: {
+                        int b = b(i);
+                        int nargs = b != 0 ? b - 1 : top - ra - 1;
+                        fpc[ci] = pc;
+                        if (precall(ra, nargs, c(i) - 1)) {
+                            if (--fuel < 0) checkpoint(0, 0);
+                            cl = fcl[ci];
+                            p = cl.p;
+                            code = p.code;
+                            k = p.k;
+                            kn = p.kn;
+                            base = fbase[ci];
+                            pc = 0;
+                        }
+                        s = stack;
+                        ns = nstack;
+                        continue;
+                    }
+                    case TAILCALL: {
+                        int b = b(i);
+                        int nargs = b != 0 ? b - 1 : top - ra - 1;
+                        fpc[ci] = pc;
+                        if (!(s[ra] instanceof LuaClosure)) {
+                            precall(ra, nargs, -1); // Java function: the RETURN after this returns its results
+                            s = stack;
+                            ns = nstack;
+                            continue;
+                        }
+                        // replace this frame: the callee starts where this function sat in its caller
+                        if (openUpvals != null && openUpvals.index >= base) closeUpvals(base);
+                        int func = ffunc[ci];
+                        for (int j = 0; j <= nargs; j++) {
+                            s[func + j] = s[ra + j];
+                            ns[func + j] = ns[ra + j];
+                        }
+                        int wanted = fnres[ci];
+                        fcl[ci] = null;
+                        ci--;
+                        precall(func, nargs, wanted);
+                        if (--fuel < 0) checkpoint(0, 0);
+                        cl = fcl[ci];
+                        p = cl.p;
+                        code = p.code;
+                        k = p.k;
+                        kn = p.kn;
+                        base = fbase[ci];
+                        pc = 0;
+                        s = stack;
+                        ns = nstack;
+                        continue;
+                    }
+                    case RETURN: {
+                        int b = b(i);
+                        int n = b != 0 ? b - 1 : top - ra;
+                        if (openUpvals != null && openUpvals.index >= base) closeUpvals(base);
+                        int func = ffunc[ci];
+                        int wanted = fnres[ci];
+                        fcl[ci] = null;
+                        ci--;
+                        moveResults(ra, func, n, wanted);
+                        if (ci < entry) return;
+                        cl = fcl[ci];
+                        p = cl.p;
+                        code = p.code;
+                        k = p.k;
+                        kn = p.kn;
+                        base = fbase[ci];
+                        pc = fpc[ci];
+                        s = stack;
+                        ns = nstack;
+                        continue;
+                    }
+                    case FORLOOP: {
+                        double step = ns[ra + 2];
+                        double idx = ns[ra] + step;
+                        if (step > 0 ? idx <= ns[ra + 1] : idx >= ns[ra + 1]) {
+                            int off = sbx(i);
+                            pc += off;
+                            ns[ra] = idx;
+                            s[ra + 3] = NUM;
+                            ns[ra + 3] = idx;
+                            if ((fuel += off) < 0) checkpoint(pc, pc - off);
+                        }
+                        continue;
+                    }
+                    case FORPREP: {
+                        if (s[ra] != NUM) forCoerce(ra, "initial");
+                        if (s[ra + 1] != NUM) forCoerce(ra + 1, "limit");
+                        if (s[ra + 2] != NUM) forCoerce(ra + 2, "step");
+                        ns[ra] -= ns[ra + 2];
+                        pc += sbx(i);
+                        continue;
+                    }
+                    case TFORCALL: {
+                        for (int j = 0; j < 3; j++) {
+                            s[ra + 3 + j] = s[ra + j];
+                            ns[ra + 3 + j] = ns[ra + j];
+                        }
+                        top = ra + 6;
+                        fpc[ci] = pc;
+                        if (precall(ra + 3, 2, c(i))) {
+                            if (--fuel < 0) checkpoint(0, 0);
+                            cl = fcl[ci];
+                            p = cl.p;
+                            code = p.code;
+                            k = p.k;
+                            kn = p.kn;
+                            base = fbase[ci];
+                            pc = 0;
+                        }
+                        s = stack;
+                        ns = nstack;
+                        continue;
+                    }
+                    case TFORLOOP:
+                        if (s[ra + 3] != null) {
+                            s[ra + 2] = s[ra + 3];
+                            ns[ra + 2] = ns[ra + 3];
+                            int off = sbx(i);
+                            pc += off;
+                            if ((fuel += off) < 0) checkpoint(pc, pc - off);
+                        }
+                        continue;
+                    case SETLIST: {
+                        int n = b(i) != 0 ? b(i) : top - ra - 1;
+                        int block = c(i) != 0 ? c(i) : code[pc++];
+                        lua.table t = (lua.table) s[ra];
+                        int offset = (block - 1) * FPF;
+                        for (int j = 1; j <= n; j++) {
+                            tableSet(t, NUM, offset + j, s[ra + j], ns[ra + j]);
+                        }
+                        continue;
+                    }
+                    case CLOSE:
+                        closeUpvals(ra);
+                        continue;
+                    case CLOSURE: {
+                        Proto np = p.p[bx(i)];
+                        LuaClosure ncl = new LuaClosure(np);
+                        for (int j = 0; j < np.upIndex.length; j++) {
+                            ncl.ups[j] = np.upInStack[j] ? findUpval(base + np.upIndex[j]) : cl.ups[np.upIndex[j]];
+                        }
+                        s[ra] = ncl;
+                        continue;
+                    }
+                    case VARARG: {
+                        int nvar = fnvar[ci];
+                        int want = b(i) - 1;
+                        if (want < 0) {
+                            want = nvar;
+                            ensureStack(ra + nvar);
+                            s = stack;
+                            ns = nstack;
+                            top = ra + nvar;
+                        }
+                        int from = base - nvar;
+                        for (int j = 0; j < want; j++) {
+                            if (j < nvar) {
+                                s[ra + j] = s[from + j];
+                                ns[ra + j] = ns[from + j];
+                            } else {
+                                s[ra + j] = null;
+                            }
+                        }
+                        continue;
+                    }
+                    default:
+                        throw new LuaError("bad opcode " + op(i));
+                }
+            }
+        } catch (Yield y) {
+            throw y;
+        } catch (LuaError e) {
+            fpc[ci] = pc;
+            throw locate(e, p, pc);
+        } catch (RuntimeException e) {
+            fpc[ci] = pc;
+            throw locate(new LuaError(String.valueOf(e)), p, pc);
+        }
+    }
+
+    /**
+     * Out of fuel: settle with the budget, resuming at pc of the current frame afterwards (at is
+     * just past the jump or call that got here, for error positions). Throws Budget.Exceeded past
+     * a limit; at the end of a scheduler slice a scheduled coroutine yields.
+     */
+    private void checkpoint(int pc, int at) {
+        int used = Budget.CHECK_INTERVAL - fuel;
+        fuel = Budget.CHECK_INTERVAL;
+        Budget b = budget;
+        if (b == null) return;
+        fpc[ci] = at;
+        int r = b.charge(this, used);
+        fpc[ci] = pc;
+        if (r == Budget.SLICE_OVER && co != null && co.scheduler != null && nny == 0) {
+            // no values either way: the next resume just continues at pc
+            co.pendingFunc = fbase[ci] + fcl[ci].p.maxStack;
+            co.pendingWanted = 0;
+            yieldBase = 0;
+            yieldCount = 0;
+            throw YIELD;
+        }
+    }
+
+    private static LuaError locate(LuaError e, Proto p, int pc) {
+        if (e instanceof LocatedError || e instanceof Budget.Exceeded) return e;
+        String msg = p.source + ":" + p.line(pc - 1) + ": " + e.getMessage();
+        Object value = e.value() instanceof String ? msg : e.value();
+        LuaError located = new LocatedError(value, msg);
+        located.setStackTrace(e.getStackTrace());
+        return located;
+    }
+
+    /** An error that already carries its source position. */
+    static final class LocatedError extends LuaError {
+        private static final long serialVersionUID = 1L;
+
+        LocatedError(Object value, String message) {
+            super(value, message);
+        }
+    }
+
+    /* ---------------- Slow paths ---------------- */
+
+    private static double arithOperand(Object v) {
+        if (v instanceof String) {
+            double d = LuaValues.parseNumber((String) v);
+            if (d == d) return d;
+        }
+        throw new LuaError("attempt to perform arithmetic on a " + LuaValues.type(v) + " value");
+    }
+
+    private void forCoerce(int idx, String what) {
+        Object v = stack[idx];
+        double d = v instanceof String ? LuaValues.parseNumber((String) v) : Double.NaN;
+        if (d != d) throw new LuaError("'for' " + what + " value must be a number");
+        stack[idx] = NUM;
+        nstack[idx] = d;
+    }
+
+    private static boolean compare(Object a, Object b, boolean orEqual) {
+        if (a instanceof String && b instanceof String) {
+            int c = ((String) a).compareTo((String) b);
+            return orEqual ? c <= 0 : c < 0;
+        }
+        String ta = a == NUM ? "number" : LuaValues.type(a);
+        String tb = b == NUM ? "number" : LuaValues.type(b);
+        throw new LuaError("attempt to compare " + ta + " with " + tb);
+    }
+
+    /** R(dst) := obj[key]; key may be {@link LuaValues#NUM} with its value in nkey. */
+    private void index(Object obj, Object key, double nkey, int dst) {
+        if (obj instanceof lua.table) {
+            lua.table t = (lua.table) obj;
+            load(dst, t, key == NUM ? t.find(nkey) : t.find(key));
+        } else if (obj instanceof String && key instanceof String) {
+            // strings index the string table, so s:find(p) works; other names fall back to the registry's library
+            lua.table lib = vm.globals().strings;
+            int pos = lib.find(key);
+            if (lib.tagAt(pos) != lua.table.NIL) load(dst, lib, pos);
+            else set(dst, JavaBridge.index(obj, key));
+        } else if (obj instanceof lua.Indexable) {
+            set(dst, ((lua.Indexable) obj).index(key == NUM ? LuaValues.box(nkey) : key));
+        } else if (obj == null || obj == NUM || obj instanceof Boolean) {
+            throw new LuaError("attempt to index a " + (obj == NUM ? "number" : LuaValues.type(obj)) + " value");
+        } else {
+            set(dst, JavaBridge.index(obj, key == NUM ? LuaValues.box(nkey) : key));
+        }
+    }
+
+    private void setIndex(Object obj, Object key, double nkey, Object val, double nval) {
+        if (obj instanceof lua.table) {
+            tableSet((lua.table) obj, key, nkey, val, nval);
+            return;
+        }
+        if (obj instanceof lua.Indexable) {
+            ((lua.Indexable) obj).newindex(key == NUM ? LuaValues.box(nkey) : key, val == NUM ? LuaValues.box(nval) : val);
+            return;
+        }
+        throw new LuaError("attempt to index a " + (obj == NUM ? "number" : LuaValues.type(obj)) + " value");
+    }
+
+    /** R(dst) := the value at position pos of t, without boxing numbers. */
+    void load(int dst, lua.table t, int pos) {
+        switch (t.tagAt(pos)) {
+            case lua.table.NIL:
+                stack[dst] = null;
+                break;
+            case lua.table.REF:
+                stack[dst] = t.refAt(pos);
+                break;
+            default:
+                stack[dst] = NUM;
+                nstack[dst] = t.doubleAt(pos);
+        }
+    }
+
+    /** R(dst) := the key at position pos of t. */
+    void loadKey(int dst, lua.table t, int pos) {
+        if (t.keyTagAt(pos) == lua.table.REF) {
+            stack[dst] = t.keyRefAt(pos);
+        } else {
+            stack[dst] = NUM;
+            nstack[dst] = t.keyDoubleAt(pos);
+        }
+    }
+
+    static void tableSet(lua.table t, Object key, double nkey, Object val, double nval) {
+        if (key == null) throw new LuaError("table index is nil");
+        if (key == NUM) {
+            long l = (long) nkey;
+            if (l == nkey) {
+                if (val == NUM) t.seti(l, nval);
+                else t.seti(l, val);
+                return;
+            }
+            if (nkey != nkey) throw new LuaError("table index is NaN");
+            t.set(nkey, val == NUM ? (Object) nval : val);
+        } else if (val == NUM) {
+            t.setNumber(key, nval);
+        } else {
+            t.set(key, val);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * Embedded Lua engine: compiles source to register bytecode and runs it.
+ *
+ * Example:
+ *   LuaVM vm = new LuaVM();
+ *   Object[] r = vm.exec("local s = 0 for i = 1, 10 do s = s + i end return s");
+ *
+ * A VM and its globals are confined to one Java thread at a time.
+ */
+public final class LuaVM {
+
+    private final Globals globals = new Globals();
+    private final LuaThread main = new LuaThread(this);
+
+    public Globals globals() { return globals; }
+
+    public LuaThread mainThread() { return main; }
+
+    /** Compile and link a chunk; returns it as a callable function. */
+    public LuaClosure load(String source, String chunkName) {
+        Proto p = Compiler.compile(Parser.parse(source, chunkName), chunkName);
+        globals.link(p);
+        return new LuaClosure(p);
+    }
+
+    /** Compile, link and run a chunk; returns its results. */
+    public Object[] exec(String source) {
+        return call(load(source, "chunk"), new Object[0]);
+    }
+
+    /** Call a Lua (or Java) function value with the given arguments. */
+    public Object[] call(Object fn, Object... args) {
+        Budget b = main.budget;
+        if (b == null || main.ci >= 0) return main.call(fn, args); // a callback from a native is part of the running call
+        b.begin(0);
+        try {
+            return main.call(fn, args);
+        } finally {
+            b.end();
+        }
+    }
+
+    /** Limit every call into this VM from Java (exec, call) to budget; null removes the limits. */
+    public void setBudget(Budget budget) {
+        main.budget = budget;
+    }
+
+    public Budget budget() { return main.budget; }
+
+    /** Bytecode listing of a chunk, for debugging. */
+    public static String disassemble(String source, String chunkName) {
+        return Compiler.compile(Parser.parse(source, chunkName), chunkName).disassemble();
+    }
+}
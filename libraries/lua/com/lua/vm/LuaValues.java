@@ -0,0 +1,101 @@
+package libraries.lua.com.lua.vm;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import libraries.lua.com.lua.LuaFunctions;
+import libraries.lua.com.lua.lua;
+
+/**
+ * Value conventions shared by the compiler, the interpreter loop and the Java bridge.
+ *
+ * Inside the VM a number never lives in an Object slot: the slot holds {@link #NUM} and the
+ * value sits in the parallel double slot. Everything else is nil (null), Boolean, String,
+ * {@link lua.table}, a function ({@link LuaClosure}, {@link NativeFunction}), a {@link Coroutine}
+ * or a plain Java object.
+ */
+public final class LuaValues {
+
+    private LuaValues() {}
+
+    /** Marker stored in an Object slot whose value is the number in the parallel double slot. */
+    public static final Object NUM = new Object() {
+        @Override public String toString() { return "<num>"; }
+    };
+
+    public static boolean truthy(Object v) {
+        return v != null && v != Boolean.FALSE;
+    }
+
+    public static String type(Object v) {
+        if (v == null) return "nil";
+        if (v == NUM || v instanceof Number) return "number";
+        if (v instanceof Boolean) return "boolean";
+        if (v instanceof String) return "string";
+        if (v instanceof lua.table) return "table";
+        if (v instanceof LuaClosure || v instanceof NativeFunction || LuaFunctions.isFunction(v)) return "function";
+        if (v instanceof Coroutine) return "thread";
+        return "userdata";
+    }
+
+    /** Box a VM number for code outside the VM: integral values become Long, others Double. */
+    public static Object box(double d) {
+        long l = (long) d;
+        if (l == d && l != Long.MAX_VALUE && !(d == 0 && 1 / d < 0)) return l;
+        return d;
+    }
+
+    /** Lua's tostring for numbers (%.14g). */
+    public static String numberToString(double d) {
+        if (Double.isNaN(d)) return "nan";
+        if (Double.isInfinite(d)) return d > 0 ? "inf" : "-inf";
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) return Long.toString((long) d);
+        BigDecimal bd = new BigDecimal(d, new MathContext(14)).stripTrailingZeros();
+        int exp = bd.precision() - bd.scale() - 1;
+        return exp < -4 || exp >= 14 ? bd.toString().replace('E', 'e') : bd.toPlainString();
+    }
+
+    public static String tostring(Object v) {
+        if (v == null) return "nil";
+        if (v instanceof Double || v instanceof Float) return numberToString(((Number) v).doubleValue());
+        if (v instanceof LuaClosure || v instanceof NativeFunction) return "function: " + Integer.toHexString(System.identityHashCode(v));
+        if (v instanceof lua.table) return "table: " + Integer.toHexString(System.identityHashCode(v));
+        return String.valueOf(v);
+    }
+
+    /** Lua string-to-number coercion; returns NaN if s is not a numeral. */
+    public static double parseNumber(String s) {
+        String t = s.trim();
+        if (t.isEmpty()) return Double.NaN;
+        boolean neg = false;
+        int i = 0;
+        if (t.charAt(0) == '-' || t.charAt(0) == '+') {
+            neg = t.charAt(0) == '-';
+            i = 1;
+        }
+        if (t.startsWith("0x", i) || t.startsWith("0X", i)) {
+            try {
+                double v = Long.parseLong(t.substring(i + 2), 16);
+                return neg ? -v : v;
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        for (int j = i; j < t.length(); j++) {
+            char c = t.charAt(j);
+            if (!(c >= '0' && c <= '9') && c != '.' && c != 'e' && c != 'E' && c != '+' && c != '-') return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(t);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** Raw equality for values outside registers (numbers boxed). */
+    public static boolean rawEquals(Object a, Object b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        if (a instanceof Number && b instanceof Number) return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        return a.equals(b);
+    }
+}
@@ -0,0 +1,23 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * A function implemented in Java that works directly on the interpreter's register stack,
+ * so calling it allocates nothing: arguments are at base .. base+nargs-1, results are written
+ * from base upward and their count is returned.
+ */
+public abstract class NativeFunction {
+
+    protected final String name;
+
+    protected NativeFunction(String name) {
+        this.name = name;
+    }
+
+    public String name() { return name; }
+
+    public abstract int call(LuaThread t, int base, int nargs);
+
+    @Override public String toString() {
+        return "function: builtin:" + name;
+    }
+}
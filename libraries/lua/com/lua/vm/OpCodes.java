@@ -0,0 +1,92 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * Register-based instruction set, modelled on Lua 5.1.
+ *
+ * Layout of a 32-bit instruction:  B(9) | C(9) | A(8) | op(6)
+ * Bx occupies the B and C fields (18 bits); sBx is Bx biased by {@link #MAXARG_sBx}.
+ * An RK operand with bit 8 set is a constant index, otherwise a register.
+ */
+final class OpCodes {
+
+    private OpCodes() {}
+
+    static final int MOVE = 0;      // A B     R(A) := R(B)
+    static final int LOADK = 1;     // A Bx    R(A) := K(Bx)
+    static final int LOADBOOL = 2;  // A B C   R(A) := (B != 0); if (C) pc++
+    static final int LOADNIL = 3;   // A B     R(A) .. R(B) := nil
+    static final int GETUPVAL = 4;  // A B     R(A) := UpValue[B]
+    static final int GETGLOBAL = 5; // A Bx    R(A) := Slot[Bx]
+    static final int GETTABLE = 6;  // A B C   R(A) := R(B)[RK(C)]
+    static final int SETGLOBAL = 7; // A Bx    Slot[Bx] := R(A)
+    static final int SETUPVAL = 8;  // A B     UpValue[B] := R(A)
+    static final int SETTABLE = 9;  // A B C   R(A)[RK(B)] := RK(C)
+    static final int NEWTABLE = 10; // A B C   R(A) := {} (size hints: B array items, C hash fields)
+    static final int SELF = 11;     // A B C   R(A+1) := R(B); R(A) := R(B)[RK(C)]
+    static final int ADD = 12;      // A B C   R(A) := RK(B) + RK(C)
+    static final int SUB = 13;
+    static final int MUL = 14;
+    static final int DIV = 15;
+    static final int MOD = 16;
+    static final int POW = 17;
+    static final int UNM = 18;      // A B     R(A) := -R(B)
+    static final int NOT = 19;      // A B     R(A) := not R(B)
+    static final int LEN = 20;      // A B     R(A) := #R(B)
+    static final int CONCAT = 21;   // A B C   R(A) := R(B) .. ... .. R(C)
+    static final int JMP = 22;      // sBx     pc += sBx
+    static final int EQ = 23;       // A B C   if ((RK(B) == RK(C)) ~= A) then pc++
+    static final int LT = 24;       // A B C   if ((RK(B) <  RK(C)) ~= A) then pc++
+    static final int LE = 25;       // A B C   if ((RK(B) <= RK(C)) ~= A) then pc++
+    static final int TEST = 26;     // A C     if (truthy(R(A)) ~= C) then pc++
+    static final int CALL = 27;     // A B C   R(A) .. R(A+C-2) := R(A)(R(A+1) .. R(A+B-1)); 0 = up to top
+    static final int RETURN = 28;   // A B     return R(A) .. R(A+B-2); B = 0: up to top
+    static final int FORLOOP = 29;  // A sBx   R(A) += R(A+2); if R(A) <?= R(A+1) then { pc += sBx; R(A+3) := R(A) }
+    static final int FORPREP = 30;  // A sBx   R(A) -= R(A+2); pc += sBx
+    static final int TFORCALL = 31; // A C     R(A+3) .. R(A+2+C) := R(A)(R(A+1), R(A+2))
+    static final int TFORLOOP = 32; // A sBx   if R(A+3) ~= nil then { R(A+2) := R(A+3); pc += sBx }
+    static final int SETLIST = 33;  // A B C   R(A)[(C-1)*FPF + i] := R(A+i), 1 <= i <= B; B = 0: up to top
+    static final int CLOSE = 34;    // A       close upvalues >= R(A)
+    static final int CLOSURE = 35;  // A Bx    R(A) := closure(P[Bx])
+    static final int VARARG = 36;   // A B     R(A) .. R(A+B-2) := vararg; B = 0: all
+    static final int TAILCALL = 37; // A B     return R(A)(R(A+1) .. R(A+B-1)), in the caller's frame; RETURN A 0 follows
+
+    static final String[] NAMES = {
+            "MOVE", "LOADK", "LOADBOOL", "LOADNIL", "GETUPVAL", "GETGLOBAL", "GETTABLE", "SETGLOBAL",
+            "SETUPVAL", "SETTABLE", "NEWTABLE", "SELF", "ADD", "SUB", "MUL", "DIV", "MOD", "POW", "UNM",
+            "NOT", "LEN", "CONCAT", "JMP", "EQ", "LT", "LE", "TEST", "CALL", "RETURN", "FORLOOP",
+            "FORPREP", "TFORCALL", "TFORLOOP", "SETLIST", "CLOSE", "CLOSURE", "VARARG", "TAILCALL"
+    };
+
+    /** Fields per flush in SETLIST. */
+    static final int FPF = 50;
+
+    static final int MAXARG_A = 255;
+    static final int MAXARG_B = 511;
+    static final int MAXARG_Bx = (1 << 18) - 1;
+    static final int MAXARG_sBx = MAXARG_Bx >> 1;
+    static final int BITRK = 1 << 8;
+    static final int MAXINDEXRK = BITRK - 1;
+
+    static int op(int i) { return i & 0x3F; }
+    static int a(int i) { return (i >>> 6) & 0xFF; }
+    static int c(int i) { return (i >>> 14) & 0x1FF; }
+    static int b(int i) { return i >>> 23; }
+    static int bx(int i) { return i >>> 14; }
+    static int sbx(int i) { return (i >>> 14) - MAXARG_sBx; }
+
+    static int abc(int op, int a, int b, int c) {
+        return op | (a << 6) | (c << 14) | (b << 23);
+    }
+
+    static int abx(int op, int a, int bx) {
+        return op | (a << 6) | (bx << 14);
+    }
+
+    static int asbx(int op, int a, int sbx) {
+        return abx(op, a, sbx + MAXARG_sBx);
+    }
+
+    static boolean isK(int rk) { return (rk & BITRK) != 0; }
+    static int indexK(int rk) { return rk & ~BITRK; }
+    static int rkAsK(int k) { return k | BITRK; }
+}
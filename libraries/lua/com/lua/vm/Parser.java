@@ -0,0 +1,470 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static libraries.lua.com.lua.vm.Lexer.*;
+
+/**
+ * Recursive-descent parser for a Lua 5.1 subset.
+ *
+ * Supported: locals, globals, multiple assignment, functions and closures, varargs, method calls,
+ * table constructors, if/while/repeat/numeric for/generic for, break and return.
+ * Not supported: goto, metatables, integer division and bitwise operators.
+ */
+final class Parser {
+
+    private final Lexer lx;
+
+    private Parser(String src, String chunkName) {
+        this.lx = new Lexer(src, chunkName);
+        lx.next();
+    }
+
+    /** Parse a whole chunk into a vararg main function. */
+    static Ast.Function parse(String src, String chunkName) {
+        Parser p = new Parser(src, chunkName);
+        Ast.Block body = p.block();
+        p.expect(EOF);
+        Ast.Function main = new Ast.Function(Collections.emptyList(), true, body);
+        main.name = "main chunk";
+        return main;
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private boolean test(int token) {
+        if (lx.token == token) {
+            lx.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(int token) {
+        if (lx.token != token) throw lx.error(Lexer.name(token) + " expected near " + near());
+        lx.next();
+    }
+
+    private void expectMatch(int what, int who, int line) {
+        if (lx.token == what) {
+            lx.next();
+            return;
+        }
+        if (line == lx.tokenLine) expect(what);
+        throw lx.error(Lexer.name(what) + " expected (to close " + Lexer.name(who) + " at line " + line + ") near " + near());
+    }
+
+    private String near() {
+        return lx.text != null ? "'" + lx.text + "'" : Lexer.name(lx.token);
+    }
+
+    private String name() {
+        if (lx.token != NAME) throw lx.error("<name> expected near " + near());
+        String n = lx.text;
+        lx.next();
+        return n;
+    }
+
+    private static boolean blockFollow(int token) {
+        return token == ELSE || token == ELSEIF || token == END || token == UNTIL || token == EOF;
+    }
+
+    /* ---------------- Statements ---------------- */
+
+    private Ast.Block block() {
+        List<Ast.Stat> stats = new ArrayList<>();
+        while (!blockFollow(lx.token)) {
+            if (lx.token == RETURN) {
+                stats.add(returnStat());
+                break;
+            }
+            if (lx.token == BREAK) {
+                int line = lx.tokenLine;
+                lx.next();
+                Ast.Stat s = new Ast.Break();
+                s.line = line;
+                stats.add(s);
+                test(SEMI);
+                break;
+            }
+            Ast.Stat s = statement();
+            if (s != null) stats.add(s);
+        }
+        return new Ast.Block(stats);
+    }
+
+    private Ast.Stat returnStat() {
+        int line = lx.tokenLine;
+        lx.next();
+        List<Ast.Exp> exps = blockFollow(lx.token) || lx.token == SEMI ? Collections.emptyList() : expList();
+        test(SEMI);
+        Ast.Stat s = new Ast.Return(exps);
+        s.line = line;
+        return s;
+    }
+
+    private Ast.Stat statement() {
+        int line = lx.tokenLine;
+        Ast.Stat s;
+        switch (lx.token) {
+            case SEMI:
+                lx.next();
+                return null;
+            case IF: s = ifStat(line); break;
+            case WHILE: {
+                lx.next();
+                Ast.Exp cond = expr();
+                expect(DO);
+                Ast.Block b = block();
+                expectMatch(END, WHILE, line);
+                s = new Ast.While(cond, b);
+                break;
+            }
+            case DO: {
+                lx.next();
+                Ast.Block b = block();
+                expectMatch(END, DO, line);
+                s = new Ast.Do(b);
+                break;
+            }
+            case FOR: s = forStat(line); break;
+            case REPEAT: {
+                lx.next();
+                Ast.Block b = block();
+                expectMatch(UNTIL, REPEAT, line);
+                s = new Ast.Repeat(b, expr());
+                break;
+            }
+            case FUNCTION: s = functionStat(line); break;
+            case LOCAL:
+                lx.next();
+                if (test(FUNCTION)) {
+                    String n = name();
+                    Ast.Function f = body(false, line);
+                    f.name = n;
+                    s = new Ast.LocalFunction(n, f);
+                } else {
+                    List<String> names = new ArrayList<>();
+                    do { names.add(name()); } while (test(COMMA));
+                    List<Ast.Exp> exps = test(ASSIGN) ? expList() : Collections.emptyList();
+                    s = new Ast.Local(names, exps);
+                }
+                break;
+            default:
+                s = exprStat();
+        }
+        s.line = line;
+        return s;
+    }
+
+    private Ast.Stat ifStat(int line) {
+        List<Ast.Exp> conds = new ArrayList<>();
+        List<Ast.Block> blocks = new ArrayList<>();
+        lx.next();
+        conds.add(expr());
+        expect(THEN);
+        blocks.add(block());
+        Ast.Block orElse = null;
+        while (true) {
+            if (lx.token == ELSEIF) {
+                lx.next();
+                conds.add(expr());
+                expect(THEN);
+                blocks.add(block());
+            } else if (lx.token == ELSE) {
+                lx.next();
+                orElse = block();
+                expectMatch(END, IF, line);
+                break;
+            } else {
+                expectMatch(END, IF, line);
+                break;
+            }
+        }
+        return new Ast.If(conds, blocks, orElse);
+    }
+
+    private Ast.Stat forStat(int line) {
+        lx.next();
+        String first = name();
+        if (test(ASSIGN)) {
+            Ast.Exp start = expr();
+            expect(COMMA);
+            Ast.Exp limit = expr();
+            Ast.Exp step = test(COMMA) ? expr() : null;
+            expect(DO);
+            Ast.Block b = block();
+            expectMatch(END, FOR, line);
+            return new Ast.NumFor(first, start, limit, step, b);
+        }
+        List<String> names = new ArrayList<>();
+        names.add(first);
+        while (test(COMMA)) names.add(name());
+        expect(IN);
+        List<Ast.Exp> exps = expList();
+        expect(DO);
+        Ast.Block b = block();
+        expectMatch(END, FOR, line);
+        return new Ast.GenFor(names, exps, b);
+    }
+
+    private Ast.Stat functionStat(int line) {
+        lx.next();
+        String n = name();
+        Ast.Exp target = new Ast.Name(n);
+        target.line = line;
+        String fullName = n;
+        boolean method = false;
+        while (lx.token == DOT || lx.token == COLON) {
+            method = lx.token == COLON;
+            lx.next();
+            String key = name();
+            fullName = fullName + (method ? ":" : ".") + key;
+            target = new Ast.Index(target, new Ast.Str(key));
+            target.line = line;
+            if (method) break;
+        }
+        Ast.Function f = body(method, line);
+        f.name = fullName;
+        return new Ast.Assign(Collections.singletonList(target), Collections.singletonList(f));
+    }
+
+    private Ast.Stat exprStat() {
+        Ast.Exp e = suffixedExp();
+        if (lx.token == ASSIGN || lx.token == COMMA) {
+            List<Ast.Exp> targets = new ArrayList<>();
+            targets.add(checkAssignable(e));
+            while (test(COMMA)) targets.add(checkAssignable(suffixedExp()));
+            expect(ASSIGN);
+            return new Ast.Assign(targets, expList());
+        }
+        if (!(e instanceof Ast.Call) && !(e instanceof Ast.MethodCall)) throw lx.error("syntax error near " + near());
+        return new Ast.CallStat(e);
+    }
+
+    private Ast.Exp checkAssignable(Ast.Exp e) {
+        if (!(e instanceof Ast.Name) && !(e instanceof Ast.Index)) throw lx.error("syntax error near " + near());
+        return e;
+    }
+
+    /* ---------------- Expressions ---------------- */
+
+    private List<Ast.Exp> expList() {
+        List<Ast.Exp> list = new ArrayList<>();
+        list.add(expr());
+        while (test(COMMA)) list.add(expr());
+        return list;
+    }
+
+    private Ast.Exp expr() {
+        return subExpr(0);
+    }
+
+    // {left, right} binding power, as in lparser.c
+    private static int leftPriority(int op) {
+        switch (op) {
+            case OR: return 1;
+            case AND: return 2;
+            case LT: case GT: case LE: case GE: case NE: case EQ: return 3;
+            case CONCAT: return 5;
+            case PLUS: case MINUS: return 6;
+            case STAR: case SLASH: case PERCENT: return 7;
+            case CARET: return 10;
+            default: return -1;
+        }
+    }
+
+    private static int rightPriority(int op) {
+        switch (op) {
+            case CONCAT: return 4;
+            case CARET: return 9;
+            default: return leftPriority(op);
+        }
+    }
+
+    private static final int UNARY_PRIORITY = 8;
+
+    private Ast.Exp subExpr(int limit) {
+        Ast.Exp e;
+        int line = lx.tokenLine;
+        if (lx.token == NOT || lx.token == MINUS || lx.token == HASH) {
+            int op = lx.token;
+            lx.next();
+            Ast.Exp operand = subExpr(UNARY_PRIORITY);
+            if (op == MINUS && operand instanceof Ast.Num) {
+                e = new Ast.Num(-((Ast.Num) operand).value);
+            } else {
+                e = new Ast.UnOp(op, operand);
+            }
+            e.line = line;
+        } else {
+            e = simpleExp();
+        }
+        int op = lx.token;
+        while (leftPriority(op) > limit) {
+            line = lx.tokenLine;
+            lx.next();
+            Ast.Exp rhs = subExpr(rightPriority(op));
+            e = new Ast.BinOp(op, e, rhs);
+            e.line = line;
+            op = lx.token;
+        }
+        return e;
+    }
+
+    private Ast.Exp simpleExp() {
+        int line = lx.tokenLine;
+        Ast.Exp e;
+        switch (lx.token) {
+            case NUMBER: e = new Ast.Num(lx.number); lx.next(); break;
+            case STRING: e = new Ast.Str(lx.text); lx.next(); break;
+            case NIL: e = new Ast.Nil(); lx.next(); break;
+            case TRUE: e = new Ast.True(); lx.next(); break;
+            case FALSE: e = new Ast.False(); lx.next(); break;
+            case DOTS: e = new Ast.Vararg(); lx.next(); break;
+            case LBRACE: e = tableCons(); break;
+            case FUNCTION:
+                lx.next();
+                e = body(false, line);
+                break;
+            default:
+                return suffixedExp();
+        }
+        e.line = line;
+        return e;
+    }
+
+    private Ast.Exp primaryExp() {
+        int line = lx.tokenLine;
+        Ast.Exp e;
+        if (lx.token == NAME) {
+            e = new Ast.Name(name());
+        } else if (lx.token == LPAREN) {
+            lx.next();
+            e = new Ast.Paren(expr());
+            expectMatch(RPAREN, LPAREN, line);
+        } else {
+            throw lx.error("unexpected symbol near " + near());
+        }
+        e.line = line;
+        return e;
+    }
+
+    private Ast.Exp suffixedExp() {
+        Ast.Exp e = primaryExp();
+        while (true) {
+            int line = lx.tokenLine;
+            switch (lx.token) {
+                case DOT: {
+                    lx.next();
+                    Ast.Exp key = new Ast.Str(name());
+                    e = new Ast.Index(e, key);
+                    break;
+                }
+                case LBRACKET: {
+                    lx.next();
+                    Ast.Exp key = expr();
+                    expect(RBRACKET);
+                    e = new Ast.Index(e, key);
+                    break;
+                }
+                case COLON: {
+                    lx.next();
+                    String m = name();
+                    e = new Ast.MethodCall(e, m, callArgs());
+                    break;
+                }
+                case LPAREN: case STRING: case LBRACE:
+                    e = new Ast.Call(e, callArgs());
+                    break;
+                default:
+                    return e;
+            }
+            e.line = line;
+        }
+    }
+
+    private List<Ast.Exp> callArgs() {
+        int line = lx.tokenLine;
+        switch (lx.token) {
+            case STRING: {
+                Ast.Exp s = new Ast.Str(lx.text);
+                s.line = line;
+                lx.next();
+                return Collections.singletonList(s);
+            }
+            case LBRACE:
+                return Collections.singletonList(tableCons());
+            case LPAREN: {
+                lx.next();
+                if (test(RPAREN)) return Collections.emptyList();
+                List<Ast.Exp> args = expList();
+                expectMatch(RPAREN, LPAREN, line);
+                return args;
+            }
+            default:
+                throw lx.error("function arguments expected near " + near());
+        }
+    }
+
+    private Ast.Exp tableCons() {
+        int line = lx.tokenLine;
+        expect(LBRACE);
+        List<Ast.Exp> keys = new ArrayList<>();
+        List<Ast.Exp> values = new ArrayList<>();
+        while (lx.token != RBRACE) {
+            if (lx.token == LBRACKET) {
+                lx.next();
+                keys.add(expr());
+                expect(RBRACKET);
+                expect(ASSIGN);
+                values.add(expr());
+            } else if (lx.token == NAME) {
+                // either "name = exp" or a positional expression starting with a name
+                Ast.Exp e = expr();
+                if (e instanceof Ast.Name && test(ASSIGN)) {
+                    Ast.Exp key = new Ast.Str(((Ast.Name) e).name);
+                    key.line = e.line;
+                    keys.add(key);
+                    values.add(expr());
+                } else {
+                    keys.add(null);
+                    values.add(e);
+                }
+            } else {
+                keys.add(null);
+                values.add(expr());
+            }
+            if (!test(COMMA) && !test(SEMI)) break;
+        }
+        expectMatch(RBRACE, LBRACE, line);
+        Ast.Exp t = new Ast.Table(keys, values);
+        t.line = line;
+        return t;
+    }
+
+    private Ast.Function body(boolean method, int line) {
+        List<String> params = new ArrayList<>();
+        if (method) params.add("self");
+        boolean vararg = false;
+        expect(LPAREN);
+        if (lx.token != RPAREN) {
+            do {
+                if (lx.token == DOTS) {
+                    lx.next();
+                    vararg = true;
+                    break;
+                }
+                params.add(name());
+            } while (test(COMMA));
+        }
+        expect(RPAREN);
+        Ast.Block b = block();
+        expectMatch(END, FUNCTION, line);
+        Ast.Function f = new Ast.Function(params, vararg, b);
+        f.line = line;
+        return f;
+    }
+}
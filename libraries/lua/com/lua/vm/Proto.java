@@ -0,0 +1,70 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * Compiled function prototype: bytecode, constants, nested prototypes and upvalue layout.
+ * Global names are bound to {@link GlobalSlot}s once, when the chunk is linked.
+ */
+final class Proto {
+
+    String source = "?";
+    String name = "?";
+    int lineDefined;
+
+    int[] code;
+    int[] lines;
+
+    /** Constants; a numeric constant is {@link LuaValues#NUM} here with its value in kn. */
+    Object[] k;
+    double[] kn;
+
+    Proto[] p;
+
+    int numParams;
+    boolean vararg;
+    int maxStack;
+
+    /** Upvalue descriptors: captured from the enclosing frame's register, or from its upvalues. */
+    boolean[] upInStack;
+    int[] upIndex;
+    String[] upNames;
+
+    /** Global names referenced by GETGLOBAL / SETGLOBAL, and the slots they were linked to. */
+    String[] globalNames;
+    GlobalSlot[] globals;
+
+    int line(int pc) {
+        return pc >= 0 && pc < lines.length ? lines[pc] : lineDefined;
+    }
+
+    /** Human-readable listing, for debugging the compiler. */
+    String disassemble() {
+        StringBuilder sb = new StringBuilder();
+        disassemble(sb, "");
+        return sb.toString();
+    }
+
+    private void disassemble(StringBuilder sb, String indent) {
+        sb.append(indent).append("function <").append(source).append(':').append(lineDefined).append("> ")
+                .append(name).append(" (").append(code.length).append(" instructions, ")
+                .append(maxStack).append(" registers)\n");
+        for (int pc = 0; pc < code.length; pc++) {
+            int i = code[pc];
+            int op = OpCodes.op(i);
+            sb.append(indent).append('\t').append(pc).append("\t[").append(lines[pc]).append("]\t")
+                    .append(op < OpCodes.NAMES.length ? OpCodes.NAMES[op] : "?" + op).append('\t');
+            switch (op) {
+                case OpCodes.LOADK: case OpCodes.GETGLOBAL: case OpCodes.SETGLOBAL: case OpCodes.CLOSURE:
+                    sb.append(OpCodes.a(i)).append(' ').append(OpCodes.bx(i));
+                    if (op == OpCodes.GETGLOBAL || op == OpCodes.SETGLOBAL) sb.append("\t; ").append(globalNames[OpCodes.bx(i)]);
+                    break;
+                case OpCodes.JMP: case OpCodes.FORLOOP: case OpCodes.FORPREP: case OpCodes.TFORLOOP:
+                    sb.append(OpCodes.a(i)).append(' ').append(OpCodes.sbx(i)).append("\t; to ").append(pc + 1 + OpCodes.sbx(i));
+                    break;
+                default:
+                    sb.append(OpCodes.a(i)).append(' ').append(OpCodes.b(i)).append(' ').append(OpCodes.c(i));
+            }
+            sb.append('\n');
+        }
+        for (Proto child : p) child.disassemble(sb, indent + "  ");
+    }
+}
@@ -0,0 +1,250 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import libraries.lua.com.lua.Log;
+
+/**
+ * Runs scripts of one {@link LuaVM} as coroutines, a tick at a time.
+ *
+ * - spawn(fn) starts fn as a coroutine on the next tick. spawn may be called from any thread;
+ *   everything else belongs to the thread that ticks (the VM is confined to it).
+ * - sleep(ms) inside a spawned script parks its coroutine in a hashed timer wheel instead of
+ *   blocking a thread; it wakes at the start of the first tick at least ms later. A plain
+ *   coroutine.yield() from a spawned script means "continue next tick".
+ * - Drive it from the game tick with tick(), or call start() to tick on a daemon thread.
+ * - A tick has a time budget, -Dlua.scheduler.tickBudgetMillis (half a tick; 0 = none), shared
+ *   fairly: each coroutine gets what is left divided by the coroutines still to run (at least
+ *   0.1 ms). One that runs past its slice is made to yield at its next budget check and continues
+ *   next tick; coroutines not reached before the budget is spent run first next tick.
+ * - Each coroutine also has its own {@link Budget} (the -Dlua.budget.* limits, or spawn(budget, ...));
+ *   a resume over those limits fails the script.
+ * - Settings: -Dlua.scheduler.tickMillis (50, one Minecraft tick), -Dlua.scheduler.wheelSlots (512).
+ *
+ * Example:
+ *   Scheduler s = new Scheduler(vm);
+ *   s.spawn(vm.load("while true do print('tick') sleep(1000) end", "beacon"));
+ *   s.start();
+ */
+public final class Scheduler {
+
+    private static final Log.Logger LOG = Log.logger("lua.scheduler");
+
+    private final LuaVM vm;
+    private final long tickMillis;
+    private volatile long tickBudgetNanos;
+    private final Coroutine[] wheel;
+    private final int mask;
+    private long tick;
+
+    private ArrayDeque<Coroutine> ready = new ArrayDeque<>();
+    private ArrayDeque<Coroutine> later = new ArrayDeque<>();
+    private final ConcurrentLinkedQueue<Coroutine> incoming = new ConcurrentLinkedQueue<>();
+    private int sleeping;
+    private int live;
+    private long resumed;
+    private long failed;
+    private long preempted;
+    private long deferred;
+    private long overBudget;
+    private volatile Thread driver;
+
+    public Scheduler(LuaVM vm) {
+        this(vm, Long.getLong("lua.scheduler.tickMillis", 50), Integer.getInteger("lua.scheduler.wheelSlots", 512));
+    }
+
+    public Scheduler(LuaVM vm, long tickMillis, int wheelSlots) {
+        this.vm = vm;
+        this.tickMillis = Math.max(1, tickMillis);
+        int slots = Integer.highestOneBit(Math.max(16, wheelSlots - 1) << 1);
+        this.wheel = new Coroutine[slots];
+        this.mask = slots - 1;
+        this.tickBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("lua.scheduler.tickBudgetMillis", this.tickMillis / 2));
+    }
+
+    public LuaVM vm() { return vm; }
+
+    public long tickMillis() { return tickMillis; }
+
+    /** Time all coroutines together may run per tick; 0 lets every ready coroutine run to its next yield. */
+    public void setTickBudgetMillis(long millis) {
+        tickBudgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /* ---------------- Spawning ---------------- */
+
+    /** Start fn(args...) as a coroutine on the next tick, with the default budget. Thread-safe. */
+    public Coroutine spawn(Object fn, Object... args) {
+        return spawn(Budget.fromProperties(), fn, args);
+    }
+
+    /** Start fn(args...) as a coroutine on the next tick; every resume is held to budget. Thread-safe. */
+    public Coroutine spawn(Budget budget, Object fn, Object... args) {
+        Coroutine co = new Coroutine(vm, fn);
+        co.thread.budget = budget;
+        co.scheduler = this;
+        co.startArgs = args;
+        incoming.add(co);
+        return co;
+    }
+
+    /* ---------------- Ticking ---------------- */
+
+    /** Advance one tick: wake due sleepers and run every ready coroutine once. Returns how many ran. */
+    public int tick() {
+        tick++;
+        for (Coroutine co; (co = incoming.poll()) != null; ) {
+            live++;
+            ready.add(co);
+        }
+        expire();
+        ArrayDeque<Coroutine> run = ready;
+        ready = later;
+        later = run;
+        long budget = tickBudgetNanos;
+        long start = budget > 0 ? System.nanoTime() : 0;
+        int n = 0;
+        for (Coroutine co; (co = run.poll()) != null; n++) {
+            long slice = 0;
+            if (budget > 0) {
+                long left = budget - (System.nanoTime() - start);
+                if (left <= 0) {
+                    // out of time: the rest go first next tick
+                    run.addFirst(co);
+                    deferred += run.size();
+                    for (Coroutine c; (c = run.pollLast()) != null; ) ready.addFirst(c);
+                    break;
+                }
+                slice = Math.max(MIN_SLICE_NANOS, left / (run.size() + 1));
+            }
+            step(co, slice);
+        }
+        return n;
+    }
+
+    private static final long MIN_SLICE_NANOS = 100_000;
+
+    /** Move the sleepers of this tick's slot whose wake tick has come to the ready queue. */
+    private void expire() {
+        int slot = (int) (tick & mask);
+        Coroutine prev = null;
+        Coroutine co = wheel[slot];
+        while (co != null) {
+            Coroutine next = co.nextTimer;
+            if (co.wakeTick <= tick) {
+                if (prev == null) wheel[slot] = next;
+                else prev.nextTimer = next;
+                co.nextTimer = null;
+                co.wakeTick = -1;
+                sleeping--;
+                ready.add(co);
+            } else {
+                prev = co;
+            }
+            co = next;
+        }
+    }
+
+    private void step(Coroutine co, long slice) {
+        resumed++;
+        Budget b = co.thread.budget;
+        if (b != null) b.begin(slice);
+        try {
+            Object[] args = co.startArgs;
+            if (args != null) {
+                co.startArgs = null;
+                int dst = co.prepare(args.length);
+                for (int i = 0; i < args.length; i++) co.thread.set(dst + i, args[i]);
+                co.run(args.length, null);
+            } else {
+                co.prepare(0);
+                co.run(0, null);
+            }
+        } catch (Budget.Exceeded e) {
+            failed++;
+            overBudget++;
+            LOG.error("script stopped: %s", e.getMessage());
+        } catch (LuaError e) {
+            failed++;
+            LOG.error("script failed: %s", e.getMessage());
+        } finally {
+            if (b != null && b.end()) preempted++;
+        }
+        co.finish();
+        if (co.isDead()) {
+            live--;
+        } else if (co.wakeTick >= 0) {
+            park(co);
+        } else {
+            ready.add(co);
+        }
+    }
+
+    private void park(Coroutine co) {
+        if (co.wakeTick <= tick) co.wakeTick = tick + 1;
+        int slot = (int) (co.wakeTick & mask);
+        co.nextTimer = wheel[slot];
+        wheel[slot] = co;
+        sleeping++;
+    }
+
+    /**
+     * Called by the sleep builtin: suspend the running scheduled coroutine for at least ms,
+     * rounded up to whole ticks (0 means the next tick).
+     */
+    RuntimeException sleep(LuaThread t, int base, double ms) {
+        long ticks = ms > 0 ? (long) Math.ceil(ms / tickMillis) : 1;
+        t.co.wakeTick = tick + Math.max(1, ticks);
+        return t.yield(base, 0);
+    }
+
+    /* ---------------- Driver thread ---------------- */
+
+    /** Tick every tickMillis on a daemon thread, aligned to a fixed rate. */
+    public synchronized void start() {
+        if (driver != null) return;
+        Thread t = new Thread(this::runDriver, "lua-scheduler");
+        t.setDaemon(true);
+        driver = t;
+        t.start();
+    }
+
+    /** Stop the driver thread after its current tick; suspended coroutines stay where they are. */
+    public synchronized void stop() {
+        Thread t = driver;
+        driver = null;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    private void runDriver() {
+        Thread self = Thread.currentThread();
+        long period = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        long next = System.nanoTime() + period;
+        while (driver == self) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            tick();
+            next += period;
+            // after a long stall, skip the missed ticks instead of running them back to back
+            if (System.nanoTime() - next > period) next = System.nanoTime() + period;
+        }
+    }
+
+    /* ---------------- Counters ---------------- */
+
+    public long currentTick() { return tick; }
+    /** Coroutines spawned and not finished (including ones not started yet). */
+    public int live() { return live + incoming.size(); }
+    /** Coroutines parked in the timer wheel. */
+    public int sleeping() { return sleeping; }
+
+    public String stats() {
+        return "tick=" + tick + " live=" + live() + " sleeping=" + sleeping + " resumed=" + resumed + " failed=" + failed
+                + " overBudget=" + overBudget + " preempted=" + preempted + " deferred=" + deferred;
+    }
+}
@@ -0,0 +1,345 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.Locale;
+import java.util.Map;
+import libraries.lua.com.lua.LuaPattern;
+import libraries.lua.com.lua.lua;
+
+import static libraries.lua.com.lua.vm.LuaValues.NUM;
+
+/**
+ * The string table: len, sub, upper, lower, rep, reverse, byte, char, find, match, gmatch, gsub,
+ * format (plus contains, kept from lua.string). Strings index it, so s:find(p) works.
+ *
+ * - Patterns are {@link LuaPattern}s from its cache; matching runs over the subject in place and
+ *   positions go straight into number registers, so find() without captures allocates nothing.
+ * - gmatch(s, p, true) iterates offsets instead of substrings: each step returns start, end
+ *   (1-based, inclusive, as find reports them) for every capture, or for the whole match.
+ */
+final class StringLib {
+
+    private StringLib() {}
+
+    static void install(Map<String, Object> g) {
+        lua.table str = new lua.table(0, 16);
+        str.set("len", new NativeFunction("len") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.setNumber(base, t.checkString(base, nargs, 0, "len").length());
+                return 1;
+            }
+        });
+        str.set("sub", new NativeFunction("sub") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                String s = t.checkString(base, nargs, 0, "sub");
+                int len = s.length();
+                long i = startIndex(optInt(t, base, nargs, 1, 1, "sub"), len);
+                long j = endIndex(optInt(t, base, nargs, 2, -1, "sub"), len);
+                t.set(base, i > j ? "" : s.substring((int) i - 1, (int) j));
+                return 1;
+            }
+        });
+        str.set("upper", new NativeFunction("upper") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.set(base, t.checkString(base, nargs, 0, "upper").toUpperCase(Locale.ROOT));
+                return 1;
+            }
+        });
+        str.set("lower", new NativeFunction("lower") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.set(base, t.checkString(base, nargs, 0, "lower").toLowerCase(Locale.ROOT));
+                return 1;
+            }
+        });
+        str.set("rep", new NativeFunction("rep") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                String s = t.checkString(base, nargs, 0, "rep");
+                long n = (long) t.checkNumber(base, nargs, 1, "rep");
+                String sep = nargs > 2 && t.ref(base + 2) != null ? t.checkString(base, nargs, 2, "rep") : "";
+                if (n <= 0) {
+                    t.set(base, "");
+                } else if (sep.isEmpty()) {
+                    t.set(base, s.repeat((int) Math.min(n, Integer.MAX_VALUE)));
+                } else {
+                    StringBuilder b = new StringBuilder((int) Math.min((s.length() + sep.length()) * n, Integer.MAX_VALUE - 8));
+                    for (long i = 0; i < n; i++) {
+                        if (i > 0) b.append(sep);
+                        b.append(s);
+                    }
+                    t.set(base, b.toString());
+                }
+                return 1;
+            }
+        });
+        str.set("reverse", new NativeFunction("reverse") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                t.set(base, new StringBuilder(t.checkString(base, nargs, 0, "reverse")).reverse().toString());
+                return 1;
+            }
+        });
+        str.set("byte", new NativeFunction("byte") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                String s = t.checkString(base, nargs, 0, "byte");
+                long i = startIndex(optInt(t, base, nargs, 1, 1, "byte"), s.length());
+                long j = endIndex(optInt(t, base, nargs, 2, i, "byte"), s.length());
+                int n = (int) Math.max(0, j - i + 1);
+                t.ensureStack(base + n + 1);
+                for (int k = 0; k < n; k++) t.setNumber(base + k, s.charAt((int) i - 1 + k));
+                return n;
+            }
+        });
+        str.set("char", new NativeFunction("char") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                char[] c = new char[nargs];
+                for (int i = 0; i < nargs; i++) {
+                    double d = t.checkNumber(base, nargs, i, "char");
+                    if (d < 0 || d > Character.MAX_VALUE) throw new LuaError("bad argument #" + (i + 1) + " to 'char' (value out of range)");
+                    c[i] = (char) d;
+                }
+                t.ensureStack(base + 1);
+                t.set(base, new String(c));
+                return 1;
+            }
+        });
+        str.set("contains", new NativeFunction("contains") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                String s = t.checkString(base, nargs, 0, "contains");
+                t.set(base, s.contains(t.checkString(base, nargs, 1, "contains")));
+                return 1;
+            }
+        });
+        str.set("find", new NativeFunction("find") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                return find(t, base, nargs, true);
+            }
+        });
+        str.set("match", new NativeFunction("match") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                return find(t, base, nargs, false);
+            }
+        });
+        str.set("gmatch", new NativeFunction("gmatch") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                String s = t.checkString(base, nargs, 0, "gmatch");
+                LuaPattern p = pattern(t.checkString(base, nargs, 1, "gmatch"));
+                boolean offsets = nargs > 2 && t.ref(base + 2) == Boolean.TRUE;
+                t.set(base, new GMatch(p.matcher(s), offsets));
+                return 1;
+            }
+        });
+        str.set("gsub", new NativeFunction("gsub") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                return gsub(t, base, nargs);
+            }
+        });
+        str.set("format", new NativeFunction("format") {
+            @Override public int call(LuaThread t, int base, int nargs) {
+                String fmt = t.checkString(base, nargs, 0, "format");
+                Object[] args = new Object[nargs - 1];
+                for (int i = 1; i < nargs; i++) {
+                    Object v = t.get(base + i);
+                    args[i - 1] = v == null || v instanceof Boolean || v instanceof String || v instanceof Number ? v : LuaValues.tostring(v);
+                }
+                try {
+                    t.set(base, lua.string.format(fmt, args));
+                } catch (IllegalArgumentException e) {
+                    throw new LuaError(e.getMessage());
+                }
+                return 1;
+            }
+        });
+        g.put("string", str);
+    }
+
+    /* ---------------- find / match ---------------- */
+
+    private static int find(LuaThread t, int base, int nargs, boolean find) {
+        String fname = find ? "find" : "match";
+        String s = t.checkString(base, nargs, 0, fname);
+        String pat = t.checkString(base, nargs, 1, fname);
+        long init = startIndex(optInt(t, base, nargs, 2, 1, fname), s.length());
+        if (init > s.length() + 1) {
+            t.set(base, null);
+            return 1;
+        }
+        int from = (int) init - 1;
+        if (find && (nargs > 3 && LuaValues.truthy(t.ref(base + 3)) || LuaPattern.isLiteral(pat))) {
+            int at = s.indexOf(pat, from);
+            if (at < 0) {
+                t.set(base, null);
+                return 1;
+            }
+            t.setNumber(base, at + 1);
+            t.setNumber(base + 1, at + pat.length());
+            return 2;
+        }
+        LuaPattern.Matcher m = pattern(pat).matcher(s);
+        if (!m.find(from)) {
+            t.set(base, null);
+            return 1;
+        }
+        if (!find) return pushCaptures(t, base, m, true);
+        t.setNumber(base, m.start() + 1);
+        t.setNumber(base + 1, m.end());
+        return 2 + pushCaptures(t, base + 2, m, false);
+    }
+
+    /** Captures of m's match at base..; with none, the whole match when whole is set. */
+    static int pushCaptures(LuaThread t, int base, LuaPattern.Matcher m, boolean whole) {
+        int n = m.groupCount();
+        if (n == 0) {
+            if (!whole) return 0;
+            t.ensureStack(base + 1);
+            t.set(base, m.subject().subSequence(m.start(), m.end()).toString());
+            return 1;
+        }
+        t.ensureStack(base + n);
+        for (int i = 1; i <= n; i++) {
+            if (m.isPosition(i)) t.setNumber(base + i - 1, m.start(i) + 1);
+            else t.set(base + i - 1, m.group(i));
+        }
+        return n;
+    }
+
+    /** The iterator gmatch returns; it remembers where the last match ended. */
+    private static final class GMatch extends NativeFunction {
+        private final LuaPattern.Matcher m;
+        private final boolean offsets;
+        private int at;
+        private int last = -1;
+
+        GMatch(LuaPattern.Matcher m, boolean offsets) {
+            super("gmatch_aux");
+            this.m = m;
+            this.offsets = offsets;
+        }
+
+        @Override public int call(LuaThread t, int base, int nargs) {
+            int len = m.subject().length();
+            for (; at <= len; at++) {
+                int e = m.matchAt(at);
+                if (e < 0 || e == last) continue;
+                at = last = e;
+                if (!offsets) return pushCaptures(t, base, m, true);
+                int n = Math.max(1, m.groupCount());
+                t.ensureStack(base + 2 * n);
+                for (int i = 0; i < n; i++) {
+                    int c = m.groupCount() == 0 ? 0 : i + 1;
+                    t.setNumber(base + 2 * i, m.start(c) + 1);
+                    t.setNumber(base + 2 * i + 1, m.end(c));
+                }
+                return 2 * n;
+            }
+            t.set(base, null);
+            return 1;
+        }
+    }
+
+    /* ---------------- gsub ---------------- */
+
+    private static int gsub(LuaThread t, int base, int nargs) {
+        String s = t.checkString(base, nargs, 0, "gsub");
+        LuaPattern p = pattern(t.checkString(base, nargs, 1, "gsub"));
+        if (nargs < 3) throw new LuaError("bad argument #3 to 'gsub' (string/function/table expected, got no value)");
+        Object repl = t.ref(base + 2);
+        String replText = repl == NUM ? LuaValues.numberToString(t.number(base + 2)) : repl instanceof String ? (String) repl : null;
+        if (replText == null && !(repl instanceof lua.table) && !LuaValues.type(repl).equals("function")) {
+            throw new LuaError("bad argument #3 to 'gsub' (string/function/table expected, got " + LuaValues.type(repl) + ")");
+        }
+        long max = nargs > 3 && t.ref(base + 3) != null ? (long) t.checkNumber(base, nargs, 3, "gsub") : Long.MAX_VALUE;
+        LuaPattern.Matcher m = p.matcher(s);
+        StringBuilder out = null;
+        int len = s.length();
+        int at = 0, last = -1, copied = 0;
+        long n = 0;
+        int scratch = base + nargs;
+        while (n < max) {
+            int e = m.matchAt(at);
+            if (e >= 0 && e != last) {
+                n++;
+                if (out == null) out = new StringBuilder(len + 16);
+                out.append(s, copied, at);
+                if (replText != null) {
+                    try {
+                        m.appendReplacement(out, replText);
+                    } catch (IllegalArgumentException bad) {
+                        throw new LuaError(bad.getMessage());
+                    }
+                } else {
+                    appendValue(t, scratch, m, repl, out);
+                }
+                at = last = copied = e;
+            } else if (at < len) {
+                at++;
+            } else {
+                break;
+            }
+            if (p.isAnchored()) break;
+        }
+        t.ensureStack(base + 2);
+        if (out == null) {
+            t.set(base, s);
+        } else {
+            out.append(s, copied, len);
+            t.set(base, out.toString());
+        }
+        t.setNumber(base + 1, n);
+        return 2;
+    }
+
+    /** The replacement for one match from a table (keyed by the first capture) or a function. */
+    private static void appendValue(LuaThread t, int scratch, LuaPattern.Matcher m, Object repl, StringBuilder out) {
+        if (repl instanceof lua.table) {
+            lua.table tbl = (lua.table) repl;
+            int pos;
+            if (m.groupCount() > 0 && m.isPosition(1)) pos = tbl.find((double) (m.start(1) + 1));
+            else pos = tbl.find((Object) String.valueOf(m.capture(1)));
+            t.ensureStack(scratch + 1);
+            t.load(scratch, tbl, pos);
+        } else {
+            t.ensureStack(scratch + 2);
+            t.set(scratch, repl);
+            int n = pushCaptures(t, scratch + 1, m, true);
+            t.call(scratch, n, 1);
+        }
+        Object v = t.ref(scratch);
+        if (v == null || v == Boolean.FALSE) {
+            out.append(m.subject(), m.start(), m.end());
+        } else if (v == NUM) {
+            out.append(LuaValues.numberToString(t.number(scratch)));
+        } else if (v instanceof String) {
+            out.append((String) v);
+        } else {
+            throw new LuaError("invalid replacement value (a " + LuaValues.type(v) + ")");
+        }
+        t.set(scratch, null);
+    }
+
+    /* ---------------- Helpers ---------------- */
+
+    private static LuaPattern pattern(String p) {
+        try {
+            return LuaPattern.compile(p);
+        } catch (IllegalArgumentException e) {
+            throw new LuaError(e.getMessage());
+        }
+    }
+
+    private static long optInt(LuaThread t, int base, int nargs, int i, long def, String fname) {
+        return nargs > i && t.ref(base + i) != null ? (long) t.checkNumber(base, nargs, i, fname) : def;
+    }
+
+    /** A 1-based start index: negative counts from the end, clamped to 1. */
+    private static long startIndex(long i, int len) {
+        if (i > 0) return i;
+        if (i == 0 || -i > len) return 1;
+        return len + i + 1;
+    }
+
+    /** A 1-based end index: negative counts from the end, clamped to len. */
+    private static long endIndex(long j, int len) {
+        if (j > len) return len;
+        if (j >= 0) return j;
+        if (-j > len) return 0;
+        return len + j + 1;
+    }
+}
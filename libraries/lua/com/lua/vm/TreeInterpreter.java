@@ -0,0 +1,383 @@
+package libraries.lua.com.lua.vm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import libraries.lua.com.lua.LuaAPIRegistry;
+import libraries.lua.com.lua.LuaFunctions;
+import libraries.lua.com.lua.lua;
+
+/**
+ * Straightforward tree-walking evaluator over the same syntax tree as {@link Compiler}.
+ *
+ * It is the baseline the bytecode VM is measured against: every number is a boxed Double,
+ * every scope is a HashMap and every global access hashes its name. It is not meant for
+ * production use.
+ */
+public final class TreeInterpreter {
+
+    /** A Java function callable from the baseline. */
+    public interface Builtin {
+        Object[] call(Object[] args);
+    }
+
+    private static final Object[] NONE = new Object[0];
+
+    private final HashMap<String, Object> globals = new HashMap<>();
+
+    public TreeInterpreter() {
+        globals.put("print", (Builtin) args -> {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) sb.append('\t');
+                sb.append(LuaValues.tostring(args[i]));
+            }
+            lua.print(sb.toString());
+            return NONE;
+        });
+        globals.put("tostring", (Builtin) args -> new Object[]{LuaValues.tostring(args.length > 0 ? args[0] : null)});
+        globals.put("type", (Builtin) args -> new Object[]{LuaValues.type(args.length > 0 ? args[0] : null)});
+        globals.put("ipairs", (Builtin) args -> new Object[]{(Builtin) a -> {
+            double i = (Double) a[1] + 1;
+            Object v = ((lua.table) a[0]).get(i);
+            return v == null ? new Object[]{null} : new Object[]{i, v};
+        }, args[0], 0.0});
+    }
+
+    /** Parse and run a chunk; returns its results. */
+    public Object[] exec(String source) {
+        return call(load(source), NONE);
+    }
+
+    /** Parse a chunk into a function value that {@link #call} can run repeatedly. */
+    public Object load(String source) {
+        return new Closure(Parser.parse(source, "chunk"), null);
+    }
+
+    public Object getGlobal(String name) {
+        return lookupGlobal(name);
+    }
+
+    /* ---------------- Runtime structures ---------------- */
+
+    private static final class Scope {
+        final Scope parent;
+        final HashMap<String, Object[]> vars = new HashMap<>();
+        Scope(Scope parent) { this.parent = parent; }
+
+        Object[] find(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                Object[] cell = s.vars.get(name);
+                if (cell != null) return cell;
+            }
+            return null;
+        }
+
+        void declare(String name, Object value) {
+            vars.put(name, new Object[]{value});
+        }
+    }
+
+    private static final class Closure {
+        final Ast.Function fn;
+        final Scope scope;
+        Closure(Ast.Function fn, Scope scope) { this.fn = fn; this.scope = scope; }
+    }
+
+    private static final class ReturnSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Object[] values;
+        ReturnSignal(Object[] values) {
+            super(null, null, false, false);
+            this.values = values;
+        }
+    }
+
+    private static final class BreakSignal extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final BreakSignal INSTANCE = new BreakSignal();
+        BreakSignal() { super(null, null, false, false); }
+    }
+
+    /* ---------------- Calls ---------------- */
+
+    private Object lookupGlobal(String name) {
+        Object v = globals.get(name);
+        if (v == null && !globals.containsKey(name)) {
+            v = LuaAPIRegistry.get(name);
+            globals.put(name, v);
+        }
+        return v;
+    }
+
+    public Object[] call(Object fn, Object... args) {
+        if (fn instanceof Closure) {
+            Closure c = (Closure) fn;
+            Scope scope = new Scope(c.scope);
+            List<String> params = c.fn.params;
+            for (int i = 0; i < params.size(); i++) scope.declare(params.get(i), i < args.length ? args[i] : null);
+            if (c.fn.vararg) {
+                Object[] rest = args.length > params.size() ? java.util.Arrays.copyOfRange(args, params.size(), args.length) : NONE;
+                scope.declare("...", rest);
+            }
+            try {
+                execBlock(c.fn.body, scope);
+            } catch (ReturnSignal r) {
+                return r.values;
+            }
+            return NONE;
+        }
+        if (fn instanceof Builtin) return ((Builtin) fn).call(args);
+        if (LuaFunctions.isFunction(fn)) {
+            Object r;
+            try {
+                r = LuaFunctions.invoke(fn, args);
+            } catch (IllegalArgumentException e) {
+                throw new LuaError(e.getMessage());
+            }
+            return fn instanceof LuaAPIRegistry.LuaFunction || fn instanceof LuaAPIRegistry.LongConsumer1 ? NONE : new Object[] {r};
+        }
+        throw new LuaError("attempt to call a " + LuaValues.type(fn) + " value");
+    }
+
+    /* ---------------- Statements ---------------- */
+
+    private void execBlock(Ast.Block b, Scope scope) {
+        for (Ast.Stat s : b.stats) exec(s, scope);
+    }
+
+    private void exec(Ast.Stat s, Scope scope) {
+        if (s instanceof Ast.Local) {
+            Ast.Local l = (Ast.Local) s;
+            Object[] vals = evalList(l.exps, scope);
+            for (int i = 0; i < l.names.size(); i++) scope.declare(l.names.get(i), i < vals.length ? vals[i] : null);
+        } else if (s instanceof Ast.Assign) {
+            Ast.Assign a = (Ast.Assign) s;
+            Object[] vals = evalList(a.exps, scope);
+            for (int i = 0; i < a.targets.size(); i++) assign(a.targets.get(i), i < vals.length ? vals[i] : null, scope);
+        } else if (s instanceof Ast.CallStat) {
+            evalMulti(((Ast.CallStat) s).call, scope);
+        } else if (s instanceof Ast.If) {
+            Ast.If f = (Ast.If) s;
+            for (int i = 0; i < f.conds.size(); i++) {
+                if (LuaValues.truthy(eval(f.conds.get(i), scope))) {
+                    execBlock(f.blocks.get(i), new Scope(scope));
+                    return;
+                }
+            }
+            if (f.orElse != null) execBlock(f.orElse, new Scope(scope));
+        } else if (s instanceof Ast.While) {
+            Ast.While w = (Ast.While) s;
+            try {
+                while (LuaValues.truthy(eval(w.cond, scope))) execBlock(w.block, new Scope(scope));
+            } catch (BreakSignal ignored) {}
+        } else if (s instanceof Ast.Repeat) {
+            Ast.Repeat r = (Ast.Repeat) s;
+            try {
+                while (true) {
+                    Scope inner = new Scope(scope);
+                    execBlock(r.block, inner);
+                    if (LuaValues.truthy(eval(r.cond, inner))) break;
+                }
+            } catch (BreakSignal ignored) {}
+        } else if (s instanceof Ast.NumFor) {
+            Ast.NumFor f = (Ast.NumFor) s;
+            double start = num(eval(f.start, scope));
+            double limit = num(eval(f.limit, scope));
+            double step = f.step != null ? num(eval(f.step, scope)) : 1;
+            try {
+                for (double i = start; step > 0 ? i <= limit : i >= limit; i += step) {
+                    Scope inner = new Scope(scope);
+                    inner.declare(f.var, i);
+                    execBlock(f.block, inner);
+                }
+            } catch (BreakSignal ignored) {}
+        } else if (s instanceof Ast.GenFor) {
+            Ast.GenFor f = (Ast.GenFor) s;
+            Object[] init = evalList(f.exps, scope);
+            Object fn = init.length > 0 ? init[0] : null;
+            Object state = init.length > 1 ? init[1] : null;
+            Object control = init.length > 2 ? init[2] : null;
+            try {
+                while (true) {
+                    Object[] r = call(fn, new Object[]{state, control});
+                    if (r.length == 0 || r[0] == null) break;
+                    control = r[0];
+                    Scope inner = new Scope(scope);
+                    for (int i = 0; i < f.names.size(); i++) inner.declare(f.names.get(i), i < r.length ? r[i] : null);
+                    execBlock(f.block, inner);
+                }
+            } catch (BreakSignal ignored) {}
+        } else if (s instanceof Ast.Do) {
+            execBlock(((Ast.Do) s).block, new Scope(scope));
+        } else if (s instanceof Ast.LocalFunction) {
+            Ast.LocalFunction lf = (Ast.LocalFunction) s;
+            scope.declare(lf.name, null);
+            scope.find(lf.name)[0] = new Closure(lf.fn, scope);
+        } else if (s instanceof Ast.Return) {
+            throw new ReturnSignal(evalList(((Ast.Return) s).exps, scope));
+        } else if (s instanceof Ast.Break) {
+            throw BreakSignal.INSTANCE;
+        }
+    }
+
+    private void assign(Ast.Exp target, Object value, Scope scope) {
+        if (target instanceof Ast.Name) {
+            String name = ((Ast.Name) target).name;
+            Object[] cell = scope.find(name);
+            if (cell != null) cell[0] = value;
+            else globals.put(name, value);
+            return;
+        }
+        Ast.Index idx = (Ast.Index) target;
+        Object obj = eval(idx.obj, scope);
+        Object key = eval(idx.key, scope);
+        if (!(obj instanceof lua.table)) throw new LuaError("attempt to index a " + LuaValues.type(obj) + " value");
+        if (value == null) ((lua.table) obj).remove(key);
+        else ((lua.table) obj).set(key, value);
+    }
+
+    /* ---------------- Expressions ---------------- */
+
+    private Object[] evalList(List<Ast.Exp> exps, Scope scope) {
+        if (exps.isEmpty()) return NONE;
+        List<Object> out = new ArrayList<>(exps.size());
+        for (int i = 0; i < exps.size(); i++) {
+            Ast.Exp e = exps.get(i);
+            if (i == exps.size() - 1 && Ast.isMulti(e)) Collections.addAll(out, evalMulti(e, scope));
+            else out.add(eval(e, scope));
+        }
+        return out.toArray();
+    }
+
+    private Object[] evalMulti(Ast.Exp e, Scope scope) {
+        if (e instanceof Ast.Vararg) return (Object[]) scope.find("...")[0];
+        if (e instanceof Ast.MethodCall) {
+            Ast.MethodCall mc = (Ast.MethodCall) e;
+            Object obj = eval(mc.obj, scope);
+            Object fn = index(obj, mc.method);
+            Object[] rest = evalList(mc.args, scope);
+            Object[] args = new Object[rest.length + 1];
+            args[0] = obj;
+            System.arraycopy(rest, 0, args, 1, rest.length);
+            return call(fn, args);
+        }
+        Ast.Call c = (Ast.Call) e;
+        Object fn = eval(c.fn, scope);
+        return call(fn, evalList(c.args, scope));
+    }
+
+    private Object eval(Ast.Exp e, Scope scope) {
+        if (e instanceof Ast.Num) return ((Ast.Num) e).value;
+        if (e instanceof Ast.Str) return ((Ast.Str) e).value;
+        if (e instanceof Ast.Nil) return null;
+        if (e instanceof Ast.True) return Boolean.TRUE;
+        if (e instanceof Ast.False) return Boolean.FALSE;
+        if (e instanceof Ast.Name) {
+            String name = ((Ast.Name) e).name;
+            Object[] cell = scope.find(name);
+            return cell != null ? cell[0] : lookupGlobal(name);
+        }
+        if (e instanceof Ast.Index) return index(eval(((Ast.Index) e).obj, scope), eval(((Ast.Index) e).key, scope));
+        if (e instanceof Ast.Paren) return eval(((Ast.Paren) e).exp, scope);
+        if (Ast.isMulti(e)) {
+            Object[] r = evalMulti(e, scope);
+            return r.length > 0 ? r[0] : null;
+        }
+        if (e instanceof Ast.Function) return new Closure((Ast.Function) e, scope);
+        if (e instanceof Ast.Table) {
+            Ast.Table t = (Ast.Table) e;
+            lua.table tbl = new lua.table();
+            double n = 1;
+            for (int i = 0; i < t.values.size(); i++) {
+                Ast.Exp k = t.keys.get(i);
+                if (k != null) {
+                    Object v = eval(t.values.get(i), scope);
+                    if (v != null) tbl.set(eval(k, scope), v);
+                } else if (i == t.values.size() - 1 && Ast.isMulti(t.values.get(i))) {
+                    for (Object v : evalMulti(t.values.get(i), scope)) tbl.set(n++, v);
+                } else {
+                    tbl.set(n++, eval(t.values.get(i), scope));
+                }
+            }
+            return tbl;
+        }
+        if (e instanceof Ast.UnOp) {
+            Ast.UnOp u = (Ast.UnOp) e;
+            Object v = eval(u.a, scope);
+            if (u.op == Lexer.NOT) return !LuaValues.truthy(v);
+            if (u.op == Lexer.MINUS) return -num(v);
+            if (v instanceof String) return (double) ((String) v).length();
+            if (v instanceof lua.table) return (double) ((lua.table) v).length();
+            throw new LuaError("attempt to get length of a " + LuaValues.type(v) + " value");
+        }
+        Ast.BinOp b = (Ast.BinOp) e;
+        if (b.op == Lexer.AND) {
+            Object l = eval(b.a, scope);
+            return LuaValues.truthy(l) ? eval(b.b, scope) : l;
+        }
+        if (b.op == Lexer.OR) {
+            Object l = eval(b.a, scope);
+            return LuaValues.truthy(l) ? l : eval(b.b, scope);
+        }
+        Object l = eval(b.a, scope);
+        Object r = eval(b.b, scope);
+        switch (b.op) {
+            case Lexer.PLUS: return num(l) + num(r);
+            case Lexer.MINUS: return num(l) - num(r);
+            case Lexer.STAR: return num(l) * num(r);
+            case Lexer.SLASH: return num(l) / num(r);
+            case Lexer.PERCENT: {
+                double x = num(l), y = num(r);
+                return x - Math.floor(x / y) * y;
+            }
+            case Lexer.CARET: return Math.pow(num(l), num(r));
+            case Lexer.CONCAT: return str(l) + str(r);
+            case Lexer.EQ: return LuaValues.rawEquals(l, r);
+            case Lexer.NE: return !LuaValues.rawEquals(l, r);
+            case Lexer.LT: return less(l, r, false);
+            case Lexer.LE: return less(l, r, true);
+            case Lexer.GT: return less(r, l, false);
+            default: return less(r, l, true);
+        }
+    }
+
+    private Object index(Object obj, Object key) {
+        if (obj instanceof lua.table) return ((lua.table) obj).get(key);
+        if (obj == null || obj instanceof Double || obj instanceof Boolean) {
+            throw new LuaError("attempt to index a " + LuaValues.type(obj) + " value");
+        }
+        return JavaBridge.index(obj, key);
+    }
+
+    private static double num(Object v) {
+        if (v instanceof Double) return (Double) v;
+        if (v instanceof Number) return ((Number) v).doubleValue();
+        if (v instanceof String) {
+            double d = LuaValues.parseNumber((String) v);
+            if (d == d) return d;
+        }
+        throw new LuaError("attempt to perform arithmetic on a " + LuaValues.type(v) + " value");
+    }
+
+    private static String str(Object v) {
+        if (v instanceof String) return (String) v;
+        if (v instanceof Number) return LuaValues.numberToString(((Number) v).doubleValue());
+        throw new LuaError("attempt to concatenate a " + LuaValues.type(v) + " value");
+    }
+
+    private static boolean less(Object a, Object b, boolean orEqual) {
+        if (a instanceof Number && b instanceof Number) {
+            double x = ((Number) a).doubleValue(), y = ((Number) b).doubleValue();
+            return orEqual ? x <= y : x < y;
+        }
+        if (a instanceof String && b instanceof String) {
+            int c = ((String) a).compareTo((String) b);
+            return orEqual ? c <= 0 : c < 0;
+        }
+        throw new LuaError("attempt to compare " + LuaValues.type(a) + " with " + LuaValues.type(b));
+    }
+}
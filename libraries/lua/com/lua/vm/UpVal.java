@@ -0,0 +1,27 @@
+package libraries.lua.com.lua.vm;
+
+/**
+ * A captured local. While open it aliases a register of a live frame; when that frame
+ * exits (or its block closes) the value is copied in and the upvalue becomes closed.
+ */
+final class UpVal {
+
+    /** Owning thread while open, null once closed. */
+    LuaThread thread;
+    int index;
+    Object value;
+    double num;
+    /** Next open upvalue at a lower register index. */
+    UpVal next;
+
+    UpVal(LuaThread thread, int index) {
+        this.thread = thread;
+        this.index = index;
+    }
+
+    void close() {
+        value = thread.stack[index];
+        num = thread.nstack[index];
+        thread = null;
+    }
+}
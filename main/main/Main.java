@@ -1,36 +1,43 @@
 package main;
 
+import libraries.lua.com.lua.Log;
 import libraries.lua.com.lua.LuaAPIRegistry;
+import libraries.lua.com.lua.lua;
+import libraries.lua.com.lua.vm.LuaVM;
+import modules.Module;
+import modules.ModuleLoader;
 import modules.mainmodule;
 
-import static libraries.lua.com.lua.lua.*;
-
 public class Main {
     public static void main(String[] args) {
         mainmodule mainmodule = new mainmodule();
-        try {
-            System.out.println("loading config...");
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            e.fillInStackTrace();
-        }
-        try {
-            mainmodule.configLoad();
-        } catch (Exception e) {
-            e.printStackTrace();
-            e.fillInStackTrace();
-        }
-        try {
-            table table = new table();
-        } catch (Exception e) {
-            e.printStackTrace();
-            e.fillInStackTrace();
-        }
-        try {
-            LuaAPIRegistry.registerMinecraftAPIs();
-        } catch (Exception e) {e.printStackTrace();}
+        System.out.println("loading config...");
+        ModuleLoader.Timeline timeline = new ModuleLoader()
+                .add(mainmodule)
+                .add(Module.of("minecraft-apis", LuaAPIRegistry::registerMinecraftAPIs))
+                .add(Module.of("chat-bus", LuaAPIRegistry::registerBusAPI))
+                .start();
+        for (ModuleLoader.Entry e : timeline.failed()) System.err.println("module " + e.name() + " " + e.status() + ": " + e.error());
+        // -Dlua.startup.timeline=true prints where startup time went
+        Log.Logger log = Log.logger("lua.startup");
+        if (Boolean.getBoolean("lua.startup.timeline")) log.info(timeline.format());
+        else if (log.isEnabled(Log.Level.DEBUG)) log.debug(timeline.format());
         mainmodule.sayHello();
-        System.out.println(String.valueOf(mainmodule.testboolean));
+        System.out.println(String.valueOf(mainmodule.getBoolean("testboolean", false)));
+        if (args.length > 0 && args[0].equals("--cds-train")) train();
+    }
+
+    /**
+     * The AppCDS training run (appcds.sh / appcds.bat): touches what a server uses after boot (the
+     * script APIs, the VM and compiler, chat) so their classes land in the archive too.
+     */
+    private static void train() {
+        LuaAPIRegistry.registerBuiltin();
+        LuaVM vm = new LuaVM();
+        vm.exec("local t = {} for i = 1, 100 do t[i] = tostring(i) .. ':' .. i * 2 end "
+                + "local co = coroutine.create(function(n) coroutine.yield(n + 1) return #t end) "
+                + "local ok, v = coroutine.resume(co, 1) return string.format('%d %d', v, select(2, coroutine.resume(co)))");
+        lua.chat("cds training run");
+        lua.chatPipeline().flush();
     }
-}
\ No newline at end of file
+}
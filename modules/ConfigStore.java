@@ -0,0 +1,327 @@
+package modules;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Typed configuration backed by immutable snapshots.
+ *
+ * - Keys are compiled once (intKey, doubleKey, ...) into an index into the primitive arrays of
+ *   each snapshot; key.get() is a volatile read plus an array load: no lock, no boxing, no parsing.
+ * - Values are parsed when a snapshot is built, never on read. A value that does not parse as the
+ *   key's type reads as the key's default.
+ * - watch(file) reloads on change through a WatchService and publishes the new snapshot with one
+ *   volatile write; listeners are then told which keys changed (on the watcher thread).
+ */
+public final class ConfigStore {
+
+    /** Called after a new snapshot is published. */
+    public interface Listener {
+        void changed(Set<String> keys, Snapshot snapshot);
+    }
+
+    private volatile Snapshot current = new Snapshot(Collections.emptyMap(), new ArrayList<>());
+    private final List<Key> keys = new ArrayList<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private WatchService watchService;
+
+    /* ---------------- Loading ---------------- */
+
+    /** Load a classpath resource (e.g. "/config.properties"); false if it does not exist. */
+    public boolean loadResource(String name) throws IOException {
+        try (InputStream in = ConfigStore.class.getResourceAsStream(name)) {
+            if (in == null) return false;
+            Properties props = new Properties();
+            props.load(in);
+            publish(props);
+            return true;
+        }
+    }
+
+    /** Load a properties file from disk. */
+    public void loadFile(Path file) throws IOException {
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Properties props = new Properties();
+            props.load(r);
+            publish(props);
+        }
+    }
+
+    /** Load file now and reload it whenever it changes, until close(). */
+    public synchronized void watch(Path file) throws IOException {
+        Path target = file.toAbsolutePath();
+        loadFile(target);
+        close();
+        WatchService ws = FileSystems.getDefault().newWatchService();
+        target.getParent().register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = ws;
+        Thread t = new Thread(() -> watchLoop(ws, target), "config-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Stop watching. */
+    public synchronized void close() {
+        WatchService ws = watchService;
+        watchService = null;
+        if (ws != null) {
+            try { ws.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void watchLoop(WatchService ws, Path target) {
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                boolean hit = false;
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (target.getFileName().equals(e.context())) hit = true;
+                }
+                key.reset();
+                if (!hit) continue;
+                Thread.sleep(50); // editors often write a file in several steps
+                try {
+                    loadFile(target);
+                } catch (IOException e) {
+                    System.err.println("Config reload failed: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException stopped) {
+            // close() or shutdown
+        }
+    }
+
+    public void addListener(Listener l) { listeners.add(l); }
+    public void removeListener(Listener l) { listeners.remove(l); }
+
+    /* ---------------- Keys ---------------- */
+
+    public IntKey intKey(String name, int def) { return register(new IntKey(this, name, def)); }
+    public LongKey longKey(String name, long def) { return register(new LongKey(this, name, def)); }
+    public DoubleKey doubleKey(String name, double def) { return register(new DoubleKey(this, name, def)); }
+    public BoolKey boolKey(String name, boolean def) { return register(new BoolKey(this, name, def)); }
+    public StringKey stringKey(String name, String def) { return register(new StringKey(this, name, def)); }
+
+    /** Add the key and republish, so every snapshot a caller can see has a slot for it. */
+    private synchronized <K extends Key> K register(K key) {
+        key.index = keys.size();
+        keys.add(key);
+        current = new Snapshot(current.raw, keys);
+        return key;
+    }
+
+    /** The current snapshot; it never changes. */
+    public Snapshot snapshot() { return current; }
+
+    private void publish(Properties props) {
+        Map<String, String> raw = new HashMap<>();
+        for (String name : props.stringPropertyNames()) raw.put(name, props.getProperty(name));
+        Snapshot old, next;
+        synchronized (this) {
+            old = current;
+            if (old.raw.equals(raw)) return;
+            next = new Snapshot(raw, keys);
+            current = next;
+        }
+        Set<String> changed = new HashSet<>();
+        for (String k : raw.keySet()) if (!raw.get(k).equals(old.raw.get(k))) changed.add(k);
+        for (String k : old.raw.keySet()) if (!raw.containsKey(k)) changed.add(k);
+        Set<String> view = Collections.unmodifiableSet(changed);
+        for (Listener l : listeners) {
+            try {
+                l.changed(view, next);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /* ---------------- Snapshots ---------------- */
+
+    /**
+     * One immutable version of the configuration. Compiled keys are read from the primitive
+     * arrays; lookups by name go through pre-parsed entries.
+     */
+    public static final class Snapshot {
+        final Map<String, String> raw;
+        final Map<String, Entry> entries;
+        final Map<String, Object> values;
+        final long[] longs;
+        final double[] doubles;
+        final Object[] refs;
+
+        Snapshot(Map<String, String> raw, List<Key> keys) {
+            this.raw = raw;
+            HashMap<String, Entry> e = new HashMap<>();
+            HashMap<String, Object> v = new HashMap<>();
+            for (Map.Entry<String, String> p : raw.entrySet()) {
+                Entry entry = new Entry(p.getValue());
+                e.put(p.getKey(), entry);
+                v.put(p.getKey(), entry.value);
+            }
+            entries = e;
+            values = Collections.unmodifiableMap(v);
+            longs = new long[keys.size()];
+            doubles = new double[keys.size()];
+            refs = new Object[keys.size()];
+            for (Key k : keys) k.fill(this, entries.get(k.name));
+        }
+
+        public String getString(String key) {
+            Entry e = entries.get(key);
+            return e != null ? e.text : null;
+        }
+
+        public int getInt(String key, int def) {
+            Entry e = entries.get(key);
+            return e != null && e.isInt ? (int) e.asLong : def;
+        }
+
+        public long getLong(String key, long def) {
+            Entry e = entries.get(key);
+            return e != null && e.isNumber ? e.asLong : def;
+        }
+
+        public double getDouble(String key, double def) {
+            Entry e = entries.get(key);
+            return e != null && e.isNumber ? e.asDouble : def;
+        }
+
+        public boolean getBoolean(String key, boolean def) {
+            Entry e = entries.get(key);
+            return e != null ? e.asBoolean : def; // like Boolean.parseBoolean: other text is false
+        }
+
+        /** The value guessed from its text: Boolean, Integer, Double or String. */
+        public Object get(String key) {
+            Entry e = entries.get(key);
+            return e != null ? e.value : null;
+        }
+
+        /** All values, typed as by get(); unmodifiable. */
+        public Map<String, Object> asMap() { return values; }
+    }
+
+    /** A property parsed every way a reader might ask for it. */
+    static final class Entry {
+        final String text;
+        final Object value;
+        final boolean isNumber, isBoolean, asBoolean;
+        /** A number whose integer part fits an int. */
+        final boolean isInt;
+        final long asLong;
+        final double asDouble;
+
+        Entry(String text) {
+            this.text = text;
+            String t = text.trim();
+            isBoolean = t.equalsIgnoreCase("true") || t.equalsIgnoreCase("false");
+            asBoolean = t.equalsIgnoreCase("true");
+            double d = Double.NaN;
+            long l = 0;
+            boolean num = false, integral = false;
+            try {
+                l = Long.parseLong(t);
+                d = l;
+                num = integral = true;
+            } catch (NumberFormatException notLong) {
+                try {
+                    d = Double.parseDouble(t);
+                    l = (long) d;
+                    num = true;
+                } catch (NumberFormatException notNumber) {
+                    // stays text
+                }
+            }
+            isNumber = num;
+            isInt = num && l == (int) l && d >= Long.MIN_VALUE && d <= Long.MAX_VALUE;
+            asLong = l;
+            asDouble = d;
+            // same guesses mainmodule always made: boolean, then "." means double, then int
+            if (isBoolean) value = asBoolean;
+            else if (num && t.indexOf('.') >= 0) value = d;
+            else if (integral && l == (int) l) value = (int) l;
+            else value = text;
+        }
+    }
+
+    /* ---------------- Typed keys ---------------- */
+
+    /** A compiled key: its value lives at a fixed index in every snapshot of its store. */
+    public abstract static class Key {
+        final ConfigStore store;
+        final String name;
+        int index;
+
+        Key(ConfigStore store, String name) {
+            this.store = store;
+            this.name = name;
+        }
+
+        public String name() { return name; }
+
+        /** Whether the current snapshot has a value for this key at all. */
+        public boolean isSet() { return store.current.raw.containsKey(name); }
+
+        abstract void fill(Snapshot s, Entry e);
+    }
+
+    public static final class IntKey extends Key {
+        final int def;
+        IntKey(ConfigStore store, String name, int def) { super(store, name); this.def = def; }
+        @Override void fill(Snapshot s, Entry e) { s.longs[index] = e != null && e.isInt ? (int) e.asLong : def; }
+        public int get() { return (int) store.current.longs[index]; }
+        public int get(Snapshot s) { return (int) s.longs[index]; }
+    }
+
+    public static final class LongKey extends Key {
+        final long def;
+        LongKey(ConfigStore store, String name, long def) { super(store, name); this.def = def; }
+        @Override void fill(Snapshot s, Entry e) { s.longs[index] = e != null && e.isNumber ? e.asLong : def; }
+        public long get() { return store.current.longs[index]; }
+        public long get(Snapshot s) { return s.longs[index]; }
+    }
+
+    public static final class DoubleKey extends Key {
+        final double def;
+        DoubleKey(ConfigStore store, String name, double def) { super(store, name); this.def = def; }
+        @Override void fill(Snapshot s, Entry e) { s.doubles[index] = e != null && e.isNumber ? e.asDouble : def; }
+        public double get() { return store.current.doubles[index]; }
+        public double get(Snapshot s) { return s.doubles[index]; }
+    }
+
+    public static final class BoolKey extends Key {
+        final boolean def;
+        BoolKey(ConfigStore store, String name, boolean def) { super(store, name); this.def = def; }
+        @Override void fill(Snapshot s, Entry e) { s.longs[index] = (e != null ? e.asBoolean : def) ? 1 : 0; }
+        public boolean get() { return store.current.longs[index] != 0; }
+        public boolean get(Snapshot s) { return s.longs[index] != 0; }
+    }
+
+    public static final class StringKey extends Key {
+        final String def;
+        StringKey(ConfigStore store, String name, String def) { super(store, name); this.def = def; }
+        @Override void fill(Snapshot s, Entry e) { s.refs[index] = e != null ? e.text : def; }
+        public String get() { return (String) store.current.refs[index]; }
+        public String get(Snapshot s) { return (String) s.refs[index]; }
+    }
+}
@@ -0,0 +1,37 @@
+package modules;
+
+import java.util.List;
+
+/**
+ * A unit of startup work for {@link ModuleLoader}: a name, the modules it needs started first,
+ * and start().
+ *
+ * Example:
+ *   loader.add(Module.of("minecraft-apis", LuaAPIRegistry::registerMinecraftAPIs, "lua"));
+ */
+public interface Module {
+
+    String name();
+
+    /** Names of the modules that must have started before this one. */
+    default List<String> dependencies() { return List.of(); }
+
+    /** Called once, on a loader thread, after every dependency started. */
+    void start() throws Exception;
+
+    /** Startup work that may throw. */
+    interface Action {
+        void run() throws Exception;
+    }
+
+    /** A module that runs start once its dependencies have started. */
+    static Module of(String name, Action start, String... dependencies) {
+        List<String> deps = List.of(dependencies);
+        return new Module() {
+            @Override public String name() { return name; }
+            @Override public List<String> dependencies() { return deps; }
+            @Override public void start() throws Exception { start.run(); }
+            @Override public String toString() { return name; }
+        };
+    }
+}
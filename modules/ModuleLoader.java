@@ -0,0 +1,235 @@
+package modules;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts {@link Module}s in dependency order, independent ones in parallel.
+ *
+ * - start() checks the graph first (unknown dependencies and cycles throw IllegalStateException
+ *   before anything runs), then runs each module on a fork-join pool as soon as all of its
+ *   dependencies have started. -Dlua.modules.threads sets the pool size (default: CPUs); with 1
+ *   the modules run one after another on the calling thread.
+ * - A module that throws an Exception or LinkageError is FAILED; modules depending on it are
+ *   SKIPPED. The others still start. Other Errors are rethrown by start() after the rest has run.
+ * - start() returns a {@link Timeline}: when each module started and finished, on which thread.
+ *
+ * Example:
+ *   Timeline t = new ModuleLoader().add(config).add(Module.of("apis", Registry::init, "config")).start();
+ *   System.out.print(t.format());
+ */
+public final class ModuleLoader {
+
+    private final LinkedHashMap<String, Module> modules = new LinkedHashMap<>();
+
+    public ModuleLoader add(Module m) {
+        if (modules.putIfAbsent(m.name(), m) != null) throw new IllegalArgumentException("duplicate module " + m.name());
+        return this;
+    }
+
+    /** Start every module and wait for all of them; see the class comment. */
+    public Timeline start() {
+        List<Module> order = order();
+        long t0 = System.nanoTime();
+        Map<String, Task> tasks = new HashMap<>();
+        List<Task> roots = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(order.size());
+        for (Module m : order) {
+            Task t = new Task(m, t0, done);
+            tasks.put(m.name(), t);
+            for (String d : m.dependencies()) tasks.get(d).dependents.add(t);
+            if (t.waiting.get() == 0) roots.add(t);
+        }
+        int threads = Math.max(1, Integer.getInteger("lua.modules.threads", Runtime.getRuntime().availableProcessors()));
+        if (threads == 1) {
+            // a pool would only add thread start-up to a serial run
+            for (Module m : order) {
+                try {
+                    tasks.get(m.name()).compute();
+                } catch (Error e) {
+                    // kept in the task; rethrown below once the rest has run
+                }
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                private final AtomicInteger next = new AtomicInteger();
+                @Override public ForkJoinWorkerThread newThread(ForkJoinPool p) {
+                    ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                    t.setName("module-loader-" + next.incrementAndGet());
+                    return t;
+                }
+            }, null, false);
+            try {
+                for (Task t : roots) pool.execute(t);
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while starting modules", e);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        List<Entry> entries = new ArrayList<>();
+        for (Module m : order) {
+            Task t = tasks.get(m.name());
+            if (t.error != null) throw t.error;
+            entries.add(t.entry);
+        }
+        return new Timeline(entries, System.nanoTime() - t0);
+    }
+
+    /** Runs one module, then forks each dependent whose last dependency this was. */
+    private static final class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Module module;
+        final long t0;
+        final CountDownLatch done;
+        final AtomicInteger waiting;
+        final List<Task> dependents = new ArrayList<>();
+        volatile String blockedBy; // a dependency that did not start
+        Entry entry;
+        Error error;
+
+        Task(Module module, long t0, CountDownLatch done) {
+            this.module = module;
+            this.t0 = t0;
+            this.done = done;
+            this.waiting = new AtomicInteger(module.dependencies().size());
+        }
+
+        @Override protected void compute() {
+            String blocked = blockedBy;
+            try {
+                entry = blocked != null ? new Entry(module.name(), Status.SKIPPED, "needs " + blocked, t0) : run(module, t0);
+            } catch (Error e) {
+                error = e; // start() rethrows it once every module has run
+                throw e;
+            } finally {
+                // even on an Error, so start() is never left waiting
+                if (entry == null) entry = new Entry(module.name(), Status.FAILED, "aborted", t0);
+                for (Task d : dependents) {
+                    if (entry.status != Status.STARTED) d.blockedBy = module.name();
+                    if (d.waiting.decrementAndGet() == 0 && inForkJoinPool()) d.fork();
+                }
+                done.countDown();
+            }
+        }
+    }
+
+    private static Entry run(Module m, long t0) {
+        Entry e = new Entry(m.name(), Status.STARTED, null, t0);
+        e.thread = Thread.currentThread().getName();
+        e.begin = System.nanoTime() - t0;
+        try {
+            m.start();
+        } catch (Exception | LinkageError ex) {
+            e.status = Status.FAILED;
+            e.error = String.valueOf(ex);
+        }
+        e.end = System.nanoTime() - t0;
+        return e;
+    }
+
+    /** Modules in an order where every module comes after its dependencies (Kahn's algorithm). */
+    private List<Module> order() {
+        Map<String, Integer> waiting = new HashMap<>();
+        Map<String, List<Module>> dependents = new HashMap<>();
+        for (Module m : modules.values()) {
+            waiting.put(m.name(), m.dependencies().size());
+            for (String d : m.dependencies()) {
+                if (!modules.containsKey(d)) throw new IllegalStateException("module " + m.name() + " needs unknown module " + d);
+                dependents.computeIfAbsent(d, k -> new ArrayList<>()).add(m);
+            }
+        }
+        List<Module> out = new ArrayList<>();
+        for (Module m : modules.values()) if (waiting.get(m.name()) == 0) out.add(m);
+        for (int i = 0; i < out.size(); i++) {
+            for (Module next : dependents.getOrDefault(out.get(i).name(), List.of())) {
+                if (waiting.merge(next.name(), -1, Integer::sum) == 0) out.add(next);
+            }
+        }
+        if (out.size() < modules.size()) {
+            List<String> cycle = new ArrayList<>();
+            for (Map.Entry<String, Integer> w : waiting.entrySet()) if (w.getValue() > 0) cycle.add(w.getKey());
+            throw new IllegalStateException("module dependency cycle among " + cycle);
+        }
+        return out;
+    }
+
+    /* ---------------- Timeline ---------------- */
+
+    public enum Status { STARTED, FAILED, SKIPPED }
+
+    /** How one module's start went; times are nanoseconds since start() began. */
+    public static final class Entry {
+        final String name;
+        Status status;
+        String error;
+        String thread = "-";
+        long begin;
+        long end;
+
+        Entry(String name, Status status, String error, long t0) {
+            this.name = name;
+            this.status = status;
+            this.error = error;
+            this.begin = this.end = System.nanoTime() - t0;
+        }
+
+        public String name() { return name; }
+        public Status status() { return status; }
+        /** What the module threw (FAILED) or which dependency did not start (SKIPPED). */
+        public String error() { return error; }
+        public String thread() { return thread; }
+        public long beginNanos() { return begin; }
+        public long nanos() { return end - begin; }
+    }
+
+    /** Where startup time went. */
+    public static final class Timeline {
+        private final List<Entry> entries;
+        private final long totalNanos;
+
+        Timeline(List<Entry> entries, long totalNanos) {
+            this.entries = entries;
+            this.totalNanos = totalNanos;
+        }
+
+        public List<Entry> entries() { return entries; }
+        public long totalNanos() { return totalNanos; }
+
+        public List<Entry> failed() {
+            List<Entry> out = new ArrayList<>();
+            for (Entry e : entries) if (e.status != Status.STARTED) out.add(e);
+            return out;
+        }
+
+        /** One line per module with its span drawn on a 40-column bar, in start order. */
+        public String format() {
+            List<Entry> sorted = new ArrayList<>(entries);
+            sorted.sort((a, b) -> Long.compare(a.begin, b.begin));
+            double scale = 40.0 / Math.max(1, totalNanos);
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "startup: modules %.1f ms%n", totalNanos / 1e6));
+            for (Entry e : sorted) {
+                int from = (int) (e.begin * scale), to = Math.max(from + 1, (int) Math.ceil(e.end * scale));
+                sb.append(String.format(Locale.ROOT, "  %-16s %8.1f ms %8.1f ms  |%-40s|  %s%s%n", e.name, e.begin / 1e6, e.nanos() / 1e6,
+                        " ".repeat(from) + "#".repeat(Math.min(40, to) - from), e.status == Status.STARTED ? e.thread : e.status,
+                        e.error != null ? " (" + e.error + ")" : ""));
+            }
+            return sb.toString();
+        }
+
+        @Override public String toString() { return format(); }
+    }
+}
@@ -1,28 +1,32 @@
 package modules;
 
-import java.io.InputStream;
-import java.util.HashMap;
+import java.nio.file.Path;
 import java.util.Map;
-import java.util.Properties;
+import libraries.lua.com.lua.Log;
 
-public class mainmodule {
+/** The configuration module: loads config.properties when started (see {@link ModuleLoader}). */
+public class mainmodule implements Module {
 
-    private final Map<String, Object> config = new HashMap<>();
+    private final ConfigStore config = new ConfigStore();
+
+    public mainmodule() {
+        // lua.log.* settings follow the config, including hot reloads
+        config.addListener((keys, snapshot) -> Log.configure(snapshot.asMap()));
+    }
+
+    @Override public String name() { return "config"; }
+
+    @Override public void start() {
+        configLoad();
+    }
 
     public void sayHello() {
         System.out.println("Hello from Module!");
     }
 
     public void configLoad() {
-        try (InputStream in = mainmodule.class.getResourceAsStream("/config.properties")) {
-            if (in != null) {
-                Properties props = new Properties();
-                props.load(in);
-                for (String key : props.stringPropertyNames()) {
-                    String value = props.getProperty(key);
-                    config.put(key, parseValue(value));
-                }
-            } else {
+        try {
+            if (!config.loadResource("/config.properties")) {
                 System.err.println("Config file not found!");
             }
         } catch (Exception e) {
@@ -30,46 +34,42 @@ public class mainmodule {
         }
     }
 
-    private Object parseValue(String value) {
-        if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
-            return Boolean.parseBoolean(value);
-        }
+    /** Load config from a file and reload it whenever the file changes. */
+    public void configWatch(Path file) {
         try {
-            if (value.contains(".")) return Double.parseDouble(value);
-            return Integer.parseInt(value);
-        } catch (NumberFormatException ignored) {
+            config.watch(file);
+        } catch (Exception e) {
+            e.printStackTrace();
         }
-        return value;
+    }
+
+    /** The typed store behind this module; compile hot-path keys with config().intKey(...) etc. */
+    public ConfigStore config() {
+        return config;
     }
 
     public Object get(String key) {
-        return config.get(key);
+        return config.snapshot().get(key);
     }
 
     public String getString(String key) {
-        Object val = config.get(key);
-        return val != null ? val.toString() : null;
+        return config.snapshot().getString(key);
     }
 
     public int getInt(String key, int defaultValue) {
-        Object val = config.get(key);
-        if (val instanceof Number) return ((Number) val).intValue();
-        try { return Integer.parseInt(val.toString()); } catch (Exception e) { return defaultValue; }
+        return config.snapshot().getInt(key, defaultValue);
     }
 
     public double getDouble(String key, double defaultValue) {
-        Object val = config.get(key);
-        if (val instanceof Number) return ((Number) val).doubleValue();
-        try { return Double.parseDouble(val.toString()); } catch (Exception e) { return defaultValue; }
+        return config.snapshot().getDouble(key, defaultValue);
     }
 
     public boolean getBoolean(String key, boolean defaultValue) {
-        Object val = config.get(key);
-        if (val instanceof Boolean) return (Boolean) val;
-        try { return Boolean.parseBoolean(val.toString()); } catch (Exception e) { return defaultValue; }
+        return config.snapshot().getBoolean(key, defaultValue);
     }
 
+    /** All values of the current snapshot (unmodifiable; a reload publishes a new map). */
     public Map<String, Object> getAllConfig() {
-        return new HashMap<>(config);
+        return config.snapshot().asMap();
     }
 }